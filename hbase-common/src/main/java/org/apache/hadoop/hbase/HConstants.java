@@ -164,6 +164,12 @@ public final class HConstants {
   /** Default value for ZooKeeper session timeout */
   public static final int DEFAULT_ZK_SESSION_TIMEOUT = 180 * 1000;
 
+  /**
+   * Configuration key for whether to batch ZooKeeper operations with multi;
+   * needs a 3.4 or later ensemble
+   */
+  public static final String ZOOKEEPER_USEMULTI = "hbase.zookeeper.useMulti";
+
   /** Parameter name for port region server listens on. */
   public static final String REGIONSERVER_PORT = "hbase.regionserver.port";
 
@@ -326,6 +332,27 @@ public final class HConstants {
   /** The upper-half split region column qualifier */
   public static final byte [] SPLITB_QUALIFIER = Bytes.toBytes("splitB");
 
+  /**
+   * The first of the regions merged into a region, kept until the merged
+   * region no longer holds references to their files
+   */
+  public static final byte [] MERGEA_QUALIFIER = Bytes.toBytes("mergeA");
+
+  /** The second of the regions merged into a region */
+  public static final byte [] MERGEB_QUALIFIER = Bytes.toBytes("mergeB");
+
+  /**
+   * The region in transition column qualifier.  Only written when region
+   * assignment does not go through zookeeper; see {@link #ASSIGNMENT_USE_ZK_KEY}.
+   */
+  public static final byte [] TRANSITION_QUALIFIER = Bytes.toBytes("transition");
+
+  /**
+   * The favored nodes column qualifier.  Only written when
+   * {@link #FAVORED_NODES_ENABLED_KEY} is set.
+   */
+  public static final byte [] FAVOREDNODES_QUALIFIER = Bytes.toBytes("favorednodes");
+
   /**
    * The meta table version column qualifier.
    * We keep current version of the meta table in this column in <code>-ROOT-</code>
@@ -642,10 +669,35 @@ public final class HConstants {
 
   public static final String LOCALHOST_IP = "127.0.0.1";
 
+  /**
+   * Conf key for whether region assignment goes through the unassigned znodes
+   * in zookeeper.  If false, region servers report region transitions to the
+   * master over RPC and the master keeps them in <code>.META.</code>.
+   */
+  public static final String ASSIGNMENT_USE_ZK_KEY = "hbase.assignment.usezk";
+  public static final boolean DEFAULT_ASSIGNMENT_USE_ZK = true;
+
   /** Conf key that enables distributed log splitting */
   public static final String DISTRIBUTED_LOG_SPLITTING_KEY =
       "hbase.master.distributed.log.splitting";
 
+  /**
+   * Conf key that makes distributed log splitting replay the edits of user
+   * regions directly into their new servers instead of writing recovered.edits
+   */
+  public static final String DISTRIBUTED_LOG_REPLAY_KEY =
+      "hbase.master.distributed.log.replay";
+  public static final boolean DEFAULT_DISTRIBUTED_LOG_REPLAY = false;
+
+  /**
+   * Conf key that has the master give each user region three favored servers,
+   * kept in <code>.META.</code>, that the region's HFile blocks are written to
+   * and that the region is preferably assigned to.
+   */
+  public static final String FAVORED_NODES_ENABLED_KEY =
+      "hbase.master.favorednodes.enabled";
+  public static final boolean DEFAULT_FAVORED_NODES_ENABLED = false;
+
   /**
    * The name of the configuration parameter that specifies
    * the number of bytes in a newly created checksum chunk.
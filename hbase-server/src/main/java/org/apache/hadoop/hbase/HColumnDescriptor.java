@@ -92,6 +92,18 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
   public static final String LENGTH = "LENGTH";
   public static final String TTL = "TTL";
   public static final String BLOOMFILTER = "BLOOMFILTER";
+  /**
+   * Length of the row prefix the Bloom filter is keyed on when
+   * {@link #BLOOMFILTER} is ROWPREFIX_FIXED_LENGTH.
+   */
+  public static final String BLOOMFILTER_PREFIX_LENGTH =
+    "BLOOMFILTER_PREFIX_LENGTH";
+  /**
+   * Delimiter ending the row prefix the Bloom filter is keyed on when
+   * {@link #BLOOMFILTER} is ROWPREFIX_DELIMITED.
+   */
+  public static final String BLOOMFILTER_PREFIX_DELIMITER =
+    "BLOOMFILTER_PREFIX_DELIMITER";
   public static final String FOREVER = "FOREVER";
   public static final String REPLICATION_SCOPE = "REPLICATION_SCOPE";
   public static final String MIN_VERSIONS = "MIN_VERSIONS";
@@ -791,6 +803,45 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
     return setValue(BLOOMFILTER, bt.toString());
   }
 
+  /**
+   * @return length of the row prefix a ROWPREFIX_FIXED_LENGTH Bloom filter
+   * is keyed on, or 0 if not set
+   */
+  public int getBloomFilterPrefixLength() {
+    String value = getValue(BLOOMFILTER_PREFIX_LENGTH);
+    return (value != null)? Integer.valueOf(value).intValue(): 0;
+  }
+
+  /**
+   * Rows shorter than the prefix are added to the Bloom filter whole.
+   * @param length length of the row prefix a ROWPREFIX_FIXED_LENGTH Bloom
+   * filter is keyed on
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setBloomFilterPrefixLength(int length) {
+    return setValue(BLOOMFILTER_PREFIX_LENGTH, Integer.toString(length));
+  }
+
+  /**
+   * @return delimiter ending the row prefix a ROWPREFIX_DELIMITED Bloom filter
+   * is keyed on, or null if not set
+   */
+  public String getBloomFilterPrefixDelimiter() {
+    return getValue(BLOOMFILTER_PREFIX_DELIMITER);
+  }
+
+  /**
+   * The prefix runs up to and including the first occurrence of the
+   * delimiter in the row; rows without it are added to the Bloom filter
+   * whole.
+   * @param delimiter delimiter ending the row prefix a ROWPREFIX_DELIMITED
+   * Bloom filter is keyed on
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setBloomFilterPrefixDelimiter(String delimiter) {
+    return setValue(BLOOMFILTER_PREFIX_DELIMITER, delimiter);
+  }
+
    /**
     * @return the scope tag
     */
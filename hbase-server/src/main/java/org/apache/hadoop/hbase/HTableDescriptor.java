@@ -146,6 +146,17 @@ public class HTableDescriptor implements WritableComparable<HTableDescriptor> {
   private static final ImmutableBytesWritable DEFERRED_LOG_FLUSH_KEY =
     new ImmutableBytesWritable(Bytes.toBytes(DEFERRED_LOG_FLUSH));
 
+  /**
+   * <em>INTERNAL</em> Used by HBase Shell interface to access this metadata
+   * attribute which holds how long, in milliseconds, an increment waits for
+   * concurrent increments of the same row to be applied along with it
+   *
+   * @see #getIncrementCoalesceWindow()
+   */
+  public static final String INCREMENT_COALESCE_WINDOW = "INCREMENT_COALESCE_WINDOW";
+  private static final ImmutableBytesWritable INCREMENT_COALESCE_WINDOW_KEY =
+    new ImmutableBytesWritable(Bytes.toBytes(INCREMENT_COALESCE_WINDOW));
+
   /*
    *  The below are ugly but better than creating them each time till we
    *  replace booleans being saved as Strings with plain booleans.  Need a
@@ -170,6 +181,11 @@ public class HTableDescriptor implements WritableComparable<HTableDescriptor> {
    */
   public static final long DEFAULT_MEMSTORE_FLUSH_SIZE = 1024*1024*128L;
 
+  /**
+   * Constant that denotes that increments are not coalesced by default
+   */
+  public static final long DEFAULT_INCREMENT_COALESCE_WINDOW = -1;
+
   private final static Map<String, String> DEFAULT_VALUES
     = new HashMap<String, String>();
   private final static Set<ImmutableBytesWritable> RESERVED_KEYWORDS
@@ -182,6 +198,8 @@ public class HTableDescriptor implements WritableComparable<HTableDescriptor> {
         String.valueOf(DEFAULT_MEMSTORE_FLUSH_SIZE));
     DEFAULT_VALUES.put(DEFERRED_LOG_FLUSH,
         String.valueOf(DEFAULT_DEFERRED_LOG_FLUSH));
+    DEFAULT_VALUES.put(INCREMENT_COALESCE_WINDOW,
+        String.valueOf(DEFAULT_INCREMENT_COALESCE_WINDOW));
     for (String s : DEFAULT_VALUES.keySet()) {
       RESERVED_KEYWORDS.add(new ImmutableBytesWritable(Bytes.toBytes(s)));
     }
@@ -692,6 +710,47 @@ public class HTableDescriptor implements WritableComparable<HTableDescriptor> {
       Bytes.toBytes(Long.toString(memstoreFlushSize)));
   }
 
+  /**
+   * Returns how long an increment waits for concurrent increments of the
+   * same row to be applied along with it, with one read of the current
+   * values and one WAL entry.
+   *
+   * @return the window in milliseconds, 0 to only coalesce the increments
+   * waiting on the row lock anyway, or negative if increments are not
+   * coalesced
+   *
+   * @see #setIncrementCoalesceWindow(long)
+   */
+  public long getIncrementCoalesceWindow() {
+    byte [] value = getValue(INCREMENT_COALESCE_WINDOW_KEY);
+    if (value != null)
+      return Long.valueOf(Bytes.toString(value)).longValue();
+    return DEFAULT_INCREMENT_COALESCE_WINDOW;
+  }
+
+  /**
+   * Sets how long an increment on the table waits for concurrent increments
+   * of the same row to be applied along with it.  Each caller still gets the
+   * values its own increment produced.  Increments made under a client row
+   * lock or with a time range are never coalesced.
+   * <p>
+   * Only increments of a row that is being incremented already wait; the
+   * others go straight ahead, so a window does not add latency to
+   * uncontended rows.
+   * <p>
+   * Increments are synced to the WAL before returning unless the table has
+   * deferred log flush, in which case they are durable within
+   * <code>hbase.regionserver.optionallogflushinterval</code>.
+   *
+   * @param window milliseconds to wait, 0 to only coalesce the increments
+   * waiting on the row lock anyway, or negative to not coalesce increments
+   * @see #setDeferredLogFlush(boolean)
+   */
+  public void setIncrementCoalesceWindow(long window) {
+    setValue(INCREMENT_COALESCE_WINDOW_KEY,
+      Bytes.toBytes(Long.toString(window)));
+  }
+
   /**
    * Adds a column family.
    * @param family HColumnDescriptor of family to add.
@@ -1195,6 +1254,17 @@ public class HTableDescriptor implements WritableComparable<HTableDescriptor> {
               .setScope(HConstants.REPLICATION_SCOPE_LOCAL)
       });
 
+  static {
+    try {
+      // Lets the master swap merged regions in .META. in one atomic mutation
+      META_TABLEDESC.addCoprocessor(
+        "org.apache.hadoop.hbase.coprocessor.MultiRowMutationEndpoint",
+        null, Coprocessor.PRIORITY_SYSTEM, null);
+    } catch (IOException ioe) {
+      throw new RuntimeException(ioe);
+    }
+  }
+
   @Deprecated
   public void setOwner(User owner) {
     setOwnerString(owner != null ? owner.getShortName() : null);
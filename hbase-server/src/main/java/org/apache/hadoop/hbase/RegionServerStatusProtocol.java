@@ -18,6 +18,8 @@
 
 package org.apache.hadoop.hbase;
 
+import java.io.IOException;
+
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.hbase.ipc.VersionedProtocol;
@@ -36,4 +38,14 @@ import org.apache.hadoop.hbase.security.KerberosInfo;
 public interface RegionServerStatusProtocol extends
     RegionServerStatusService.BlockingInterface, VersionedProtocol {
   public static final long VERSION = 1L;
+
+  /**
+   * Reports a region transition to the master.  Used in place of the
+   * unassigned znodes when {@link HConstants#ASSIGNMENT_USE_ZK_KEY} is false.
+   * @param transition a serialized {@link RegionTransition}
+   * @return true if the master accepted the transition, false if it was not
+   * expecting it, e.g. because it has since given the region to another server
+   * @throws IOException
+   */
+  public boolean reportRegionTransition(final byte [] transition) throws IOException;
 }
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -28,11 +29,15 @@ import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.NotAllMetaRegionsOnlineException;
+import org.apache.hadoop.hbase.RegionTransition;
 import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.coprocessor.MultiRowMutationProtocol;
+import org.apache.hadoop.hbase.master.balancer.FavoredNodeAssignmentHelper;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.PairOfSameType;
 import org.apache.hadoop.hbase.util.Writables;
@@ -242,6 +247,28 @@ public class MetaEditor {
     updateLocation(catalogTracker, regionInfo, sn);
   }
 
+  /**
+   * Updates the location of the specified regions in META to be the specified
+   * server hostname and startcode, with one batch of puts.
+   * @param catalogTracker catalog tracker
+   * @param regionInfos regions to update location of; none may be a catalog
+   * region
+   * @param sn Server name
+   * @throws IOException
+   */
+  public static void updateRegionLocations(CatalogTracker catalogTracker,
+      List<HRegionInfo> regionInfos, ServerName sn)
+  throws IOException {
+    List<Put> puts = new ArrayList<Put>(regionInfos.size());
+    for (HRegionInfo regionInfo : regionInfos) {
+      Put put = new Put(regionInfo.getRegionName());
+      addLocation(put, sn);
+      puts.add(put);
+    }
+    putsToMetaTable(catalogTracker, puts);
+    LOG.info("Updated " + puts.size() + " row(s) with server=" + sn);
+  }
+
   /**
    * Updates the location of the specified region to be the specified server.
    * <p>
@@ -264,6 +291,58 @@ public class MetaEditor {
       " with server=" + sn);
   }
 
+  /**
+   * Replaces two regions with the region they were merged into, in one atomic
+   * mutation of the <code>.META.</code> region holding all three rows.  The
+   * merged region's row keeps the two regions in its info:mergeA and
+   * info:mergeB columns until their files can be deleted.
+   * @param catalogTracker
+   * @param mergedRegion region the two were merged into
+   * @param regionA
+   * @param regionB
+   * @throws IOException
+   */
+  public static void mergeRegions(CatalogTracker catalogTracker,
+      HRegionInfo mergedRegion, HRegionInfo regionA, HRegionInfo regionB)
+  throws IOException {
+    Put put = makePutFromRegionInfo(mergedRegion);
+    put.add(HConstants.CATALOG_FAMILY, HConstants.MERGEA_QUALIFIER,
+      Writables.getBytes(regionA));
+    put.add(HConstants.CATALOG_FAMILY, HConstants.MERGEB_QUALIFIER,
+      Writables.getBytes(regionB));
+    List<Mutation> mutations = new ArrayList<Mutation>(3);
+    mutations.add(put);
+    mutations.add(new Delete(regionA.getRegionName()));
+    mutations.add(new Delete(regionB.getRegionName()));
+    HTable t = MetaReader.getMetaHTable(catalogTracker);
+    try {
+      t.coprocessorProxy(MultiRowMutationProtocol.class,
+        mergedRegion.getRegionName()).mutateRows(mutations);
+    } finally {
+      t.close();
+    }
+    LOG.info("Merged regions " + regionA.getRegionNameAsString() + " and " +
+      regionB.getRegionNameAsString() + " into " +
+      mergedRegion.getRegionNameAsString() + " in META");
+  }
+
+  /**
+   * Deletes the merged regions from the row of the region they were merged
+   * into, once their files are gone.
+   * @param catalogTracker
+   * @param mergedRegion
+   * @throws IOException
+   */
+  public static void deleteMergeQualifiers(CatalogTracker catalogTracker,
+      final HRegionInfo mergedRegion)
+  throws IOException {
+    Delete delete = new Delete(mergedRegion.getRegionName());
+    delete.deleteColumns(HConstants.CATALOG_FAMILY, HConstants.MERGEA_QUALIFIER);
+    delete.deleteColumns(HConstants.CATALOG_FAMILY, HConstants.MERGEB_QUALIFIER);
+    deleteMetaTable(catalogTracker, delete);
+    LOG.info("Deleted merged regions from " + mergedRegion.getRegionNameAsString());
+  }
+
   /**
    * Deletes the specified region from META.
    * @param catalogTracker
@@ -278,6 +357,73 @@ public class MetaEditor {
     LOG.info("Deleted region " + regionInfo.getRegionNameAsString() + " from META");
   }
 
+  /**
+   * Records in META the transitions regions are going through.  Only used when
+   * region assignment does not go through zookeeper, so that a new master can
+   * pick up regions in transition from where the old one left them.  The
+   * edits are timestamped by the server hosting META.
+   * @param catalogTracker
+   * @param transitions transitions to record, one per region
+   * @throws IOException
+   */
+  public static void updateRegionTransitions(CatalogTracker catalogTracker,
+      List<RegionTransition> transitions)
+  throws IOException {
+    List<Put> puts = new ArrayList<Put>(transitions.size());
+    for (RegionTransition rt : transitions) {
+      Put put = new Put(rt.getRegionName());
+      put.add(HConstants.CATALOG_FAMILY, HConstants.TRANSITION_QUALIFIER,
+        rt.toByteArray());
+      puts.add(put);
+    }
+    putsToMetaTable(catalogTracker, puts);
+  }
+
+  /**
+   * Records in META the favored servers of regions.
+   * @param catalogTracker
+   * @param favoredNodes favored servers of each region, primary first
+   * @throws IOException
+   * @see HConstants#FAVORED_NODES_ENABLED_KEY
+   */
+  public static void updateFavoredNodes(CatalogTracker catalogTracker,
+      Map<HRegionInfo, List<ServerName>> favoredNodes)
+  throws IOException {
+    List<Put> puts = new ArrayList<Put>(favoredNodes.size());
+    for (Map.Entry<HRegionInfo, List<ServerName>> e : favoredNodes.entrySet()) {
+      Put put = new Put(e.getKey().getRegionName());
+      put.add(HConstants.CATALOG_FAMILY, HConstants.FAVOREDNODES_QUALIFIER,
+        Bytes.toBytes(FavoredNodeAssignmentHelper.getFavoredNodesAsString(e.getValue())));
+      puts.add(put);
+    }
+    if (!puts.isEmpty()) putsToMetaTable(catalogTracker, puts);
+  }
+
+  /**
+   * Removes the transition recorded by
+   * {@link #updateRegionTransitions(CatalogTracker, List)} once the region has
+   * come out of transition, if it is still the one in META.  A transition
+   * recorded since is kept.
+   * @param catalogTracker
+   * @param regionInfo
+   * @param expected serialized transition to remove
+   * @return true if the transition was removed
+   * @throws IOException
+   */
+  public static boolean deleteRegionTransition(CatalogTracker catalogTracker,
+      HRegionInfo regionInfo, byte [] expected)
+  throws IOException {
+    Delete delete = new Delete(regionInfo.getRegionName());
+    delete.deleteColumns(HConstants.CATALOG_FAMILY, HConstants.TRANSITION_QUALIFIER);
+    HTable t = MetaReader.getMetaHTable(catalogTracker);
+    try {
+      return t.checkAndDelete(regionInfo.getRegionName(), HConstants.CATALOG_FAMILY,
+        HConstants.TRANSITION_QUALIFIER, expected, delete);
+    } finally {
+      t.close();
+    }
+  }
+
   /**
    * Deletes daughters references in offlined split parent.
    * @param catalogTracker
@@ -319,6 +465,19 @@ public class MetaEditor {
     return new PairOfSameType<HRegionInfo>(splitA, splitB);
   }
 
+  /**
+   * Returns the regions merged into the region of the passed .META. table
+   * Result, as long as their files are kept.  Otherwise, it returns
+   * PairOfSameType(null, null).
+   */
+  public static PairOfSameType<HRegionInfo> getMergeRegions(Result data) throws IOException {
+    HRegionInfo mergeA = Writables.getHRegionInfoOrNull(
+        data.getValue(HConstants.CATALOG_FAMILY, HConstants.MERGEA_QUALIFIER));
+    HRegionInfo mergeB = Writables.getHRegionInfoOrNull(
+        data.getValue(HConstants.CATALOG_FAMILY, HConstants.MERGEB_QUALIFIER));
+    return new PairOfSameType<HRegionInfo>(mergeA, mergeB);
+  }
+
   private static Put addRegionInfo(final Put p, final HRegionInfo hri)
   throws IOException {
     p.add(HConstants.CATALOG_FAMILY, HConstants.REGIONINFO_QUALIFIER,
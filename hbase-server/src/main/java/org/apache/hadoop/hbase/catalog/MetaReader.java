@@ -18,12 +18,17 @@
 package org.apache.hadoop.hbase.catalog;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -143,6 +148,97 @@ public class MetaReader {
     return v.getResults();
   }
 
+  /**
+   * Performs a full scan of <code>.META.</code>, scanning each
+   * <code>.META.</code> region in parallel in <code>pool</code>.  Falls back
+   * on {@link #fullScan(CatalogTracker)} if there is only the one
+   * <code>.META.</code> region.
+   * @param catalogTracker
+   * @param pool runs the scans of the <code>.META.</code> regions
+   * @return List of {@link Result}, in <code>.META.</code> order
+   * @throws IOException
+   */
+  public static List<Result> fullScan(final CatalogTracker catalogTracker,
+      final ExecutorService pool)
+  throws IOException {
+    List<HRegionInfo> metaRegions = new ArrayList<HRegionInfo>();
+    for (Result r : fullScanOfRoot(catalogTracker)) {
+      HRegionInfo hri =
+        parseHRegionInfoFromCatalogResult(r, HConstants.REGIONINFO_QUALIFIER);
+      if (hri == null || hri.isOffline() || hri.isSplitParent()) continue;
+      metaRegions.add(hri);
+    }
+    if (metaRegions.size() <= 1) return fullScan(catalogTracker);
+    return fullScan(catalogTracker, metaRegions, pool);
+  }
+
+  /**
+   * Scans the key ranges of <code>metaRegions</code> of <code>.META.</code>
+   * in parallel in <code>pool</code>.
+   * @param catalogTracker
+   * @param metaRegions ranges to scan, in order
+   * @param pool runs the scans of the ranges
+   * @return List of {@link Result}, in <code>.META.</code> order
+   * @throws IOException
+   */
+  static List<Result> fullScan(final CatalogTracker catalogTracker,
+      final List<HRegionInfo> metaRegions, final ExecutorService pool)
+  throws IOException {
+    List<Future<List<Result>>> futures =
+      new ArrayList<Future<List<Result>>>(metaRegions.size());
+    for (final HRegionInfo metaRegion : metaRegions) {
+      futures.add(pool.submit(new Callable<List<Result>>() {
+        @Override
+        public List<Result> call() throws IOException {
+          return scanMetaRange(catalogTracker, metaRegion.getStartKey(),
+            metaRegion.getEndKey());
+        }
+      }));
+    }
+    List<Result> results = new ArrayList<Result>();
+    try {
+      for (Future<List<Result>> future : futures) {
+        results.addAll(future.get());
+      }
+    } catch (InterruptedException e) {
+      for (Future<List<Result>> future : futures) future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted scanning .META.");
+    } catch (ExecutionException e) {
+      for (Future<List<Result>> future : futures) future.cancel(true);
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException)cause;
+      throw new IOException("Failed scanning .META.", cause);
+    }
+    return results;
+  }
+
+  /**
+   * @return all rows of <code>.META.</code> from <code>startRow</code>
+   * inclusive to <code>stopRow</code> exclusive (empty for the end)
+   */
+  private static List<Result> scanMetaRange(final CatalogTracker catalogTracker,
+      final byte [] startRow, final byte [] stopRow)
+  throws IOException {
+    Scan scan = new Scan(startRow, stopRow);
+    scan.setCaching(catalogTracker.getConnection().getConfiguration()
+      .getInt(HConstants.HBASE_META_SCANNER_CACHING, 100));
+    scan.addFamily(HConstants.CATALOG_FAMILY);
+    List<Result> results = new ArrayList<Result>();
+    HTable metaTable = getMetaHTable(catalogTracker);
+    ResultScanner scanner = metaTable.getScanner(scan);
+    try {
+      Result data;
+      while ((data = scanner.next()) != null) {
+        if (!data.isEmpty()) results.add(data);
+      }
+    } finally {
+      scanner.close();
+      metaTable.close();
+    }
+    return results;
+  }
+
   /**
    * Performs a full scan of a <code>-ROOT-</code> table.
    * @return List of {@link Result}
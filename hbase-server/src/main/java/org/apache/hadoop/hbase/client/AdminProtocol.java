@@ -18,6 +18,8 @@
 
 package org.apache.hadoop.hbase.client;
 
+import java.io.IOException;
+
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.ipc.VersionedProtocol;
 import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.AdminService;
@@ -34,4 +36,30 @@ import org.apache.hadoop.hbase.security.KerberosInfo;
 public interface AdminProtocol extends
     AdminService.BlockingInterface, VersionedProtocol {
   public static final long VERSION = 1L;
+
+  /**
+   * Tells the region server which datanodes the HFile blocks of regions should
+   * be written to.  Sent by the master ahead of opening the regions when
+   * {@link org.apache.hadoop.hbase.HConstants#FAVORED_NODES_ENABLED_KEY} is set.
+   * @param encodedRegionNames
+   * @param favoredNodes for each region, its favored servers as a comma
+   * separated list of host:port
+   * @throws IOException
+   */
+  public void updateFavoredNodes(final String [] encodedRegionNames,
+      final String [] favoredNodes) throws IOException;
+
+  /**
+   * Closes many regions in one call, as the master does when it disables a
+   * table or moves all regions off a server.  Each region is closed as by
+   * a close region request that transitions its CLOSING znode.
+   * @param regionNames
+   * @param versionsOfClosingNode for each region, the version of its CLOSING
+   * znode
+   * @return for each region, true if its close was started; false if it was
+   * not, say because it is not online here or already in transition
+   * @throws IOException
+   */
+  public boolean [] closeRegions(final byte [][] regionNames,
+      final int [] versionsOfClosingNode) throws IOException;
 }
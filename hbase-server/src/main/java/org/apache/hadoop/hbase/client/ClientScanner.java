@@ -19,7 +19,9 @@ package org.apache.hadoop.hbase.client;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,6 +35,7 @@ import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.NotServingRegionException;
 import org.apache.hadoop.hbase.UnknownScannerException;
 import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter;
 import org.apache.hadoop.hbase.regionserver.RegionServerStoppedException;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.DataOutputBuffer;
@@ -57,11 +60,21 @@ public class ClientScanner extends AbstractClientScanner {
     private long lastNext;
     // Keep lastResult returned successfully in case we have to reset scanner.
     private Result lastResult = null;
+    // KeyValues of the row of lastResult let out so far, over all its parts
+    private int lastRowKVs = 0;
+    // KeyValues of the row of lastResult to drop after a scanner reset
+    private int skipKVs = 0;
     private ScanMetrics scanMetrics = null;
     private final long maxScannerResultSize;
     private final HConnection connection;
     private final byte[] tableName;
     private final int scannerTimeout;
+    // Whether to join the parts of rows the region servers return in parts
+    private final boolean joinPartialRows;
+    // Parts of the last row seen so far, when joining them
+    private List<KeyValue> partialRow = null;
+    // Row to carry on from, given by a heartbeat since the last row came in
+    private byte [] heartbeatRow = null;
 
     /**
      * Create a new ClientScanner for the specified table. An HConnection will be
@@ -105,7 +118,15 @@ public class ClientScanner extends AbstractClientScanner {
         this.maxScannerResultSize = conf.getLong(
           HConstants.HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE_KEY,
           HConstants.DEFAULT_HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE);
+        if (scan.isPartialRows()) {
+          // The region servers must cut rows at the size we count with
+          scan.setMaxResultSize(this.maxScannerResultSize);
+        }
       }
+      this.joinPartialRows = scan.isPartialRows() &&
+        !scan.getAllowPartialResults() && scan.getBatch() <= 0;
+      // We carry on after a heartbeat, so no call has to read for long
+      scan.setAllowHeartbeats(true);
     this.scannerTimeout = conf.getInt(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD,
       HConstants.DEFAULT_HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD);
 
@@ -170,6 +191,11 @@ public class ClientScanner extends AbstractClientScanner {
      */
     private boolean nextScanner(int nbRows, final boolean done)
     throws IOException {
+      // Rows do not span regions
+      completePartialRow();
+      this.heartbeatRow = null;
+      this.skipKVs = 0;
+
       // Close the previous scanner if it's open
       if (this.callable != null) {
         this.callable.setClose();
@@ -201,6 +227,20 @@ public class ClientScanner extends AbstractClientScanner {
         localStartKey = this.scan.getStartRow();
       }
 
+      if (this.scan.getFilter() instanceof MultiRowRangeFilter) {
+        // Go straight to the region of the next range, skipping the regions
+        // in between instead of opening a scanner on each
+        localStartKey = ((MultiRowRangeFilter)this.scan.getFilter())
+          .getNextRowInRanges(localStartKey);
+        if (localStartKey == null || checkScanStopRow(localStartKey)) {
+          close();
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Finished with scanning, no row range left");
+          }
+          return false;
+        }
+      }
+
       if (LOG.isDebugEnabled()) {
         LOG.debug("Advancing internal scanner to startKey at '" +
           Bytes.toStringBinary(localStartKey) + "'");
@@ -255,26 +295,20 @@ public class ClientScanner extends AbstractClientScanner {
       if (cache.size() == 0 && this.closed) {
         return null;
       }
-      if (cache.size() == 0) {
+      // Several calls may return parts of one row only
+      while (cache.size() == 0 && !this.closed) {
         Result [] values = null;
         long remainingResultSize = maxScannerResultSize;
         int countdown = this.caching;
         // We need to reset it if it's a new callable that was created
         // with a countdown in nextScanner
         callable.setCaching(this.caching);
-        // This flag is set when we want to skip the result returned.  We do
-        // this when we reset scanner because it split under us.
-        boolean skipFirst = false;
+        // Set when the server stopped short of the rows asked for, having
+        // read for too long, rather than at the end of the region
+        boolean heartbeat = false;
         do {
+          heartbeat = false;
           try {
-            if (skipFirst) {
-              // Skip only the first row (which was the last row of the last
-              // already-processed batch).
-              callable.setCaching(1);
-              values = callable.withRetries();
-              callable.setCaching(this.caching);
-              skipFirst = false;
-            }
             // Server returns a null values if scanning is to stop.  Else,
             // returns an empty array if scanning is to go on and we've just
             // exhausted current region.
@@ -302,12 +336,20 @@ public class ClientScanner extends AbstractClientScanner {
             }
             // Else, its signal from depths of ScannerCallable that we got an
             // NSRE on a next and that we need to reset the scanner.
-            if (this.lastResult != null) {
+            if (this.heartbeatRow != null) {
+              // Carry on from where the last heartbeat said we got to
+              this.scan.setStartRow(this.heartbeatRow);
+              this.heartbeatRow = null;
+              this.skipKVs = 0;
+            } else if (this.lastResult != null) {
               this.scan.setStartRow(this.lastResult.getRow());
-              // Skip first row returned.  We already let it out on previous
-              // invocation.
-              skipFirst = true;
+              // Skip what we already let out of that row on previous
+              // invocations; with batch or partial results, that may be
+              // several parts of it.
+              this.skipKVs = this.lastRowKVs;
             }
+            // The region server starts the row over
+            this.partialRow = null;
             // Clear region
             this.currentRegion = null;
             callable = null;
@@ -320,16 +362,35 @@ public class ClientScanner extends AbstractClientScanner {
           lastNext = currentTime;
           if (values != null && values.length > 0) {
             for (Result rs : values) {
-              cache.add(rs);
               for (KeyValue kv : rs.raw()) {
                   remainingResultSize -= kv.heapSize();
               }
               countdown--;
-              this.lastResult = rs;
+              rs = skipDelivered(rs);
+              if (rs == null) {
+                continue;
+              }
+              if (this.joinPartialRows) {
+                addPartialRow(rs);
+              } else {
+                cache.add(rs);
+                setLastResult(rs);
+              }
+            }
+            this.heartbeatRow = null;
+          }
+          if (callable != null && callable.getHeartbeatRow() != null) {
+            heartbeat = true;
+            this.heartbeatRow = callable.getHeartbeatRow();
+            // The server is past the row we were joining
+            completePartialRow();
+            if (this.scanMetrics != null) {
+              this.scanMetrics.countOfHeartbeats.inc();
             }
           }
           // Values == null means server-side filter has determined we must STOP
-        } while (remainingResultSize > 0 && countdown > 0 && nextScanner(countdown, values == null));
+        } while (remainingResultSize > 0 && countdown > 0 && !heartbeat &&
+          nextScanner(countdown, values == null));
       }
 
       if (cache.size() > 0) {
@@ -341,6 +402,80 @@ public class ClientScanner extends AbstractClientScanner {
       return null;
     }
 
+    /**
+     * Drops the KeyValues of a row already let out before a scanner reset
+     * from a result the new scanner returned.
+     * @param rs
+     * @return what is left of the result, or null if nothing is
+     */
+    private Result skipDelivered(Result rs) {
+      if (this.skipKVs == 0) {
+        return rs;
+      }
+      if (!Bytes.equals(this.lastResult.getRow(), rs.getRow())) {
+        this.skipKVs = 0;
+        return rs;
+      }
+      KeyValue [] kvs = rs.raw();
+      if (kvs.length <= this.skipKVs) {
+        this.skipKVs -= kvs.length;
+        return null;
+      }
+      Result rest = new Result(Arrays.copyOfRange(kvs, this.skipKVs, kvs.length));
+      this.skipKVs = 0;
+      return rest;
+    }
+
+    /**
+     * Keeps the result as the last one let out, counting the KeyValues let
+     * out of its row when it is another part of the same row.
+     * @param rs
+     */
+    private void setLastResult(Result rs) {
+      if (this.lastResult != null &&
+          Bytes.equals(this.lastResult.getRow(), rs.getRow())) {
+        this.lastRowKVs += rs.size();
+      } else {
+        this.lastRowKVs = rs.size();
+      }
+      this.lastResult = rs;
+    }
+
+    /**
+     * Adds a result holding a row, or part of one, to the row being joined.
+     * Passes the row joined so far on to the cache first when the result is
+     * of the next row.
+     * @param rs
+     */
+    private void addPartialRow(Result rs) {
+      if (this.lastResult != null &&
+          Bytes.equals(this.lastResult.getRow(), rs.getRow())) {
+        // Rest of a row already let out, sent again after a scanner reset
+        return;
+      }
+      if (this.partialRow != null &&
+          !Bytes.equals(this.partialRow.get(0).getRow(), rs.getRow())) {
+        completePartialRow();
+      }
+      if (this.partialRow == null) {
+        this.partialRow = new ArrayList<KeyValue>();
+      }
+      this.partialRow.addAll(Arrays.asList(rs.raw()));
+    }
+
+    /**
+     * Passes the row joined so far, if any, on to the cache.
+     */
+    private void completePartialRow() {
+      if (this.partialRow == null) {
+        return;
+      }
+      Result rs = new Result(this.partialRow);
+      cache.add(rs);
+      setLastResult(rs);
+      this.partialRow = null;
+    }
+
     /**
      * Get <param>nbRows</param> rows.
      * How many RPCs are made is determined by the {@link Scan#setCaching(int)}
@@ -384,6 +519,7 @@ public class ClientScanner extends AbstractClientScanner {
         }
         callable = null;
       }
+      completePartialRow();
       closed = true;
     }
 }
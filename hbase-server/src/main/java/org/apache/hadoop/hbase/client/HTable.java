@@ -652,6 +652,25 @@ public class HTable implements HTableInterface {
         this.connection);
   }
 
+  /**
+   * Returns a scanner on the current table as specified by the {@link Scan}
+   * object, which reads many regions at the same time.
+   * @param scan A configured {@link Scan} object.
+   * @param ordered Whether rows come in the order of the table, rather than
+   * in the order the regions return them.
+   * @return A scanner.
+   * @throws IOException if a remote or network exception occurs.
+   * @see ParallelClientScanner
+   */
+  public ResultScanner getParallelScanner(final Scan scan, boolean ordered)
+  throws IOException {
+    if (scan.getCaching() <= 0) {
+      scan.setCaching(getScannerCaching());
+    }
+    return new ParallelClientScanner(getConfiguration(), scan, getTableName(),
+        this.connection, ordered);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -0,0 +1,394 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
+
+/**
+ * Scans the regions of a table at the same time rather than one after the
+ * other.  Scanners are opened on as many regions at once as
+ * {@value #PARALLELISM_KEY} allows, but on no more of the regions of any one
+ * region server than {@value #MAX_PER_SERVER_KEY} allows, so that a full
+ * table scan does not pile onto a single server.  Each region
+ * is read ahead into a buffer of about the scan caching while the caller
+ * works through the rows already in, and the next region is opened as soon
+ * as one is done.  A region whose buffer stays full for half the scanner
+ * timeout closes its scanner, so that it does not expire on the region
+ * server, and opens a new one from where it got to once there is room.
+ * <p>
+ * Rows come in the order of the table when the scanner is ordered.  Then a
+ * region is only opened after all those before it, and its rows are only
+ * handed out after theirs.  Otherwise rows come in the order the regions
+ * return them, which keeps all the scanners busy.
+ * <p>
+ * Regions holding none of the rows of the scan, or of the row ranges of a
+ * {@link MultiRowRangeFilter} set as its filter, are not opened.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class ParallelClientScanner extends AbstractClientScanner {
+  /** Maximum number of regions read at the same time */
+  public static final String PARALLELISM_KEY =
+    "hbase.client.scanner.parallel.threads";
+  public static final int DEFAULT_PARALLELISM = 10;
+  /** Maximum number of regions of one region server read at the same time */
+  public static final String MAX_PER_SERVER_KEY =
+    "hbase.client.scanner.parallel.max.per.server";
+  public static final int DEFAULT_MAX_PER_SERVER = 2;
+
+  private static final Log LOG = LogFactory.getLog(ParallelClientScanner.class);
+
+  private final Configuration conf;
+  private final byte[] tableName;
+  private final HConnection connection;
+  private final boolean ordered;
+  private final int parallelism;
+  // How long a region may wait for room in its queue with its scanner open
+  private final long maxWait;
+  private final ThreadPoolExecutor pool;
+  // Regions not opened yet, in order
+  private final LinkedList<RegionReader> pending = new LinkedList<RegionReader>();
+  // Regions opened whose rows are not all handed out yet, in order
+  private final LinkedList<RegionReader> started = new LinkedList<RegionReader>();
+  // Where all the readers put their rows when they need not come in order
+  private final BlockingQueue<Result> unorderedQueue;
+  private volatile boolean closed = false;
+
+  /**
+   * Create a new ParallelClientScanner for the specified table.
+   * Note that the passed {@link Scan} is not changed, each region gets its
+   * own copy.
+   *
+   * @param conf The {@link Configuration} to use.
+   * @param scan {@link Scan} to use in this scanner
+   * @param tableName The table that we wish to scan
+   * @param connection Connection identifying the cluster
+   * @param ordered Whether rows come in the order of the table
+   * @throws IOException
+   */
+  public ParallelClientScanner(final Configuration conf, final Scan scan,
+      final byte[] tableName, HConnection connection, boolean ordered)
+  throws IOException {
+    this(conf, scan, tableName, connection,
+      MetaScanner.allTableRegions(conf, tableName, false), ordered);
+  }
+
+  ParallelClientScanner(final Configuration conf, final Scan scan,
+      final byte[] tableName, HConnection connection,
+      NavigableMap<HRegionInfo, ServerName> regions, boolean ordered)
+  throws IOException {
+    this.conf = conf;
+    this.tableName = tableName;
+    this.connection = connection;
+    this.ordered = ordered;
+    this.parallelism = Math.max(1,
+      conf.getInt(PARALLELISM_KEY, DEFAULT_PARALLELISM));
+    int maxPerServer = Math.max(1,
+      conf.getInt(MAX_PER_SERVER_KEY, DEFAULT_MAX_PER_SERVER));
+    this.maxWait = conf.getInt(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD,
+      HConstants.DEFAULT_HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD) / 2;
+    int caching = scan.getCaching() > 0 ? scan.getCaching() :
+      conf.getInt("hbase.client.scanner.caching", 1);
+    this.unorderedQueue = ordered ? null :
+      new LinkedBlockingQueue<Result>(caching * this.parallelism);
+
+    Map<ServerName, Semaphore> serverPermits =
+      new HashMap<ServerName, Semaphore>();
+    for (Map.Entry<HRegionInfo, ServerName> entry : regions.entrySet()) {
+      Scan regionScan = getRegionScan(scan, entry.getKey());
+      if (regionScan == null) {
+        continue;
+      }
+      Semaphore permits = serverPermits.get(entry.getValue());
+      if (permits == null) {
+        permits = new Semaphore(maxPerServer);
+        serverPermits.put(entry.getValue(), permits);
+      }
+      BlockingQueue<Result> queue = ordered ?
+        new LinkedBlockingQueue<Result>(caching) : this.unorderedQueue;
+      this.pending.add(new RegionReader(regionScan, permits, queue));
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Creating parallel scanner over " + Bytes.toString(tableName) +
+        " reading " + this.pending.size() + " regions, " + this.parallelism +
+        " at a time, " + maxPerServer + " per server");
+    }
+    this.pool = Threads.getBoundedCachedThreadPool(this.parallelism, 60,
+      TimeUnit.SECONDS, new HTable.DaemonThreadFactory());
+  }
+
+  /**
+   * @param scan
+   * @param region
+   * @return a copy of <code>scan</code> limited to the rows of
+   * <code>region</code>, or null if the region holds none of the rows of
+   * the scan
+   * @throws IOException
+   */
+  static Scan getRegionScan(Scan scan, HRegionInfo region) throws IOException {
+    byte[] startRow = scan.getStartRow();
+    byte[] stopRow = scan.getStopRow();
+    if (scan.isGetScan()) {
+      if (!region.containsRow(startRow)) {
+        return null;
+      }
+      return new Scan(scan);
+    }
+    if (Bytes.compareTo(region.getStartKey(), startRow) > 0) {
+      startRow = region.getStartKey();
+    }
+    byte[] endKey = region.getEndKey();
+    if (endKey.length > 0 &&
+        (stopRow.length == 0 || Bytes.compareTo(endKey, stopRow) < 0)) {
+      stopRow = endKey;
+    }
+    if (stopRow.length > 0 && Bytes.compareTo(startRow, stopRow) >= 0) {
+      return null;
+    }
+    if (scan.getFilter() instanceof MultiRowRangeFilter) {
+      byte[] nextRow = ((MultiRowRangeFilter)scan.getFilter())
+        .getNextRowInRanges(startRow);
+      if (nextRow == null ||
+          (stopRow.length > 0 && Bytes.compareTo(nextRow, stopRow) >= 0)) {
+        return null;
+      }
+    }
+    Scan regionScan = new Scan(scan);
+    regionScan.setStartRow(startRow);
+    regionScan.setStopRow(stopRow);
+    return regionScan;
+  }
+
+  /**
+   * @param regionScan scan limited to the rows of one region
+   * @return a scanner over the rows of <code>regionScan</code>
+   * @throws IOException
+   */
+  protected ResultScanner createRegionScanner(Scan regionScan)
+  throws IOException {
+    return new ClientScanner(this.conf, regionScan, this.tableName,
+      this.connection);
+  }
+
+  /**
+   * Opens the next regions, as far as the limits allow.
+   */
+  private void startRegions() {
+    Iterator<RegionReader> it = this.pending.iterator();
+    while (it.hasNext() && this.started.size() < this.parallelism) {
+      RegionReader reader = it.next();
+      if (!reader.permits.tryAcquire()) {
+        if (this.ordered) {
+          // A later region must not hold up an earlier one
+          break;
+        }
+        continue;
+      }
+      it.remove();
+      this.started.add(reader);
+      this.pool.execute(reader);
+    }
+  }
+
+  @Override
+  public Result next() throws IOException {
+    while (!this.closed) {
+      startRegions();
+      if (this.started.isEmpty()) {
+        close();
+        break;
+      }
+      BlockingQueue<Result> queue = this.ordered ?
+        this.started.getFirst().queue : this.unorderedQueue;
+      Result result;
+      try {
+        result = queue.take();
+      } catch (InterruptedException ie) {
+        close();
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for rows");
+      }
+      RegionReader done = null;
+      for (RegionReader reader : this.started) {
+        if (result == reader.endOfRegion) {
+          done = reader;
+          break;
+        }
+      }
+      if (done == null) {
+        return result;
+      }
+      this.started.remove(done);
+      if (done.error != null) {
+        close();
+        if (done.error instanceof IOException) {
+          throw (IOException)done.error;
+        }
+        throw new IOException(done.error);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Result[] next(int nbRows) throws IOException {
+    // Collect values to be returned here
+    ArrayList<Result> resultSets = new ArrayList<Result>(nbRows);
+    for (int i = 0; i < nbRows; i++) {
+      Result next = next();
+      if (next != null) {
+        resultSets.add(next);
+      } else {
+        break;
+      }
+    }
+    return resultSets.toArray(new Result[resultSets.size()]);
+  }
+
+  @Override
+  public void close() {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    // Readers waiting for room in their queue, or on a region server, stop
+    this.pool.shutdownNow();
+  }
+
+  /**
+   * Reads the rows of one region into a queue, then puts its end of region
+   * marker there.  Closes the scanner when it has waited too long for room
+   * in the queue, and opens another one at the row it got to once there is.
+   */
+  private class RegionReader implements Runnable {
+    private final Scan scan;
+    private final Semaphore permits;
+    private final BlockingQueue<Result> queue;
+    // Put in the queue once all the rows are, this object only
+    private final Result endOfRegion = new Result();
+    private volatile Throwable error = null;
+
+    RegionReader(Scan scan, Semaphore permits, BlockingQueue<Result> queue) {
+      this.scan = scan;
+      this.permits = permits;
+      this.queue = queue;
+    }
+
+    @Override
+    public void run() {
+      ResultScanner scanner = null;
+      try {
+        scanner = createRegionScanner(this.scan);
+        // Time spent waiting for room in the queue since the scanner opened
+        long waited = 0;
+        // Last result put, and the KeyValues of its row put over all its parts
+        Result last = null;
+        int lastRowKVs = 0;
+        // KeyValues of the row of the last result to drop after reopening
+        int skip = 0;
+        while (!closed) {
+          if (scanner == null) {
+            Scan resumeScan = new Scan(this.scan);
+            resumeScan.setStartRow(last.getRow());
+            scanner = createRegionScanner(resumeScan);
+            waited = 0;
+            skip = lastRowKVs;
+          }
+          Result result = scanner.next();
+          if (result == null) {
+            break;
+          }
+          if (skip > 0) {
+            if (Bytes.equals(last.getRow(), result.getRow())) {
+              KeyValue[] kvs = result.raw();
+              if (kvs.length <= skip) {
+                skip -= kvs.length;
+                continue;
+              }
+              result = new Result(Arrays.copyOfRange(kvs, skip, kvs.length));
+            }
+            skip = 0;
+          }
+          long start = System.currentTimeMillis();
+          while (!closed && !this.queue.offer(result, 100, TimeUnit.MILLISECONDS)) {
+            if (scanner != null &&
+                waited + System.currentTimeMillis() - start > maxWait) {
+              // Rather than have it expire on the region server
+              scanner.close();
+              scanner = null;
+            }
+          }
+          waited += System.currentTimeMillis() - start;
+          if (last != null && Bytes.equals(last.getRow(), result.getRow())) {
+            lastRowKVs += result.size();
+          } else {
+            lastRowKVs = result.size();
+          }
+          last = result;
+        }
+      } catch (Throwable t) {
+        this.error = t;
+      } finally {
+        if (scanner != null) {
+          scanner.close();
+        }
+        this.permits.release();
+        try {
+          put(this.endOfRegion);
+        } catch (InterruptedException ie) {
+          // Closed, nobody is waiting for us
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    private void put(Result result) throws InterruptedException {
+      while (!closed) {
+        if (this.queue.offer(result, 100, TimeUnit.MILLISECONDS)) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -80,6 +80,9 @@ import java.util.TreeSet;
  * To limit the maximum number of values returned for each call to next(),
  * execute {@link #setBatch(int) setBatch}.
  * <p>
+ * To keep the memory used reading very wide rows bounded, execute
+ * {@link #setPartialRows(boolean) setPartialRows}.
+ * <p>
  * To add a filter, execute {@link #setFilter(org.apache.hadoop.hbase.filter.Filter) setFilter}.
  * <p>
  * Expert: To explicitly disable server-side block caching for this scan,
@@ -90,6 +93,9 @@ import java.util.TreeSet;
 public class Scan extends OperationWithAttributes implements Writable {
   private static final String RAW_ATTR = "_raw_";
   private static final String ISOLATION_LEVEL = "_isolationlevel_";
+  private static final String PARTIAL_ROWS_ATTR = "_partialrows_";
+  private static final String ALLOW_PARTIAL_RESULTS_ATTR = "_allowpartialresults_";
+  private static final String ALLOW_HEARTBEATS_ATTR = "_allowheartbeats_";
 
   private static final byte SCAN_VERSION = (byte)3;
   private byte [] startRow = HConstants.EMPTY_START_ROW;
@@ -677,6 +683,70 @@ public class Scan extends OperationWithAttributes implements Writable {
     return attr == null ? false : Bytes.toBoolean(attr);
   }
 
+  /**
+   * Lets the region servers return a row in parts when it is bigger than the
+   * maximum result size, rather than loading it whole first.  The parts are
+   * cut within the stores as they are read, so the memory a region server
+   * uses for a call stays bounded by about the maximum result size, however
+   * wide the rows.  The scanner joins the parts of a row back together
+   * unless {@link #setAllowPartialResults(boolean)} or a batch is set.
+   * <p>
+   * Has no effect unless the maximum result size is set, on this scan with
+   * {@link #setMaxResultSize(long)} or in the configuration.  Filters that
+   * filter whole rows cannot be used with it, as with {@link #setBatch(int)}.
+   * @param partialRows True/False to enable/disable returning rows in parts
+   */
+  public void setPartialRows(boolean partialRows) {
+    setAttribute(PARTIAL_ROWS_ATTR, Bytes.toBytes(partialRows));
+  }
+
+  /**
+   * @return True if the region servers may return rows in parts
+   */
+  public boolean isPartialRows() {
+    byte[] attr = getAttribute(PARTIAL_ROWS_ATTR);
+    return attr == null ? false : Bytes.toBoolean(attr);
+  }
+
+  /**
+   * Hands the parts of rows the region servers return to the caller as
+   * separate {@link Result}s, as with {@link #setBatch(int)}, rather than
+   * joining them, so the client does not have to hold a whole row either.
+   * Only has an effect with {@link #setPartialRows(boolean)}.
+   * @param allowPartialResults True/False to get rows in parts or whole
+   */
+  public void setAllowPartialResults(boolean allowPartialResults) {
+    setAttribute(ALLOW_PARTIAL_RESULTS_ATTR, Bytes.toBytes(allowPartialResults));
+  }
+
+  /**
+   * @return True if the caller gets the parts of rows as separate results
+   */
+  public boolean getAllowPartialResults() {
+    byte[] attr = getAttribute(ALLOW_PARTIAL_RESULTS_ATTR);
+    return attr == null ? false : Bytes.toBoolean(attr);
+  }
+
+  /**
+   * Lets the region servers end a scan call that has read for too long,
+   * most likely passing over rows a filter rejects, with the rows found so
+   * far and a heartbeat giving the row the scan has got to, rather than
+   * reading on until they have all the rows asked for.  The scanner must
+   * know to carry on from the heartbeat, {@link ClientScanner} sets this.
+   * @param allowHeartbeats True/False to allow heartbeats or not
+   */
+  public void setAllowHeartbeats(boolean allowHeartbeats) {
+    setAttribute(ALLOW_HEARTBEATS_ATTR, Bytes.toBytes(allowHeartbeats));
+  }
+
+  /**
+   * @return True if the region servers may answer scan calls with heartbeats
+   */
+  public boolean getAllowHeartbeats() {
+    byte[] attr = getAttribute(ALLOW_HEARTBEATS_ATTR);
+    return attr == null ? false : Bytes.toBoolean(attr);
+  }
+
   /*
    * Set the isolation level for this scan. If the
    * isolation level is set to READ_UNCOMMITTED, then
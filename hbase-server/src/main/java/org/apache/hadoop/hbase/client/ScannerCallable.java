@@ -20,6 +20,7 @@ package org.apache.hadoop.hbase.client;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -29,6 +30,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.DoNotRetryIOException;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.NotServingRegionException;
 import org.apache.hadoop.hbase.RemoteExceptionHandler;
 import org.apache.hadoop.hbase.UnknownScannerException;
@@ -64,6 +66,8 @@ public class ScannerCallable extends ServerCallable<Result[]> {
   private ScanMetrics scanMetrics;
   private boolean logScannerActivity = false;
   private int logCutOffLatency = 1000;
+  // row the region server got to, if it answered the last call with a heartbeat
+  private byte [] heartbeatRow = null;
 
   // indicate if it is a remote server call
   private boolean isRegionServerRemote = true;
@@ -143,6 +147,12 @@ public class ScannerCallable extends ServerCallable<Result[]> {
             ScanResponse response = server.scan(null, request);
             long timestamp = System.currentTimeMillis();
             rrs = ResponseConverter.getResults(response);
+            this.heartbeatRow = null;
+            if (rrs != null && rrs.length > 0 &&
+                isHeartbeat(rrs[rrs.length - 1])) {
+              this.heartbeatRow = rrs[rrs.length - 1].getRow();
+              rrs = Arrays.copyOf(rrs, rrs.length - 1);
+            }
             if (logScannerActivity) {
               long now = System.currentTimeMillis();
               if (now - timestamp > logCutOffLatency) {
@@ -205,6 +215,24 @@ public class ScannerCallable extends ServerCallable<Result[]> {
     return null;
   }
 
+  /**
+   * A region server answering a scan call with a heartbeat adds a result
+   * holding just the first key on the row it got to.
+   * @see Scan#setAllowHeartbeats(boolean)
+   */
+  private static boolean isHeartbeat(Result rs) {
+    return rs.size() == 1 &&
+      rs.raw()[0].getType() == KeyValue.Type.Maximum.getCode();
+  }
+
+  /**
+   * @return the row the scan carries on from if the region server answered
+   * the last call with a heartbeat, having read for too long, else null
+   */
+  public byte [] getHeartbeatRow() {
+    return this.heartbeatRow;
+  }
+
   private void incRPCcallsMetrics() {
     if (this.scanMetrics == null) {
       return;
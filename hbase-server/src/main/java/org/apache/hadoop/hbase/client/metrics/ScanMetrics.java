@@ -109,6 +109,13 @@ public class ScanMetrics implements Writable {
   public final MetricsTimeVaryingLong countOfRemoteRPCRetries =
     new MetricsTimeVaryingLong("REMOTE_RPC_RETRIES", registry);
 
+  /**
+   * number of heartbeats, calls region servers answered short of the rows
+   * asked for as they had read for too long
+   */
+  public final MetricsTimeVaryingLong countOfHeartbeats =
+    new MetricsTimeVaryingLong("HEARTBEATS", registry);
+
   /**
    * constructor
    */
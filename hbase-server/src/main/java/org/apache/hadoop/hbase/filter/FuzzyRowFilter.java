@@ -0,0 +1,224 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.filter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Filters rows by fuzzy row keys, which fix the bytes at some positions of
+ * the row and allow any byte at the others.  For example, with rows made of
+ * a 4 byte user id followed by "_" and a date, the fuzzy key "????_2012_10_??"
+ * passes the rows of all users for October 2012.
+ * <p>
+ * A fuzzy key is given as a pair of byte arrays of the same length: the row
+ * bytes, and a mask holding 0 at the positions that are fixed and 1 at the
+ * positions that can hold any byte; the row bytes at those positions are
+ * ignored.  Rows longer than the fuzzy key pass if it matches their start.
+ * A row passes if it matches any of the fuzzy keys.
+ * <p>
+ * Instead of reading through the rows that do not match, the filter seeks
+ * to the next row that can, so that a scan for a key component that is not
+ * leading skips whole ranges of rows.  The fewer fixed bytes lead a fuzzy
+ * key though, the less there is to skip.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class FuzzyRowFilter extends FilterBase {
+  private List<Pair<byte[], byte[]>> fuzzyKeysData;
+  private boolean done = false;
+
+  public FuzzyRowFilter() {
+    super();
+  }
+
+  /**
+   * @param fuzzyKeysData pairs of row bytes and their mask, with 0 for fixed
+   * positions and 1 for any byte
+   */
+  public FuzzyRowFilter(List<Pair<byte[], byte[]>> fuzzyKeysData) {
+    for (Pair<byte[], byte[]> fuzzyData : fuzzyKeysData) {
+      Preconditions.checkArgument(fuzzyData.getFirst().length ==
+          fuzzyData.getSecond().length,
+          "Fuzzy key and mask differ in length: %s",
+          Bytes.toStringBinary(fuzzyData.getFirst()));
+      for (byte b : fuzzyData.getSecond()) {
+        Preconditions.checkArgument(b == 0 || b == 1,
+            "Mask bytes must be 0 or 1, got %s", b);
+      }
+    }
+    this.fuzzyKeysData = fuzzyKeysData;
+  }
+
+  public List<Pair<byte[], byte[]>> getFuzzyKeys() {
+    return fuzzyKeysData;
+  }
+
+  @Override
+  public ReturnCode filterKeyValue(KeyValue kv) {
+    byte[] buffer = kv.getBuffer();
+    int offset = kv.getRowOffset();
+    int length = kv.getRowLength();
+    boolean nextExists = false;
+    for (Pair<byte[], byte[]> fuzzyData : fuzzyKeysData) {
+      if (matches(buffer, offset, length, fuzzyData.getFirst(),
+          fuzzyData.getSecond())) {
+        return ReturnCode.INCLUDE;
+      }
+      nextExists = nextExists || getNextForFuzzyRule(buffer, offset, length,
+          fuzzyData.getFirst(), fuzzyData.getSecond()) != null;
+    }
+    if (nextExists) {
+      return ReturnCode.SEEK_NEXT_USING_HINT;
+    }
+    // No row from here on can match
+    done = true;
+    return ReturnCode.NEXT_ROW;
+  }
+
+  @Override
+  public KeyValue getNextKeyHint(KeyValue currentKV) {
+    byte[] nextRow = null;
+    for (Pair<byte[], byte[]> fuzzyData : fuzzyKeysData) {
+      byte[] next = getNextForFuzzyRule(currentKV.getBuffer(),
+          currentKV.getRowOffset(), currentKV.getRowLength(),
+          fuzzyData.getFirst(), fuzzyData.getSecond());
+      if (next != null &&
+          (nextRow == null || Bytes.compareTo(next, nextRow) < 0)) {
+        nextRow = next;
+      }
+    }
+    return nextRow == null ? null : KeyValue.createFirstOnRow(nextRow);
+  }
+
+  @Override
+  public boolean filterAllRemaining() {
+    return done;
+  }
+
+  /**
+   * @return true if the row matches the fuzzy key
+   */
+  static boolean matches(byte[] row, int offset, int length,
+      byte[] fuzzyKeyBytes, byte[] fuzzyKeyMeta) {
+    if (length < fuzzyKeyMeta.length) {
+      return false;
+    }
+    for (int i = 0; i < fuzzyKeyMeta.length; i++) {
+      if (fuzzyKeyMeta[i] == 0 && row[offset + i] != fuzzyKeyBytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the smallest row sorting after the given one that matches the
+   * fuzzy key, or null if there is none.  Only meaningful for rows that do
+   * not match the fuzzy key themselves.
+   */
+  static byte[] getNextForFuzzyRule(byte[] row, int offset, int length,
+      byte[] fuzzyKeyBytes, byte[] fuzzyKeyMeta) {
+    byte[] result = new byte[fuzzyKeyMeta.length];
+    // Last position holding any byte that can still be increased
+    int toIncrement = -1;
+    // Whether no row sorting after this one starts like it up to i
+    boolean increment = true;
+    int i = 0;
+    for (; i < fuzzyKeyMeta.length; i++) {
+      if (i >= length) {
+        // The row is a prefix of the result, so sorts before it
+        increment = false;
+        break;
+      }
+      int rowByte = row[offset + i] & 0xFF;
+      if (fuzzyKeyMeta[i] == 1) {
+        result[i] = row[offset + i];
+        if (rowByte != 0xFF) {
+          toIncrement = i;
+        }
+        continue;
+      }
+      int fixedByte = fuzzyKeyBytes[i] & 0xFF;
+      if (rowByte < fixedByte) {
+        // Already bigger than the row, the rest can be as small as it gets
+        increment = false;
+        break;
+      }
+      if (rowByte > fixedByte) {
+        break;
+      }
+      result[i] = row[offset + i];
+    }
+    if (increment) {
+      // Move on to the next start of a row that can match
+      if (toIncrement < 0) {
+        return null;
+      }
+      i = toIncrement;
+      result[i]++;
+      i++;
+    }
+    for (; i < fuzzyKeyMeta.length; i++) {
+      result[i] = fuzzyKeyMeta[i] == 0 ? fuzzyKeyBytes[i] : 0;
+    }
+    return result;
+  }
+
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(this.fuzzyKeysData.size());
+    for (Pair<byte[], byte[]> fuzzyData : this.fuzzyKeysData) {
+      Bytes.writeByteArray(out, fuzzyData.getFirst());
+      Bytes.writeByteArray(out, fuzzyData.getSecond());
+    }
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    int count = in.readInt();
+    this.fuzzyKeysData = new ArrayList<Pair<byte[], byte[]>>(count);
+    for (int i = 0; i < count; i++) {
+      byte[] keyBytes = Bytes.readByteArray(in);
+      byte[] keyMeta = Bytes.readByteArray(in);
+      this.fuzzyKeysData.add(new Pair<byte[], byte[]>(keyBytes, keyMeta));
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(this.getClass().getSimpleName()).append(" [");
+    for (Pair<byte[], byte[]> fuzzyData : this.fuzzyKeysData) {
+      sb.append('{').append(Bytes.toStringBinary(fuzzyData.getFirst()));
+      sb.append(":").append(Bytes.toStringBinary(fuzzyData.getSecond()));
+      sb.append('}');
+    }
+    return sb.append("]").toString();
+  }
+}
@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.filter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Passes the rows within any of a set of row ranges, so that one scan can
+ * read many disjoint ranges of a table instead of opening a scanner for each.
+ * <p>
+ * Ranges are sorted and those that overlap or touch are merged.  Between two
+ * ranges the filter seeks to the start of the next one rather than reading
+ * the rows in between, and after the last range it ends the scan.  When it
+ * is the filter of the scan, the client also skips the regions holding none
+ * of the ranges.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class MultiRowRangeFilter extends FilterBase {
+  private List<RowRange> rangeList;
+  private int index = 0;
+  private boolean done = false;
+
+  public MultiRowRangeFilter() {
+    super();
+  }
+
+  /**
+   * @param ranges row ranges to pass, in any order
+   */
+  public MultiRowRangeFilter(List<RowRange> ranges) {
+    this.rangeList = sortAndMerge(ranges);
+  }
+
+  /**
+   * @return the ranges passed, sorted and merged
+   */
+  public List<RowRange> getRowRanges() {
+    return this.rangeList;
+  }
+
+  @Override
+  public ReturnCode filterKeyValue(KeyValue kv) {
+    if (this.rangeList.isEmpty()) {
+      this.done = true;
+      return ReturnCode.NEXT_ROW;
+    }
+    byte[] buffer = kv.getBuffer();
+    int offset = kv.getRowOffset();
+    int length = kv.getRowLength();
+    // Rows come in order, so usually still in the range of the last one
+    if (this.index < 0 ||
+        !this.rangeList.get(this.index).contains(buffer, offset, length)) {
+      this.index = getRangeIndex(buffer, offset, length);
+    }
+    if (this.index >= 0 &&
+        this.rangeList.get(this.index).contains(buffer, offset, length)) {
+      return ReturnCode.INCLUDE;
+    }
+    if (this.index + 1 < this.rangeList.size()) {
+      return ReturnCode.SEEK_NEXT_USING_HINT;
+    }
+    // Past the last range
+    this.done = true;
+    return ReturnCode.NEXT_ROW;
+  }
+
+  @Override
+  public KeyValue getNextKeyHint(KeyValue currentKV) {
+    int next = getRangeIndex(currentKV.getBuffer(), currentKV.getRowOffset(),
+        currentKV.getRowLength()) + 1;
+    if (next >= this.rangeList.size()) {
+      return null;
+    }
+    this.index = next;
+    return KeyValue.createFirstOnRow(this.rangeList.get(next).getStartRow());
+  }
+
+  /**
+   * @param row
+   * @return <code>row</code> if it is within a range, else the start of the
+   * next range, or null if all ranges sort before it
+   */
+  public byte[] getNextRowInRanges(byte[] row) {
+    int i = getRangeIndex(row, 0, row.length);
+    if (i >= 0 && this.rangeList.get(i).contains(row, 0, row.length)) {
+      return row;
+    }
+    return i + 1 < this.rangeList.size() ?
+      this.rangeList.get(i + 1).getStartRow() : null;
+  }
+
+  @Override
+  public boolean filterAllRemaining() {
+    return this.done;
+  }
+
+  /**
+   * @return index of the last range starting at or before the row, or -1 if
+   * the row is before all of them
+   */
+  private int getRangeIndex(byte[] row, int offset, int length) {
+    int low = 0;
+    int high = this.rangeList.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      byte[] start = this.rangeList.get(mid).getStartRow();
+      if (Bytes.compareTo(start, 0, start.length, row, offset, length) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return high;
+  }
+
+  /**
+   * @param ranges
+   * @return the ranges sorted by start row, with overlapping or touching ones
+   * merged
+   */
+  public static List<RowRange> sortAndMerge(List<RowRange> ranges) {
+    List<RowRange> sorted = new ArrayList<RowRange>(ranges);
+    Collections.sort(sorted, new Comparator<RowRange>() {
+      @Override
+      public int compare(RowRange left, RowRange right) {
+        return Bytes.compareTo(left.getStartRow(), right.getStartRow());
+      }
+    });
+    List<RowRange> merged = new ArrayList<RowRange>(sorted.size());
+    RowRange current = null;
+    for (RowRange range : sorted) {
+      if (range.isEmpty()) {
+        continue;
+      }
+      if (current != null && !current.isBefore(range.getStartRow())) {
+        // Overlaps or touches the current one, extend it
+        if (current.isBefore(range.getStopRow()) || range.isOpenEnded()) {
+          current = new RowRange(current.getStartRow(), range.getStopRow());
+        }
+        continue;
+      }
+      if (current != null) {
+        merged.add(current);
+      }
+      current = range;
+    }
+    if (current != null) {
+      merged.add(current);
+    }
+    return merged;
+  }
+
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(this.rangeList.size());
+    for (RowRange range : this.rangeList) {
+      Bytes.writeByteArray(out, range.getStartRow());
+      Bytes.writeByteArray(out, range.getStopRow());
+    }
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    int count = in.readInt();
+    this.rangeList = new ArrayList<RowRange>(count);
+    for (int i = 0; i < count; i++) {
+      byte[] startRow = Bytes.readByteArray(in);
+      byte[] stopRow = Bytes.readByteArray(in);
+      this.rangeList.add(new RowRange(startRow, stopRow));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + " " + this.rangeList.size() +
+      " ranges " + this.rangeList;
+  }
+
+  /**
+   * Rows from a start row, inclusive, to a stop row, exclusive.  An empty
+   * stop row means up to the end of the table.
+   */
+  public static class RowRange {
+    private final byte[] startRow;
+    private final byte[] stopRow;
+
+    /**
+     * @param startRow first row of the range, or empty for the start of the
+     * table
+     * @param stopRow row after the last one of the range, or empty for the
+     * end of the table
+     */
+    public RowRange(byte[] startRow, byte[] stopRow) {
+      this.startRow = startRow == null ? HConstants.EMPTY_START_ROW : startRow;
+      this.stopRow = stopRow == null ? HConstants.EMPTY_END_ROW : stopRow;
+    }
+
+    public byte[] getStartRow() {
+      return this.startRow;
+    }
+
+    public byte[] getStopRow() {
+      return this.stopRow;
+    }
+
+    /**
+     * @return true if the range goes to the end of the table
+     */
+    public boolean isOpenEnded() {
+      return this.stopRow.length == 0;
+    }
+
+    /**
+     * @return true if the range holds no row at all
+     */
+    public boolean isEmpty() {
+      return !isOpenEnded() && Bytes.compareTo(this.startRow, this.stopRow) >= 0;
+    }
+
+    /**
+     * @return true if all rows of the range sort before <code>row</code>
+     */
+    boolean isBefore(byte[] row) {
+      return !isOpenEnded() && Bytes.compareTo(this.stopRow, row) < 0;
+    }
+
+    boolean contains(byte[] row, int offset, int length) {
+      return Bytes.compareTo(this.startRow, 0, this.startRow.length,
+          row, offset, length) <= 0 &&
+        (isOpenEnded() || Bytes.compareTo(this.stopRow, 0,
+          this.stopRow.length, row, offset, length) > 0);
+    }
+
+    @Override
+    public String toString() {
+      return "[" + Bytes.toStringBinary(this.startRow) + ", " +
+        Bytes.toStringBinary(this.stopRow) + ")";
+    }
+  }
+}
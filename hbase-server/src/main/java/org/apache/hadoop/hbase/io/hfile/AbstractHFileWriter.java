@@ -20,6 +20,7 @@ package org.apache.hadoop.hbase.io.hfile;
 
 import java.io.DataOutput;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -264,8 +265,18 @@ public abstract class AbstractHFileWriter extends SchemaConfigured
   /** A helper method to create HFile output streams in constructors */
   protected static FSDataOutputStream createOutputStream(Configuration conf,
       FileSystem fs, Path path) throws IOException {
+    return createOutputStream(conf, fs, path, null);
+  }
+
+  /**
+   * A helper method to create HFile output streams whose blocks go to the
+   * passed datanodes, when there are any
+   */
+  protected static FSDataOutputStream createOutputStream(Configuration conf,
+      FileSystem fs, Path path, InetSocketAddress[] favoredNodes)
+  throws IOException {
     FsPermission perms = FSUtils.getFilePermissions(fs, conf,
         HConstants.DATA_FILE_UMASK_KEY);
-    return FSUtils.create(fs, path, perms);
+    return FSUtils.create(fs, path, perms, favoredNodes);
   }
 }
@@ -551,6 +551,7 @@ public class LoadIncrementalHFiles extends Configured implements Tool {
               .withCompression(compression)
               .withDataBlockEncoder(dataBlockEncoder)
               .withBloomType(bloomFilterType)
+              .withBloomParam(StoreFile.getBloomParam(familyDescriptor))
               .withChecksumType(Store.getChecksumType(conf))
               .withBytesPerChecksum(Store.getBytesPerChecksum(conf))
               .build();
@@ -37,8 +37,13 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
@@ -59,6 +64,7 @@ import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.Stoppable;
 import org.apache.hadoop.hbase.TableNotFoundException;
 import org.apache.hadoop.hbase.catalog.CatalogTracker;
+import org.apache.hadoop.hbase.catalog.MetaEditor;
 import org.apache.hadoop.hbase.catalog.MetaReader;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.executor.EventHandler;
@@ -66,6 +72,7 @@ import org.apache.hadoop.hbase.executor.EventHandler.EventType;
 import org.apache.hadoop.hbase.executor.ExecutorService;
 import org.apache.hadoop.hbase.ipc.ServerNotRunningYetException;
 import org.apache.hadoop.hbase.master.AssignmentManager.RegionState.State;
+import org.apache.hadoop.hbase.master.balancer.FavoredNodeAssignmentHelper;
 import org.apache.hadoop.hbase.master.handler.ClosedRegionHandler;
 import org.apache.hadoop.hbase.master.handler.DisableTableHandler;
 import org.apache.hadoop.hbase.master.handler.EnableTableHandler;
@@ -90,6 +97,7 @@ import org.apache.hadoop.hbase.zookeeper.ZKUtil;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperListener;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
 import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.net.DNSToSwitchMapping;
 import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.NoNodeException;
@@ -99,7 +107,10 @@ import org.apache.zookeeper.data.Stat;
 /**
  * Manages and performs region assignment.
  * <p>
- * Monitors ZooKeeper for events related to regions in transition.
+ * Monitors ZooKeeper for events related to regions in transition.  If
+ * {@link HConstants#ASSIGNMENT_USE_ZK_KEY} is false, region servers report
+ * transitions over RPC instead, see {@link #reportRegionTransition(RegionTransition)},
+ * and the transition each region is in is kept in its <code>.META.</code> row.
  * <p>
  * Handles existing regions in transition during master failover.
  */
@@ -151,6 +162,47 @@ public class AssignmentManager extends ZooKeeperListener {
 
   private final ZKTable zkTable;
 
+  /** Whether region transitions go through the unassigned znodes */
+  private final boolean useZKForAssignment;
+
+  /**
+   * Transitions found in <code>.META.</code> on startup, by encoded region
+   * name, when not using zookeeper for assignment.  Stands in for the
+   * unassigned znodes during failover processing.
+   */
+  private final Map<String, RegionTransition> transitionsInMeta =
+    new HashMap<String, RegionTransition>();
+
+  /**
+   * Serialized transition last written to <code>.META.</code> for each region,
+   * by encoded region name, when not using zookeeper for assignment.  A
+   * transition is only cleared if it is still the one in META, so clearing
+   * never takes out a transition recorded after it, whatever the clocks say.
+   */
+  private final ConcurrentHashMap<String, byte []> recordedTransitions =
+    new ConcurrentHashMap<String, byte []>();
+
+  /** Whether user regions get favored nodes */
+  private final boolean useFavoredNodes;
+
+  /** Resolves racks when placing favored nodes */
+  private final DNSToSwitchMapping rackMapping;
+
+  /**
+   * Favored servers of user regions, primary first, by encoded region name.
+   * Mirrors what is in <code>.META.</code>: nodes only go in here once
+   * written there.
+   */
+  private final Map<String, List<ServerName>> favoredNodes =
+    new ConcurrentHashMap<String, List<ServerName>>();
+
+  /**
+   * Regions (by encoded name) being merged; once closed they stay offline
+   * instead of being reassigned.
+   */
+  private final Set<String> regionsToKeepOffline =
+    Collections.synchronizedSet(new HashSet<String>());
+
   // store all the table names in disabling state
   Set<String> disablingTables = new HashSet<String>();
   // store all the enabling state tablenames.
@@ -187,6 +239,10 @@ public class AssignmentManager extends ZooKeeperListener {
 
   //Thread pool executor service for timeout monitor
   private java.util.concurrent.ExecutorService threadPoolExecutorService;
+
+  // Runs the per-server bulk assigns of assign(List, List), at most
+  // hbase.bulk.assignment.threadpool.size at a time
+  private final ThreadPoolExecutor bulkAssignPool;
   
   private List<EventType> ignoreStatesRSOffline = Arrays.asList(new EventType[]{
       EventType.RS_ZK_REGION_FAILED_OPEN, EventType.RS_ZK_REGION_CLOSED });
@@ -238,8 +294,17 @@ public class AssignmentManager extends ZooKeeperListener {
     this.zkTable = new ZKTable(this.master.getZooKeeper());
     this.maximumAssignmentAttempts =
       this.master.getConfiguration().getInt("hbase.assignment.maximum.attempts", 10);
+    this.useZKForAssignment = conf.getBoolean(HConstants.ASSIGNMENT_USE_ZK_KEY,
+      HConstants.DEFAULT_ASSIGNMENT_USE_ZK);
+    this.useFavoredNodes = conf.getBoolean(HConstants.FAVORED_NODES_ENABLED_KEY,
+      HConstants.DEFAULT_FAVORED_NODES_ENABLED);
+    this.rackMapping = this.useFavoredNodes ?
+      FavoredNodeAssignmentHelper.getRackMapping(conf) : null;
     this.balancer = balancer;
     this.threadPoolExecutorService = Executors.newCachedThreadPool();
+    this.bulkAssignPool = Threads.getBoundedCachedThreadPool(
+      conf.getInt("hbase.bulk.assignment.threadpool.size", 20), 60, TimeUnit.SECONDS,
+      Threads.getNamedThreadFactory(master.getServerName() + ".bulkAssigner-"));
     this.masterMetrics = metrics;// can be null only with tests.
   }
 
@@ -268,6 +333,13 @@ public class AssignmentManager extends ZooKeeperListener {
     return (double)totalLoad / (double)numServers;
   }
 
+  /**
+   * @return true if region transitions go through the unassigned znodes
+   */
+  public boolean isUsingZKForAssignment() {
+    return this.useZKForAssignment;
+  }
+
   /**
    * @return Instance of ZKTable.
    */
@@ -415,9 +487,16 @@ public class AssignmentManager extends ZooKeeperListener {
   void processDeadServersAndRegionsInTransition(
       final Map<ServerName, List<Pair<HRegionInfo, Result>>> deadServers)
   throws KeeperException, IOException, InterruptedException {
-    List<String> nodes = ZKUtil.listChildrenAndWatchForNewChildren(watcher,
-      watcher.assignmentZNode);
-    
+    List<String> nodes;
+    if (this.useZKForAssignment) {
+      nodes = ZKUtil.listChildrenAndWatchForNewChildren(watcher,
+        watcher.assignmentZNode);
+    } else {
+      synchronized (this.transitionsInMeta) {
+        nodes = new ArrayList<String>(this.transitionsInMeta.keySet());
+      }
+    }
+
     if (nodes == null) {
       String errorMessage = "Failed to get the children from ZK";
       master.abort(errorMessage, new IOException(errorMessage));
@@ -462,6 +541,9 @@ public class AssignmentManager extends ZooKeeperListener {
       processDeadServersAndRecoverLostRegions(deadServers, nodes);
       this.failover = false;
       failoverProcessedRegions.clear();
+      synchronized (this.transitionsInMeta) {
+        this.transitionsInMeta.clear();
+      }
     } else {
       // Fresh cluster startup.
       LOG.info("Clean cluster startup. Assigning userregions");
@@ -510,21 +592,30 @@ public class AssignmentManager extends ZooKeeperListener {
   boolean processRegionInTransition(final String encodedRegionName,
       final HRegionInfo regionInfo, final Map<ServerName,List<Pair<HRegionInfo,Result>>> deadServers)
   throws KeeperException, IOException {
-    Stat stat = new Stat();
-    byte [] data = ZKAssign.getDataAndWatch(watcher, encodedRegionName, stat);
-    if (data == null) return false;
     RegionTransition rt;
-    try {
-      rt = RegionTransition.parseFrom(data);
-    } catch (DeserializationException e) {
-      LOG.warn("Failed parse znode data", e);
-      return false;
+    int version = -1;
+    if (this.useZKForAssignment) {
+      Stat stat = new Stat();
+      byte [] data = ZKAssign.getDataAndWatch(watcher, encodedRegionName, stat);
+      if (data == null) return false;
+      try {
+        rt = RegionTransition.parseFrom(data);
+      } catch (DeserializationException e) {
+        LOG.warn("Failed parse znode data", e);
+        return false;
+      }
+      version = stat.getVersion();
+    } else {
+      synchronized (this.transitionsInMeta) {
+        rt = this.transitionsInMeta.get(encodedRegionName);
+      }
+      if (rt == null) return false;
     }
     HRegionInfo hri = regionInfo;
     if (hri == null) {
       if ((hri = getHRegionInfo(rt.getRegionName())) == null) return false; 
     }
-    processRegionsInTransition(rt, hri, deadServers, stat.getVersion());
+    processRegionsInTransition(rt, hri, deadServers, version);
     return true;
   }
 
@@ -665,8 +756,10 @@ public class AssignmentManager extends ZooKeeperListener {
     // handle it like a close; this will get it reassigned if appropriate
     LOG.debug("RIT " + hri.getEncodedName() + " in state=" + oldRt.getEventType() +
       " was on deadserver; forcing offline");
-    ZKAssign.createOrForceNodeOffline(this.watcher, hri,
-      this.master.getServerName());
+    if (this.useZKForAssignment) {
+      ZKAssign.createOrForceNodeOffline(this.watcher, hri,
+        this.master.getServerName());
+    }
     addToRITandCallClose(hri, RegionState.State.OFFLINE, oldRt);
   }
 
@@ -697,6 +790,31 @@ public class AssignmentManager extends ZooKeeperListener {
     return new RegionState(hri, state, rt.getCreateTime(), rt.getServerName());
   }
 
+  /**
+   * Keep the region offline when it next closes instead of reassigning it.
+   * Used to take regions out of service for an online merge.
+   * @param hri
+   */
+  public void keepOfflineAfterClose(HRegionInfo hri) {
+    this.regionsToKeepOffline.add(hri.getEncodedName());
+  }
+
+  /**
+   * @param hri
+   * @return true if the region should not be reassigned once it closes
+   */
+  public boolean shouldKeepOfflineAfterClose(HRegionInfo hri) {
+    return this.regionsToKeepOffline.contains(hri.getEncodedName());
+  }
+
+  /**
+   * Undo {@link #keepOfflineAfterClose(HRegionInfo)}.
+   * @param hri
+   */
+  public void clearKeepOfflineAfterClose(HRegionInfo hri) {
+    this.regionsToKeepOffline.remove(hri.getEncodedName());
+  }
+
   /**
    * When a region is closed, it should be removed from the regionsToReopen
    * @param hri HRegionInfo of the region which was closed
@@ -725,6 +843,126 @@ public class AssignmentManager extends ZooKeeperListener {
     return false;
   }
 
+  /**
+   * Handles a region transition reported by a region server over RPC when not
+   * using zookeeper for assignment.  The region server only goes on with an
+   * open or close if this returns true, so transitions from a server other
+   * than the one the region was last sent to are refused; with zookeeper the
+   * znode version checks take care of that.
+   * @param rt
+   * @return true if the transition was accepted
+   */
+  public boolean reportRegionTransition(final RegionTransition rt) {
+    if (this.useZKForAssignment) {
+      LOG.warn("Ignoring transition reported over RPC while assignment goes " +
+        "through zookeeper: " + rt);
+      return false;
+    }
+    EventType et = rt.getEventType();
+    String encodedName = HRegionInfo.encodeRegionName(rt.getRegionName());
+    boolean wasPendingOpen;
+    Lock lock = locker.acquireLock(encodedName);
+    try {
+      RegionState regionState = regionsInTransition.get(encodedName);
+      if (regionState != null && regionState.getServerName() != null &&
+          !regionState.getServerName().equals(rt.getServerName())) {
+        LOG.warn("Refusing " + et + " of " + HRegionInfo.prettyPrint(encodedName) +
+          " from " + rt.getServerName() + "; region is in transition on " +
+          regionState.getServerName());
+        return false;
+      }
+      wasPendingOpen = regionState != null && regionState.isPendingOpen();
+      if (!handleRegion(rt, -1)) return false;
+    } finally {
+      lock.unlock();
+    }
+    // OPENING is re-reported to keep the region from timing out; only record
+    // the first one
+    if (et == EventType.RS_ZK_REGION_OPENING && wasPendingOpen) {
+      HRegionInfo hri = getHRegionInfoFromRIT(encodedName);
+      if (hri != null) {
+        try {
+          recordTransitions(Collections.singletonList(hri), et, rt.getServerName());
+        } catch (IOException ioe) {
+          // As if the OPENING znode could not be set; the region server gives
+          // up on the open and the timeout monitor takes it from there
+          LOG.warn("Failed recording " + et + " of " + hri.getRegionNameAsString() +
+            " in META, refusing it", ioe);
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private HRegionInfo getHRegionInfoFromRIT(final String encodedName) {
+    RegionState regionState = this.regionsInTransition.get(encodedName);
+    return regionState == null ? null : regionState.getRegion();
+  }
+
+  /**
+   * Records the transition of <code>regions</code> in <code>.META.</code> when
+   * not using zookeeper for assignment.  Catalog regions are skipped as their
+   * transitions cannot be kept in the tables they are assigning.  Must not be
+   * called holding a region lock or the regions monitor.
+   * @param regions
+   * @param et
+   * @param sn server the regions are being opened or closed on
+   * @throws IOException if the edit could not be made, in which case the
+   * transition must not go ahead
+   */
+  private void recordTransitions(final List<HRegionInfo> regions, final EventType et,
+      final ServerName sn)
+  throws IOException {
+    if (this.useZKForAssignment) return;
+    List<RegionTransition> transitions = new ArrayList<RegionTransition>(regions.size());
+    for (HRegionInfo hri : regions) {
+      if (hri.isMetaTable()) continue;
+      RegionTransition rt = RegionTransition.createRegionTransition(et, hri.getRegionName(), sn);
+      // Remembered first: should the edit fail after all making it to META,
+      // clearing the region later still finds it
+      this.recordedTransitions.put(hri.getEncodedName(), rt.toByteArray());
+      transitions.add(rt);
+    }
+    if (transitions.isEmpty()) return;
+    MetaEditor.updateRegionTransitions(this.catalogTracker, transitions);
+  }
+
+  /**
+   * @param hri
+   * @return the transition of <code>hri</code> last written to
+   * <code>.META.</code>, to pass to {@link #clearTransition(HRegionInfo, byte[])}
+   * once the region is out of transition; null if there is none
+   */
+  private byte [] getRecordedTransition(final HRegionInfo hri) {
+    if (this.useZKForAssignment) return null;
+    return this.recordedTransitions.get(hri.getEncodedName());
+  }
+
+  /**
+   * Removes the transition recorded by
+   * {@link #recordTransitions(List, EventType, ServerName)}, unless another
+   * one was recorded since.  Aborts the master if META cannot be edited, as
+   * failing to delete an unassigned znode does.  Must not be called holding a
+   * region lock or the regions monitor.
+   * @param hri
+   * @param recorded what {@link #getRecordedTransition(HRegionInfo)} returned
+   * before <code>hri</code> was taken out of transition
+   */
+  private void clearTransition(final HRegionInfo hri, final byte [] recorded) {
+    if (recorded == null) return;
+    try {
+      if (!MetaEditor.deleteRegionTransition(this.catalogTracker, hri, recorded)) {
+        LOG.debug("Not clearing transition of " + hri.getRegionNameAsString() +
+          " in META; a later one was recorded");
+      }
+      this.recordedTransitions.remove(hri.getEncodedName(), recorded);
+    } catch (IOException ioe) {
+      this.master.abort("Failed clearing transition of " + hri.getRegionNameAsString() +
+        " in META", ioe);
+    }
+  }
+
   /**
    * Handles various states an unassigned node can be in.
    * <p>
@@ -734,22 +972,24 @@ public class AssignmentManager extends ZooKeeperListener {
    * yet).
    * @param rt
    * @param expectedVersion
+   * @return false if the transition was dropped because the region was not in
+   * a state it can make this transition from
    */
-  private void handleRegion(final RegionTransition rt, int expectedVersion) {
+  private boolean handleRegion(final RegionTransition rt, int expectedVersion) {
     HRegionInfo hri = null;
     if (rt == null) {
       LOG.warn("Unexpected NULL input " + rt);
-      return;
+      return false;
     }
     final ServerName sn = rt.getServerName();
     if (sn == null) {
       LOG.warn("Null servername: " + rt);
-      return;
+      return false;
     }
     // Check if this is a special HBCK transition
     if (sn.equals(HBCK_CODE_SERVERNAME)) {
       handleHBCK(rt);
-      return;
+      return true;
     }
     final long createTime = rt.getCreateTime();
     final byte[] regionName = rt.getRegionName();
@@ -761,7 +1001,7 @@ public class AssignmentManager extends ZooKeeperListener {
       && !ignoreStatesRSOffline.contains(rt.getEventType())) {
       LOG.warn("Attempted to handle region transition for server but " +
         "server is not online: " + prettyPrintedRegionName);
-      return;
+      return false;
     }
 
     // We need a lock on the region as we could update it
@@ -839,7 +1079,7 @@ public class AssignmentManager extends ZooKeeperListener {
               " from server " + sn + " but region was in " +
               " the state " + regionState + " and not " +
               "in expected PENDING_CLOSE or CLOSING states");
-            return;
+            return false;
           }
           // Transition to CLOSING (or update stamp if already CLOSING)
           regionState.update(RegionState.State.CLOSING, createTime, sn);
@@ -863,7 +1103,7 @@ public class AssignmentManager extends ZooKeeperListener {
                 " from server " + sn + " but region was in " +
                 " the state " + regionState + " and not " +
                 "in expected PENDING_CLOSE or CLOSING states");
-            return;
+            return false;
           }
           // Handle CLOSED by assigning elsewhere or stopping if a disable
           // If we got here all is good.  Need to update RegionState -- else
@@ -889,7 +1129,7 @@ public class AssignmentManager extends ZooKeeperListener {
             LOG.warn("Received FAILED_OPEN for region " + prettyPrintedRegionName +
                 " from server " + sn + " but region was in " +
                 " the state " + regionState + " and not in PENDING_OPEN or OPENING");
-            return;
+            return false;
           }
           // Handle this the same as if it were opened and then closed.
           regionState.update(RegionState.State.CLOSED, createTime, sn);
@@ -917,7 +1157,7 @@ public class AssignmentManager extends ZooKeeperListener {
                 " from server " + sn + " but region was in " +
                 " the state " + regionState + " and not " +
                 "in expected PENDING_OPEN or OPENING states");
-            return;
+            return false;
           }
           // Transition to OPENING (or update stamp if already OPENING)
           regionState.update(RegionState.State.OPENING, createTime, sn);
@@ -940,7 +1180,7 @@ public class AssignmentManager extends ZooKeeperListener {
                 " from server " + sn + " but region was in " +
                 " the state " + regionState + " and not " +
                 "in expected PENDING_OPEN or OPENING states");
-            return;
+            return false;
           }
           // Handle OPENED by removing from transition and deleted zk node
           regionState.update(RegionState.State.OPEN, createTime, sn);
@@ -951,6 +1191,7 @@ public class AssignmentManager extends ZooKeeperListener {
         default:
           throw new IllegalStateException("Received event is not valid.");
       }
+      return true;
     } finally {
       lock.unlock();
     }
@@ -1199,6 +1440,15 @@ public class AssignmentManager extends ZooKeeperListener {
 
   }
 
+  /**
+   * Onlines a region whose OPENED transition was reported over RPC.  With
+   * zookeeper this is done once the OPENED znode is deleted.
+   * @param rs
+   */
+  public void regionOpened(final RegionState rs) {
+    makeRegionOnline(rs, rs.getRegion());
+  }
+
   private void makeRegionOnline(RegionState rs, HRegionInfo regionInfo) {
     regionOnline(regionInfo, rs.serverName);
     LOG.info("The master has opened the region "
@@ -1247,6 +1497,7 @@ public class AssignmentManager extends ZooKeeperListener {
    * @param sn
    */
   void regionOnline(HRegionInfo regionInfo, ServerName sn) {
+    byte [] recorded = getRecordedTransition(regionInfo);
     // no lock concurrency ok.
     this.regionsInTransition.remove(regionInfo.getEncodedName());
 
@@ -1269,6 +1520,7 @@ public class AssignmentManager extends ZooKeeperListener {
     clearRegionPlan(regionInfo);
     // Add the server to serversInUpdatingTimer
     addToServersInUpdatingTimer(sn);
+    clearTransition(regionInfo, recorded);
   }
 
   /**
@@ -1325,12 +1577,14 @@ public class AssignmentManager extends ZooKeeperListener {
    * @param regionInfo
    */
   public void regionOffline(final HRegionInfo regionInfo) {
+    byte [] recorded = getRecordedTransition(regionInfo);
     // no lock concurrency ok
     this.regionsInTransition.remove(regionInfo.getEncodedName());
 
     // remove the region plan as well just in case.
     clearRegionPlan(regionInfo);
     setOffline(regionInfo);
+    clearTransition(regionInfo, recorded);
   }
 
   /**
@@ -1451,28 +1705,44 @@ public class AssignmentManager extends ZooKeeperListener {
     }
     this.addPlans(plans);
     
-    // Presumption is that only this thread will be updating the state at this
-    // time; i.e. handlers on backend won't be trying to set it to OPEN, etc.
-    AtomicInteger counter = new AtomicInteger(0);
-    CreateUnassignedAsyncCallback cb =
-      new CreateUnassignedAsyncCallback(this.watcher, destination, counter);
-    for (RegionState state: states) {
-      if (!asyncSetOfflineInZooKeeper(state, cb, state)) {
+    if (this.useZKForAssignment) {
+      // Presumption is that only this thread will be updating the state at this
+      // time; i.e. handlers on backend won't be trying to set it to OPEN, etc.
+      AtomicInteger counter = new AtomicInteger(0);
+      CreateUnassignedAsyncCallback cb =
+        new CreateUnassignedAsyncCallback(this.watcher, destination, counter);
+      for (RegionState state: states) {
+        if (!asyncSetOfflineInZooKeeper(state, cb, state)) {
+          return false;
+        }
+      }
+      // Wait until all unassigned nodes have been put up and watchers set.
+      int total = regions.size();
+      for (int oldCounter = 0; true;) {
+        int count = counter.get();
+        if (oldCounter != count) {
+          LOG.info(destination.toString() + " unassigned znodes=" + count +
+            " of total=" + total);
+          oldCounter = count;
+        }
+        if (count == total) break;
+        Threads.sleep(1);
+      }
+    } else {
+      // One batch of META edits stands in for the unassigned znodes
+      try {
+        recordTransitions(regions, EventType.M_ZK_REGION_OFFLINE, destination);
+      } catch (IOException ioe) {
+        LOG.warn("Failed recording " + regions.size() + " region(s) OFFLINE in META; " +
+          "not assigning them to " + destination, ioe);
         return false;
       }
-    }
-    // Wait until all unassigned nodes have been put up and watchers set.
-    int total = regions.size();
-    for (int oldCounter = 0; true;) {
-      int count = counter.get();
-      if (oldCounter != count) {
-        LOG.info(destination.toString() + " unassigned znodes=" + count +
-          " of total=" + total);
-        oldCounter = count;
+      long now = System.currentTimeMillis();
+      for (RegionState state: states) {
+        state.update(RegionState.State.PENDING_OPEN, now, destination);
       }
-      if (count == total) break;
-      Threads.sleep(1);
     }
+    sendFavoredNodes(destination, regions);
     // Move on to open regions.
     try {
       // Send OPEN RPC. If it fails on a IOE or RemoteException, the
@@ -1530,7 +1800,8 @@ public class AssignmentManager extends ZooKeeperListener {
 
   /**
    * Bulk assign regions to available servers if any with retry, else assign
-   * region singly.
+   * region singly.  The bulk assigns to the different servers run in parallel,
+   * up to <code>hbase.bulk.assignment.threadpool.size</code> at a time.
    * 
    * @param regions all regions to assign
    * @param servers all available servers
@@ -1538,8 +1809,44 @@ public class AssignmentManager extends ZooKeeperListener {
   public void assign(List<HRegionInfo> regions, List<ServerName> servers) {
     LOG.info("Quickly assigning " + regions.size() + " region(s) across "
         + servers.size() + " server(s)");
-    Map<ServerName, List<HRegionInfo>> bulkPlan = balancer
-        .roundRobinAssignment(regions, servers);
+    assign(preferFavoredNodes(balancer.roundRobinAssignment(regions, servers),
+      servers), regions, servers);
+  }
+
+  /**
+   * Assigns each of <code>regions</code> to a random online server, or to one
+   * of its favored servers, as {@link #assign(HRegionInfo, boolean)} would.
+   * The regions of each server are bulk assigned, so their unassigned znodes
+   * are put up in one pipelined batch rather than one at a time.
+   * @param regions
+   */
+  public void assignRandomly(List<HRegionInfo> regions) {
+    List<ServerName> servers = serverManager.createDestinationServersList();
+    if (servers.isEmpty()) {
+      LOG.warn("No servers to assign " + regions.size() + " region(s) to");
+      return;
+    }
+    Map<HRegionInfo, ServerName> immediate =
+      balancer.immediateAssignment(regions, servers);
+    Map<ServerName, List<HRegionInfo>> bulkPlan = null;
+    if (immediate != null) {
+      bulkPlan = new TreeMap<ServerName, List<HRegionInfo>>();
+      for (Map.Entry<HRegionInfo, ServerName> e : immediate.entrySet()) {
+        List<HRegionInfo> planned = bulkPlan.get(e.getValue());
+        if (planned == null) {
+          planned = new ArrayList<HRegionInfo>();
+          bulkPlan.put(e.getValue(), planned);
+        }
+        planned.add(e.getKey());
+      }
+    }
+    LOG.info("Assigning " + regions.size() + " region(s) randomly across "
+        + servers.size() + " server(s)");
+    assign(preferFavoredNodes(bulkPlan, servers), regions, servers);
+  }
+
+  private void assign(Map<ServerName, List<HRegionInfo>> bulkPlan,
+      List<HRegionInfo> regions, List<ServerName> servers) {
     if (bulkPlan == null || bulkPlan.isEmpty()) {
       LOG.info("Failed getting bulk plan, assigning region singly");
       for (HRegionInfo region : regions) {
@@ -1547,12 +1854,28 @@ public class AssignmentManager extends ZooKeeperListener {
       }
       return;
     }
+    // One bulk open per destination, as many destinations in parallel as
+    // the pool allows
+    Map<ServerName, Future<Boolean>> results =
+      new HashMap<ServerName, Future<Boolean>>(bulkPlan.size());
+    for (final Map.Entry<ServerName, List<HRegionInfo>> e : bulkPlan.entrySet()) {
+      results.put(e.getKey(), this.bulkAssignPool.submit(
+        new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            return assign(e.getKey(), e.getValue());
+          }
+        }));
+    }
     Map<ServerName, List<HRegionInfo>> failedPlans = new HashMap<ServerName, List<HRegionInfo>>();
     for (Map.Entry<ServerName, List<HRegionInfo>> e : bulkPlan.entrySet()) {
       try {
-        if (!assign(e.getKey(), e.getValue())) {
+        if (!results.get(e.getKey()).get()) {
           failedPlans.put(e.getKey(), e.getValue());
         }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        failedPlans.put(e.getKey(), e.getValue());
       } catch (Throwable t) {
         LOG.warn("Failed bulking assigning " + e.getValue().size()
             + " region(s) to " + e.getKey().getServerName()
@@ -1713,10 +2036,16 @@ public class AssignmentManager extends ZooKeeperListener {
       boolean hijack) {
     for (int i = 0; i < this.maximumAssignmentAttempts; i++) {
       int versionOfOfflineNode = -1;
-      if (setOfflineInZK) {
+      if (setOfflineInZK && !this.useZKForAssignment) {
+        if (!setOfflineInMemory(state, hijack)) return;
+        // No znode; the transition is recorded in META once we have a plan
+        versionOfOfflineNode = 0;
+      } else if (setOfflineInZK) {
         // get the version of the znode after setting it to OFFLINE.
         // versionOfOfflineNode will be -1 if the znode was not set to OFFLINE
         versionOfOfflineNode = setOfflineInZooKeeper(state, hijack);
+      }
+      if (setOfflineInZK) {
         if (versionOfOfflineNode != -1) {
           if (isDisabledorDisablingRegionInRIT(region)) {
             return;
@@ -1750,9 +2079,14 @@ public class AssignmentManager extends ZooKeeperListener {
       try {
         LOG.debug("Assigning region " + state.getRegion().getRegionNameAsString() +
           " to " + plan.getDestination().toString());
+        // Failing to record the transition is a failed attempt like any other
+        recordTransitions(Collections.singletonList(state.getRegion()),
+          EventType.M_ZK_REGION_OFFLINE, plan.getDestination());
         // Transition RegionState to PENDING_OPEN
         state.update(RegionState.State.PENDING_OPEN, System.currentTimeMillis(),
             plan.getDestination());
+        sendFavoredNodes(plan.getDestination(),
+          Collections.singletonList(state.getRegion()));
         // Send OPEN RPC. This can fail if the server on other end is is not up.
         // Pass the version that was obtained while setting the node to OFFLINE.
         RegionOpeningState regionOpenState = serverManager.sendRegionOpen(plan
@@ -1835,6 +2169,29 @@ public class AssignmentManager extends ZooKeeperListener {
     return false;
   }
 
+  /**
+   * Does the in-memory part of {@link #setOfflineInZooKeeper(RegionState, boolean)}
+   * when not using zookeeper for assignment.
+   * @param state
+   * @param hijack
+   * @return false if the region was in an unexpected state and we aborted
+   */
+  private boolean setOfflineInMemory(final RegionState state, boolean hijack) {
+    if (!hijack && !state.isClosed() && !state.isOffline()) {
+      String msg = "Unexpected state : " + state + " .. Cannot transit it to OFFLINE.";
+      this.master.abort(msg, new IllegalStateException(msg));
+      return false;
+    }
+    if (hijack &&
+        (state.getState().equals(RegionState.State.PENDING_OPEN) ||
+            state.getState().equals(RegionState.State.OPENING))) {
+      state.update(RegionState.State.PENDING_OPEN);
+    } else {
+      state.update(RegionState.State.OFFLINE);
+    }
+    return true;
+  }
+
   /**
    * Set region as OFFLINED up in zookeeper
    * 
@@ -1966,8 +2323,11 @@ public class AssignmentManager extends ZooKeeperListener {
           || existingPlan.getDestination() == null
           || !destServers.contains(existingPlan.getDestination())) {
         newPlan = true;
-        randomPlan = new RegionPlan(state.getRegion(), null,
-            balancer.randomAssignment(state.getRegion(), destServers));
+        ServerName destination = getFavoredDestination(state.getRegion(), destServers);
+        if (destination == null) {
+          destination = balancer.randomAssignment(state.getRegion(), destServers);
+        }
+        randomPlan = new RegionPlan(state.getRegion(), null, destination);
         this.regionPlans.put(encodedName, randomPlan);
       }
     }
@@ -2078,12 +2438,20 @@ public class AssignmentManager extends ZooKeeperListener {
     // Grab the state of this region and synchronize on it
     RegionState state;
     int versionOfClosingNode = -1;
+    // Server to record the CLOSING transition in META against, once out of the lock
+    ServerName recordClosingOn = null;
     // We need a lock here as we're going to do a put later and we don't want multiple states
     //  creation
     ReentrantLock lock = locker.acquireLock(encodedName);
     try {
       state = regionsInTransition.get(encodedName);
-      if (state == null) {
+      if (state == null && !this.useZKForAssignment) {
+        synchronized (this.regions) {
+          recordClosingOn = regions.get(region);
+        }
+        state = new RegionState(region, RegionState.State.PENDING_CLOSE);
+        regionsInTransition.put(encodedName, state);
+      } else if (state == null) {
         // Create the znode in CLOSING state
         try {
           versionOfClosingNode = ZKAssign.createNodeClosing(
@@ -2140,7 +2508,39 @@ public class AssignmentManager extends ZooKeeperListener {
     } finally {
       lock.unlock();
     }
+    if (recordClosingOn != null) {
+      try {
+        recordTransitions(Collections.singletonList(region),
+          EventType.M_ZK_REGION_CLOSING, recordClosingOn);
+      } catch (IOException ioe) {
+        LOG.warn("Failed recording CLOSING of " + region.getRegionNameAsString() +
+          " in META; not unassigning it", ioe);
+        lock = locker.acquireLock(encodedName);
+        try {
+          if (regionsInTransition.get(encodedName) == state) {
+            regionsInTransition.remove(encodedName);
+          }
+        } finally {
+          lock.unlock();
+        }
+        return;
+      }
+    }
+    sendRegionClose(region, state, versionOfClosingNode, dest);
+  }
 
+  /**
+   * Sends the CLOSE RPC of an unassign, once the region is PENDING_CLOSE.
+   * @param region
+   * @param state PENDING_CLOSE state of <code>region</code>
+   * @param versionOfClosingNode version of the CLOSING znode of
+   * <code>region</code>, -1 if none
+   * @param dest if not null, where the region is moving to
+   */
+  private void sendRegionClose(final HRegionInfo region, RegionState state,
+      final int versionOfClosingNode, final ServerName dest) {
+    String encodedName = region.getEncodedName();
+    ReentrantLock lock;
     // Send CLOSE RPC
     ServerName server = null;
     synchronized (this.regions) {
@@ -2220,12 +2620,145 @@ public class AssignmentManager extends ZooKeeperListener {
   public void unassign(HRegionInfo region, boolean force){
      unassign(region, force, null);
   }
+
+  /**
+   * Unassigns the specified regions, as {@link #unassign(HRegionInfo)} does
+   * each, but with their CLOSING znodes all created in one pipelined batch.
+   * One CLOSE RPC per server is sent from <code>pool</code>.  Regions whose znode
+   * could not be created in the batch, say because they are splitting, go
+   * through {@link #unassign(HRegionInfo)} one by one.
+   * @param regions
+   * @param pool runs the CLOSE RPCs
+   */
+  public void unassign(final List<HRegionInfo> regions,
+      final java.util.concurrent.ExecutorService pool) {
+    final Map<String, Integer> closingNodes;
+    final List<HRegionInfo> closing = new ArrayList<HRegionInfo>(regions.size());
+    if (this.useZKForAssignment) {
+      // Hold the region locks from the in transition check until the regions
+      // are PENDING_CLOSE, as unassign does for one region.  Only ever taken
+      // in encoded name order here, and singly elsewhere.
+      SortedMap<String, HRegionInfo> byName = new TreeMap<String, HRegionInfo>();
+      for (HRegionInfo region : regions) {
+        byName.put(region.getEncodedName(), region);
+      }
+      List<ReentrantLock> locks = new ArrayList<ReentrantLock>(byName.size());
+      try {
+        for (Map.Entry<String, HRegionInfo> e : byName.entrySet()) {
+          locks.add(locker.acquireLock(e.getKey()));
+          if (regionsInTransition.get(e.getKey()) != null) continue;
+          synchronized (this.regions) {
+            if (!this.regions.containsKey(e.getValue())) continue;
+          }
+          closing.add(e.getValue());
+        }
+        closingNodes = closing.isEmpty() ? new HashMap<String, Integer>() :
+          ZKAssign.createNodesClosing(master.getZooKeeper(), closing,
+            master.getServerName());
+        for (HRegionInfo region : closing) {
+          if (closingNodes.containsKey(region.getEncodedName())) {
+            regionsInTransition.put(region.getEncodedName(),
+              new RegionState(region, RegionState.State.PENDING_CLOSE));
+          }
+        }
+      } catch (KeeperException e) {
+        master.abort("Unexpected ZK exception creating nodes CLOSING", e);
+        return;
+      } finally {
+        for (ReentrantLock lock : locks) {
+          lock.unlock();
+        }
+      }
+      LOG.debug("Created " + closingNodes.size() + " CLOSING znode(s) of " +
+        regions.size() + " region(s) to unassign");
+    } else {
+      closingNodes = new HashMap<String, Integer>();
+    }
+    // One CLOSE RPC per server for the regions that got a CLOSING znode
+    Map<ServerName, List<HRegionInfo>> byServer =
+      new HashMap<ServerName, List<HRegionInfo>>();
+    for (HRegionInfo region : regions) {
+      final HRegionInfo hri = region;
+      final Integer version = closingNodes.get(hri.getEncodedName());
+      if (version == null) {
+        if (isRegionInTransition(hri) != null) continue;
+        pool.execute(new Runnable() {
+          public void run() {
+            unassign(hri);
+          }
+        });
+        continue;
+      }
+      final RegionState state = regionsInTransition.get(hri.getEncodedName());
+      if (state == null) continue;
+      ServerName server;
+      synchronized (this.regions) {
+        server = this.regions.get(hri);
+      }
+      if (server == null) {
+        // Went offline meanwhile, sendRegionClose cleans up after it
+        pool.execute(new Runnable() {
+          public void run() {
+            sendRegionClose(hri, state, version, null);
+          }
+        });
+        continue;
+      }
+      List<HRegionInfo> serverRegions = byServer.get(server);
+      if (serverRegions == null) {
+        serverRegions = new ArrayList<HRegionInfo>();
+        byServer.put(server, serverRegions);
+      }
+      serverRegions.add(hri);
+    }
+    for (final Map.Entry<ServerName, List<HRegionInfo>> e : byServer.entrySet()) {
+      pool.execute(new Runnable() {
+        public void run() {
+          sendRegionsClose(e.getKey(), e.getValue(), closingNodes);
+        }
+      });
+    }
+  }
+
+  /**
+   * Sends one CLOSE RPC for <code>regions</code>, all PENDING_CLOSE on
+   * <code>server</code>.  The regions the server did not start closing, or
+   * all of them if the server does not know the bulk close, are then closed
+   * one by one so that failures are handled as for a single unassign.
+   */
+  private void sendRegionsClose(final ServerName server,
+      final List<HRegionInfo> regions, final Map<String, Integer> closingNodes) {
+    int [] versions = new int[regions.size()];
+    for (int i = 0; i < versions.length; i++) {
+      versions[i] = closingNodes.get(regions.get(i).getEncodedName());
+    }
+    boolean [] closed = null;
+    try {
+      closed = serverManager.sendRegionsClose(server, regions, versions);
+      LOG.debug("Sent CLOSE to " + server + " for " + regions.size() +
+        " region(s)");
+    } catch (Throwable t) {
+      if (t instanceof RemoteException) {
+        t = ((RemoteException)t).unwrapRemoteException();
+      }
+      LOG.info("Server " + server + " returned " + t + " for CLOSE of " +
+        regions.size() + " region(s), closing them one by one");
+    }
+    for (int i = 0; i < versions.length; i++) {
+      if (closed != null && closed[i]) continue;
+      HRegionInfo region = regions.get(i);
+      RegionState state = regionsInTransition.get(region.getEncodedName());
+      if (state == null) continue;
+      sendRegionClose(region, state, versions[i], null);
+    }
+  }
   
   /**
    * 
    * @param region regioninfo of znode to be deleted.
    */
   public void deleteClosingOrClosedNode(HRegionInfo region) {
+    if (!this.useZKForAssignment) return;
     try {
       if (!ZKAssign.deleteNode(master.getZooKeeper(), region.getEncodedName(),
           EventHandler.EventType.M_ZK_REGION_CLOSING)) {
@@ -2350,7 +2883,8 @@ public class AssignmentManager extends ZooKeeperListener {
       return;
     Map<ServerName, List<HRegionInfo>> bulkPlan = null;
     // Generate a round-robin bulk assignment plan
-    bulkPlan = balancer.roundRobinAssignment(regions, servers);
+    bulkPlan = preferFavoredNodes(balancer.roundRobinAssignment(regions, servers),
+      servers);
     LOG.info("Bulk assigning " + regions.size() + " region(s) round-robin across " +
                servers.size() + " server(s)");
     // Use fixed count thread pool assigning.
@@ -2399,7 +2933,8 @@ public class AssignmentManager extends ZooKeeperListener {
     Map<ServerName, List<HRegionInfo>> bulkPlan = null;
     if (retainAssignment) {
       // Reuse existing assignment info
-      bulkPlan = balancer.retainAssignment(allRegions, destServers);
+      bulkPlan = preferFavoredNodes(
+        balancer.retainAssignment(allRegions, destServers), destServers);
     } else {
       // assign regions in round-robin fashion
       assignUserRegions(new ArrayList<HRegionInfo>(allRegions.keySet()), destServers);
@@ -2566,7 +3101,7 @@ public class AssignmentManager extends ZooKeeperListener {
    * @return True if none of the regions in the set is in transition
    * @throws InterruptedException
    */
-  boolean waitUntilNoRegionsInTransition(final long timeout, Set<HRegionInfo> regions)
+  public boolean waitUntilNoRegionsInTransition(final long timeout, Set<HRegionInfo> regions)
     throws InterruptedException {
     final long endTime = System.currentTimeMillis() + timeout;
 
@@ -2599,8 +3134,9 @@ public class AssignmentManager extends ZooKeeperListener {
    */
   Map<ServerName, List<Pair<HRegionInfo, Result>>> rebuildUserRegions()
   throws IOException, KeeperException {
-    // Region assignment from META
-    List<Result> results = MetaReader.fullScan(this.catalogTracker);
+    // Region assignment from META, each META region scanned in parallel
+    List<Result> results =
+      MetaReader.fullScan(this.catalogTracker, this.threadPoolExecutorService);
     // Get any new but slow to checkin region server that joined the cluster
     Set<ServerName> onlineServers = serverManager.getOnlineServers().keySet();
     // Map of offline servers and their regions to be returned
@@ -2615,6 +3151,14 @@ public class AssignmentManager extends ZooKeeperListener {
       HRegionInfo regionInfo = region.getFirst();
       ServerName regionLocation = region.getSecond();
       if (regionInfo == null) continue;
+      if (!this.useZKForAssignment) {
+        addTransitionInMeta(regionInfo, result);
+      }
+      if (this.useFavoredNodes) {
+        List<ServerName> favored = FavoredNodeAssignmentHelper.getFavoredNodes(
+          result.getValue(HConstants.CATALOG_FAMILY, HConstants.FAVOREDNODES_QUALIFIER));
+        if (favored != null) this.favoredNodes.put(regionInfo.getEncodedName(), favored);
+      }
       String tableName = regionInfo.getTableNameAsString();
       if (regionLocation == null) {
         // regionLocation could be null if createTable didn't finish properly.
@@ -2801,16 +3345,257 @@ public class AssignmentManager extends ZooKeeperListener {
   private void processDeadServersAndRecoverLostRegions(
       Map<ServerName, List<Pair<HRegionInfo, Result>>> deadServers, List<String> nodes)
   throws IOException, KeeperException {
-    processDeadServers(deadServers, nodes);
+    // Read all unassigned znodes in one go rather than one by one as each
+    // region comes up; there can be as many as there are regions.
+    Map<String, Pair<byte[], Stat>> unassigned = null;
+    if (this.useZKForAssignment) {
+      List<String> children = ZKUtil.listChildrenNoWatch(watcher, watcher.assignmentZNode);
+      unassigned = new HashMap<String, Pair<byte[], Stat>>();
+      if (children != null && !children.isEmpty()) {
+        List<String> paths = new ArrayList<String>(children.size());
+        for (String child : children) {
+          paths.add(ZKAssign.getNodeName(watcher, child));
+        }
+        for (Map.Entry<String, Pair<byte[], Stat>> e :
+            ZKUtil.getDataAndWatch(watcher, paths).entrySet()) {
+          unassigned.put(ZKAssign.getRegionName(watcher, e.getKey()), e.getValue());
+        }
+      }
+      LOG.debug("Read " + unassigned.size() + " unassigned znode(s)");
+    }
+    processDeadServers(deadServers, nodes, unassigned);
     if (!nodes.isEmpty()) {
       for (String encodedRegionName : nodes) {
-        processRegionInTransition(encodedRegionName, null, deadServers);
+        if (unassigned != null && unassigned.containsKey(encodedRegionName)) {
+          processRegionInTransition(encodedRegionName,
+            unassigned.get(encodedRegionName), deadServers);
+        } else {
+          processRegionInTransition(encodedRegionName, (HRegionInfo)null, deadServers);
+        }
+      }
+    }
+  }
+
+  /**
+   * Process failover of new master for region <code>encodedRegionName</code>
+   * whose unassigned znode was already read.
+   * @param encodedRegionName
+   * @param znode data and stat of the region's unassigned znode
+   * @param deadServers Can be null
+   * @throws KeeperException
+   */
+  private void processRegionInTransition(final String encodedRegionName,
+      final Pair<byte[], Stat> znode,
+      final Map<ServerName, List<Pair<HRegionInfo, Result>>> deadServers)
+  throws KeeperException {
+    RegionTransition rt;
+    try {
+      rt = RegionTransition.parseFrom(znode.getFirst());
+    } catch (DeserializationException e) {
+      LOG.warn("Failed parse znode data of " + encodedRegionName, e);
+      return;
+    }
+    HRegionInfo hri = getHRegionInfo(rt.getRegionName());
+    if (hri == null) return;
+    processRegionsInTransition(rt, hri, deadServers, znode.getSecond().getVersion());
+  }
+
+  /**
+   * @param hri
+   * @return the favored servers of <code>hri</code>, primary first, or null
+   */
+  public List<ServerName> getFavoredNodes(final HRegionInfo hri) {
+    return this.favoredNodes.get(hri.getEncodedName());
+  }
+
+  /**
+   * Forgets the favored servers of a region that is gone from
+   * <code>.META.</code>, with its table or into a merged region.
+   * @param hri
+   */
+  public void removeFavoredNodes(final HRegionInfo hri) {
+    this.favoredNodes.remove(hri.getEncodedName());
+  }
+
+  /**
+   * @param hri
+   * @param destServers
+   * @return the first of the favored servers of <code>hri</code> that is in
+   * <code>destServers</code>, or null
+   */
+  private ServerName getFavoredDestination(final HRegionInfo hri,
+      final List<ServerName> destServers) {
+    if (!this.useFavoredNodes) return null;
+    List<ServerName> favored = getFavoredNodes(hri);
+    if (favored == null) return null;
+    for (ServerName f : favored) {
+      for (ServerName sn : destServers) {
+        if (f.getHostAndPort().equals(sn.getHostAndPort())) return sn;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Moves the regions of <code>bulkPlan</code> that have favored servers
+   * among <code>servers</code> to whichever of those has the fewest regions in
+   * the plan.  The other regions stay where the plan has them.
+   * @param bulkPlan
+   * @param servers
+   * @return the new plan
+   */
+  private Map<ServerName, List<HRegionInfo>> preferFavoredNodes(
+      final Map<ServerName, List<HRegionInfo>> bulkPlan,
+      final List<ServerName> servers) {
+    if (!this.useFavoredNodes || bulkPlan == null || bulkPlan.isEmpty()) {
+      return bulkPlan;
+    }
+    Map<ServerName, List<HRegionInfo>> result = new TreeMap<ServerName, List<HRegionInfo>>();
+    Map<String, ServerName> byHostAndPort = new HashMap<String, ServerName>();
+    for (ServerName sn : servers) {
+      byHostAndPort.put(sn.getHostAndPort(), sn);
+      result.put(sn, new ArrayList<HRegionInfo>());
+    }
+    List<HRegionInfo> withFavored = new ArrayList<HRegionInfo>();
+    for (Map.Entry<ServerName, List<HRegionInfo>> e : bulkPlan.entrySet()) {
+      for (HRegionInfo hri : e.getValue()) {
+        if (getFavoredDestination(hri, servers) != null) {
+          withFavored.add(hri);
+          continue;
+        }
+        List<HRegionInfo> planned = result.get(e.getKey());
+        if (planned == null) {
+          planned = new ArrayList<HRegionInfo>();
+          result.put(e.getKey(), planned);
+        }
+        planned.add(hri);
+      }
+    }
+    for (HRegionInfo hri : withFavored) {
+      List<HRegionInfo> best = null;
+      for (ServerName f : getFavoredNodes(hri)) {
+        ServerName sn = byHostAndPort.get(f.getHostAndPort());
+        if (sn == null) continue;
+        List<HRegionInfo> planned = result.get(sn);
+        if (best == null || planned.size() < best.size()) best = planned;
+      }
+      best.add(hri);
+    }
+    Iterator<List<HRegionInfo>> it = result.values().iterator();
+    while (it.hasNext()) {
+      if (it.next().isEmpty()) it.remove();
+    }
+    LOG.debug(withFavored.size() + " of the region(s) in the bulk plan went " +
+      "to one of their favored servers");
+    return result;
+  }
+
+  /**
+   * Sends <code>destination</code> the favored nodes of user regions about to
+   * open there.  Regions without any first get favored nodes, with
+   * <code>destination</code> as primary, recorded in <code>.META.</code>.
+   * Failures are only logged: the regions open fine without favored nodes,
+   * their HFile blocks are just placed by HDFS.
+   * @param destination
+   * @param regions
+   */
+  private void sendFavoredNodes(final ServerName destination,
+      final List<HRegionInfo> regions) {
+    if (!this.useFavoredNodes) return;
+    Map<HRegionInfo, ServerName> primaries = new HashMap<HRegionInfo, ServerName>();
+    Map<HRegionInfo, List<ServerName>> toSend = new HashMap<HRegionInfo, List<ServerName>>();
+    for (HRegionInfo hri : regions) {
+      if (hri.isMetaTable()) continue;
+      List<ServerName> favored = getFavoredNodes(hri);
+      if (favored == null) {
+        primaries.put(hri, destination);
+      } else {
+        toSend.put(hri, favored);
+      }
+    }
+    if (!primaries.isEmpty()) {
+      Map<HRegionInfo, List<ServerName>> placed = new FavoredNodeAssignmentHelper(
+        this.serverManager.getOnlineServersList(), this.rackMapping)
+          .placeFavoredNodes(primaries);
+      // Left for the next assignment to place if they cannot be kept
+      if (recordFavoredNodes(placed)) {
+        for (Map.Entry<HRegionInfo, List<ServerName>> e : placed.entrySet()) {
+          this.favoredNodes.put(e.getKey().getEncodedName(), e.getValue());
+        }
+        toSend.putAll(placed);
+      }
+    }
+    try {
+      this.serverManager.sendFavoredNodes(destination, toSend);
+    } catch (IOException ioe) {
+      LOG.warn("Failed sending favored nodes of " + toSend.size() +
+        " region(s) to " + destination, ioe);
+    }
+  }
+
+  /**
+   * Gives the daughters of a split the favored nodes of their parent, which
+   * is where the blocks of the half files they reference are.
+   */
+  private void inheritFavoredNodes(final ServerName sn, final HRegionInfo parent,
+      final HRegionInfo a, final HRegionInfo b) {
+    if (!this.useFavoredNodes) return;
+    List<ServerName> favored = this.favoredNodes.remove(parent.getEncodedName());
+    if (favored == null) return;
+    Map<HRegionInfo, List<ServerName>> daughters = new HashMap<HRegionInfo, List<ServerName>>();
+    daughters.put(a, favored);
+    daughters.put(b, favored);
+    if (!recordFavoredNodes(daughters)) return;
+    this.favoredNodes.put(a.getEncodedName(), favored);
+    this.favoredNodes.put(b.getEncodedName(), favored);
+    try {
+      this.serverManager.sendFavoredNodes(sn, daughters);
+    } catch (IOException ioe) {
+      LOG.warn("Failed passing favored nodes of " + parent.getRegionNameAsString() +
+        " on to its daughters", ioe);
+    }
+  }
+
+  /**
+   * Writes favored nodes to <code>.META.</code>.  Must not be called holding
+   * a region lock or the regions monitor.
+   * @param favored
+   * @return false if they could not be written, in which case they must not
+   * be used, as a master taking over would not know of them
+   */
+  boolean recordFavoredNodes(final Map<HRegionInfo, List<ServerName>> favored) {
+    try {
+      MetaEditor.updateFavoredNodes(this.catalogTracker, favored);
+      return true;
+    } catch (IOException ioe) {
+      LOG.warn("Failed recording favored nodes of " + favored.size() +
+        " region(s) in META", ioe);
+      return false;
+    }
+  }
+
+  /**
+   * Picks up the transition recorded in the <code>.META.</code> row
+   * <code>result</code> of <code>regionInfo</code>, if any.
+   */
+  private void addTransitionInMeta(final HRegionInfo regionInfo, final Result result) {
+    byte [] data = result.getValue(HConstants.CATALOG_FAMILY,
+      HConstants.TRANSITION_QUALIFIER);
+    if (data == null) return;
+    this.recordedTransitions.put(regionInfo.getEncodedName(), data);
+    try {
+      RegionTransition rt = RegionTransition.parseFrom(data);
+      synchronized (this.transitionsInMeta) {
+        this.transitionsInMeta.put(regionInfo.getEncodedName(), rt);
       }
+    } catch (DeserializationException e) {
+      LOG.warn("Failed parse of transition in META for " +
+        regionInfo.getRegionNameAsString(), e);
     }
   }
 
   private void processDeadServers(Map<ServerName, List<Pair<HRegionInfo, Result>>> deadServers,
-      final List<String> nodes)
+      final List<String> nodes, final Map<String, Pair<byte[], Stat>> unassigned)
   throws KeeperException, IOException {
     if (deadServers == null) return;
     Set<ServerName> actualDeadServers = this.serverManager.getDeadServers();
@@ -2828,11 +3613,31 @@ public class AssignmentManager extends ZooKeeperListener {
         HRegionInfo regionInfo = region.getFirst();
         Result result = region.getSecond();
         try {
+          if (!this.useZKForAssignment) {
+            RegionTransition rt;
+            synchronized (this.transitionsInMeta) {
+              rt = this.transitionsInMeta.get(regionInfo.getEncodedName());
+            }
+            // Being handled by a live server; processRegionsInTransition will see to it
+            if (rt != null && isServerOnline(rt.getServerName())) continue;
+            if (ServerShutdownHandler.processDeadRegion(
+                regionInfo, result, this, this.catalogTracker)) {
+              synchronized (this.transitionsInMeta) {
+                this.transitionsInMeta.put(regionInfo.getEncodedName(),
+                  RegionTransition.createRegionTransition(EventType.M_ZK_REGION_OFFLINE,
+                    regionInfo.getRegionName(), this.master.getServerName()));
+              }
+              if (!nodes.contains(regionInfo.getEncodedName())) {
+                nodes.add(regionInfo.getEncodedName());
+              }
+            }
+            continue;
+          }
           // If region was in transition (was in zk) force it offline for reassign.  Check if node
           // up in zk at all first.
-          if (ZKUtil.checkExists(this.watcher,
-              ZKAssign.getPath(this.watcher, regionInfo.getEncodedName())) != -1) {
-            byte [] data = ZKAssign.getData(watcher, regionInfo.getEncodedName());
+          Pair<byte[], Stat> znode = unassigned.get(regionInfo.getEncodedName());
+          if (znode != null) {
+            byte [] data = znode.getFirst();
             if (data == null) {
               LOG.warn("No data in znode for " + regionInfo.getEncodedName());
               continue;
@@ -2860,6 +3665,8 @@ public class AssignmentManager extends ZooKeeperListener {
           if (assign) {
             ZKAssign.createOrForceNodeOffline(watcher, regionInfo,
                 master.getServerName());
+            // What was read before is stale now
+            unassigned.remove(regionInfo.getEncodedName());
             if (!nodes.contains(regionInfo.getEncodedName())) {
               nodes.add(regionInfo.getEncodedName());
             }
@@ -2979,6 +3786,18 @@ public class AssignmentManager extends ZooKeeperListener {
   }
 
 
+  /**
+   * @param sn
+   * @return the regions the in-memory state has on <code>sn</code>, a copy
+   */
+  public List<HRegionInfo> getRegionsOfServer(final ServerName sn) {
+    synchronized (this.regions) {
+      Set<HRegionInfo> serverRegions = this.servers.get(sn);
+      return serverRegions == null ? new ArrayList<HRegionInfo>() :
+        new ArrayList<HRegionInfo>(serverRegions);
+    }
+  }
+
   /**
    * Gets the online regions of the specified table.
    * This method looks at the in-memory state.  It does not go to <code>.META.</code>.
@@ -3154,6 +3973,11 @@ public class AssignmentManager extends ZooKeeperListener {
   private void processOpeningState(HRegionInfo regionInfo) {
     LOG.info("Region has been OPENING for too " + "long, reassigning region="
         + regionInfo.getRegionNameAsString());
+    if (!this.useZKForAssignment) {
+      // Nothing to check; had it opened it would no longer be OPENING
+      invokeAssign(regionInfo);
+      return;
+    }
     // Should have a ZK node in OPENING state
     try {
       String node = ZKAssign.getNodeName(watcher, regionInfo.getEncodedName());
@@ -3303,6 +4127,7 @@ public class AssignmentManager extends ZooKeeperListener {
     regionOffline(parent);
     regionOnline(a, sn);
     regionOnline(b, sn);
+    inheritFavoredNodes(sn, parent, a, b);
 
     // There's a possibility that the region was splitting while a user asked
     // the master to disable, we need to make sure we close those regions in
@@ -3690,6 +4515,7 @@ public class AssignmentManager extends ZooKeeperListener {
     if (null != threadPoolExecutorService) {
       this.threadPoolExecutorService.shutdown();
     }
+    this.bulkAssignPool.shutdown();
   }
 
   protected void setEnabledTable(String tableName) {
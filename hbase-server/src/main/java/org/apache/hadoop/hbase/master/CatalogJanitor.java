@@ -50,6 +50,7 @@ import org.apache.hadoop.hbase.regionserver.StoreFile;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.FSUtils;
 import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.hbase.util.PairOfSameType;
 import org.apache.hadoop.hbase.util.Writables;
 
 
@@ -104,6 +105,17 @@ class CatalogJanitor extends Chore {
    * an ordered map of split parents.
    */
   Pair<Integer, Map<HRegionInfo, Result>> getSplitParents() throws IOException {
+    return getSplitParents(null);
+  }
+
+  /**
+   * Scans META and returns a number of scanned rows, and
+   * an ordered map of split parents.
+   * @param mergedRegions If not null, regions that still keep the regions
+   * merged into them are added here
+   */
+  private Pair<Integer, Map<HRegionInfo, Result>> getSplitParents(
+      final Map<HRegionInfo, Result> mergedRegions) throws IOException {
     // TODO: Only works with single .META. region currently.  Fix.
     final AtomicInteger count = new AtomicInteger(0);
     // Keep Map of found split parents.  There are candidates for cleanup.
@@ -119,6 +131,10 @@ class CatalogJanitor extends Chore {
         HRegionInfo info = getHRegionInfo(r);
         if (info == null) return true; // Keep scanning
         if (info.isSplitParent()) splitParents.put(info, r);
+        if (mergedRegions != null &&
+            r.getValue(HConstants.CATALOG_FAMILY, HConstants.MERGEA_QUALIFIER) != null) {
+          mergedRegions.put(info, r);
+        }
         // Returning true means "keep scanning"
         return true;
       }
@@ -135,12 +151,18 @@ class CatalogJanitor extends Chore {
    * @throws IOException
    */
   int scan() throws IOException {
-    Pair<Integer, Map<HRegionInfo, Result>> pair = getSplitParents();
+    Map<HRegionInfo, Result> mergedRegions = new TreeMap<HRegionInfo, Result>();
+    Pair<Integer, Map<HRegionInfo, Result>> pair = getSplitParents(mergedRegions);
     int count = pair.getFirst();
     Map<HRegionInfo, Result> splitParents = pair.getSecond();
 
     // Now work on our list of found parents. See if any we can clean up.
     int cleaned = 0;
+    for (Map.Entry<HRegionInfo, Result> e : mergedRegions.entrySet()) {
+      if (cleanMergeRegion(e.getKey(), e.getValue())) {
+        cleaned++;
+      }
+    }
     HashSet<HRegionInfo> parentNotCleaned = new HashSet<HRegionInfo>(); //regions whose parents are still around
     for (Map.Entry<HRegionInfo, Result> e : splitParents.entrySet()) {
       if (!parentNotCleaned.contains(e.getKey()) && cleanParent(e.getKey(), e.getValue())) {
@@ -250,11 +272,43 @@ class CatalogJanitor extends Chore {
       Path rootdir = this.services.getMasterFileSystem().getRootDir();
       HRegion.deleteRegion(fs, rootdir, parent);
       MetaEditor.deleteRegion(this.server.getCatalogTracker(), parent);
+      if (this.services.getAssignmentManager() != null) {
+        this.services.getAssignmentManager().removeFavoredNodes(parent);
+      }
       result = true;
     }
     return result;
   }
 
+  /**
+   * If the merged region no longer holds references to the regions merged
+   * into it, delete their files and forget them.
+   * @param mergedRegion
+   * @param rowContent Content of <code>mergedRegion</code> row in
+   * <code>.META.</code>
+   * @return True if we removed the merged regions from the filesystem and
+   * from the row of <code>mergedRegion</code>.
+   * @throws IOException
+   */
+  boolean cleanMergeRegion(final HRegionInfo mergedRegion, Result rowContent)
+  throws IOException {
+    PairOfSameType<HRegionInfo> merged = MetaEditor.getMergeRegions(rowContent);
+    Pair<Boolean, Boolean> references =
+      checkDaughterInFs(mergedRegion, mergedRegion, HConstants.MERGEA_QUALIFIER);
+    if (!hasNoReferences(references)) {
+      return false;
+    }
+    LOG.debug("Deleting regions " + merged + " because merged region " +
+      mergedRegion.getRegionNameAsString() + " no longer holds references");
+    FileSystem fs = this.services.getMasterFileSystem().getFileSystem();
+    Path rootdir = this.services.getMasterFileSystem().getRootDir();
+    for (HRegionInfo hri : merged) {
+      if (hri != null) HRegion.deleteRegion(fs, rootdir, hri);
+    }
+    MetaEditor.deleteMergeQualifiers(this.server.getCatalogTracker(), mergedRegion);
+    return true;
+  }
+
   /**
    * @param p A pair where the first boolean says whether or not the daughter
    * region directory exists in the filesystem and then the second boolean says
@@ -57,6 +57,7 @@ import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.MasterNotRunningException;
 import org.apache.hadoop.hbase.NotAllMetaRegionsOnlineException;
 import org.apache.hadoop.hbase.PleaseHoldException;
+import org.apache.hadoop.hbase.RegionTransition;
 import org.apache.hadoop.hbase.Server;
 import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.TableDescriptors;
@@ -112,6 +113,7 @@ import org.apache.hadoop.hbase.zookeeper.ZKClusterId;
 import org.apache.hadoop.hbase.zookeeper.ClusterStatusTracker;
 import org.apache.hadoop.hbase.zookeeper.DrainingServerTracker;
 import org.apache.hadoop.hbase.zookeeper.RegionServerTracker;
+import org.apache.hadoop.hbase.zookeeper.ZKSplitLog;
 import org.apache.hadoop.hbase.zookeeper.ZKUtil;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
 import org.apache.hadoop.metrics.util.MBeanUtil;
@@ -265,6 +267,8 @@ Server {
   private volatile boolean balanceSwitch = true;
 
   private CatalogJanitor catalogJanitorChore;
+  private MajorCompactionCoordinator majorCompactionCoordinatorChore;
+  private RegionNormalizer regionNormalizerChore;
   private LogCleaner logCleaner;
 
   private MasterCoprocessorHost cpHost;
@@ -629,6 +633,15 @@ Server {
     if (!masterRecovery) {      
       this.assignmentManager.startTimeOutMonitor();
     }
+    // Regions a previous master marked recovering may not be assigned, so
+    // rather than replay into them, write their edits out to recovered.edits
+    // and reopen those that did get assigned once we know where they are.
+    Set<String> abandonedRecoveries = Collections.emptySet();
+    if (conf.getBoolean(HConstants.DISTRIBUTED_LOG_REPLAY_KEY,
+        HConstants.DEFAULT_DISTRIBUTED_LOG_REPLAY)) {
+      abandonedRecoveries = ZKSplitLog.removeRecoveringRegions(this.zooKeeper, null);
+    }
+
     // TODO: Should do this in background rather than block master startup
     status.setStatus("Splitting logs after master startup");
     splitLogAfterStartup(this.fileSystemManager);
@@ -648,6 +661,7 @@ Server {
     // Fixup assignment manager status
     status.setStatus("Starting assignment manager");
     this.assignmentManager.joinCluster();
+    reopenRegions(abandonedRecoveries);
 
     this.balancer.setClusterStatus(getClusterStatus());
 
@@ -662,6 +676,14 @@ Server {
       this.balancerChore = getAndStartBalancerChore(this);
       this.catalogJanitorChore = new CatalogJanitor(this, this);
       startCatalogJanitorChore();
+      if (conf.getBoolean("hbase.master.majorcompaction.coordinator.enabled", false)) {
+        this.majorCompactionCoordinatorChore = new MajorCompactionCoordinator(this, this);
+        Threads.setDaemonThreadRunning(majorCompactionCoordinatorChore.getThread());
+      }
+      if (conf.getBoolean("hbase.master.normalizer.enabled", false)) {
+        this.regionNormalizerChore = new RegionNormalizer(this, this);
+        Threads.setDaemonThreadRunning(regionNormalizerChore.getThread());
+      }
      
       registerMBean();
     }
@@ -694,6 +716,24 @@ Server {
     Threads.setDaemonThreadRunning(catalogJanitorChore.getThread());
   }
 
+  /**
+   * Reopens the online regions among <code>encodedNames</code>, so that they
+   * pick up their recovered.edits.
+   * @param encodedNames
+   */
+  private void reopenRegions(final Set<String> encodedNames) {
+    if (encodedNames.isEmpty()) return;
+    for (List<HRegionInfo> regions : this.assignmentManager.getAssignments().values()) {
+      for (HRegionInfo hri : regions) {
+        if (encodedNames.contains(hri.getEncodedName())) {
+          LOG.info("Reopening " + hri.getRegionNameAsString() +
+            " as its log replay was abandoned");
+          this.assignmentManager.unassign(hri);
+        }
+      }
+    }
+  }
+
   /**
    * Override to change master's splitLogAfterStartup. Used testing
    * @param mfs
@@ -1049,6 +1089,12 @@ Server {
     if (this.catalogJanitorChore != null) {
       this.catalogJanitorChore.interrupt();
     }
+    if (this.majorCompactionCoordinatorChore != null) {
+      this.majorCompactionCoordinatorChore.interrupt();
+    }
+    if (this.regionNormalizerChore != null) {
+      this.regionNormalizerChore.interrupt();
+    }
   }
 
   @Override
@@ -1133,6 +1179,20 @@ Server {
     return ReportRSFatalErrorResponse.newBuilder().build();
   }
 
+  @Override
+  public boolean reportRegionTransition(final byte [] transition) throws IOException {
+    if (this.assignmentManager == null) {
+      throw new PleaseHoldException("Master is initializing");
+    }
+    RegionTransition rt;
+    try {
+      rt = RegionTransition.parseFrom(transition);
+    } catch (DeserializationException de) {
+      throw new IOException("Failed parse of region transition", de);
+    }
+    return this.assignmentManager.reportRegionTransition(rt);
+  }
+
   public boolean isMasterRunning() {
     return !isStopped();
   }
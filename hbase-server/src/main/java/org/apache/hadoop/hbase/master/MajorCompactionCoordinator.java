@@ -0,0 +1,255 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Chore;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.Server;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.monitoring.MonitoredTask;
+import org.apache.hadoop.hbase.monitoring.TaskMonitor;
+import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.GetRegionInfoResponse.CompactionState;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.net.DNSToSwitchMapping;
+import org.apache.hadoop.net.ScriptBasedMapping;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Schedules major compactions of all user regions from the master so that
+ * they are spread out over time and across the cluster instead of firing
+ * independently on each region server.
+ * <p>
+ * Every region is major compacted once per
+ * <code>hbase.master.majorcompaction.coordinator.interval</code>.  At most
+ * <code>hbase.master.majorcompaction.coordinator.max.per.server</code> of them
+ * run concurrently on any one region server and at most
+ * <code>hbase.master.majorcompaction.coordinator.max.per.rack</code> on any one
+ * rack, racks being resolved with the configured hadoop topology mapping.
+ * Progress is published as a {@link MonitoredTask} on the master status page.
+ * <p>
+ * Region servers keep running their own time based major compactions unless
+ * <code>hbase.hregion.majorcompaction</code> is set to 0 on them, which is the
+ * expected setup when this chore is enabled.  Schedule state is only kept in
+ * memory; after a master failover the new master starts a fresh cycle.
+ */
+@InterfaceAudience.Private
+class MajorCompactionCoordinator extends Chore {
+  private static final Log LOG = LogFactory.getLog(MajorCompactionCoordinator.class);
+
+  private final MasterServices services;
+  private final long interval;
+  private final int maxPerServer;
+  private final int maxPerRack;
+  private final DNSToSwitchMapping rackMapping;
+  private final MonitoredTask status;
+  private final Random random = new Random();
+
+  /** Last time each region (by encoded name) was major compacted by us */
+  private final Map<String, Long> lastCompacted = new HashMap<String, Long>();
+  /** Regions we asked to major compact and that have not finished yet */
+  private final Map<HRegionInfo, ServerName> running =
+    new HashMap<HRegionInfo, ServerName>();
+  private long completedInCycle = 0;
+
+  MajorCompactionCoordinator(final Server server, final MasterServices services) {
+    super(server.getServerName() + "-MajorCompactionCoordinator",
+      server.getConfiguration().getInt(
+        "hbase.master.majorcompaction.coordinator.period", 60000),
+      server);
+    Configuration conf = server.getConfiguration();
+    this.services = services;
+    this.interval = conf.getLong(
+      "hbase.master.majorcompaction.coordinator.interval", 1000 * 60 * 60 * 24);
+    this.maxPerServer = Math.max(1, conf.getInt(
+      "hbase.master.majorcompaction.coordinator.max.per.server", 1));
+    this.maxPerRack = Math.max(1, conf.getInt(
+      "hbase.master.majorcompaction.coordinator.max.per.rack", Integer.MAX_VALUE));
+    this.rackMapping = ReflectionUtils.newInstance(
+      conf.getClass("topology.node.switch.mapping.impl", ScriptBasedMapping.class,
+        DNSToSwitchMapping.class), conf);
+    this.status = TaskMonitor.get().createStatus("Coordinating major compactions");
+  }
+
+  @Override
+  protected void chore() {
+    checkRunning();
+    scheduleCompactions();
+  }
+
+  @Override
+  public void run() {
+    try {
+      super.run();
+    } finally {
+      this.status.markComplete("Major compaction coordinator stopped");
+    }
+  }
+
+  /**
+   * Drops the regions whose major compaction has finished, or that moved off
+   * the server we asked, from the running set.  A region whose state cannot
+   * be had stays in the running set and is asked about again on the next run.
+   */
+  private void checkRunning() {
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    Iterator<Map.Entry<HRegionInfo, ServerName>> it = running.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<HRegionInfo, ServerName> e = it.next();
+      ServerName sn = this.services.getAssignmentManager().getRegionServerOfRegion(
+        e.getKey());
+      if (!e.getValue().equals(sn)) {
+        // Moved, closed or split; it gets scheduled again if it is still due
+        LOG.debug(e.getKey().getRegionNameAsString() + " is no longer on " +
+          e.getValue() + ", dropping it from the running major compactions");
+        it.remove();
+        continue;
+      }
+      CompactionState state;
+      try {
+        state = this.services.getServerManager().getRegionCompactionState(
+          e.getValue(), e.getKey());
+      } catch (IOException ioe) {
+        LOG.debug("Failed getting compaction state of " +
+          e.getKey().getRegionNameAsString() + " on " + e.getValue() +
+          ", will check again", ioe);
+        continue;
+      }
+      if (state == CompactionState.MAJOR ||
+          state == CompactionState.MAJOR_AND_MINOR) {
+        continue;
+      }
+      lastCompacted.put(e.getKey().getEncodedName(), now);
+      completedInCycle++;
+      it.remove();
+    }
+  }
+
+  private void scheduleCompactions() {
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    Map<ServerName, List<HRegionInfo>> assignments =
+      this.services.getAssignmentManager().getAssignments();
+
+    Map<ServerName, String> racks = resolveRacks(assignments.keySet());
+    Map<ServerName, Integer> perServer = new HashMap<ServerName, Integer>();
+    Map<String, Integer> perRack = new HashMap<String, Integer>();
+    for (ServerName sn : running.values()) {
+      increment(perServer, sn);
+      increment(perRack, racks.get(sn));
+    }
+
+    // Forget regions that are gone, e.g. split parents, and spread regions we
+    // have not seen before over the interval so they do not all come due now
+    Map<String, Long> known = new HashMap<String, Long>();
+    final Map<HRegionInfo, Long> due = new HashMap<HRegionInfo, Long>();
+    List<HRegionInfo> candidates = new ArrayList<HRegionInfo>();
+    Map<HRegionInfo, ServerName> locations = new HashMap<HRegionInfo, ServerName>();
+    int total = 0;
+    for (Map.Entry<ServerName, List<HRegionInfo>> e : assignments.entrySet()) {
+      for (HRegionInfo hri : e.getValue()) {
+        if (hri.isMetaRegion() || hri.isRootRegion()) continue;
+        total++;
+        Long last = lastCompacted.get(hri.getEncodedName());
+        if (last == null) {
+          last = now - (long)(random.nextDouble() * interval);
+        }
+        known.put(hri.getEncodedName(), last);
+        if (running.containsKey(hri) || now - last < interval) continue;
+        due.put(hri, last);
+        candidates.add(hri);
+        locations.put(hri, e.getKey());
+      }
+    }
+    lastCompacted.clear();
+    lastCompacted.putAll(known);
+
+    // Most overdue first
+    Collections.sort(candidates, new Comparator<HRegionInfo>() {
+      @Override
+      public int compare(HRegionInfo left, HRegionInfo right) {
+        return due.get(left).compareTo(due.get(right));
+      }
+    });
+
+    for (HRegionInfo hri : candidates) {
+      ServerName sn = locations.get(hri);
+      String rack = racks.get(sn);
+      if (count(perServer, sn) >= maxPerServer || count(perRack, rack) >= maxPerRack) {
+        continue;
+      }
+      try {
+        this.services.getServerManager().sendRegionCompact(sn, hri, true);
+      } catch (IOException ioe) {
+        LOG.warn("Failed requesting major compaction of " +
+          hri.getRegionNameAsString() + " on " + sn, ioe);
+        continue;
+      }
+      LOG.debug("Requested major compaction of " + hri.getRegionNameAsString() +
+        " on " + sn + " (rack " + rack + ")");
+      running.put(hri, sn);
+      increment(perServer, sn);
+      increment(perRack, rack);
+    }
+
+    if (candidates.isEmpty() && running.isEmpty()) {
+      completedInCycle = 0;
+    }
+    this.status.setStatus("Major compacting " + running.size() + " region(s), " +
+      completedInCycle + " done this cycle, " + candidates.size() + " due, " +
+      total + " total");
+  }
+
+  private Map<ServerName, String> resolveRacks(final Iterable<ServerName> servers) {
+    List<ServerName> sns = new ArrayList<ServerName>();
+    List<String> hosts = new ArrayList<String>();
+    for (ServerName sn : servers) {
+      sns.add(sn);
+      hosts.add(sn.getHostname());
+    }
+    Map<ServerName, String> result = new HashMap<ServerName, String>(sns.size());
+    List<String> resolved = hosts.isEmpty() ? null : rackMapping.resolve(hosts);
+    for (int i = 0; i < sns.size(); i++) {
+      String rack = (resolved == null || resolved.size() <= i) ?
+        null : resolved.get(i);
+      result.put(sns.get(i), rack == null ? "default" : rack);
+    }
+    return result;
+  }
+
+  private static <T> int count(final Map<T, Integer> counts, final T key) {
+    Integer c = counts.get(key);
+    return c == null ? 0 : c.intValue();
+  }
+
+  private static <T> void increment(final Map<T, Integer> counts, final T key) {
+    counts.put(key, count(counts, key) + 1);
+  }
+}
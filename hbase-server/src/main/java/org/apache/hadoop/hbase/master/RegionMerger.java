@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.catalog.MetaEditor;
+import org.apache.hadoop.hbase.io.Reference;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.FSUtils;
+
+/**
+ * Merges two adjacent regions of an enabled table.  This is the online
+ * counterpart of {@link org.apache.hadoop.hbase.util.HMerge}: only the two
+ * regions are taken out of service, not the whole table.
+ * <p>
+ * The regions are closed and kept offline, and a merged region is made that
+ * holds a reference to each of their store files, the way a split leaves
+ * daughters referencing their parent.  The two regions are swapped for the
+ * merged one in <code>.META.</code> in a single atomic mutation, and the
+ * merged region is assigned.  The region server opening it rewrites the
+ * references in its reference compaction pool; once they are gone the
+ * {@link CatalogJanitor} deletes the files of the two regions.  Regions that
+ * still hold references, from a split or an earlier merge, are not merged.
+ * <p>
+ * Nothing is changed in the directories of the two regions, so a failure
+ * before the <code>.META.</code> edit leaves them as they were and they are
+ * assigned again.
+ */
+@InterfaceAudience.Private
+class RegionMerger {
+  private static final Log LOG = LogFactory.getLog(RegionMerger.class);
+
+  private final MasterServices services;
+  private final long timeout;
+
+  RegionMerger(final MasterServices services) {
+    this.services = services;
+    this.timeout = services.getConfiguration().getLong(
+      "hbase.master.merge.close.timeout", 60000);
+  }
+
+  /**
+   * @param a region to merge
+   * @param b region to merge, must start where <code>a</code> ends
+   * @return the merged region, now being assigned
+   * @throws IOException
+   */
+  HRegionInfo merge(final HRegionInfo a, final HRegionInfo b) throws IOException {
+    if (!Bytes.equals(a.getTableName(), b.getTableName()) ||
+        !Bytes.equals(a.getEndKey(), b.getStartKey())) {
+      throw new IOException("Regions " + a.getRegionNameAsString() + " and " +
+        b.getRegionNameAsString() + " are not adjacent");
+    }
+    checkNoReferences(a);
+    checkNoReferences(b);
+    AssignmentManager am = this.services.getAssignmentManager();
+    LOG.info("Merging regions " + a.getRegionNameAsString() + " and " +
+      b.getRegionNameAsString());
+
+    am.keepOfflineAfterClose(a);
+    am.keepOfflineAfterClose(b);
+    HRegionInfo merged = null;
+    boolean inMeta = false;
+    try {
+      am.unassign(a);
+      am.unassign(b);
+      waitForOffline(a);
+      waitForOffline(b);
+      // A flush on close cannot add references, but check on the closed files
+      checkNoReferences(a);
+      checkNoReferences(b);
+
+      merged = new HRegionInfo(a.getTableName(), a.getStartKey(), b.getEndKey());
+      createMergedRegion(merged, a, b);
+      MetaEditor.mergeRegions(this.services.getCatalogTracker(), merged, a, b);
+      inMeta = true;
+      am.removeFavoredNodes(a);
+      am.removeFavoredNodes(b);
+      am.assign(merged, true);
+      LOG.info("Merged regions " + a.getRegionNameAsString() + " and " +
+        b.getRegionNameAsString() + " into " + merged.getRegionNameAsString());
+      return merged;
+    } catch (IOException ioe) {
+      if (inMeta) {
+        LOG.error("Merged region " + merged.getRegionNameAsString() +
+          " is in META but failed to be assigned", ioe);
+      } else {
+        if (merged != null) deleteMergedRegion(merged);
+        reassignIfOffline(a);
+        reassignIfOffline(b);
+      }
+      throw ioe;
+    } finally {
+      am.clearKeepOfflineAfterClose(a);
+      am.clearKeepOfflineAfterClose(b);
+    }
+  }
+
+  /**
+   * Makes the directory of <code>merged</code>, with a reference to each of the
+   * store files of <code>a</code> and <code>b</code>.
+   */
+  private void createMergedRegion(final HRegionInfo merged, final HRegionInfo a,
+      final HRegionInfo b) throws IOException {
+    MasterFileSystem mfs = this.services.getMasterFileSystem();
+    FileSystem fs = mfs.getFileSystem();
+    Path tableDir = HTableDescriptor.getTableDir(mfs.getRootDir(), a.getTableName());
+    Path mergedDir = HRegion.getRegionDir(tableDir, merged.getEncodedName());
+    if (fs.exists(mergedDir)) {
+      throw new IOException("Cannot merge; target file collision at " + mergedDir);
+    }
+    HTableDescriptor htd = this.services.getTableDescriptors().get(a.getTableName());
+    for (HColumnDescriptor family : htd.getFamilies()) {
+      Path mergedStoreDir = Store.getStoreHomedir(tableDir,
+        merged.getEncodedName(), family.getName());
+      if (!fs.mkdirs(mergedStoreDir)) {
+        throw new IOException("Failed to create " + mergedStoreDir);
+      }
+      // All of a is below its end key, all of b from its start key up
+      writeReferences(fs, tableDir, a, family, mergedStoreDir,
+        Reference.createBottomReference(a.getEndKey()));
+      writeReferences(fs, tableDir, b, family, mergedStoreDir,
+        Reference.createTopReference(b.getStartKey()));
+    }
+  }
+
+  private void writeReferences(final FileSystem fs, final Path tableDir,
+      final HRegionInfo hri, final HColumnDescriptor family,
+      final Path mergedStoreDir, final Reference reference) throws IOException {
+    for (FileStatus file : listStoreFiles(fs, tableDir, hri, family)) {
+      // Named like the references of a split, see StoreFile#split
+      reference.write(fs, new Path(mergedStoreDir,
+        file.getPath().getName() + "." + hri.getEncodedName()));
+    }
+  }
+
+  private static FileStatus[] listStoreFiles(final FileSystem fs,
+      final Path tableDir, final HRegionInfo hri, final HColumnDescriptor family)
+  throws IOException {
+    Path storeDir = Store.getStoreHomedir(tableDir, hri.getEncodedName(),
+      family.getName());
+    FileStatus[] files = FSUtils.listStatus(fs, storeDir, null);
+    if (files == null) return new FileStatus[0];
+    int count = 0;
+    for (FileStatus file : files) {
+      // Skip directories and empty files, as Store does on open
+      if (!file.isDir() && file.getLen() > 0) files[count++] = file;
+    }
+    FileStatus[] storeFiles = new FileStatus[count];
+    System.arraycopy(files, 0, storeFiles, 0, count);
+    return storeFiles;
+  }
+
+  /**
+   * @throws IOException if <code>hri</code> still reads through references
+   */
+  private void checkNoReferences(final HRegionInfo hri) throws IOException {
+    MasterFileSystem mfs = this.services.getMasterFileSystem();
+    FileSystem fs = mfs.getFileSystem();
+    Path tableDir = HTableDescriptor.getTableDir(mfs.getRootDir(), hri.getTableName());
+    HTableDescriptor htd = this.services.getTableDescriptors().get(hri.getTableName());
+    for (HColumnDescriptor family : htd.getFamilies()) {
+      for (FileStatus file : listStoreFiles(fs, tableDir, hri, family)) {
+        if (StoreFile.isReference(file.getPath())) {
+          throw new IOException("Cannot merge " + hri.getRegionNameAsString() +
+            " while it holds references, e.g. " + file.getPath() +
+            "; retry once it has been compacted");
+        }
+      }
+    }
+  }
+
+  private void deleteMergedRegion(final HRegionInfo merged) {
+    MasterFileSystem mfs = this.services.getMasterFileSystem();
+    try {
+      HRegion.deleteRegion(mfs.getFileSystem(), mfs.getRootDir(), merged);
+    } catch (IOException ioe) {
+      LOG.warn("Failed deleting " + merged.getRegionNameAsString() +
+        " after a failed merge", ioe);
+    }
+  }
+
+  private void waitForOffline(final HRegionInfo hri) throws IOException {
+    AssignmentManager am = this.services.getAssignmentManager();
+    long deadline = EnvironmentEdgeManager.currentTimeMillis() + this.timeout;
+    while (am.isRegionInTransition(hri) != null ||
+        am.getRegionServerOfRegion(hri) != null) {
+      if (this.services.isStopped() ||
+          EnvironmentEdgeManager.currentTimeMillis() > deadline) {
+        throw new IOException("Timed out waiting for " +
+          hri.getRegionNameAsString() + " to close");
+      }
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted waiting for " +
+          hri.getRegionNameAsString() + " to close");
+      }
+    }
+  }
+
+  private void reassignIfOffline(final HRegionInfo hri) {
+    AssignmentManager am = this.services.getAssignmentManager();
+    am.clearKeepOfflineAfterClose(hri);
+    if (am.isRegionInTransition(hri) == null &&
+        am.getRegionServerOfRegion(hri) == null) {
+      am.assign(hri, true);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Chore;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.RegionLoad;
+import org.apache.hadoop.hbase.Server;
+import org.apache.hadoop.hbase.ServerLoad;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Merges small adjacent regions of enabled tables so that tables which lose
+ * most of their data (e.g. to TTLs) do not keep thousands of near empty
+ * regions around.
+ * <p>
+ * Region sizes come from the {@link RegionLoad}s region servers report.  Two
+ * adjacent regions of a table are merged, with {@link RegionMerger}, when
+ * together they are no bigger than the average region of that table and no
+ * bigger than <code>hbase.master.normalizer.merge.max.size</code> MB.  At most
+ * <code>hbase.master.normalizer.merges.per.run</code> merges are done per run,
+ * and tables are never merged below
+ * <code>hbase.master.normalizer.min.region.count</code> regions.
+ */
+@InterfaceAudience.Private
+class RegionNormalizer extends Chore {
+  private static final Log LOG = LogFactory.getLog(RegionNormalizer.class);
+
+  private final MasterServices services;
+  private final RegionMerger merger;
+  private final int mergesPerRun;
+  private final int minRegionCount;
+  private final long maxMergeSizeMB;
+
+  RegionNormalizer(final Server server, final MasterServices services) {
+    this(server, services, new RegionMerger(services));
+  }
+
+  RegionNormalizer(final Server server, final MasterServices services,
+      final RegionMerger merger) {
+    super(server.getServerName() + "-RegionNormalizer",
+      server.getConfiguration().getInt("hbase.master.normalizer.period", 300000),
+      server);
+    Configuration conf = server.getConfiguration();
+    this.services = services;
+    this.merger = merger;
+    this.mergesPerRun = conf.getInt("hbase.master.normalizer.merges.per.run", 1);
+    this.minRegionCount = Math.max(1,
+      conf.getInt("hbase.master.normalizer.min.region.count", 1));
+    this.maxMergeSizeMB = conf.getLong("hbase.master.normalizer.merge.max.size", 1024);
+  }
+
+  @Override
+  protected void chore() {
+    AssignmentManager am = this.services.getAssignmentManager();
+    // Like the balancer, stay out of the way of regions in transition
+    if (am.isRegionsInTransition()) {
+      LOG.debug("Not normalizing because regions are in transition");
+      return;
+    }
+
+    Map<byte[], Integer> sizes = getRegionSizes();
+    Map<String, List<HRegionInfo>> byTable = new TreeMap<String, List<HRegionInfo>>();
+    for (List<HRegionInfo> regions : am.getAssignments().values()) {
+      for (HRegionInfo hri : regions) {
+        if (hri.isMetaRegion() || hri.isRootRegion()) continue;
+        List<HRegionInfo> tableRegions = byTable.get(hri.getTableNameAsString());
+        if (tableRegions == null) {
+          tableRegions = new ArrayList<HRegionInfo>();
+          byTable.put(hri.getTableNameAsString(), tableRegions);
+        }
+        tableRegions.add(hri);
+      }
+    }
+
+    int merges = 0;
+    for (Map.Entry<String, List<HRegionInfo>> e : byTable.entrySet()) {
+      if (am.getZKTable().isDisablingOrDisabledTable(e.getKey())) continue;
+      List<HRegionInfo> regions = e.getValue();
+      int regionCount = regions.size();
+      if (regionCount <= this.minRegionCount) continue;
+      Collections.sort(regions);
+      long total = 0;
+      for (HRegionInfo hri : regions) {
+        Integer size = sizes.get(hri.getRegionName());
+        if (size != null) total += size;
+      }
+      long average = total / regionCount;
+
+      for (int i = 0; i < regions.size() - 1 && regionCount > this.minRegionCount; i++) {
+        HRegionInfo a = regions.get(i);
+        HRegionInfo b = regions.get(i + 1);
+        Integer sizeA = sizes.get(a.getRegionName());
+        Integer sizeB = sizes.get(b.getRegionName());
+        // No load reported yet, e.g. the region just opened
+        if (sizeA == null || sizeB == null) continue;
+        if (!Bytes.equals(a.getEndKey(), b.getStartKey())) continue;
+        long merged = (long)sizeA + sizeB;
+        if (merged > average || merged > this.maxMergeSizeMB) continue;
+        try {
+          this.merger.merge(a, b);
+        } catch (IOException ioe) {
+          LOG.warn("Failed merging " + a.getRegionNameAsString() + " and " +
+            b.getRegionNameAsString(), ioe);
+          return;
+        }
+        if (++merges >= this.mergesPerRun) return;
+        regionCount--;
+        // b is gone now
+        i++;
+      }
+    }
+  }
+
+  /**
+   * @return store file plus memstore size in MB of each region, keyed by
+   * region name, as last reported by the region servers
+   */
+  private Map<byte[], Integer> getRegionSizes() {
+    Map<byte[], Integer> sizes = new TreeMap<byte[], Integer>(Bytes.BYTES_COMPARATOR);
+    for (Map.Entry<ServerName, ServerLoad> e :
+        this.services.getServerManager().getOnlineServers().entrySet()) {
+      for (RegionLoad rl : e.getValue().getRegionsLoad().values()) {
+        sizes.put(rl.getName(), rl.getStorefileSizeMB() + rl.getMemStoreSizeMB());
+      }
+    }
+    return sizes;
+  }
+}
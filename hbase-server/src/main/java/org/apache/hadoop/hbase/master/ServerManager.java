@@ -41,6 +41,9 @@ import org.apache.hadoop.hbase.HServerAddress;
 import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
 import org.apache.hadoop.hbase.protobuf.RequestConverter;
 import org.apache.hadoop.hbase.protobuf.ResponseConverter;
+import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.CompactRegionRequest;
+import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.GetRegionInfoRequest;
+import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.GetRegionInfoResponse.CompactionState;
 import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.OpenRegionRequest;
 import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.OpenRegionResponse;
 import org.apache.hadoop.hbase.ServerLoad;
@@ -53,6 +56,7 @@ import org.apache.hadoop.hbase.client.AdminProtocol;
 import org.apache.hadoop.hbase.client.HConnection;
 import org.apache.hadoop.hbase.client.HConnectionManager;
 import org.apache.hadoop.hbase.client.RetriesExhaustedException;
+import org.apache.hadoop.hbase.master.balancer.FavoredNodeAssignmentHelper;
 import org.apache.hadoop.hbase.master.handler.MetaServerShutdownHandler;
 import org.apache.hadoop.hbase.master.handler.ServerShutdownHandler;
 import org.apache.hadoop.hbase.monitoring.MonitoredTask;
@@ -527,6 +531,33 @@ public class ServerManager {
     return ResponseConverter.getRegionOpeningStateList(response);
   }
 
+  /**
+   * Sends the favored nodes of regions about to be opened on
+   * <code>server</code>, so that it writes their HFiles to those datanodes.
+   * @param server
+   * @param favoredNodes favored servers of each region, primary first
+   * @throws IOException
+   */
+  public void sendFavoredNodes(final ServerName server,
+      final Map<HRegionInfo, List<ServerName>> favoredNodes)
+  throws IOException {
+    if (favoredNodes.isEmpty()) return;
+    AdminProtocol admin = getServerConnection(server);
+    if (admin == null) {
+      throw new IOException("Attempting to send favored nodes to server " +
+        server.toString() + " failed because no RPC connection found to this server");
+    }
+    String [] regions = new String[favoredNodes.size()];
+    String [] nodes = new String[favoredNodes.size()];
+    int i = 0;
+    for (Map.Entry<HRegionInfo, List<ServerName>> e : favoredNodes.entrySet()) {
+      regions[i] = e.getKey().getEncodedName();
+      nodes[i] = FavoredNodeAssignmentHelper.getFavoredNodesAsString(e.getValue());
+      i++;
+    }
+    admin.updateFavoredNodes(regions, nodes);
+  }
+
   /**
    * Sends an CLOSE RPC to the specified server to close the specified region.
    * <p>
@@ -560,6 +591,80 @@ public class ServerManager {
     return sendRegionClose(server, region, versionOfClosingNode, null);
   }
 
+  /**
+   * Sends one CLOSE RPC to the specified server for all of the specified
+   * regions.
+   * @param server server hosting the regions
+   * @param regions regions to close
+   * @param versionsOfClosingNode for each region, the version of its CLOSING
+   * znode
+   * @return for each region, true if the server acknowledged its close
+   * @throws IOException
+   */
+  public boolean [] sendRegionsClose(ServerName server, List<HRegionInfo> regions,
+      int [] versionsOfClosingNode) throws IOException {
+    if (server == null) throw new NullPointerException("Passed server is null");
+    AdminProtocol admin = getServerConnection(server);
+    if (admin == null) {
+      throw new IOException("Attempting to send CLOSE RPC to server " +
+        server.toString() + " for " + regions.size() + " regions" +
+        " failed because no RPC connection found to this server");
+    }
+    byte [][] regionNames = new byte[regions.size()][];
+    for (int i = 0; i < regionNames.length; i++) {
+      regionNames[i] = regions.get(i).getRegionName();
+    }
+    return admin.closeRegions(regionNames, versionsOfClosingNode);
+  }
+
+  /**
+   * Sends a COMPACT RPC to the specified server to compact the specified region.
+   * @param server server hosting the region
+   * @param region region to compact
+   * @param major true to request a major compaction
+   * @throws IOException
+   */
+  public void sendRegionCompact(final ServerName server, final HRegionInfo region,
+      final boolean major) throws IOException {
+    AdminProtocol admin = getServerConnection(server);
+    if (admin == null) {
+      throw new IOException("Attempting to send COMPACT RPC to server " +
+        server.toString() + " for region " + region.getRegionNameAsString() +
+        " failed because no RPC connection found to this server");
+    }
+    CompactRegionRequest request =
+      RequestConverter.buildCompactRegionRequest(region.getRegionName(), major);
+    try {
+      admin.compactRegion(null, request);
+    } catch (ServiceException se) {
+      throw ProtobufUtil.getRemoteException(se);
+    }
+  }
+
+  /**
+   * Asks the specified server whether the specified region is compacting.
+   * @param server server hosting the region
+   * @param region region to check
+   * @return the current compaction state of the region
+   * @throws IOException
+   */
+  public CompactionState getRegionCompactionState(final ServerName server,
+      final HRegionInfo region) throws IOException {
+    AdminProtocol admin = getServerConnection(server);
+    if (admin == null) {
+      throw new IOException("Attempting to get compaction state from server " +
+        server.toString() + " for region " + region.getRegionNameAsString() +
+        " failed because no RPC connection found to this server");
+    }
+    GetRegionInfoRequest request =
+      RequestConverter.buildGetRegionInfoRequest(region.getRegionName(), true);
+    try {
+      return admin.getRegionInfo(null, request).getCompactionState();
+    } catch (ServiceException se) {
+      throw ProtobufUtil.getRemoteException(se);
+    }
+  }
+
     /**
     * @param sn
     * @return
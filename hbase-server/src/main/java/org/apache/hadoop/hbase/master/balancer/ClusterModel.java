@@ -0,0 +1,423 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master.balancer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.RegionLoad;
+import org.apache.hadoop.hbase.ServerName;
+
+/**
+ * An integer indexed model of the cluster used by {@link StochasticLoadBalancer}.
+ * <p>
+ * Servers, regions and tables are numbered and the assignment is kept in
+ * arrays.  The aggregates behind each cost function (regions per server,
+ * regions of each table per server, memstore and storefile sizes per server,
+ * locality and number of moved regions) are updated in place by
+ * {@link #moveRegion(int, int)}, so that the cost of a proposed move can be
+ * computed in constant time, or in time linear in the number of servers for
+ * the table skew, instead of walking every region of the cluster.  A rejected
+ * move is undone by moving the region back.  The regions of each server are
+ * kept in an array with spare room at the end, a region leaving a server
+ * taking the place of the last one, so moving a region copies nothing.
+ * <p>
+ * The costs are the same as those of
+ * {@link StochasticLoadBalancer#costFromStats(org.apache.commons.math.stat.descriptive.DescriptiveStatistics)}
+ * over the per server values, with the sum of deviations from the mean kept
+ * up to date rather than recomputed.
+ */
+@InterfaceAudience.Private
+class ClusterModel {
+  final ServerName[] servers;
+  final HRegionInfo[] regions;
+  /** Server index each region was on when the model was built */
+  final int[] initialRegionToServer;
+  /** Server index each region is on now */
+  final int[] regionToServer;
+  /**
+   * Region indexes hosted by each server, in the first
+   * <code>numRegionsPerServer</code> places of each array
+   */
+  private final int[][] regionsPerServer;
+  private final int[] numRegionsPerServer;
+  /** Place of each region in the array of regions of its server */
+  private final int[] regionPlaceOnServer;
+
+  // Table skew
+  private final int[] regionToTable;
+  private final int[][] regionsPerServerPerTable;
+  private final int[] maxRegionsPerServerPerTable;
+  private int sumMaxRegionsPerTable;
+  private final double minTableSkew;
+  private final double maxTableSkew;
+
+  // Moves
+  private int numMovedRegions = 0;
+
+  // Region count skew
+  private final double meanRegions;
+  private final double maxRegionCountDeviation;
+  private double regionCountDeviation = 0;
+
+  // Region loads, null when there are none
+  private final int[] regionMemstoreMB;
+  private final int[] regionStorefileMB;
+  private final long[] serverMemstoreMB;
+  private final long[] serverStorefileMB;
+  private double meanMemstoreMB;
+  private double maxMemstoreDeviation;
+  private double memstoreDeviation = 0;
+  private double meanStorefileMB;
+  private double maxStorefileDeviation;
+  private double storefileDeviation = 0;
+
+  // Locality, null when unknown.  For each region the indexes of the servers
+  // holding most of its blocks, best first; -1 for servers not in the model.
+  private final int[][] regionLocations;
+  private double localityCost = 0;
+
+  /**
+   * @param clusterState current assignment of regions to servers
+   * @param loads region loads keyed by region name or encoded region name, or
+   * null if there are none
+   * @param regionFinder where to look up block locations, or null to ignore
+   * locality
+   */
+  ClusterModel(final Map<ServerName, List<HRegionInfo>> clusterState,
+      final Map<String, RegionLoad> loads, final RegionLocationFinder regionFinder) {
+    int numServers = clusterState.size();
+    int numRegions = 0;
+    for (List<HRegionInfo> rs : clusterState.values()) {
+      numRegions += rs.size();
+    }
+
+    this.servers = new ServerName[numServers];
+    this.regions = new HRegionInfo[numRegions];
+    this.initialRegionToServer = new int[numRegions];
+    this.regionToServer = new int[numRegions];
+    this.regionsPerServer = new int[numServers][];
+    this.numRegionsPerServer = new int[numServers];
+    this.regionPlaceOnServer = new int[numRegions];
+    this.regionToTable = new int[numRegions];
+
+    Map<ServerName, Integer> serverIndex = new HashMap<ServerName, Integer>(numServers);
+    Map<String, Integer> tableIndex = new HashMap<String, Integer>();
+    int s = 0;
+    int r = 0;
+    for (Entry<ServerName, List<HRegionInfo>> entry : clusterState.entrySet()) {
+      this.servers[s] = entry.getKey();
+      serverIndex.put(entry.getKey(), s);
+      this.regionsPerServer[s] = new int[entry.getValue().size()];
+      for (HRegionInfo region : entry.getValue()) {
+        this.regions[r] = region;
+        this.initialRegionToServer[r] = s;
+        this.regionToServer[r] = s;
+        addRegion(s, r);
+        String tableName = region.getTableNameAsString();
+        Integer t = tableIndex.get(tableName);
+        if (t == null) {
+          t = tableIndex.size();
+          tableIndex.put(tableName, t);
+        }
+        this.regionToTable[r] = t;
+        r++;
+      }
+      s++;
+    }
+
+    // Region count skew
+    this.meanRegions = numServers == 0 ? 0 : (double) numRegions / numServers;
+    this.maxRegionCountDeviation = maxDeviation(numServers, numRegions);
+    for (s = 0; s < numServers; s++) {
+      this.regionCountDeviation += Math.abs(this.meanRegions - this.numRegionsPerServer[s]);
+    }
+
+    // Table skew
+    int numTables = tableIndex.size();
+    this.regionsPerServerPerTable = new int[numServers][numTables];
+    this.maxRegionsPerServerPerTable = new int[numTables];
+    int[] regionsPerTable = new int[numTables];
+    for (r = 0; r < numRegions; r++) {
+      int t = this.regionToTable[r];
+      regionsPerTable[t]++;
+      int count = ++this.regionsPerServerPerTable[this.regionToServer[r]][t];
+      if (count > this.maxRegionsPerServerPerTable[t]) {
+        this.maxRegionsPerServerPerTable[t] = count;
+      }
+    }
+    double min = 0;
+    double max = 0;
+    for (int t = 0; t < numTables; t++) {
+      max += regionsPerTable[t];
+      min += (double) regionsPerTable[t] / numServers;
+      this.sumMaxRegionsPerTable += this.maxRegionsPerServerPerTable[t];
+    }
+    this.minTableSkew = min;
+    this.maxTableSkew = max;
+
+    // Region loads
+    if (loads == null || loads.isEmpty()) {
+      this.regionMemstoreMB = null;
+      this.regionStorefileMB = null;
+      this.serverMemstoreMB = null;
+      this.serverStorefileMB = null;
+    } else {
+      this.regionMemstoreMB = new int[numRegions];
+      this.regionStorefileMB = new int[numRegions];
+      this.serverMemstoreMB = new long[numServers];
+      this.serverStorefileMB = new long[numServers];
+      long totalMemstoreMB = 0;
+      long totalStorefileMB = 0;
+      for (r = 0; r < numRegions; r++) {
+        // The RegionLoad may be keyed by either flavour of region name
+        RegionLoad rl = loads.get(this.regions[r].getRegionNameAsString());
+        if (rl == null) {
+          rl = loads.get(this.regions[r].getEncodedName());
+        }
+        if (rl == null) continue;
+        this.regionMemstoreMB[r] = rl.getMemStoreSizeMB();
+        this.regionStorefileMB[r] = rl.getStorefileSizeMB();
+        this.serverMemstoreMB[this.regionToServer[r]] += this.regionMemstoreMB[r];
+        this.serverStorefileMB[this.regionToServer[r]] += this.regionStorefileMB[r];
+        totalMemstoreMB += this.regionMemstoreMB[r];
+        totalStorefileMB += this.regionStorefileMB[r];
+      }
+      this.meanMemstoreMB = (double) totalMemstoreMB / numServers;
+      this.maxMemstoreDeviation = maxDeviation(numServers, totalMemstoreMB);
+      this.meanStorefileMB = (double) totalStorefileMB / numServers;
+      this.maxStorefileDeviation = maxDeviation(numServers, totalStorefileMB);
+      for (s = 0; s < numServers; s++) {
+        this.memstoreDeviation += Math.abs(this.meanMemstoreMB - this.serverMemstoreMB[s]);
+        this.storefileDeviation += Math.abs(this.meanStorefileMB - this.serverStorefileMB[s]);
+      }
+    }
+
+    // Locality
+    if (regionFinder == null) {
+      this.regionLocations = null;
+    } else {
+      this.regionLocations = new int[numRegions][];
+      for (r = 0; r < numRegions; r++) {
+        List<ServerName> dataOnServers = regionFinder.getTopBlockLocations(this.regions[r]);
+        // If we can't find where the data is count that as being the best possible.
+        if (dataOnServers == null) continue;
+        int[] locations = new int[dataOnServers.size()];
+        int i = 0;
+        for (ServerName sn : dataOnServers) {
+          Integer index = serverIndex.get(sn);
+          locations[i++] = index == null ? -1 : index;
+        }
+        this.regionLocations[r] = locations;
+        this.localityCost += getLocalityCost(r, this.regionToServer[r]);
+      }
+    }
+  }
+
+  int getNumServers() {
+    return this.servers.length;
+  }
+
+  int getNumRegions() {
+    return this.regions.length;
+  }
+
+  int getNumMovedRegions() {
+    return this.numMovedRegions;
+  }
+
+  /**
+   * @param server index of a server
+   * @return how many regions the server hosts
+   */
+  int getNumRegions(final int server) {
+    return this.numRegionsPerServer[server];
+  }
+
+  /**
+   * @param server index of a server
+   * @param i between 0 and {@link #getNumRegions(int)} of the server
+   * @return index of the <code>i</code>th region of the server
+   */
+  int getRegion(final int server, final int i) {
+    return this.regionsPerServer[server][i];
+  }
+
+  /**
+   * Moves a region to another server, updating all the cost aggregates.
+   * @param region index of the region
+   * @param to index of the server to move it to
+   */
+  void moveRegion(final int region, final int to) {
+    int from = this.regionToServer[region];
+    if (from == to) return;
+    this.regionToServer[region] = to;
+    removeRegion(from, region);
+    addRegion(to, region);
+
+    if (from == this.initialRegionToServer[region]) {
+      this.numMovedRegions++;
+    } else if (to == this.initialRegionToServer[region]) {
+      this.numMovedRegions--;
+    }
+
+    int fromCount = this.numRegionsPerServer[from];
+    int toCount = this.numRegionsPerServer[to];
+    this.regionCountDeviation += deviationChange(this.meanRegions, fromCount + 1, fromCount) +
+      deviationChange(this.meanRegions, toCount - 1, toCount);
+
+    int t = this.regionToTable[region];
+    int fromTableCount = --this.regionsPerServerPerTable[from][t];
+    int toTableCount = ++this.regionsPerServerPerTable[to][t];
+    if (toTableCount > this.maxRegionsPerServerPerTable[t]) {
+      this.sumMaxRegionsPerTable += toTableCount - this.maxRegionsPerServerPerTable[t];
+      this.maxRegionsPerServerPerTable[t] = toTableCount;
+    } else if (fromTableCount + 1 == this.maxRegionsPerServerPerTable[t]) {
+      // The source server may have been the only one holding the max
+      int max = 0;
+      for (int s = 0; s < this.servers.length; s++) {
+        max = Math.max(max, this.regionsPerServerPerTable[s][t]);
+      }
+      this.sumMaxRegionsPerTable += max - this.maxRegionsPerServerPerTable[t];
+      this.maxRegionsPerServerPerTable[t] = max;
+    }
+
+    if (this.regionMemstoreMB != null) {
+      int memstoreMB = this.regionMemstoreMB[region];
+      this.memstoreDeviation +=
+        deviationChange(this.meanMemstoreMB, this.serverMemstoreMB[from],
+          this.serverMemstoreMB[from] - memstoreMB) +
+        deviationChange(this.meanMemstoreMB, this.serverMemstoreMB[to],
+          this.serverMemstoreMB[to] + memstoreMB);
+      this.serverMemstoreMB[from] -= memstoreMB;
+      this.serverMemstoreMB[to] += memstoreMB;
+
+      int storefileMB = this.regionStorefileMB[region];
+      this.storefileDeviation +=
+        deviationChange(this.meanStorefileMB, this.serverStorefileMB[from],
+          this.serverStorefileMB[from] - storefileMB) +
+        deviationChange(this.meanStorefileMB, this.serverStorefileMB[to],
+          this.serverStorefileMB[to] + storefileMB);
+      this.serverStorefileMB[from] -= storefileMB;
+      this.serverStorefileMB[to] += storefileMB;
+    }
+
+    if (this.regionLocations != null) {
+      this.localityCost += getLocalityCost(region, to) - getLocalityCost(region, from);
+    }
+  }
+
+  /**
+   * @return cost between 0 and 1 of the skew in number of regions per server
+   */
+  double getRegionCountSkewCost() {
+    return StochasticLoadBalancer.scale(0, this.maxRegionCountDeviation,
+      this.regionCountDeviation);
+  }
+
+  /**
+   * @return cost between 0 and 1 of how unevenly tables are spread
+   */
+  double getTableSkewCost() {
+    return StochasticLoadBalancer.scale(this.minTableSkew, this.maxTableSkew,
+      this.sumMaxRegionsPerTable);
+  }
+
+  /**
+   * @return cost between 0 and 1; 0 means every region is on the server with
+   * most of its store files, or locality is unknown
+   */
+  double getLocalityCost() {
+    if (this.regionLocations == null) return 0;
+    return StochasticLoadBalancer.scale(0, this.regions.length, this.localityCost);
+  }
+
+  /**
+   * @return cost between 0 and 1 of the skew in memstore size per server
+   */
+  double getMemstoreSizeCost() {
+    if (this.regionMemstoreMB == null) return 0;
+    return StochasticLoadBalancer.scale(0, this.maxMemstoreDeviation, this.memstoreDeviation);
+  }
+
+  /**
+   * @return cost between 0 and 1 of the skew in store file size per server
+   */
+  double getStorefileSizeCost() {
+    if (this.regionStorefileMB == null) return 0;
+    return StochasticLoadBalancer.scale(0, this.maxStorefileDeviation, this.storefileDeviation);
+  }
+
+  private double getLocalityCost(final int region, final int server) {
+    int[] locations = this.regionLocations[region];
+    if (locations == null) return 0;
+    for (int i = 0; i < locations.length; i++) {
+      if (locations[i] == server) {
+        return (double) i / (double) locations.length;
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * The largest possible sum of deviations from the mean: one server holding
+   * everything and all the others nothing.
+   */
+  private static double maxDeviation(final int n, final long sum) {
+    if (n == 0) return 0;
+    double mean = (double) sum / n;
+    return ((n - 1) * mean) + (sum - mean);
+  }
+
+  private static double deviationChange(final double mean, final long before, final long after) {
+    return Math.abs(mean - after) - Math.abs(mean - before);
+  }
+
+  /**
+   * Puts a region at the end of the regions of a server, making the array
+   * twice as large first if it is full.
+   */
+  private void addRegion(final int server, final int region) {
+    int[] serverRegions = this.regionsPerServer[server];
+    int count = this.numRegionsPerServer[server];
+    if (count == serverRegions.length) {
+      int[] grown = new int[Math.max(4, 2 * count)];
+      System.arraycopy(serverRegions, 0, grown, 0, count);
+      this.regionsPerServer[server] = serverRegions = grown;
+    }
+    serverRegions[count] = region;
+    this.regionPlaceOnServer[region] = count;
+    this.numRegionsPerServer[server] = count + 1;
+  }
+
+  /**
+   * Takes a region out of the regions of a server, moving the last region of
+   * the server into its place.
+   */
+  private void removeRegion(final int server, final int region) {
+    int[] serverRegions = this.regionsPerServer[server];
+    int last = --this.numRegionsPerServer[server];
+    int place = this.regionPlaceOnServer[region];
+    serverRegions[place] = serverRegions[last];
+    this.regionPlaceOnServer[serverRegions[place]] = place;
+  }
+}
@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master.balancer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.net.DNSToSwitchMapping;
+import org.apache.hadoop.net.NetworkTopology;
+import org.apache.hadoop.net.ScriptBasedMapping;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Picks the favored servers of regions: the primary, where the region is
+ * assigned, plus a secondary and a tertiary that keep the other replicas of
+ * the region's HFile blocks.  The secondary is on another rack than the
+ * primary if there is one, and the tertiary on the rack of the secondary but
+ * another host, like the HDFS default block placement would do.
+ * <p>
+ * Favored servers are kept as host and port only, since the region should
+ * still favor a server after it restarted.
+ */
+@InterfaceAudience.Private
+public class FavoredNodeAssignmentHelper {
+  private static final Log LOG = LogFactory.getLog(FavoredNodeAssignmentHelper.class);
+
+  /** How many favored servers a region has */
+  public static final int FAVORED_NODES_NUM = 3;
+
+  private final Map<String, List<ServerName>> serversByRack =
+    new TreeMap<String, List<ServerName>>();
+  private final Map<String, String> rackOfHost = new HashMap<String, String>();
+  private final List<String> racks;
+  private final Random random = new Random();
+
+  /**
+   * @param servers servers to pick favored nodes among
+   * @param rackMapping resolves the racks of the servers' hosts
+   */
+  public FavoredNodeAssignmentHelper(final List<ServerName> servers,
+      final DNSToSwitchMapping rackMapping) {
+    List<String> hosts = new ArrayList<String>(servers.size());
+    for (ServerName sn : servers) {
+      hosts.add(sn.getHostname());
+    }
+    List<String> resolved = hosts.isEmpty() ? null : rackMapping.resolve(hosts);
+    for (int i = 0; i < servers.size(); i++) {
+      String rack = resolved == null || resolved.get(i) == null ?
+        NetworkTopology.DEFAULT_RACK : resolved.get(i);
+      ServerName sn = servers.get(i);
+      this.rackOfHost.put(sn.getHostname(), rack);
+      List<ServerName> rackServers = this.serversByRack.get(rack);
+      if (rackServers == null) {
+        rackServers = new ArrayList<ServerName>();
+        this.serversByRack.put(rack, rackServers);
+      }
+      rackServers.add(sn);
+    }
+    this.racks = new ArrayList<String>(this.serversByRack.keySet());
+  }
+
+  /**
+   * @param primaries the server each region is (being) assigned to
+   * @return the favored servers of each region, primary first.  Regions get
+   * fewer than {@link #FAVORED_NODES_NUM} if there are not enough hosts.
+   */
+  public Map<HRegionInfo, List<ServerName>> placeFavoredNodes(
+      final Map<HRegionInfo, ServerName> primaries) {
+    Map<HRegionInfo, List<ServerName>> result =
+      new HashMap<HRegionInfo, List<ServerName>>(primaries.size());
+    for (Map.Entry<HRegionInfo, ServerName> e : primaries.entrySet()) {
+      result.put(e.getKey(), placeFavoredNodes(e.getValue()));
+    }
+    return result;
+  }
+
+  /**
+   * @param primary
+   * @return favored servers for a region assigned to <code>primary</code>
+   */
+  List<ServerName> placeFavoredNodes(final ServerName primary) {
+    List<ServerName> favored = new ArrayList<ServerName>(FAVORED_NODES_NUM);
+    favored.add(toFavoredNode(primary));
+    String primaryRack = this.rackOfHost.get(primary.getHostname());
+
+    // Secondary on another rack, tertiary on the same rack as the secondary
+    ServerName secondary = null;
+    if (this.racks.size() > 1) {
+      List<String> otherRacks = new ArrayList<String>(this.racks);
+      otherRacks.remove(primaryRack);
+      Collections.shuffle(otherRacks, this.random);
+      for (String rack : otherRacks) {
+        secondary = pickHost(this.serversByRack.get(rack), favored);
+        if (secondary != null) break;
+      }
+    }
+    if (secondary == null) secondary = pickHost(allServers(), favored);
+    if (secondary == null) return favored;
+    favored.add(toFavoredNode(secondary));
+
+    String secondaryRack = this.rackOfHost.get(secondary.getHostname());
+    ServerName tertiary = pickHost(this.serversByRack.get(secondaryRack), favored);
+    if (tertiary == null) tertiary = pickHost(allServers(), favored);
+    if (tertiary != null) favored.add(toFavoredNode(tertiary));
+    if (favored.size() < FAVORED_NODES_NUM) {
+      LOG.debug("Only " + favored.size() + " distinct host(s) available as " +
+        "favored nodes for a region on " + primary);
+    }
+    return favored;
+  }
+
+  /**
+   * @return a random server of <code>servers</code> on none of the hosts of
+   * <code>exclude</code>, or null if there is none
+   */
+  private ServerName pickHost(final List<ServerName> servers,
+      final List<ServerName> exclude) {
+    if (servers == null || servers.isEmpty()) return null;
+    int start = this.random.nextInt(servers.size());
+    for (int i = 0; i < servers.size(); i++) {
+      ServerName sn = servers.get((start + i) % servers.size());
+      if (!containsHost(exclude, sn)) return sn;
+    }
+    return null;
+  }
+
+  private List<ServerName> allServers() {
+    List<ServerName> all = new ArrayList<ServerName>();
+    for (List<ServerName> rackServers : this.serversByRack.values()) {
+      all.addAll(rackServers);
+    }
+    return all;
+  }
+
+  private static boolean containsHost(final List<ServerName> servers,
+      final ServerName sn) {
+    for (ServerName s : servers) {
+      if (s.getHostname().equals(sn.getHostname())) return true;
+    }
+    return false;
+  }
+
+  private static ServerName toFavoredNode(final ServerName sn) {
+    return new ServerName(sn.getHostname(), sn.getPort(), ServerName.NON_STARTCODE);
+  }
+
+  /**
+   * @param favoredNodes
+   * @param sn
+   * @return true if <code>sn</code>, whatever its startcode, is one of
+   * <code>favoredNodes</code>
+   */
+  public static boolean isFavoredNode(final List<ServerName> favoredNodes,
+      final ServerName sn) {
+    if (favoredNodes == null) return false;
+    for (ServerName favored : favoredNodes) {
+      if (favored.getHostAndPort().equals(sn.getHostAndPort())) return true;
+    }
+    return false;
+  }
+
+  /**
+   * @param favoredNodes
+   * @return <code>favoredNodes</code> as a comma separated list of host:port,
+   * the way they are kept in <code>.META.</code> and sent to region servers
+   */
+  public static String getFavoredNodesAsString(final List<ServerName> favoredNodes) {
+    StringBuilder sb = new StringBuilder();
+    for (ServerName sn : favoredNodes) {
+      if (sb.length() > 0) sb.append(',');
+      sb.append(sn.getHostAndPort());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param conf
+   * @return the rack mapping configured for HDFS, to pass to
+   * {@link #FavoredNodeAssignmentHelper(List, DNSToSwitchMapping)}
+   */
+  public static DNSToSwitchMapping getRackMapping(final Configuration conf) {
+    return ReflectionUtils.newInstance(
+      conf.getClass("topology.node.switch.mapping.impl", ScriptBasedMapping.class,
+        DNSToSwitchMapping.class), conf);
+  }
+
+  /**
+   * @param bytes as written by {@link #getFavoredNodesAsString(List)}
+   * @return the favored nodes, or null if there are none
+   */
+  public static List<ServerName> getFavoredNodes(final byte [] bytes) {
+    if (bytes == null || bytes.length == 0) return null;
+    String [] hostAndPorts = Bytes.toString(bytes).split(",");
+    List<ServerName> favoredNodes = new ArrayList<ServerName>(hostAndPorts.length);
+    for (String hostAndPort : hostAndPorts) {
+      favoredNodes.add(new ServerName(hostAndPort, ServerName.NON_STARTCODE));
+    }
+    return favoredNodes;
+  }
+}
@@ -17,7 +17,6 @@
  */
 package org.apache.hadoop.hbase.master.balancer;
 
-import org.apache.commons.lang.mutable.MutableInt;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.math.stat.descriptive.DescriptiveStatistics;
@@ -32,7 +31,6 @@ import org.apache.hadoop.hbase.master.MasterServices;
 import org.apache.hadoop.hbase.master.RegionPlan;
 import org.apache.hadoop.hbase.util.Bytes;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -78,8 +76,14 @@ import java.util.Random;
  *   <li>hbase.master.balancer.stochastic.maxSteps which controls the maximum number of times that
  *   the balancer will try and mutate all the servers. The balancer will use the minimum of this
  *   value and the above computation.</li>
+ *   <li>hbase.master.balancer.stochastic.maxRunningTime which bounds, in ms, how long a single
+ *   invocation of the balancer may spend searching.</li>
  * </ul>
  *
+ * <p>The search works on a {@link ClusterModel} which updates the inputs of every cost
+ * function incrementally as regions move, so each step costs about the same whatever the
+ * size of the cluster.</p>
+ *
  * <p>This balancer is best used with hbase.master.loadbalance.bytable set to false
  * so that the balancer gets the full picture of all loads on the cluster.</p>
  */
@@ -104,6 +108,8 @@ public class StochasticLoadBalancer extends BaseLoadBalancer {
       "hbase.master.balancer.stochastic.stepsPerRegion";
   private static final String MAX_STEPS_KEY = "hbase.master.balancer.stochastic.maxSteps";
   private static final String MAX_MOVES_KEY = "hbase.master.balancer.stochastic.maxMoveRegions";
+  private static final String MAX_RUNNING_TIME_KEY =
+      "hbase.master.balancer.stochastic.maxRunningTime";
 
   private static final Random RANDOM = new Random(System.currentTimeMillis());
   private static final Log LOG = LogFactory.getLog(StochasticLoadBalancer.class);
@@ -115,6 +121,7 @@ public class StochasticLoadBalancer extends BaseLoadBalancer {
   private int maxSteps = 15000;
   private int stepsPerRegion = 110;
   private int maxMoves = 600;
+  private long maxRunningTime = 30 * 1000; // 30 seconds
   private float loadMultiplier = 55;
   private float moveCostMultiplier = 5;
   private float tableMultiplier = 5;
@@ -132,6 +139,7 @@ public class StochasticLoadBalancer extends BaseLoadBalancer {
     maxSteps = conf.getInt(MAX_STEPS_KEY, maxSteps);
     maxMoves = conf.getInt(MAX_MOVES_KEY, maxMoves);
     stepsPerRegion = conf.getInt(STEPS_PER_REGION_KEY, stepsPerRegion);
+    maxRunningTime = conf.getLong(MAX_RUNNING_TIME_KEY, maxRunningTime);
 
     // Load multiplier should be the greatest as it is the most general way to balance data.
     loadMultiplier = conf.getFloat(REGION_LOAD_COST_KEY, loadMultiplier);
@@ -183,63 +191,64 @@ public class StochasticLoadBalancer extends BaseLoadBalancer {
 
     long startTime = System.currentTimeMillis();
 
-    // Keep track of servers to iterate through them.
-    List<ServerName> servers = new ArrayList<ServerName>(clusterState.keySet());
-    Map<HRegionInfo, ServerName> initialRegionMapping = createRegionMapping(clusterState);
+    // Work on an integer indexed copy of the cluster whose costs are kept up
+    // to date as regions move, rather than recomputing them from the maps.
+    ClusterModel cluster = new ClusterModel(clusterState,
+        (this.clusterStatus == null) ? null : loads,
+        (this.services == null) ? null : regionFinder);
+    int numServers = cluster.getNumServers();
     double currentCost, newCost, initCost;
-    currentCost = newCost = initCost = computeCost(initialRegionMapping, clusterState);
+    currentCost = newCost = initCost = computeCost(cluster);
 
     int computedMaxSteps =
-        Math.min(this.maxSteps, (initialRegionMapping.size() * this.stepsPerRegion));
+        Math.min(this.maxSteps, (cluster.getNumRegions() * this.stepsPerRegion));
+    int step;
     // Perform a stochastic walk to see if we can get a good fit.
-    for (int step = 0; step < computedMaxSteps; step++) {
+    for (step = 0; step < computedMaxSteps; step++) {
+      if (System.currentTimeMillis() - startTime > maxRunningTime) {
+        break;
+      }
 
       // try and perform a mutation
-      for (ServerName leftServer : servers) {
+      for (int leftServer = 0; leftServer < numServers; leftServer++) {
 
         // What server are we going to be swapping regions with ?
-        ServerName rightServer = pickOtherServer(leftServer, servers);
-        if (rightServer == null) {
+        int rightServer = pickOtherServer(leftServer, numServers);
+        if (rightServer < 0) {
           continue;
         }
 
-        // Get the regions.
-        List<HRegionInfo> leftRegionList = clusterState.get(leftServer);
-        List<HRegionInfo> rightRegionList = clusterState.get(rightServer);
-
         // Pick what regions to swap around.
-        // If we get a null for one then this isn't a swap just a move
-        HRegionInfo lRegion = pickRandomRegion(leftRegionList, 0);
-        HRegionInfo rRegion = pickRandomRegion(rightRegionList, 0.5);
+        // If we get -1 for one then this isn't a swap just a move
+        int lRegion = pickRandomRegion(cluster, leftServer, 0);
+        int rRegion = pickRandomRegion(cluster, rightServer, 0.5);
 
         // We randomly picked to do nothing.
-        if (lRegion == null && rRegion == null) {
+        if (lRegion < 0 && rRegion < 0) {
           continue;
         }
 
-        if (rRegion != null) {
-          leftRegionList.add(rRegion);
+        if (rRegion >= 0) {
+          cluster.moveRegion(rRegion, leftServer);
         }
 
-        if (lRegion != null) {
-          rightRegionList.add(lRegion);
+        if (lRegion >= 0) {
+          cluster.moveRegion(lRegion, rightServer);
         }
 
-        newCost = computeCost(initialRegionMapping, clusterState);
+        newCost = computeCost(cluster);
 
         // Should this be kept?
         if (newCost < currentCost) {
           currentCost = newCost;
         } else {
           // Put things back the way they were before.
-          if (rRegion != null) {
-            leftRegionList.remove(rRegion);
-            rightRegionList.add(rRegion);
+          if (rRegion >= 0) {
+            cluster.moveRegion(rRegion, rightServer);
           }
 
-          if (lRegion != null) {
-            rightRegionList.remove(lRegion);
-            leftRegionList.add(lRegion);
+          if (lRegion >= 0) {
+            cluster.moveRegion(lRegion, leftServer);
           }
         }
       }
@@ -249,16 +258,16 @@ public class StochasticLoadBalancer extends BaseLoadBalancer {
     long endTime = System.currentTimeMillis();
 
     if (initCost > currentCost) {
-      List<RegionPlan> plans = createRegionPlans(initialRegionMapping, clusterState);
+      List<RegionPlan> plans = createRegionPlans(cluster);
 
       LOG.debug("Finished computing new laod balance plan.  Computation took "
-          + (endTime - startTime) + "ms to try " + computedMaxSteps
+          + (endTime - startTime) + "ms to try " + step
           + " different iterations.  Found a solution that moves " + plans.size()
           + " regions; Going from a computed cost of " + initCost + " to a new cost of "
           + currentCost);
       return plans;
     }
-    LOG.debug("Could not find a better load balance plan.  Tried " + computedMaxSteps
+    LOG.debug("Could not find a better load balance plan.  Tried " + step
         + " different configurations in " + (endTime - startTime)
         + "ms, and did not find anything with a computed cost less than " + initCost);
     return null;
@@ -268,50 +277,27 @@ public class StochasticLoadBalancer extends BaseLoadBalancer {
    * Create all of the RegionPlan's needed to move from the initial cluster state to the desired
    * state.
    *
-   * @param initialRegionMapping Initial mapping of Region to Server
-   * @param clusterState The desired mapping of ServerName to Regions
+   * @param cluster The cluster model holding both the initial and the desired assignment
    * @return List of RegionPlan's that represent the moves needed to get to desired final state.
    */
-  private List<RegionPlan> createRegionPlans(Map<HRegionInfo, ServerName> initialRegionMapping,
-                                             Map<ServerName, List<HRegionInfo>> clusterState) {
+  private List<RegionPlan> createRegionPlans(ClusterModel cluster) {
     List<RegionPlan> plans = new LinkedList<RegionPlan>();
 
-    for (Entry<ServerName, List<HRegionInfo>> entry : clusterState.entrySet()) {
-      ServerName newServer = entry.getKey();
-
-      for (HRegionInfo region : entry.getValue()) {
-        ServerName initialServer = initialRegionMapping.get(region);
-        if (!newServer.equals(initialServer)) {
-          LOG.trace("Moving Region " + region.getEncodedName() + " from server "
-              + initialServer.getHostname() + " to " + newServer.getHostname());
-          RegionPlan rp = new RegionPlan(region, initialServer, newServer);
-          plans.add(rp);
-        }
+    for (int region = 0; region < cluster.getNumRegions(); region++) {
+      int initialServer = cluster.initialRegionToServer[region];
+      int newServer = cluster.regionToServer[region];
+      if (initialServer != newServer) {
+        HRegionInfo hri = cluster.regions[region];
+        ServerName initialServerName = cluster.servers[initialServer];
+        ServerName newServerName = cluster.servers[newServer];
+        LOG.trace("Moving Region " + hri.getEncodedName() + " from server "
+            + initialServerName.getHostname() + " to " + newServerName.getHostname());
+        plans.add(new RegionPlan(hri, initialServerName, newServerName));
       }
     }
     return plans;
   }
 
-  /**
-   * Create a map that will represent the initial location of regions on a
-   * {@link ServerName}
-   *
-   * @param clusterState starting state of the cluster and regions.
-   * @return A map of {@link HRegionInfo} to the {@link ServerName} that is
-   *         currently hosting that region
-   */
-  private Map<HRegionInfo, ServerName> createRegionMapping(
-      Map<ServerName, List<HRegionInfo>> clusterState) {
-    Map<HRegionInfo, ServerName> mapping = new HashMap<HRegionInfo, ServerName>();
-
-    for (Entry<ServerName, List<HRegionInfo>> entry : clusterState.entrySet()) {
-      for (HRegionInfo region : entry.getValue()) {
-        mapping.put(region, entry.getKey());
-      }
-    }
-    return mapping;
-  }
-
   /** Store the current region loads. */
   private void updateRegionLoad() {
     loads.clear();
@@ -326,118 +312,96 @@ public class StochasticLoadBalancer extends BaseLoadBalancer {
   }
 
   /**
-   * From a list of regions pick a random one. Null can be returned which
+   * From a server pick a random region. -1 can be returned which
    * {@link StochasticLoadBalancer#balanceCluster(Map)} recognize as signal to try a region move
    * rather than swap.
    *
-   * @param regions        list of regions.
+   * @param cluster        the cluster model.
+   * @param server         index of the server to pick a region from.
    * @param chanceOfNoSwap Chance that this will decide to try a move rather
    *                       than a swap.
-   * @return a random {@link HRegionInfo} or null if an asymmetrical move is
+   * @return index of a random region or -1 if an asymmetrical move is
    *         suggested.
    */
-  private HRegionInfo pickRandomRegion(List<HRegionInfo> regions, double chanceOfNoSwap) {
+  private int pickRandomRegion(ClusterModel cluster, int server, double chanceOfNoSwap) {
+    int numRegions = cluster.getNumRegions(server);
 
     //Check to see if this is just a move.
-    if (regions.isEmpty() || RANDOM.nextFloat() < chanceOfNoSwap) {
+    if (numRegions == 0 || RANDOM.nextFloat() < chanceOfNoSwap) {
       //signal a move only.
-      return null;
+      return -1;
     }
 
-    int count = 0;
-    HRegionInfo r = null;
-
-    //We will try and find a region up to 10 times.  If we always
-    while (count < 10 && r == null ) {
-      count++;
-      r = regions.get(RANDOM.nextInt(regions.size()));
+    //We will try and find a region up to 10 times.
+    for (int count = 0; count < 10; count++) {
+      int r = cluster.getRegion(server, RANDOM.nextInt(numRegions));
+      HRegionInfo hri = cluster.regions[r];
 
       // If this is a special region we always try not to move it.
-      // so clear out r.  try again
-      if (r.isMetaRegion() || r.isRootRegion() ) {
-        r = null;
+      if (!hri.isMetaRegion() && !hri.isRootRegion()) {
+        return r;
       }
     }
-    if (r != null) {
-      regions.remove(r);
-    }
-    return r;
+    return -1;
   }
 
   /**
    * Given a server we will want to switch regions with another server. This
-   * function picks a random server from the list.
+   * function picks a random server.
    *
-   * @param server     Current Server. This server will never be the return value.
-   * @param allServers list of all server from which to pick
-   * @return random server. Null if no other servers were found.
+   * @param server     Index of the current Server. This server will never be the return value.
+   * @param numServers number of servers from which to pick
+   * @return index of a random server. -1 if there are no other servers.
    */
-  private ServerName pickOtherServer(ServerName server, List<ServerName> allServers) {
-    ServerName s = null;
-    int count = 0;
-    while (count < 100 && (s == null || s.equals(server))) {
-      count++;
-      s = allServers.get(RANDOM.nextInt(allServers.size()));
+  private int pickOtherServer(int server, int numServers) {
+    if (numServers < 2) {
+      return -1;
     }
-
-    // If nothing but the current server was found return null.
-    return (s == null || s.equals(server)) ? null : s;
+    int s = RANDOM.nextInt(numServers - 1);
+    return s >= server ? s + 1 : s;
   }
 
   /**
    * This is the main cost function.  It will compute a cost associated with a proposed cluster
    * state.  All different costs will be combined with their multipliers to produce a double cost.
+   * The model keeps the inputs of every cost up to date, so this is cheap enough to call after
+   * every proposed move.
    *
-   * @param initialRegionMapping Map of where the regions started.
-   * @param clusterState Map of ServerName to list of regions.
+   * @param cluster The proposed cluster state.
    * @return a double of a cost associated with the proposed
    */
-  protected double computeCost(Map<HRegionInfo, ServerName> initialRegionMapping,
-                               Map<ServerName, List<HRegionInfo>> clusterState) {
+  protected double computeCost(ClusterModel cluster) {
 
-    double moveCost = moveCostMultiplier * computeMoveCost(initialRegionMapping, clusterState);
+    double moveCost = moveCostMultiplier * computeMoveCost(cluster);
 
-    double regionCountSkewCost = loadMultiplier * computeSkewLoadCost(clusterState);
-    double tableSkewCost = tableMultiplier * computeTableSkewLoadCost(clusterState);
-    double localityCost =
-        localityMultiplier * computeDataLocalityCost(initialRegionMapping, clusterState);
+    double regionCountSkewCost = loadMultiplier * cluster.getRegionCountSkewCost();
+    double tableSkewCost = tableMultiplier * cluster.getTableSkewCost();
+    double localityCost = localityMultiplier * cluster.getLocalityCost();
 
     // TODO: Add Read and Write requests back in here after keeping a running average on per
     // region load metrics.
-    double memstoreSizeCost =
-        memStoreSizeMultiplier
-            * computeRegionLoadCost(clusterState, RegionLoadCostType.MEMSTORE_SIZE);
-    double storefileSizeCost =
-        storeFileSizeMultiplier
-            * computeRegionLoadCost(clusterState, RegionLoadCostType.STOREFILE_SIZE);
+    double memstoreSizeCost = memStoreSizeMultiplier * cluster.getMemstoreSizeCost();
+    double storefileSizeCost = storeFileSizeMultiplier * cluster.getStorefileSizeCost();
     double total =
         moveCost + regionCountSkewCost + tableSkewCost + localityCost + memstoreSizeCost
             + storefileSizeCost;
-    LOG.trace("Computed weights for a potential balancing total = " + total + " moveCost = "
-        + moveCost + " regionCountSkewCost = " + regionCountSkewCost + " tableSkewCost = "
-        + tableSkewCost + " localityCost = " + localityCost + " memstoreSizeCost = "
-        + memstoreSizeCost + " storefileSizeCost = " + storefileSizeCost);
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("Computed weights for a potential balancing total = " + total + " moveCost = "
+          + moveCost + " regionCountSkewCost = " + regionCountSkewCost + " tableSkewCost = "
+          + tableSkewCost + " localityCost = " + localityCost + " memstoreSizeCost = "
+          + memstoreSizeCost + " storefileSizeCost = " + storefileSizeCost);
+    }
     return total;
   }
 
   /**
-   * Given the starting state of the regions and a potential ending state
-   * compute cost based upon the number of regions that have moved.
+   * Compute cost based upon the number of regions that have moved from where they started.
    *
-   * @param initialRegionMapping The starting location of regions.
-   * @param clusterState         The potential new cluster state.
+   * @param cluster The potential new cluster state.
    * @return The cost. Between 0 and 1.
    */
-  double computeMoveCost(Map<HRegionInfo, ServerName> initialRegionMapping,
-                         Map<ServerName, List<HRegionInfo>> clusterState) {
-    float moveCost = 0;
-    for (Entry<ServerName, List<HRegionInfo>> entry : clusterState.entrySet()) {
-      for (HRegionInfo region : entry.getValue()) {
-        if (initialRegionMapping.get(region) != entry.getKey()) {
-          moveCost += 1;
-        }
-      }
-    }
+  double computeMoveCost(ClusterModel cluster) {
+    int moveCost = cluster.getNumMovedRegions();
 
     //Don't let this single balance move more than the max moves.
     //This allows better scaling to accurately represent the actual cost of a move.
@@ -445,7 +409,7 @@ public class StochasticLoadBalancer extends BaseLoadBalancer {
       return 10000;   //return a number much greater than any of the other cost functions
     }
 
-    return scale(0, Math.min(maxMoves, initialRegionMapping.size()), moveCost);
+    return scale(0, Math.min(maxMoves, cluster.getNumRegions()), moveCost);
   }
 
   /**
@@ -456,12 +420,7 @@ public class StochasticLoadBalancer extends BaseLoadBalancer {
    * @return The cost of region load imbalance.
    */
   double computeSkewLoadCost(Map<ServerName, List<HRegionInfo>> clusterState) {
-    DescriptiveStatistics stats = new DescriptiveStatistics();
-    for (List<HRegionInfo> regions : clusterState.values()) {
-      int size = regions.size();
-      stats.addValue(size);
-    }
-    return costFromStats(stats);
+    return new ClusterModel(clusterState, null, null).getRegionCountSkewCost();
   }
 
   /**
@@ -472,187 +431,7 @@ public class StochasticLoadBalancer extends BaseLoadBalancer {
    * @return Cost of imbalance in table.
    */
   double computeTableSkewLoadCost(Map<ServerName, List<HRegionInfo>> clusterState) {
-
-    Map<String, MutableInt> tableRegionsTotal = new HashMap<String, MutableInt>();
-    Map<String, MutableInt> tableRegionsOnCurrentServer = new HashMap<String, MutableInt>();
-    Map<String, Integer> tableCostSeenSoFar = new HashMap<String, Integer>();
-    // Go through everything per server
-    for (Entry<ServerName, List<HRegionInfo>> entry : clusterState.entrySet()) {
-      tableRegionsOnCurrentServer.clear();
-
-      // For all of the regions count how many are from each table
-      for (HRegionInfo region : entry.getValue()) {
-        String tableName = region.getTableNameAsString();
-
-        // See if this table already has a count on this server
-        MutableInt regionsOnServerCount = tableRegionsOnCurrentServer.get(tableName);
-
-        // If this is the first time we've seen this table on this server
-        // create a new mutable int.
-        if (regionsOnServerCount == null) {
-          regionsOnServerCount = new MutableInt(0);
-          tableRegionsOnCurrentServer.put(tableName, regionsOnServerCount);
-        }
-
-        // Increment the count of how many regions from this table are host on
-        // this server
-        regionsOnServerCount.increment();
-
-        // Now count the number of regions in this table.
-        MutableInt totalCount = tableRegionsTotal.get(tableName);
-
-        // If this is the first region from this table create a new counter for
-        // this table.
-        if (totalCount == null) {
-          totalCount = new MutableInt(0);
-          tableRegionsTotal.put(tableName, totalCount);
-        }
-        totalCount.increment();
-      }
-
-      // Now go through all of the tables we have seen and keep the max number
-      // of regions of this table a single region server is hosting.
-      for (String tableName : tableRegionsOnCurrentServer.keySet()) {
-        Integer thisCount = tableRegionsOnCurrentServer.get(tableName).toInteger();
-        Integer maxCountSoFar = tableCostSeenSoFar.get(tableName);
-
-        if (maxCountSoFar == null || thisCount.compareTo(maxCountSoFar) > 0) {
-          tableCostSeenSoFar.put(tableName, thisCount);
-        }
-
-      }
-    }
-
-    double max = 0;
-    double min = 0;
-    double value = 0;
-
-    // Compute the min, value, and max.
-    for (String tableName : tableRegionsTotal.keySet()) {
-      max += tableRegionsTotal.get(tableName).doubleValue();
-      min += tableRegionsTotal.get(tableName).doubleValue() / (double) clusterState.size();
-      value += tableCostSeenSoFar.get(tableName).doubleValue();
-
-    }
-    return scale(min, max, value);
-  }
-
-  /**
-   * Compute a cost of a potential cluster configuration based upon where
-   * {@link org.apache.hadoop.hbase.regionserver.StoreFile}s are located.
-   *
-   * @param clusterState The state of the cluster
-   * @return A cost between 0 and 1. 0 Means all regions are on the sever with
-   *         the most local store files.
-   */
-  double computeDataLocalityCost(Map<HRegionInfo, ServerName> initialRegionMapping,
-                                 Map<ServerName, List<HRegionInfo>> clusterState) {
-
-    double max = 0;
-    double cost = 0;
-
-    // If there's no master so there's no way anything else works.
-    if (this.services == null) return cost;
-
-    for (Entry<ServerName, List<HRegionInfo>> entry : clusterState.entrySet()) {
-      ServerName sn = entry.getKey();
-      for (HRegionInfo region : entry.getValue()) {
-
-        max += 1;
-
-        // Only compute the data locality for moved regions.
-        if (initialRegionMapping.equals(sn)) {
-          continue;
-        }
-
-        List<ServerName> dataOnServers = regionFinder.getTopBlockLocations(region);
-
-        // If we can't find where the data is getTopBlock returns null.
-        // so count that as being the best possible.
-        if (dataOnServers == null) {
-          continue;
-        }
-
-        int index = dataOnServers.indexOf(sn);
-        if (index < 0) {
-          cost += 1;
-        } else {
-          cost += (double) index / (double) dataOnServers.size();
-        }
-
-      }
-    }
-    return scale(0, max, cost);
-  }
-
-  /** The cost's that can be derived from RegionLoad */
-  private enum RegionLoadCostType {
-    READ_REQUEST, WRITE_REQUEST, MEMSTORE_SIZE, STOREFILE_SIZE
-  }
-
-  /**
-   * Compute the cost of the current cluster state due to some RegionLoadCost type
-   *
-   * @param clusterState the cluster
-   * @param costType     what type of cost to consider
-   * @return the scaled cost.
-   */
-  private double computeRegionLoadCost(Map<ServerName, List<HRegionInfo>> clusterState,
-                                       RegionLoadCostType costType) {
-
-    if (this.clusterStatus == null || this.loads == null || this.loads.size() == 0) return 0;
-
-    DescriptiveStatistics stats = new DescriptiveStatistics();
-
-    // For every server look at the cost of each region
-    for (List<HRegionInfo> regions : clusterState.values()) {
-      long cost = 0; //Cost this server has from RegionLoad
-
-      // For each region
-      for (HRegionInfo region : regions) {
-        // Try and get the region using the regionNameAsString
-        RegionLoad rl = loads.get(region.getRegionNameAsString());
-
-        // That could have failed if the RegionLoad is using the other regionName
-        if (rl == null) {
-          // Try getting the region load using encoded name.
-          rl = loads.get(region.getEncodedName());
-        }
-        // Now if we found a region load get the type of cost that was requested.
-        if (rl != null) {
-          cost += getRegionLoadCost(rl, costType);
-        }
-      }
-
-      // Add the total cost to the stats.
-      stats.addValue(cost);
-    }
-
-    // No return the scaled cost from data held in the stats object.
-    return costFromStats(stats);
-  }
-
-  /**
-   * Get the un-scaled cost from a RegionLoad
-   *
-   * @param rl   the Region load
-   * @param type The type of cost to extract
-   * @return the double representing the cost
-   */
-  private double getRegionLoadCost(RegionLoad rl, RegionLoadCostType type) {
-    switch (type) {
-      case READ_REQUEST:
-        return rl.getReadRequestsCount();
-      case WRITE_REQUEST:
-        return rl.getWriteRequestsCount();
-      case MEMSTORE_SIZE:
-        return rl.getMemStoreSizeMB();
-      case STOREFILE_SIZE:
-        return rl.getStorefileSizeMB();
-      default:
-        assert false : "RegionLoad cost type not supported.";
-        return 0;
-    }
+    return new ClusterModel(clusterState, null, null).getTableSkewCost();
   }
 
   /**
@@ -686,7 +465,7 @@ public class StochasticLoadBalancer extends BaseLoadBalancer {
    * @param value The value to be scaled.
    * @return The scaled value.
    */
-  private double scale(double min, double max, double value) {
+  static double scale(double min, double max, double value) {
     if (max == 0 || value == 0) {
       return 0;
     }
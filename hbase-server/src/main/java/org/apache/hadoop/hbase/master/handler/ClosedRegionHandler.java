@@ -92,9 +92,10 @@ public class ClosedRegionHandler extends EventHandler implements TotesHRegionInf
   @Override
   public void process() {
     LOG.debug("Handling CLOSED event for " + regionInfo.getEncodedName());
-    // Check if this table is being disabled or not
+    // Check if this table is being disabled, or the region being merged
     if (this.assignmentManager.getZKTable().
-        isDisablingOrDisabledTable(this.regionInfo.getTableNameAsString())) {
+        isDisablingOrDisabledTable(this.regionInfo.getTableNameAsString()) ||
+        this.assignmentManager.shouldKeepOfflineAfterClose(this.regionInfo)) {
       assignmentManager.offlineDisabledRegion(regionInfo);
       return;
     }
@@ -76,6 +76,7 @@ public class DeleteTableHandler extends TableEventHandler {
         " from META and FS");
       // Remove region from META
       MetaEditor.deleteRegion(this.server.getCatalogTracker(), region);
+      am.removeFavoredNodes(region);
       // Delete region from FS
       this.masterServices.getMasterFileSystem().deleteRegion(region);
     }
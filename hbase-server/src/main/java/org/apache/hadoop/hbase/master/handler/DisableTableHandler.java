@@ -162,15 +162,8 @@ public class DisableTableHandler extends EventHandler {
 
     @Override
     protected void populatePool(ExecutorService pool) {
-      for (HRegionInfo region: regions) {
-        if (assignmentManager.isRegionInTransition(region) != null) continue;
-        final HRegionInfo hri = region;
-        pool.execute(new Runnable() {
-          public void run() {
-            assignmentManager.unassign(hri);
-          }
-        });
-      }
+      // Closing znodes are created in a batch, the close RPCs go out on pool
+      assignmentManager.unassign(regions, pool);
     }
 
     @Override
@@ -20,6 +20,7 @@
 package org.apache.hadoop.hbase.master.handler;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
@@ -193,17 +194,15 @@ public class EnableTableHandler extends EventHandler {
           "hbase.master.enabletable.roundrobin", false);
 
       if (!roundRobinAssignment) {
+        List<HRegionInfo> toAssign = new ArrayList<HRegionInfo>(regions.size());
         for (HRegionInfo region : regions) {
           if (assignmentManager.isRegionInTransition(region) != null) {
             continue;
           }
-          final HRegionInfo hri = region;
-          pool.execute(new Runnable() {
-            public void run() {
-              assignmentManager.assign(hri, true);
-            }
-          });
+          toAssign.add(region);
         }
+        // Bulk assigned so the unassigned znodes go up in a batch per server
+        if (!toAssign.isEmpty()) assignmentManager.assignRandomly(toAssign);
       } else {
         try {
           assignmentManager.assignUserRegionsToOnlineServers(regions);
@@ -101,6 +101,12 @@ public class OpenedRegionHandler extends EventHandler implements TotesHRegionInf
     RegionState regionState = this.assignmentManager.isRegionInTransition(regionInfo);
     boolean openedNodeDeleted = false;
     if (regionState != null
+        && regionState.getState().equals(RegionState.State.OPEN)
+        && !this.assignmentManager.isUsingZKForAssignment()) {
+      // No OPENED znode whose deletion onlines the region; do it here
+      this.assignmentManager.regionOpened(regionState);
+      return;
+    } else if (regionState != null
         && regionState.getState().equals(RegionState.State.OPEN)) {
       openedNodeDeleted = deleteOpenedNode(expectedVersion);
       if (!openedNodeDeleted) {
@@ -21,6 +21,8 @@ package org.apache.hadoop.hbase.master.handler;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
@@ -44,6 +46,7 @@ import org.apache.hadoop.hbase.master.MasterServices;
 import org.apache.hadoop.hbase.master.ServerManager;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.zookeeper.ZKAssign;
+import org.apache.hadoop.hbase.zookeeper.ZKSplitLog;
 import org.apache.zookeeper.KeeperException;
 
 /**
@@ -58,6 +61,8 @@ public class ServerShutdownHandler extends EventHandler {
   private final MasterServices services;
   private final DeadServer deadServers;
   private final boolean shouldSplitHlog; // whether to split HLog or not
+  // whether to replay the edits of user regions into their new servers
+  private final boolean distributedLogReplay;
 
   public ServerShutdownHandler(final Server server, final MasterServices services,
       final DeadServer deadServers, final ServerName serverName,
@@ -78,6 +83,10 @@ public class ServerShutdownHandler extends EventHandler {
       LOG.warn(this.serverName + " is NOT in deadservers; it should be!");
     }
     this.shouldSplitHlog = shouldSplitHlog;
+    this.distributedLogReplay = shouldSplitHlog &&
+      server.getConfiguration().getBoolean(HConstants.DISTRIBUTED_LOG_SPLITTING_KEY, true) &&
+      server.getConfiguration().getBoolean(HConstants.DISTRIBUTED_LOG_REPLAY_KEY,
+        HConstants.DEFAULT_DISTRIBUTED_LOG_REPLAY);
   }
 
   @Override
@@ -89,6 +98,47 @@ public class ServerShutdownHandler extends EventHandler {
     }
   }
 
+  /**
+   * Marks regions recovering, so their new servers hold reads and log
+   * splitting replays their edits into them.  Must be done before they can be
+   * reassigned.
+   * @param regions
+   * @throws IOException
+   */
+  private void markRegionsRecovering(final Collection<HRegionInfo> regions)
+  throws IOException {
+    if (regions.isEmpty()) return;
+    try {
+      ZKSplitLog.markRegionsRecovering(this.server.getZooKeeper(), regions,
+        this.serverName);
+    } catch (KeeperException ke) {
+      throw new IOException("Failed marking " + regions.size() +
+        " region(s) of " + this.serverName + " recovering", ke);
+    }
+  }
+
+  /**
+   * Gives the reassigned regions a chance to open before their edits are
+   * replayed; replay retries regions that are not open yet anyway.
+   * @param regions
+   * @throws IOException
+   */
+  private void waitForRegionsToOpen(final List<HRegionInfo> regions)
+  throws IOException {
+    long timeout = this.server.getConfiguration().getLong(
+      "hbase.master.log.replay.wait.region.timeout", 30000);
+    try {
+      if (!this.services.getAssignmentManager().waitUntilNoRegionsInTransition(
+          timeout, new HashSet<HRegionInfo>(regions))) {
+        LOG.info("Not all regions of " + this.serverName + " opened within " +
+          timeout + "ms, replaying logs anyway");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted", e);
+    }
+  }
+
   /**
    * Before assign the ROOT region, ensure it haven't 
    *  been assigned by other place
@@ -172,9 +222,16 @@ public class ServerShutdownHandler extends EventHandler {
   @Override
   public void process() throws IOException {
     final ServerName serverName = this.serverName;
+    // Edits of catalog regions are needed before anything else can be
+    // assigned, so those servers' logs are split the usual way first
+    final boolean replay = this.distributedLogReplay &&
+      !isCarryingRoot() && !isCarryingMeta();
     try {
       try {
-        if (this.shouldSplitHlog) {
+        if (replay) {
+          LOG.info("Replaying logs for " + serverName +
+            " once its regions are reassigned");
+        } else if (this.shouldSplitHlog) {
           LOG.info("Splitting logs for " + serverName);
           this.services.getMasterFileSystem().splitLog(serverName);
         } else {
@@ -233,6 +290,12 @@ public class ServerShutdownHandler extends EventHandler {
       // doing after log splitting.  Could do some states before -- OPENING?
       // OFFLINE? -- and then others after like CLOSING that depend on log
       // splitting.
+      if (replay) {
+        // Those in transition may be reassigned by the timeout monitor as soon
+        // as the assignment manager lets go of them below
+        markRegionsRecovering(this.services.getAssignmentManager().
+          getRegionsOfServer(this.serverName));
+      }
       List<RegionState> regionsInTransition =
         this.services.getAssignmentManager().
           processServerShutdown(this.serverName);
@@ -285,6 +348,10 @@ public class ServerShutdownHandler extends EventHandler {
         regionsInTransition.size() +
         " regions(s) that are already in transition)");
 
+      if (replay && hris != null) {
+        markRegionsRecovering(hris.keySet());
+      }
+
       // Iterate regions that were on this server and assign them
       if (hris != null) {
         List<HRegionInfo> toAssignRegions = new ArrayList<HRegionInfo>();
@@ -351,6 +418,29 @@ public class ServerShutdownHandler extends EventHandler {
             .createDestinationServersList();
         this.services.getAssignmentManager().assign(toAssignRegions,
             availableServers);
+        if (replay) {
+          waitForRegionsToOpen(toAssignRegions);
+        }
+      }
+
+      if (replay) {
+        try {
+          LOG.info("Replaying logs for " + serverName);
+          this.services.getMasterFileSystem().splitLog(serverName);
+        } catch (IOException ioe) {
+          // Regions stay marked recovering until a retry gets through
+          this.services.getExecutorService().submit(this);
+          this.deadServers.add(serverName);
+          throw new IOException("failed log replay for " +
+            serverName + ", will retry", ioe);
+        }
+        try {
+          ZKSplitLog.removeRecoveringRegions(this.server.getZooKeeper(), serverName);
+        } catch (KeeperException ke) {
+          this.server.abort("Unexpected ZK exception removing recovering regions of " +
+            serverName, ke);
+          return;
+        }
       }
     } finally {
       this.deadServers.finish(serverName);
@@ -46,6 +46,8 @@ public class CompactSplitThread implements CompactionRequestor {
 
   private final ThreadPoolExecutor largeCompactions;
   private final ThreadPoolExecutor smallCompactions;
+  private final ThreadPoolExecutor referenceCompactions;
+  private final ThreadPoolExecutor localityCompactions;
   private final ThreadPoolExecutor splits;
 
   /**
@@ -68,6 +70,12 @@ public class CompactSplitThread implements CompactionRequestor {
     int smallThreads = conf.getInt(
         "hbase.regionserver.thread.compaction.small", 1);
 
+    int referenceThreads = Math.max(1, conf.getInt(
+        "hbase.regionserver.thread.compaction.reference", 2));
+
+    int localityThreads = Math.max(1, conf.getInt(
+        "hbase.regionserver.thread.compaction.locality", 1));
+
     int splitThreads = conf.getInt("hbase.regionserver.thread.split", 1);
 
     // if we have throttle threads, make sure the user also specified size
@@ -99,6 +107,33 @@ public class CompactSplitThread implements CompactionRequestor {
       });
     this.smallCompactions
         .setRejectedExecutionHandler(new CompactionRequest.Rejection());
+    this.referenceCompactions = new ThreadPoolExecutor(referenceThreads,
+        referenceThreads, 60, TimeUnit.SECONDS,
+        new PriorityBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setName(n + "-referenceCompactions-" + System.currentTimeMillis());
+            return t;
+          }
+      });
+    this.referenceCompactions
+        .setRejectedExecutionHandler(new CompactionRequest.Rejection());
+    this.localityCompactions = new ThreadPoolExecutor(localityThreads,
+        localityThreads, 60, TimeUnit.SECONDS,
+        new PriorityBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setName(n + "-localityCompactions-" + System.currentTimeMillis());
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+          }
+      });
+    this.localityCompactions
+        .setRejectedExecutionHandler(new CompactionRequest.Rejection());
     this.splits = (ThreadPoolExecutor)
         Executors.newFixedThreadPool(splitThreads,
             new ThreadFactory() {
@@ -115,7 +150,9 @@ public class CompactSplitThread implements CompactionRequestor {
   public String toString() {
     return "compaction_queue=("
         + largeCompactions.getQueue().size() + ":"
-        + smallCompactions.getQueue().size() + ")"
+        + smallCompactions.getQueue().size() + ":"
+        + referenceCompactions.getQueue().size() + ":"
+        + localityCompactions.getQueue().size() + ")"
         + ", split_queue=" + splits.getQueue().size();
   }
 
@@ -185,6 +222,12 @@ public class CompactSplitThread implements CompactionRequestor {
       }
       ThreadPoolExecutor pool = s.throttleCompaction(cr.getSize())
         ? largeCompactions : smallCompactions;
+      // the off peak window is when we want the heavy rewriting to happen,
+      // so let large compactions jump ahead of whatever is queued
+      if (pool == largeCompactions && cr.getPriority() > Store.PRIORITY_USER
+          && cr.getCompactSelection().isOffPeakHour()) {
+        cr.setPriority(Store.PRIORITY_USER);
+      }
       pool.execute(cr);
       if (LOG.isDebugEnabled()) {
         String type = (pool == smallCompactions) ? "Small " : "Large ";
@@ -200,6 +243,68 @@ public class CompactSplitThread implements CompactionRequestor {
     }
   }
 
+  /**
+   * Rewrite the reference files a split left in <code>s</code>.  These run
+   * in their own pool so that the daughters' stores are compacted in parallel
+   * and are not stuck behind regular compactions.
+   * @param r HRegion store belongs to
+   * @param s Store to rewrite the reference files of
+   * @param why Why compaction requested -- used in debug messages
+   */
+  public synchronized void requestReferenceCompaction(final HRegion r,
+      final Store s, final String why) {
+    if (this.server.isStopped()) {
+      return;
+    }
+    CompactionRequest cr = s.requestReferenceCompaction();
+    if (cr != null) {
+      cr.setServer(server);
+      referenceCompactions.execute(cr);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Reference compaction requested: " + cr
+            + (why != null && !why.isEmpty() ? "; Because: " + why : "")
+            + "; " + this);
+      }
+    }
+  }
+
+  /**
+   * Rewrite <code>sf</code> so that its blocks are written from this server
+   * again.  These run in their own small pool, so that at most a few such
+   * rewrites go on at once and they never hold up regular compactions.
+   * @param r HRegion store belongs to
+   * @param s Store of the file
+   * @param sf the file to rewrite
+   * @param why Why compaction requested -- used in debug messages
+   * @return true if the rewrite was queued
+   */
+  public synchronized boolean requestLocalityCompaction(final HRegion r,
+      final Store s, final StoreFile sf, final String why) {
+    if (this.server.isStopped()) {
+      return false;
+    }
+    CompactionRequest cr = s.requestLocalityCompaction(sf);
+    if (cr == null) {
+      return false;
+    }
+    cr.setServer(server);
+    localityCompactions.execute(cr);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Locality compaction requested: " + cr
+          + (why != null && !why.isEmpty() ? "; Because: " + why : "")
+          + "; " + this);
+    }
+    return true;
+  }
+
+  /**
+   * @return how many locality compactions are queued or running
+   */
+  public int getLocalityCompactionCount() {
+    return localityCompactions.getQueue().size()
+        + localityCompactions.getActiveCount();
+  }
+
   /**
    * Only interrupt once it's done with a run through the work loop.
    */
@@ -207,6 +312,8 @@ public class CompactSplitThread implements CompactionRequestor {
     splits.shutdown();
     largeCompactions.shutdown();
     smallCompactions.shutdown();
+    referenceCompactions.shutdown();
+    localityCompactions.shutdown();
   }
 
   private void waitFor(ThreadPoolExecutor t, String name) {
@@ -225,6 +332,8 @@ public class CompactSplitThread implements CompactionRequestor {
     waitFor(splits, "Split Thread");
     waitFor(largeCompactions, "Large Compaction Thread");
     waitFor(smallCompactions, "Small Compaction Thread");
+    waitFor(referenceCompactions, "Reference Compaction Thread");
+    waitFor(localityCompactions, "Locality Compaction Thread");
   }
 
   /**
@@ -234,7 +343,9 @@ public class CompactSplitThread implements CompactionRequestor {
    * @return The current size of the regions queue.
    */
   public int getCompactionQueueSize() {
-    return largeCompactions.getQueue().size() + smallCompactions.getQueue().size();
+    return largeCompactions.getQueue().size() + smallCompactions.getQueue().size()
+        + referenceCompactions.getQueue().size()
+        + localityCompactions.getQueue().size();
   }
 
   private boolean shouldSplitRegion() {
@@ -52,4 +52,12 @@ public interface CompactionRequestor {
   public void requestCompaction(final HRegion r, final Store s,
       final String why, int pri);
 
+  /**
+   * @param r Region to compact
+   * @param s Store within region whose reference files should be rewritten
+   * @param why Why compaction was requested -- used in debug messages
+   */
+  public void requestReferenceCompaction(final HRegion r, final Store s,
+      final String why);
+
 }
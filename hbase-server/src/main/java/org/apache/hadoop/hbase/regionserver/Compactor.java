@@ -106,9 +106,12 @@ class Compactor extends Configured {
     // keep track of compaction progress
     this.progress = new CompactionProgress(maxKeyCount);
 
+    // Find the smallest read point across all the Scanners.
+    long smallestReadPoint = store.getHRegion().getSmallestReadPoint();
     // For each file, obtain a scanner:
     List<StoreFileScanner> scanners = StoreFileScanner
-      .getScannersForStoreFiles(filesToCompact, false, false, true);
+      .getScannersForStoreFiles(filesToCompact, false, false, true, null,
+        smallestReadPoint);
 
     // Get some configs
     int compactionKVMax = getConf().getInt("hbase.hstore.compaction.kv.max", 10);
@@ -121,9 +124,6 @@ class Compactor extends Configured {
     // Make the instantiation lazy in case compaction produces no product; i.e.
     // where all source cells are expired or deleted.
     StoreFile.Writer writer = null;
-    // Find the smallest read point across all the Scanners.
-    long smallestReadPoint = store.getHRegion().getSmallestReadPoint();
-    MultiVersionConsistencyControl.setThreadReadPoint(smallestReadPoint);
     try {
       InternalScanner scanner = null;
       try {
@@ -34,19 +34,20 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
-import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
@@ -58,7 +59,6 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -83,6 +83,7 @@ import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.NotServingRegionException;
+import org.apache.hadoop.hbase.RegionInRecoveryException;
 import org.apache.hadoop.hbase.UnknownScannerException;
 import org.apache.hadoop.hbase.client.Append;
 import org.apache.hadoop.hbase.client.Delete;
@@ -125,7 +126,6 @@ import org.apache.hadoop.hbase.util.ClassSize;
 import org.apache.hadoop.hbase.util.CompressionTest;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.FSUtils;
-import org.apache.hadoop.hbase.util.HashedBytes;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.hbase.util.Writables;
@@ -194,12 +194,9 @@ public class HRegion implements HeapSize { // , Writable{
   // Members
   //////////////////////////////////////////////////////////////////////////////
 
-  private final ConcurrentHashMap<HashedBytes, CountDownLatch> lockedRows =
-    new ConcurrentHashMap<HashedBytes, CountDownLatch>();
-  private final ConcurrentHashMap<Integer, HashedBytes> lockIds =
-    new ConcurrentHashMap<Integer, HashedBytes>();
-  private final AtomicInteger lockIdGenerator = new AtomicInteger(1);
-  static private Random rand = new Random();
+  private final RowLockManager rowLocks;
+  private final IncrementCoalescer incrementCoalescer =
+    new IncrementCoalescer(this);
 
   protected final Map<byte [], Store> stores =
     new ConcurrentSkipListMap<byte [], Store>(Bytes.BYTES_RAWCOMPARATOR);
@@ -216,6 +213,12 @@ public class HRegion implements HeapSize { // , Writable{
    */
   public static final String REGION_TEMP_SUBDIR = ".tmp";
 
+  /**
+   * Attribute of the mutations log replay sends, holding the sequence id of
+   * the log entry they come from; see {@link #setRecovering(boolean)}.
+   */
+  public static final String REPLAY_SEQID_ATTRIBUTE = "_hbase.replay.seqid";
+
   //These variable are just used for getting data out of the region, to test on
   //client side
   // private int numStores = 0;
@@ -319,6 +322,15 @@ public class HRegion implements HeapSize { // , Writable{
   final long timestampSlop;
   final long rowProcessorTimeout;
   private volatile long lastFlushTime;
+  // When this region came online still reading through reference files,
+  // -1 once the last reference has been compacted away (or if there were none)
+  private final AtomicLong referencesSince = new AtomicLong(-1);
+  // True while the edits of a dead server's logs are being replayed into this
+  // region; reads are refused until then.
+  private volatile boolean recovering = false;
+  // Max sequence id in each store when the region opened, by family; replayed
+  // edits at or below it are in the store files already
+  private Map<byte[], Long> maxSeqIdsAtOpen = Collections.emptyMap();
   final RegionServerServices rsServices;
   private RegionServerAccounting rsAccounting;
   private List<Pair<Long, Long>> recentFlushes = new ArrayList<Pair<Long,Long>>();
@@ -371,6 +383,7 @@ public class HRegion implements HeapSize { // , Writable{
     this.scannerReadPoints = new ConcurrentHashMap<RegionScanner, Long>();
     
     this.opMetrics = new OperationMetrics();
+    this.rowLocks = new RowLockManager(this.rowLockWaitDuration, null);
   }
 
   /**
@@ -434,6 +447,7 @@ public class HRegion implements HeapSize { // , Writable{
     this.scannerReadPoints = new ConcurrentHashMap<RegionScanner, Long>();
     
     this.opMetrics = new OperationMetrics(conf, this.regionInfo);
+    this.rowLocks = new RowLockManager(this.rowLockWaitDuration, this.opMetrics);
 
     /*
      * timestamp.slop provides a server-side constraint on the timestamp. This
@@ -577,10 +591,13 @@ public class HRegion implements HeapSize { // , Writable{
       } catch (ExecutionException e) {
         throw new IOException(e.getCause());
       } finally {
-        storeOpenerThreadPool.shutdownNow();
+        if (!isSharedThreadPool(storeOpenerThreadPool)) {
+          storeOpenerThreadPool.shutdownNow();
+        }
       }
     }
     mvcc.initialize(maxMemstoreTS + 1);
+    this.maxSeqIdsAtOpen = maxSeqIdInStores;
     // Recover any edits if available.
     maxSeqId = Math.max(maxSeqId, replayRecoveredEditsIfAny(
         this.regiondir, maxSeqIdInStores, reporter, status));
@@ -602,6 +619,7 @@ public class HRegion implements HeapSize { // , Writable{
     this.splitPolicy = RegionSplitPolicy.create(this, conf);
 
     this.lastFlushTime = EnvironmentEdgeManager.currentTimeMillis();
+    this.referencesSince.set(hasReferences() ? this.lastFlushTime : -1);
     // Use maximum of log sequenceid or that which was found in stores
     // (particularly if no recovered edits, seqid will be -1).
     long nextSeqid = maxSeqId + 1;
@@ -636,6 +654,33 @@ public class HRegion implements HeapSize { // , Writable{
     }
   }
 
+  /**
+   * Called once a compaction has left this region without references.
+   * @return How long, in ms, the region served reads through references since
+   * it was opened, or -1 if it had none or this was already reported
+   */
+  public long referencesEliminated() {
+    long since = this.referencesSince.getAndSet(-1);
+    return since < 0 ? -1 : EnvironmentEdgeManager.currentTimeMillis() - since;
+  }
+
+  /**
+   * Let the split policy see the row of a request, for load based splitting.
+   */
+  private void recordRequest(final byte [] row) {
+    if (this.splitPolicy != null) {
+      this.splitPolicy.recordRequest(row);
+    }
+  }
+
+  /**
+   * @return True if the split policy wants to be asked about splitting
+   * periodically rather than only after flushes and compactions
+   */
+  boolean shouldCheckSplitPeriodically() {
+    return this.splitPolicy != null && this.splitPolicy.shouldCheckPeriodically();
+  }
+
   /**
    * @return True if this region has references.
    */
@@ -847,6 +892,57 @@ public class HRegion implements HeapSize { // , Writable{
     return this.closing.get();
   }
 
+  /**
+   * @return True if edits of a dead server's logs are still being replayed
+   * into this region.
+   */
+  public boolean isRecovering() {
+    return this.recovering;
+  }
+
+  /**
+   * @param recovering whether edits of a dead server's logs are still being
+   * replayed into this region; reads are refused while they are.
+   */
+  public void setRecovering(final boolean recovering) {
+    this.recovering = recovering;
+  }
+
+  /**
+   * @throws RegionInRecoveryException if edits of a dead server's logs are
+   * still being replayed into this region, so it cannot be read yet
+   */
+  private void checkNotRecovering() throws RegionInRecoveryException {
+    if (this.recovering) {
+      throw new RegionInRecoveryException(getRegionNameAsString() +
+        " is recovering");
+    }
+  }
+
+  /**
+   * Drops the families of an edit replayed from a dead server's logs, i.e.
+   * carrying {@link #REPLAY_SEQID_ATTRIBUTE}, that were flushed to the store
+   * files before the server died.  Only done while recovering: the sequence
+   * ids of this region's stores at open are only comparable to those of the
+   * logs of the server it was recovered from.
+   * @param m
+   * @return true if nothing is left of the edit
+   */
+  private boolean skipFlushedReplayedEdits(final Mutation m) {
+    if (!this.recovering) return false;
+    byte [] seqId = m.getAttribute(REPLAY_SEQID_ATTRIBUTE);
+    if (seqId == null) return false;
+    long logSeqNum = Bytes.toLong(seqId);
+    Iterator<byte[]> families = m.getFamilyMap().keySet().iterator();
+    while (families.hasNext()) {
+      Long maxSeqId = this.maxSeqIdsAtOpen.get(families.next());
+      if (maxSeqId != null && logSeqNum <= maxSeqId) {
+        families.remove();
+      }
+    }
+    return m.getFamilyMap().isEmpty();
+  }
+
   /** @return true if region is available (not closed and not closing) */
   public boolean isAvailable() {
     return !isClosed() && !isClosing();
@@ -1004,7 +1100,9 @@ public class HRegion implements HeapSize { // , Writable{
         } catch (ExecutionException e) {
           throw new IOException(e.getCause());
         } finally {
-          storeCloserThreadPool.shutdownNow();
+          if (!isSharedThreadPool(storeCloserThreadPool)) {
+            storeCloserThreadPool.shutdownNow();
+          }
         }
       }
       this.closed.set(true);
@@ -1022,8 +1120,18 @@ public class HRegion implements HeapSize { // , Writable{
     }
   }
 
+  /**
+   * @param threadNamePrefix
+   * @return the pool to open or close the stores of this region in, the one
+   * shared by all regions of the region server if it has one
+   * @see #isSharedThreadPool(ThreadPoolExecutor)
+   */
   protected ThreadPoolExecutor getStoreOpenAndCloseThreadPool(
       final String threadNamePrefix) {
+    if (this.rsServices != null &&
+        this.rsServices.getStoreOpenAndCloseThreadPool() != null) {
+      return this.rsServices.getStoreOpenAndCloseThreadPool();
+    }
     int numStores = Math.max(1, this.htableDescriptor.getFamilies().size());
     int maxThreads = Math.min(numStores,
         conf.getInt(HConstants.HSTORE_OPEN_AND_CLOSE_THREADS_MAX,
@@ -1031,8 +1139,19 @@ public class HRegion implements HeapSize { // , Writable{
     return getOpenAndCloseThreadPool(maxThreads, threadNamePrefix);
   }
 
+  /**
+   * @param threadNamePrefix
+   * @return the pool to open or close the store files of a store of this
+   * region in, the one shared by all regions of the region server if it has
+   * one
+   * @see #isSharedThreadPool(ThreadPoolExecutor)
+   */
   protected ThreadPoolExecutor getStoreFileOpenAndCloseThreadPool(
       final String threadNamePrefix) {
+    if (this.rsServices != null &&
+        this.rsServices.getStoreFileOpenAndCloseThreadPool() != null) {
+      return this.rsServices.getStoreFileOpenAndCloseThreadPool();
+    }
     int numStores = Math.max(1, this.htableDescriptor.getFamilies().size());
     int maxThreads = Math.max(1,
         conf.getInt(HConstants.HSTORE_OPEN_AND_CLOSE_THREADS_MAX,
@@ -1041,6 +1160,26 @@ public class HRegion implements HeapSize { // , Writable{
     return getOpenAndCloseThreadPool(maxThreads, threadNamePrefix);
   }
 
+  /**
+   * @return the pool of the region server to seek store files in parallel
+   * on, or null if seeks are done one after the other
+   */
+  ThreadPoolExecutor getParallelSeekThreadPool() {
+    return this.rsServices == null ? null :
+      this.rsServices.getParallelSeekThreadPool();
+  }
+
+  /**
+   * @param pool
+   * @return true if <code>pool</code> is shared with other regions, in which
+   * case it must not be shut down once the stores are opened or closed
+   */
+  boolean isSharedThreadPool(final ThreadPoolExecutor pool) {
+    return this.rsServices != null &&
+      (pool == this.rsServices.getStoreOpenAndCloseThreadPool() ||
+       pool == this.rsServices.getStoreFileOpenAndCloseThreadPool());
+  }
+
   static ThreadPoolExecutor getOpenAndCloseThreadPool(int maxThreads,
       final String threadNamePrefix) {
     return Threads.getBoundedCachedThreadPool(maxThreads, 30L, TimeUnit.SECONDS,
@@ -1642,6 +1781,7 @@ public class HRegion implements HeapSize { // , Writable{
     // look across all the HStores for this region and determine what the
     // closest key is across all column families, since the data may be sparse
     checkRow(row, "getClosestRowBefore");
+    checkNotRecovering();
     startRegionOperation();
     this.readRequestsCount.increment();
     try {
@@ -1690,7 +1830,9 @@ public class HRegion implements HeapSize { // , Writable{
       List<KeyValueScanner> additionalScanners) throws IOException {
     startRegionOperation();
     this.readRequestsCount.increment();
+    recordRequest(scan.getStartRow());
     try {
+      checkNotRecovering();
       // Verify families are all valid
       prepareScanner(scan);
       if(scan.hasFamilies()) {
@@ -1742,20 +1884,21 @@ public class HRegion implements HeapSize { // , Writable{
   throws IOException {
     checkReadOnly();
     checkResources();
-    Integer lid = null;
     startRegionOperation();
     this.writeRequestsCount.increment();
+    recordRequest(delete.getRow());
     try {
+      if (skipFlushedReplayedEdits(delete)) return;
       byte [] row = delete.getRow();
       // If we did not pass an existing row lock, obtain a new one
-      lid = getLock(lockid, row, true);
+      RowLockManager.Lock rowLock = lockRowUnlessLocked(lockid, row);
 
       try {
         // All edits for the given row (across all column families) must happen atomically.
         prepareDelete(delete);
         internalDelete(delete, delete.getClusterId(), writeToWAL);
       } finally {
-        if(lockid == null) releaseRowLock(lid);
+        if (rowLock != null) rowLock.release();
       }
     } finally {
       closeRegionOperation();
@@ -1936,21 +2079,23 @@ public class HRegion implements HeapSize { // , Writable{
     checkResources();
     startRegionOperation();
     this.writeRequestsCount.increment();
+    recordRequest(put.getRow());
     try {
       // We obtain a per-row lock, so other clients will block while one client
       // performs an update. The read lock is released by the client calling
       // #commit or #abort or if the HRegionServer lease on the lock expires.
       // See HRegionServer#RegionListener for how the expire on HRegionServer
       // invokes a HRegion#abort.
+      if (skipFlushedReplayedEdits(put)) return;
       byte [] row = put.getRow();
       // If we did not pass an existing row lock, obtain a new one
-      Integer lid = getLock(lockid, row, true);
+      RowLockManager.Lock rowLock = lockRowUnlessLocked(lockid, row);
 
       try {
         // All edits for the given row (across all column families) must happen atomically.
         internalPut(put, put.getClusterId(), writeToWAL);
       } finally {
-        if(lockid == null) releaseRowLock(lid);
+        if (rowLock != null) rowLock.release();
       }
     } finally {
       closeRegionOperation();
@@ -2020,6 +2165,9 @@ public class HRegion implements HeapSize { // , Writable{
       try {
         if (!initialized) {
           this.writeRequestsCount.increment(); 
+          for (Pair<Put, Integer> putAndLock : putsAndLocks) {
+            recordRequest(putAndLock.getFirst().getRow());
+          }
           doPrePutHook(batchOp);
           initialized = true;
         }
@@ -2078,7 +2226,8 @@ public class HRegion implements HeapSize { // , Writable{
     boolean locked = false;
 
     /** Keep track of the locks we hold so we can release them in finally clause */
-    List<Integer> acquiredLocks = Lists.newArrayListWithCapacity(batchOp.operations.length);
+    List<RowLockManager.Lock> acquiredLocks =
+      Lists.newArrayListWithCapacity(batchOp.operations.length);
     // reference family maps directly so coprocessors can mutate them if desired
     Map<byte[],List<KeyValue>>[] familyMaps = new Map[batchOp.operations.length];
     // We try to set up a batch in the range [firstIndex,lastIndexExclusive)
@@ -2108,6 +2257,13 @@ public class HRegion implements HeapSize { // , Writable{
           continue;
         }
 
+        // Replayed edits already in the store files are done
+        if (skipFlushedReplayedEdits(put)) {
+          batchOp.retCodeDetails[lastIndexExclusive] = OperationStatus.SUCCESS;
+          lastIndexExclusive++;
+          continue;
+        }
+
         // Check the families in the put. If bad, skip this one.
         try {
           checkFamilies(familyMap.keySet());
@@ -2120,17 +2276,20 @@ public class HRegion implements HeapSize { // , Writable{
           continue;
         }
 
-        // If we haven't got any rows in our batch, we should block to
-        // get the next one.
-        boolean shouldBlock = numReadyToWrite == 0;
-        Integer acquiredLockId = getLock(providedLockId, put.getRow(), shouldBlock);
-        if (acquiredLockId == null) {
-          // We failed to grab another lock
-          assert !shouldBlock : "Should never fail to get lock when blocking";
-          break; // stop acquiring more rows for this batch
-        }
-        if (providedLockId == null) {
-          acquiredLocks.add(acquiredLockId);
+        if (providedLockId != null) {
+          checkRowLock(providedLockId);
+        } else {
+          // If we haven't got any rows in our batch, we should block to
+          // get the next one.  Rows already locked by this batch are locked
+          // again without waiting.
+          boolean shouldBlock = numReadyToWrite == 0;
+          RowLockManager.Lock acquiredLock =
+            getRowLock(put.getRow(), true, shouldBlock);
+          if (acquiredLock == null) {
+            // We failed to grab another lock
+            break; // stop acquiring more rows for this batch
+          }
+          acquiredLocks.add(acquiredLock);
         }
         lastIndexExclusive++;
         numReadyToWrite++;
@@ -2237,9 +2396,7 @@ public class HRegion implements HeapSize { // , Writable{
         locked = false;
       }
       if (acquiredLocks != null) {
-        for (Integer toRelease : acquiredLocks) {
-          releaseRowLock(toRelease);
-        }
+        releaseRowLocks(acquiredLocks);
         acquiredLocks = null;
       }
       // -------------------------
@@ -2290,9 +2447,7 @@ public class HRegion implements HeapSize { // , Writable{
       }
 
       if (acquiredLocks != null) {
-        for (Integer toRelease : acquiredLocks) {
-          releaseRowLock(toRelease);
-        }
+        releaseRowLocks(acquiredLocks);
       }
 
       // do after lock
@@ -2336,6 +2491,7 @@ public class HRegion implements HeapSize { // , Writable{
       Integer lockId, boolean writeToWAL)
   throws IOException{
     checkReadOnly();
+    checkNotRecovering();
     //TODO, add check for value length or maybe even better move this to the
     //client if this becomes a global setting
     checkResources();
@@ -2349,55 +2505,34 @@ public class HRegion implements HeapSize { // , Writable{
 
     startRegionOperation();
     this.writeRequestsCount.increment();
+    recordRequest(row);
     try {
       RowLock lock = isPut ? ((Put)w).getRowLock() : ((Delete)w).getRowLock();
       Get get = new Get(row, lock);
       checkFamily(family);
       get.addColumn(family, qualifier);
 
+      if (lockId == null) {
+        // Check under a shared lock first so that checks that fail do not
+        // serialize on the row.  One that passes is redone under the
+        // exclusive lock since shared locks cannot be upgraded.
+        RowLockManager.Lock sharedLock = getRowLock(row, false, true);
+        if (sharedLock == null) {
+          throw new IOException("Timed out on getting lock for row=" +
+            Bytes.toStringBinary(row));
+        }
+        try {
+          if (!checkValue(get, compareOp, comparator)) return false;
+        } finally {
+          sharedLock.release();
+        }
+      }
+
       // Lock row
-      Integer lid = getLock(lockId, get.getRow(), true);
-      List<KeyValue> result = null;
+      RowLockManager.Lock rowLock = lockRowUnlessLocked(lockId, row);
       try {
-        result = get(get, false);
-
-        boolean valueIsNull = comparator.getValue() == null ||
-          comparator.getValue().length == 0;
-        boolean matches = false;
-        if (result.size() == 0 && valueIsNull) {
-          matches = true;
-        } else if (result.size() > 0 && result.get(0).getValue().length == 0 &&
-            valueIsNull) {
-          matches = true;
-        } else if (result.size() == 1 && !valueIsNull) {
-          KeyValue kv = result.get(0);
-          int compareResult = comparator.compareTo(kv.getBuffer(),
-              kv.getValueOffset(), kv.getValueLength());
-          switch (compareOp) {
-          case LESS:
-            matches = compareResult <= 0;
-            break;
-          case LESS_OR_EQUAL:
-            matches = compareResult < 0;
-            break;
-          case EQUAL:
-            matches = compareResult == 0;
-            break;
-          case NOT_EQUAL:
-            matches = compareResult != 0;
-            break;
-          case GREATER_OR_EQUAL:
-            matches = compareResult > 0;
-            break;
-          case GREATER:
-            matches = compareResult >= 0;
-            break;
-          default:
-            throw new RuntimeException("Unknown Compare op " + compareOp.name());
-          }
-        }
         //If matches put the new put or delete the new delete
-        if (matches) {
+        if (checkValue(get, compareOp, comparator)) {
           // All edits for the given row (across all column families) must
           // happen atomically.
           //
@@ -2415,13 +2550,59 @@ public class HRegion implements HeapSize { // , Writable{
         }
         return false;
       } finally {
-        if(lockId == null) releaseRowLock(lid);
+        if (rowLock != null) rowLock.release();
       }
     } finally {
       closeRegionOperation();
     }
   }
 
+  /**
+   * @return true if the single column of <code>get</code> compares to
+   * <code>comparator</code> as <code>compareOp</code> says
+   */
+  private boolean checkValue(final Get get, final CompareOp compareOp,
+      final WritableByteArrayComparable comparator) throws IOException {
+    List<KeyValue> result = get(get, false);
+
+    boolean valueIsNull = comparator.getValue() == null ||
+      comparator.getValue().length == 0;
+    boolean matches = false;
+    if (result.size() == 0 && valueIsNull) {
+      matches = true;
+    } else if (result.size() > 0 && result.get(0).getValue().length == 0 &&
+        valueIsNull) {
+      matches = true;
+    } else if (result.size() == 1 && !valueIsNull) {
+      KeyValue kv = result.get(0);
+      int compareResult = comparator.compareTo(kv.getBuffer(),
+          kv.getValueOffset(), kv.getValueLength());
+      switch (compareOp) {
+      case LESS:
+        matches = compareResult <= 0;
+        break;
+      case LESS_OR_EQUAL:
+        matches = compareResult < 0;
+        break;
+      case EQUAL:
+        matches = compareResult == 0;
+        break;
+      case NOT_EQUAL:
+        matches = compareResult != 0;
+        break;
+      case GREATER_OR_EQUAL:
+        matches = compareResult > 0;
+        break;
+      case GREATER:
+        matches = compareResult >= 0;
+        break;
+      default:
+        throw new RuntimeException("Unknown Compare op " + compareOp.name());
+      }
+    }
+    return matches;
+  }
+
 
   /**
    * Replaces any KV timestamps set to {@link HConstants#LATEST_TIMESTAMP}
@@ -2819,6 +3000,14 @@ public class HRegion implements HeapSize { // , Writable{
   }
 
   /*
+   * Replays the edits of one recovered edits file.  The file is decoded by a
+   * separate {@link RecoveredEditsReader} thread while this thread applies
+   * what was read so far.  Edits are applied in batches of
+   * <code>hbase.regionserver.recovered.edits.replay.batch.size</code>
+   * KeyValues, the KeyValues of each store in the batch by their own thread,
+   * up to <code>hbase.regionserver.recovered.edits.replay.threads</code>
+   * stores at a time.  All the stores of a batch are done before a flush and
+   * before the post-WAL-restore hooks of its edits run.
    * @param edits File of recovered edits.
    * @param maxSeqIdInStores Maximum sequenceid found in each store.  Edits in log
    * must be larger than this to be replayed for each store.
@@ -2836,6 +3025,8 @@ public class HRegion implements HeapSize { // , Writable{
 
     status.setStatus("Opening logs");
     HLog.Reader reader = null;
+    RecoveredEditsReader editsReader = null;
+    ThreadPoolExecutor applyPool = null;
     try {
       reader = HLog.getReader(this.fs, edits, conf);
       long currentEditSeqId = -1;
@@ -2847,6 +3038,36 @@ public class HRegion implements HeapSize { // , Writable{
       Store store = null;
       boolean reported_once = false;
 
+      // Entries no store needs are dropped by the reader thread already
+      long minSeqIdInStores = Long.MAX_VALUE;
+      for (Long maxSeqIdInStore : maxSeqIdInStores.values()) {
+        minSeqIdInStores = Math.min(minSeqIdInStores, maxSeqIdInStore);
+      }
+      editsReader = new RecoveredEditsReader(reader, minSeqIdInStores,
+        this.regionInfo.getEncodedNameAsBytes(),
+        this.conf.getInt("hbase.regionserver.recovered.edits.replay.queue.size", 1000));
+      editsReader.setDaemon(true);
+      editsReader.setName(Thread.currentThread().getName() + "-RecoveredEditsReader-" +
+        this.regionInfo.getEncodedName());
+      editsReader.start();
+
+      int batchSize = Math.max(1, this.conf.getInt(
+        "hbase.regionserver.recovered.edits.replay.batch.size", 1000));
+      int applyThreads = Math.min(this.stores.size(), this.conf.getInt(
+        "hbase.regionserver.recovered.edits.replay.threads", 8));
+      if (applyThreads > 1) {
+        applyPool = getOpenAndCloseThreadPool(applyThreads,
+          "RecoveredEditsApplier-" + this.regionInfo.getEncodedName());
+      }
+      if (this.rsAccounting != null) {
+        // Have the per region counter there before the appliers race to add it
+        this.rsAccounting.addAndGetRegionReplayEditsSize(
+          this.regionInfo.getRegionName(), 0);
+      }
+      Map<Store, List<KeyValue>> batch = new HashMap<Store, List<KeyValue>>();
+      List<HLog.Entry> batchEntries = new ArrayList<HLog.Entry>();
+      int batchKvs = 0;
+
       try {
         // How many edits seen before we check elapsed time
         int interval = this.conf.getInt("hbase.hstore.report.interval.edits",
@@ -2857,7 +3078,7 @@ public class HRegion implements HeapSize { // , Writable{
                 180000) / 2);
         long lastReport = EnvironmentEdgeManager.currentTimeMillis();
 
-        while ((entry = reader.next()) != null) {
+        while ((entry = editsReader.take()) != null) {
           HLogKey key = entry.getKey();
           WALEdit val = entry.getEdit();
 
@@ -2868,9 +3089,6 @@ public class HRegion implements HeapSize { // , Writable{
               intervalEdits = 0;
               long cur = EnvironmentEdgeManager.currentTimeMillis();
               if (lastReport + period <= cur) {
-                status.setStatus("Replaying edits..." +
-                    " skipped=" + skippedEdits +
-                    " edits=" + editsCount);
                 // Timeout reached
                 if(!reporter.progress()) {
                   msg = "Progressable reporter failed, stopping replay";
@@ -2887,7 +3105,6 @@ public class HRegion implements HeapSize { // , Writable{
           // Start coprocessor replay here. The coprocessor is for each WALEdit
           // instead of a KeyValue.
           if (coprocessorHost != null) {
-            status.setStatus("Running pre-WAL-restore hook in coprocessors");
             if (coprocessorHost.preWALRestore(this.getRegionInfo(), key, val)) {
               // if bypass this log entry, ignore it ...
               continue;
@@ -2897,15 +3114,13 @@ public class HRegion implements HeapSize { // , Writable{
           if (firstSeqIdInLog == -1) {
             firstSeqIdInLog = key.getLogSeqNum();
           }
-          boolean flush = false;
           for (KeyValue kv: val.getKeyValues()) {
-            // Check this edit is for me. Also, guard against writing the special
-            // METACOLUMN info such as HBASE::CACHEFLUSH entries
-            if (kv.matchingFamily(HLog.METAFAMILY) ||
-                !Bytes.equals(key.getEncodedRegionName(), this.regionInfo.getEncodedNameAsBytes())) {
+            // Guard against writing the special METACOLUMN info such as
+            // HBASE::CACHEFLUSH entries
+            if (kv.matchingFamily(HLog.METAFAMILY)) {
               skippedEdits++;
               continue;
-                }
+            }
             // Figure which store the edit is meant for.
             if (store == null || !kv.matchingFamily(store.getFamily().getName())) {
               store = this.stores.get(kv.getFamily());
@@ -2924,18 +3139,28 @@ public class HRegion implements HeapSize { // , Writable{
               continue;
             }
             currentEditSeqId = key.getLogSeqNum();
-            // Once we are over the limit, restoreEdit will keep returning true to
-            // flush -- but don't flush until we've played all the kvs that make up
-            // the WALEdit.
-            flush = restoreEdit(store, kv);
+            List<KeyValue> kvs = batch.get(store);
+            if (kvs == null) {
+              kvs = new ArrayList<KeyValue>();
+              batch.put(store, kvs);
+            }
+            kvs.add(kv);
+            batchKvs++;
             editsCount++;
           }
-          if (flush) internalFlushcache(null, currentEditSeqId, status);
-
-          if (coprocessorHost != null) {
-            coprocessorHost.postWALRestore(this.getRegionInfo(), key, val);
+          batchEntries.add(entry);
+
+          // Only cut batches between WALEdits, a flush must not split one
+          if (batchKvs >= batchSize) {
+            applyRecoveredEdits(batch, batchEntries, applyPool, currentEditSeqId, status);
+            batchKvs = 0;
+            status.setStatus("Replaying edits..." +
+                " skipped=" + (skippedEdits + editsReader.getSkippedEdits()) +
+                " edits=" + editsCount +
+                " sequenceid=" + currentEditSeqId);
           }
         }
+        applyRecoveredEdits(batch, batchEntries, applyPool, currentEditSeqId, status);
       } catch (EOFException eof) {
         Path p = HLog.moveAsideBadEditsFile(fs, edits);
         msg = "Encountered EOF. Most likely due to Master failure during " +
@@ -2943,6 +3168,8 @@ public class HRegion implements HeapSize { // , Writable{
             "Continuing, but renaming " + edits + " as " + p;
         LOG.warn(msg, eof);
         status.abort(msg);
+        // Keep what was read before the EOF, as replay always did
+        applyRecoveredEdits(batch, batchEntries, applyPool, currentEditSeqId, status);
       } catch (IOException ioe) {
         // If the IOE resulted from bad file format,
         // then this problem is idempotent and retrying won't help
@@ -2952,6 +3179,7 @@ public class HRegion implements HeapSize { // , Writable{
               "Continuing, but renaming " + edits + " as " + p;
           LOG.warn(msg, ioe);
           status.setStatus(msg);
+          applyRecoveredEdits(batch, batchEntries, applyPool, currentEditSeqId, status);
         } else {
           status.abort(StringUtils.stringifyException(ioe));
           // other IO errors may be transient (bad network connection,
@@ -2962,6 +3190,7 @@ public class HRegion implements HeapSize { // , Writable{
       if (reporter != null && !reported_once) {
         reporter.progress();
       }
+      skippedEdits += editsReader.getSkippedEdits();
       msg = "Applied " + editsCount + ", skipped " + skippedEdits +
         ", firstSequenceidInLog=" + firstSeqIdInLog +
         ", maxSequenceidInLog=" + currentEditSeqId + ", path=" + edits;
@@ -2970,12 +3199,165 @@ public class HRegion implements HeapSize { // , Writable{
       return currentEditSeqId;
     } finally {
       status.cleanup();
+      if (editsReader != null) {
+        editsReader.interrupt();
+        try {
+          editsReader.join();
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (applyPool != null) {
+        applyPool.shutdownNow();
+      }
       if (reader != null) {
          reader.close();
       }
     }
   }
 
+  /*
+   * Adds the batched KeyValues to their stores, each store's in order and the
+   * stores in parallel when there is a pool, then flushes if the memstore
+   * grew too big and runs the post-WAL-restore hooks of the batched edits.
+   * The batch is cleared.
+   * @param batch KeyValues to add, by store
+   * @param entries the edits the KeyValues came from
+   * @param pool threads to apply the stores with, or null to apply them here
+   * @param seqid sequence id of the last edit in the batch
+   * @param status
+   * @throws IOException
+   */
+  private void applyRecoveredEdits(final Map<Store, List<KeyValue>> batch,
+      final List<HLog.Entry> entries, final ThreadPoolExecutor pool,
+      final long seqid, final MonitoredTask status)
+  throws IOException {
+    boolean flush = false;
+    if (pool == null || batch.size() <= 1) {
+      for (Map.Entry<Store, List<KeyValue>> e : batch.entrySet()) {
+        for (KeyValue kv : e.getValue()) {
+          // Once we are over the limit, restoreEdit will keep returning true
+          // to flush -- but don't flush until we've played the whole batch.
+          flush = restoreEdit(e.getKey(), kv);
+        }
+      }
+    } else {
+      List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(batch.size());
+      for (final Map.Entry<Store, List<KeyValue>> e : batch.entrySet()) {
+        futures.add(pool.submit(new Callable<Boolean>() {
+          public Boolean call() {
+            boolean storeFlush = false;
+            for (KeyValue kv : e.getValue()) {
+              storeFlush = restoreEdit(e.getKey(), kv);
+            }
+            return storeFlush;
+          }
+        }));
+      }
+      try {
+        for (Future<Boolean> future : futures) {
+          flush |= future.get();
+        }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        for (Future<Boolean> future : futures) {
+          future.cancel(true);
+        }
+        throw new InterruptedIOException("Interrupted replaying recovered edits");
+      } catch (ExecutionException ee) {
+        throw new IOException("Failed replaying recovered edits", ee.getCause());
+      }
+    }
+    batch.clear();
+    if (flush) internalFlushcache(null, seqid, status);
+
+    if (coprocessorHost != null) {
+      for (HLog.Entry entry : entries) {
+        coprocessorHost.postWALRestore(this.getRegionInfo(), entry.getKey(),
+          entry.getEdit());
+      }
+    }
+    entries.clear();
+  }
+
+  /**
+   * Decodes a recovered edits file ahead of the thread applying it, handing
+   * the entries over through a bounded queue.  Entries of other regions and
+   * entries every store has flushed already are dropped here, without being
+   * queued.  A read error is handed over in place of the rest of the file.
+   */
+  private static class RecoveredEditsReader extends Thread {
+    private static final HLog.Entry END = new HLog.Entry();
+
+    private final HLog.Reader reader;
+    private final long minSeqIdInStores;
+    private final byte [] encodedRegionName;
+    private final BlockingQueue<HLog.Entry> queue;
+    private volatile IOException error = null;
+    private volatile long skippedEdits = 0;
+
+    RecoveredEditsReader(final HLog.Reader reader, final long minSeqIdInStores,
+        final byte [] encodedRegionName, final int queueSize) {
+      this.reader = reader;
+      this.minSeqIdInStores = minSeqIdInStores;
+      this.encodedRegionName = encodedRegionName;
+      this.queue = new ArrayBlockingQueue<HLog.Entry>(Math.max(1, queueSize));
+    }
+
+    @Override
+    public void run() {
+      try {
+        HLog.Entry entry;
+        while ((entry = this.reader.next()) != null) {
+          HLogKey key = entry.getKey();
+          if (key.getLogSeqNum() <= this.minSeqIdInStores ||
+              !Bytes.equals(key.getEncodedRegionName(), this.encodedRegionName)) {
+            this.skippedEdits += entry.getEdit().size();
+            continue;
+          }
+          this.queue.put(entry);
+        }
+      } catch (IOException ioe) {
+        this.error = ioe;
+      } catch (InterruptedException ie) {
+        // The replay is over, nobody is listening anymore
+        return;
+      }
+      try {
+        this.queue.put(END);
+      } catch (InterruptedException ie) {
+        // Same as above
+      }
+    }
+
+    /**
+     * @return the next entry, or null once the whole file was read
+     * @throws IOException the error the file was read with, once the entries
+     * read before it are taken
+     */
+    HLog.Entry take() throws IOException {
+      HLog.Entry entry;
+      try {
+        entry = this.queue.take();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted reading recovered edits");
+      }
+      if (entry != END) return entry;
+      // Let the next call see the end too
+      this.queue.offer(END);
+      if (this.error != null) throw this.error;
+      return null;
+    }
+
+    /**
+     * @return how many KeyValues were dropped without being queued
+     */
+    long getSkippedEdits() {
+      return this.skippedEdits;
+    }
+  }
+
   /**
    * Used by tests
    * @param s Store to add edit too.
@@ -3089,74 +3471,90 @@ public class HRegion implements HeapSize { // , Writable{
    * @return The id of the held lock.
    */
   public Integer obtainRowLock(final byte [] row) throws IOException {
+    checkRow(row, "row lock");
     startRegionOperation();
     this.writeRequestsCount.increment();
     try {
-      return internalObtainRowLock(row, true);
+      return this.rowLocks.lockRow(row, true);
     } finally {
       closeRegionOperation();
     }
   }
 
   /**
-   * Obtains or tries to obtain the given row lock.
-   * @param waitForLock if true, will block until the lock is available.
-   *        Otherwise, just tries to obtain the lock and returns
-   *        null if unavailable.
+   * Locks a row for the current thread.  A thread that holds the exclusive
+   * lock of a row can lock it again, shared or exclusive; the shared lock of
+   * a row cannot be upgraded.  The lock must be released with
+   * {@link RowLockManager.Lock#release()}, and is not known to clients.
+   * @param row
+   * @param exclusive true for the exclusive lock, false for a shared one
+   * @param waitForLock if true, will block until the lock is available, up to
+   * <code>hbase.rowlock.wait.duration</code>.  Otherwise, just tries to obtain
+   * the lock.
+   * @return the lock, or null if it was not obtained
+   * @throws IOException if the row is not in this region
    */
-  private Integer internalObtainRowLock(final byte[] row, boolean waitForLock)
-      throws IOException {
+  public RowLockManager.Lock getRowLock(final byte [] row,
+      final boolean exclusive, final boolean waitForLock) throws IOException {
     checkRow(row, "row lock");
     startRegionOperation();
     try {
-      HashedBytes rowKey = new HashedBytes(row);
-      CountDownLatch rowLatch = new CountDownLatch(1);
-
-      // loop until we acquire the row lock (unless !waitForLock)
-      while (true) {
-        CountDownLatch existingLatch = lockedRows.putIfAbsent(rowKey, rowLatch);
-        if (existingLatch == null) {
-          break;
-        } else {
-          // row already locked
-          if (!waitForLock) {
-            return null;
-          }
-          try {
-            if (!existingLatch.await(this.rowLockWaitDuration,
-                            TimeUnit.MILLISECONDS)) {
-                return null;
-            }
-          } catch (InterruptedException ie) {
-            // Empty
-          }
-        }
-      }
+      return this.rowLocks.getRowLock(row, exclusive, waitForLock);
+    } finally {
+      closeRegionOperation();
+    }
+  }
 
-      // loop until we generate an unused lock id
-      while (true) {
-        Integer lockId = lockIdGenerator.incrementAndGet();
-        HashedBytes existingRowKey = lockIds.putIfAbsent(lockId, rowKey);
-        if (existingRowKey == null) {
-          return lockId;
-        } else {
-          // lockId already in use, jump generator to a new spot
-          lockIdGenerator.set(rand.nextInt());
-        }
+  /**
+   * Locks many rows for the current thread, in row order so that concurrent
+   * callers cannot deadlock.
+   * @param rows
+   * @param exclusive true for exclusive locks, false for shared ones
+   * @return the locks, one per distinct row
+   * @throws IOException if a row is not in this region, or could not be
+   * locked in time, in which case none are held
+   */
+  public List<RowLockManager.Lock> getRowLocks(final Collection<byte []> rows,
+      final boolean exclusive) throws IOException {
+    for (byte [] row : rows) {
+      checkRow(row, "row lock");
+    }
+    startRegionOperation();
+    try {
+      List<RowLockManager.Lock> locks = this.rowLocks.getRowLocks(rows, exclusive);
+      if (locks == null) {
+        throw new IOException("Timed out on getting locks for " + rows.size() +
+          " row(s) of " + this);
       }
+      return locks;
     } finally {
       closeRegionOperation();
     }
   }
 
+  /**
+   * @param locks row locks to release, may be null
+   */
+  public void releaseRowLocks(final Collection<RowLockManager.Lock> locks) {
+    this.rowLocks.releaseRowLocks(locks);
+  }
+
+  /**
+   * @return how many increments were applied along with a concurrent
+   * increment of the same row
+   */
+  public long getCoalescedIncrementCount() {
+    return this.incrementCoalescer.getCoalescedCount();
+  }
+
   /**
    * Used by unit tests.
    * @param lockid
    * @return Row that goes with <code>lockid</code>
    */
   byte[] getRowFromLock(final Integer lockid) {
-    HashedBytes rowKey = lockIds.get(lockid);
-    return rowKey == null ? null : rowKey.getBytes();
+    RowLockManager.Lock lock = this.rowLocks.getLock(lockid);
+    return lock == null ? null : lock.getRow();
   }
 
   /**
@@ -3164,18 +3562,7 @@ public class HRegion implements HeapSize { // , Writable{
    * @param lockId  The lock ID to release.
    */
   public void releaseRowLock(final Integer lockId) {
-    HashedBytes rowKey = lockIds.remove(lockId);
-    if (rowKey == null) {
-      LOG.warn("Release unknown lockId: " + lockId);
-      return;
-    }
-    CountDownLatch rowLatch = lockedRows.remove(rowKey);
-    if (rowLatch == null) {
-      LOG.error("Releases row not locked, lockId: " + lockId + " row: "
-          + rowKey);
-      return;
-    }
-    rowLatch.countDown();
+    this.rowLocks.releaseRowLock(lockId);
   }
 
   /**
@@ -3184,30 +3571,41 @@ public class HRegion implements HeapSize { // , Writable{
    * @return boolean
    */
   boolean isRowLocked(final Integer lockId) {
-    return lockIds.containsKey(lockId);
+    return this.rowLocks.getLock(lockId) != null;
   }
 
   /**
-   * Returns existing row lock if found, otherwise
-   * obtains a new row lock and returns it.
+   * @param lockid lock the client says it holds
+   * @throws IOException if it does not
+   */
+  private void checkRowLock(final Integer lockid) throws IOException {
+    if (!isRowLocked(lockid)) {
+      throw new IOException("Invalid row lock");
+    }
+  }
+
+  /**
+   * Checks the lock the client passed, or if it passed none locks the row
+   * exclusive for this thread.
    * @param lockid requested by the user, or null if the user didn't already hold lock
    * @param row the row to lock
-   * @param waitForLock if true, will block until the lock is available, otherwise will
-   * simply return null if it could not acquire the lock.
-   * @return lockid or null if waitForLock is false and the lock was unavailable.
+   * @return the lock taken, which the caller must release, or null if the
+   * client passed its own lock
+   * @throws IOException if the client's lock is not valid, or the row could
+   * not be locked in time
    */
-  private Integer getLock(Integer lockid, byte [] row, boolean waitForLock)
-  throws IOException {
-    Integer lid = null;
-    if (lockid == null) {
-      lid = internalObtainRowLock(row, waitForLock);
-    } else {
-      if (!isRowLocked(lockid)) {
-        throw new IOException("Invalid row lock");
-      }
-      lid = lockid;
+  private RowLockManager.Lock lockRowUnlessLocked(final Integer lockid,
+      final byte [] row) throws IOException {
+    if (lockid != null) {
+      checkRowLock(lockid);
+      return null;
+    }
+    RowLockManager.Lock lock = getRowLock(row, true, true);
+    if (lock == null) {
+      throw new IOException("Timed out on getting lock for row=" +
+        Bytes.toStringBinary(row));
     }
-    return lid;
+    return lock;
   }
 
   /**
@@ -3341,6 +3739,23 @@ public class HRegion implements HeapSize { // , Writable{
     return this.tableDir;
   }
 
+  /**
+   * @param scan
+   * @param conf
+   * @return the size in bytes at which a scan returning rows in parts cuts
+   * them, or -1 if it returns whole rows
+   * @see Scan#setPartialRows(boolean)
+   */
+  static long getRowPartSize(Scan scan, Configuration conf) {
+    if (!scan.isPartialRows()) {
+      return -1;
+    }
+    long size = scan.getMaxResultSize() > 0 ? scan.getMaxResultSize() :
+      conf.getLong(HConstants.HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE_KEY,
+        HConstants.DEFAULT_HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE);
+    return size > 0 && size < Long.MAX_VALUE ? size : -1;
+  }
+
   /**
    * RegionScannerImpl is used to combine scanners from multiple Stores (aka column families).
    */
@@ -3354,7 +3769,18 @@ public class HRegion implements HeapSize { // , Writable{
     private int isScan;
     private boolean filterClosed = false;
     private long readPt;
+    private boolean useThreadReadPoint = false;
     private long maxResultSize;
+    // size in bytes to cut rows into parts at, or -1 for whole rows
+    private final long rowPartSize;
+    // whether next() may return for the time limit with no row
+    private final boolean allowHeartbeats;
+    // time by which next() returns, with or without a row, or -1
+    private long deadline = -1;
+    // row the scan got to when next() last returned for the time limit
+    private byte[] heartbeatRow = null;
+    // whether next() last returned part of a row only
+    private boolean midRow = false;
 
     public HRegionInfo getRegionInfo() {
       return regionInfo;
@@ -3365,6 +3791,8 @@ public class HRegion implements HeapSize { // , Writable{
       this.maxResultSize = scan.getMaxResultSize();
       this.filter = scan.getFilter();
       this.batch = scan.getBatch();
+      this.rowPartSize = getRowPartSize(scan, conf);
+      this.allowHeartbeats = scan.getAllowHeartbeats();
       if (Bytes.equals(scan.getStopRow(), HConstants.EMPTY_END_ROW)) {
         this.stopRow = null;
       } else {
@@ -3381,23 +3809,47 @@ public class HRegion implements HeapSize { // , Writable{
         if (isolationLevel == IsolationLevel.READ_UNCOMMITTED) {
           // This scan can read even uncommitted transactions
           this.readPt = Long.MAX_VALUE;
-          MultiVersionConsistencyControl.setThreadReadPoint(this.readPt);
         } else {
-          this.readPt = MultiVersionConsistencyControl.resetThreadReadPoint(mvcc);
+          this.readPt = mvcc.memstoreReadPoint();
         }
         scannerReadPoints.put(this, this.readPt);
       }
 
+      // Our store scanners carry the read point, scanners from elsewhere may
+      // still look at the thread read point
       List<KeyValueScanner> scanners = new ArrayList<KeyValueScanner>();
-      if (additionalScanners != null) {
+      if (additionalScanners != null && !additionalScanners.isEmpty()) {
         scanners.addAll(additionalScanners);
+        this.useThreadReadPoint = true;
+        MultiVersionConsistencyControl.setThreadReadPoint(this.readPt);
       }
 
-      for (Map.Entry<byte[], NavigableSet<byte[]>> entry :
-          scan.getFamilyMap().entrySet()) {
-        Store store = stores.get(entry.getKey());
-        StoreScanner scanner = store.getScanner(scan, entry.getValue());
-        scanners.add(scanner);
+      ThreadPoolExecutor pool = getParallelSeekThreadPool();
+      if (pool != null && scan.getFamilyMap().size() > 1) {
+        // Open, and so seek, the stores at the same time
+        List<Callable<StoreScanner>> opens =
+          new ArrayList<Callable<StoreScanner>>(scan.getFamilyMap().size());
+        for (Map.Entry<byte[], NavigableSet<byte[]>> entry :
+            scan.getFamilyMap().entrySet()) {
+          final Store store = stores.get(entry.getKey());
+          final NavigableSet<byte[]> columns = entry.getValue();
+          final Scan storeScan = scan;
+          opens.add(new Callable<StoreScanner>() {
+            @Override
+            public StoreScanner call() throws IOException {
+              return store.getScanner(storeScan, columns, readPt);
+            }
+          });
+        }
+        scanners.addAll(ParallelSeeker.runAll(pool, opens));
+      } else {
+        for (Map.Entry<byte[], NavigableSet<byte[]>> entry :
+            scan.getFamilyMap().entrySet()) {
+          Store store = stores.get(entry.getKey());
+          StoreScanner scanner = store.getScanner(scan, entry.getValue(),
+            this.readPt);
+          scanners.add(scanner);
+        }
       }
       this.storeHeap = new KeyValueHeap(scanners, comparator);
     }
@@ -3411,6 +3863,28 @@ public class HRegion implements HeapSize { // , Writable{
       return maxResultSize;
     }
 
+    /**
+     * Has the calls to next() that pass over rows the filter rejects return
+     * with no row once <code>deadline</code> passes.  The row the scan has
+     * got to is then given by {@link #getHeartbeatRow()}.  Does nothing
+     * unless the scan allows heartbeats.
+     * @param deadline time in milliseconds, or -1 for no limit
+     * @see Scan#setAllowHeartbeats(boolean)
+     */
+    synchronized void setDeadline(long deadline) {
+      if (this.allowHeartbeats) {
+        this.deadline = deadline;
+      }
+    }
+
+    /**
+     * @return the row the scan resumes at if the last call to next() returned
+     * for the time limit, else null
+     */
+    synchronized byte[] getHeartbeatRow() {
+      return this.heartbeatRow;
+    }
+
     /**
      * Reset both the filter and the old filter.
      */
@@ -3439,9 +3913,12 @@ public class HRegion implements HeapSize { // , Writable{
       try {
 
         // This could be a new thread from the last time we called next().
-        MultiVersionConsistencyControl.setThreadReadPoint(this.readPt);
+        if (this.useThreadReadPoint) {
+          MultiVersionConsistencyControl.setThreadReadPoint(this.readPt);
+        }
 
         results.clear();
+        this.heartbeatRow = null;
 
         boolean returnResult = nextInternal(limit, metric);
 
@@ -3489,6 +3966,13 @@ public class HRegion implements HeapSize { // , Writable{
         }
 
         byte [] currentRow = peekRow();
+        if (this.deadline > 0 && !this.midRow && !isStopRow(currentRow) &&
+            EnvironmentEdgeManager.currentTimeMillis() >= this.deadline) {
+          // Been at it too long, most likely passing over rows the filter
+          // rejects. Let the client know how far we got before it gives up.
+          this.heartbeatRow = currentRow;
+          return true;
+        }
         if (isStopRow(currentRow)) {
           if (filter != null && filter.hasFilterRow()) {
             filter.filterRow(results);
@@ -3500,18 +3984,38 @@ public class HRegion implements HeapSize { // , Writable{
           return false;
         } else if (filterRowKey(currentRow)) {
           nextRow(currentRow);
+          this.midRow = false;
         } else {
           byte [] nextRow;
+          long partSize = 0;
           do {
+            int previousSize = results.size();
             this.storeHeap.next(results, limit - results.size(), metric);
             if (limit > 0 && results.size() == limit) {
               if (this.filter != null && filter.hasFilterRow()) {
                 throw new IncompatibleFilterException(
                   "Filter with filterRow(List<KeyValue>) incompatible with scan with limit!");
               }
+              this.midRow = true;
               return true; // we are expecting more yes, but also limited to how many we can return.
             }
-          } while (Bytes.equals(currentRow, nextRow = peekRow()));
+            nextRow = peekRow();
+            if (this.rowPartSize > 0 && Bytes.equals(currentRow, nextRow)) {
+              for (int i = previousSize; i < results.size(); i++) {
+                partSize += results.get(i).heapSize();
+              }
+              if (partSize >= this.rowPartSize) {
+                if (this.filter != null && filter.hasFilterRow()) {
+                  throw new IncompatibleFilterException(
+                    "Filter with filterRow(List<KeyValue>) incompatible with scan returning partial rows!");
+                }
+                // Return this part of the row, the rest comes with the next calls
+                this.midRow = true;
+                return true;
+              }
+            }
+          } while (Bytes.equals(currentRow, nextRow));
+          this.midRow = false;
 
           final boolean stopRow = isStopRow(nextRow);
 
@@ -3592,7 +4096,9 @@ public class HRegion implements HeapSize { // , Writable{
       startRegionOperation();
       try {
         // This could be a new thread from the last time we called next().
-        MultiVersionConsistencyControl.setThreadReadPoint(this.readPt);
+        if (this.useThreadReadPoint) {
+          MultiVersionConsistencyControl.setThreadReadPoint(this.readPt);
+        }
         KeyValue kv = KeyValue.createFirstOnRow(row);
         // use request seek to make use of the lazy seek option. See HBASE-5520
         return this.storeHeap.requestSeek(kv, true, true);
@@ -4188,6 +4694,7 @@ public class HRegion implements HeapSize { // , Writable{
    */
   public Result get(final Get get, final Integer lockid) throws IOException {
     checkRow(get.getRow(), "Get");
+    checkNotRecovering();
     // Verify families are all valid
     if (get.hasFamilies()) {
       for (byte [] family: get.familySet()) {
@@ -4294,6 +4801,7 @@ public class HRegion implements HeapSize { // , Writable{
     if (!processor.readOnly()) {
       checkReadOnly();
     }
+    checkNotRecovering();
     checkResources();
 
     startRegionOperation();
@@ -4302,12 +4810,17 @@ public class HRegion implements HeapSize { // , Writable{
     // 1. Run pre-process hook
     processor.preProcess(this, walEdit);
 
-    // Short circuit the read only case
+    // Short circuit the read only case.  Shared row locks keep writers out
+    // while the rows are read, but not other readers.
     if (processor.readOnly()) {
+      List<RowLockManager.Lock> sharedLocks = null;
       try {
+        sharedLocks = getRowLocks(processor.getRowsToLock(), false);
         long now = EnvironmentEdgeManager.currentTimeMillis();
         doProcessRowWithTimeout(
             processor, now, this, null, null, timeout);
+        releaseRowLocks(sharedLocks);
+        sharedLocks = null;
         processor.postProcess(this, walEdit);
       } catch (IOException e) {
         long endNanoTime = System.nanoTime();
@@ -4315,6 +4828,7 @@ public class HRegion implements HeapSize { // , Writable{
                                       endNanoTime - startNanoTime);
         throw e;
       } finally {
+        releaseRowLocks(sharedLocks);
         closeRegionOperation();
       }
       final long endNanoTime = System.nanoTime();
@@ -4327,22 +4841,13 @@ public class HRegion implements HeapSize { // , Writable{
     MultiVersionConsistencyControl.WriteEntry writeEntry = null;
     boolean locked = false;
     boolean walSyncSuccessful = false;
-    List<Integer> acquiredLocks = null;
+    List<RowLockManager.Lock> acquiredLocks = null;
     long addedSize = 0;
     List<KeyValue> mutations = new ArrayList<KeyValue>();
     Collection<byte[]> rowsToLock = processor.getRowsToLock();
     try {
-      // 2. Acquire the row lock(s)
-      acquiredLocks = new ArrayList<Integer>(rowsToLock.size());
-      for (byte[] row : rowsToLock) {
-        // Attempt to lock all involved rows, fail if one lock times out
-        Integer lid = getLock(null, row, true);
-        if (lid == null) {
-          throw new IOException("Failed to acquire lock on "
-              + Bytes.toStringBinary(row));
-        }
-        acquiredLocks.add(lid);
-      }
+      // 2. Acquire the row lock(s), all or none, in row order
+      acquiredLocks = getRowLocks(rowsToLock, true);
       // 3. Region lock
       this.updatesLock.readLock().lock();
       locked = true;
@@ -4383,9 +4888,7 @@ public class HRegion implements HeapSize { // , Writable{
 
           // 9. Release row lock(s)
           if (acquiredLocks != null) {
-            for (Integer lid : acquiredLocks) {
-              releaseRowLock(lid);
-            }
+            releaseRowLocks(acquiredLocks);
             acquiredLocks = null;
           }
           // 10. Sync edit log
@@ -4415,9 +4918,7 @@ public class HRegion implements HeapSize { // , Writable{
           locked = false;
         }
         if (acquiredLocks != null) {
-          for (Integer lid : acquiredLocks) {
-            releaseRowLock(lid);
-          }
+          releaseRowLocks(acquiredLocks);
         }
         unlockedNanoTime = unlockedNanoTime == 0 ?
             System.nanoTime() : unlockedNanoTime;
@@ -4526,6 +5027,7 @@ public class HRegion implements HeapSize { // , Writable{
     // TODO: Use MVCC to make this set of appends atomic to reads
     byte[] row = append.getRow();
     checkRow(row, "append");
+    checkNotRecovering();
     boolean flush = false;
     WALEdit walEdits = null;
     List<KeyValue> allKVs = new ArrayList<KeyValue>(append.size());
@@ -4537,8 +5039,9 @@ public class HRegion implements HeapSize { // , Writable{
     // Lock row
     startRegionOperation();
     this.writeRequestsCount.increment();
+    recordRequest(row);
     try {
-      Integer lid = getLock(lockid, row, true);
+      RowLockManager.Lock rowLock = lockRowUnlessLocked(lockid, row);
       this.updatesLock.readLock().lock();
       try {
         long now = EnvironmentEdgeManager.currentTimeMillis();
@@ -4638,7 +5141,7 @@ public class HRegion implements HeapSize { // , Writable{
         flush = isFlushSize(size);
       } finally {
         this.updatesLock.readLock().unlock();
-        releaseRowLock(lid);
+        if (rowLock != null) rowLock.release();
       }
       if (writeToWAL) {
         this.log.sync(txid); // sync the transaction log outside the rowlock
@@ -4666,6 +5169,10 @@ public class HRegion implements HeapSize { // , Writable{
    * <p>
    * Increments performed are done under row lock but reads do not take locks
    * out so this can be seen partially complete by gets and scans.
+   * <p>
+   * If the table has an increment coalesce window, increments made without a
+   * client row lock are applied together with the concurrent increments of
+   * the same row; see {@link HTableDescriptor#getIncrementCoalesceWindow()}.
    * @param increment
    * @param lockid
    * @param writeToWAL
@@ -4674,74 +5181,135 @@ public class HRegion implements HeapSize { // , Writable{
    */
   public Result increment(Increment increment, Integer lockid,
       boolean writeToWAL)
+  throws IOException {
+    long window = this.htableDescriptor.getIncrementCoalesceWindow();
+    TimeRange tr = increment.getTimeRange();
+    // Batches read the current values over all time
+    if (window >= 0 && lockid == null &&
+        tr.getMin() == 0 && tr.getMax() == Long.MAX_VALUE) {
+      checkRow(increment.getRow(), "increment");
+      checkNotRecovering();
+      // Before joining a batch, which a bad family would fail as a whole
+      for (byte [] family : increment.getFamilyMap().keySet()) {
+        checkFamily(family);
+      }
+      return this.incrementCoalescer.increment(increment, writeToWAL, window);
+    }
+    return checkIncrementResult(increment(Collections.singletonList(increment),
+      lockid, writeToWAL).get(0));
+  }
+
+  /**
+   * Applies increments of one row in order, with a single read of the
+   * current values, memstore update and WAL entry.
+   * <p>
+   * An increment of a column whose current value is not 64 bits wide is not
+   * applied; it gets a null result, and the others go ahead without it.
+   * @param increments increments of the same row; the time range of the
+   * first one is used to read the current values
+   * @param lockid
+   * @param writeToWAL
+   * @return the new keyvalues after each increment, in order, or null for
+   * the increments that were not applied
+   * @throws IOException
+   * @see #checkIncrementResult(Result)
+   */
+  List<Result> increment(List<Increment> increments, Integer lockid,
+      boolean writeToWAL)
   throws IOException {
     // TODO: Use MVCC to make this set of increments atomic to reads
-    byte [] row = increment.getRow();
+    byte [] row = increments.get(0).getRow();
     checkRow(row, "increment");
-    TimeRange tr = increment.getTimeRange();
+    checkNotRecovering();
+    TimeRange tr = increments.get(0).getTimeRange();
     boolean flush = false;
     WALEdit walEdits = null;
-    List<KeyValue> allKVs = new ArrayList<KeyValue>(increment.numColumns());
-    Map<Store, List<KeyValue>> tempMemstore = new HashMap<Store, List<KeyValue>>();
+    List<Result> results = new ArrayList<Result>(increments.size());
     long before = EnvironmentEdgeManager.currentTimeMillis();
     long size = 0;
     long txid = 0;
 
     // Lock row
     startRegionOperation();
-    this.writeRequestsCount.increment();
+    this.writeRequestsCount.add(increments.size());
+    recordRequest(row);
     try {
-      Integer lid = getLock(lockid, row, true);
+      RowLockManager.Lock rowLock = lockRowUnlessLocked(lockid, row);
       this.updatesLock.readLock().lock();
       try {
         long now = EnvironmentEdgeManager.currentTimeMillis();
-        // Process each family
-        for (Map.Entry<byte [], NavigableMap<byte [], Long>> family :
-          increment.getFamilyMap().entrySet()) {
-
-          Store store = stores.get(family.getKey());
-          List<KeyValue> kvs = new ArrayList<KeyValue>(family.getValue().size());
+        // The columns of all increments, family by family
+        Map<byte [], NavigableMap<byte [], Long>> values =
+          new TreeMap<byte [], NavigableMap<byte [], Long>>(Bytes.BYTES_COMPARATOR);
+        for (Increment increment : increments) {
+          for (Map.Entry<byte [], NavigableMap<byte [], Long>> family :
+            increment.getFamilyMap().entrySet()) {
+            NavigableMap<byte [], Long> columns = values.get(family.getKey());
+            if (columns == null) {
+              columns = new TreeMap<byte [], Long>(Bytes.BYTES_COMPARATOR);
+              values.put(family.getKey(), columns);
+            }
+            for (byte [] qualifier : family.getValue().keySet()) {
+              columns.put(qualifier, 0L);
+            }
+          }
+        }
 
-          // Get previous values for all columns in this family
+        // Get previous values for all columns, family by family
+        for (Map.Entry<byte [], NavigableMap<byte [], Long>> family :
+          values.entrySet()) {
           Get get = new Get(row);
-          for (Map.Entry<byte [], Long> column : family.getValue().entrySet()) {
-            get.addColumn(family.getKey(), column.getKey());
+          for (byte [] qualifier : family.getValue().keySet()) {
+            get.addColumn(family.getKey(), qualifier);
           }
           get.setTimeRange(tr.getMin(), tr.getMax());
-          List<KeyValue> results = get(get, false);
+          for (KeyValue kv : get(get, false)) {
+            // A null value marks a column that cannot be incremented
+            family.getValue().put(kv.getQualifier(),
+              kv.getValueLength() == Bytes.SIZEOF_LONG ?
+                Bytes.toLong(kv.getBuffer(), kv.getValueOffset()) : null);
+          }
+        }
 
-          // Iterate the input columns and update existing values if they were
-          // found, otherwise add new column initialized to the increment amount
-          int idx = 0;
-          for (Map.Entry<byte [], Long> column : family.getValue().entrySet()) {
-            long amount = column.getValue();
-            if (idx < results.size() &&
-                results.get(idx).matchingQualifier(column.getKey())) {
-              KeyValue kv = results.get(idx);
-              amount += Bytes.toLong(kv.getBuffer(), kv.getValueOffset());
-              idx++;
+        // Apply the increments in order; each one sees the values left by
+        // the ones before it
+        Map<Store, Map<byte [], KeyValue>> tempMemstore =
+          new HashMap<Store, Map<byte [], KeyValue>>();
+        for (Increment increment : increments) {
+          if (!canIncrement(increment, values)) {
+            results.add(null);
+            continue;
+          }
+          List<KeyValue> kvs = new ArrayList<KeyValue>(increment.numColumns());
+          for (Map.Entry<byte [], NavigableMap<byte [], Long>> family :
+            increment.getFamilyMap().entrySet()) {
+            Store store = stores.get(family.getKey());
+            NavigableMap<byte [], Long> columns = values.get(family.getKey());
+            Map<byte [], KeyValue> latest = tempMemstore.get(store);
+            if (latest == null) {
+              latest = new TreeMap<byte [], KeyValue>(Bytes.BYTES_COMPARATOR);
+              tempMemstore.put(store, latest);
             }
-
-            // Append new incremented KeyValue to list
-            KeyValue newKV = new KeyValue(row, family.getKey(), column.getKey(),
-                now, Bytes.toBytes(amount));
-            kvs.add(newKV);
-
-            // Append update to WAL
-            if (writeToWAL) {
-              if (walEdits == null) {
-                walEdits = new WALEdit();
-              }
-              walEdits.add(newKV);
+            for (Map.Entry<byte [], Long> column : family.getValue().entrySet()) {
+              long amount = columns.get(column.getKey()) + column.getValue();
+              columns.put(column.getKey(), amount);
+              KeyValue newKV = new KeyValue(row, family.getKey(), column.getKey(),
+                  now, Bytes.toBytes(amount));
+              kvs.add(newKV);
+              latest.put(column.getKey(), newKV);
             }
           }
-
-          //store the kvs to the temporary memstore before writing HLog
-          tempMemstore.put(store, kvs);
+          results.add(new Result(kvs));
         }
 
-        // Actually write to WAL now
-        if (writeToWAL) {
+        // Only the last value of each column goes to the WAL and memstore
+        if (writeToWAL && !tempMemstore.isEmpty()) {
+          walEdits = new WALEdit();
+          for (Map<byte [], KeyValue> latest : tempMemstore.values()) {
+            for (KeyValue kv : latest.values()) {
+              walEdits.add(kv);
+            }
+          }
           // Using default cluster id, as this can only happen in the orginating
           // cluster. A slave cluster receives the final value (not the delta)
           // as a Put.
@@ -4751,18 +5319,17 @@ public class HRegion implements HeapSize { // , Writable{
         }
 
         //Actually write to Memstore now
-        for (Map.Entry<Store, List<KeyValue>> entry : tempMemstore.entrySet()) {
+        for (Map.Entry<Store, Map<byte [], KeyValue>> entry : tempMemstore.entrySet()) {
           Store store = entry.getKey();
-          size += store.upsert(entry.getValue());
-          allKVs.addAll(entry.getValue());
+          size += store.upsert(new ArrayList<KeyValue>(entry.getValue().values()));
         }
         size = this.addAndGetGlobalMemstoreSize(size);
         flush = isFlushSize(size);
       } finally {
         this.updatesLock.readLock().unlock();
-        releaseRowLock(lid);
+        if (rowLock != null) rowLock.release();
       }
-      if (writeToWAL) {
+      if (writeToWAL && shouldSyncLog()) {
         this.log.sync(txid); // sync the transaction log outside the rowlock
       }
     } finally {
@@ -4770,14 +5337,58 @@ public class HRegion implements HeapSize { // , Writable{
     }
     
     long after = EnvironmentEdgeManager.currentTimeMillis();
-    this.opMetrics.updateIncrementMetrics(increment.getFamilyMap().keySet(), after - before);   
+    for (Increment increment : increments) {
+      this.opMetrics.updateIncrementMetrics(increment.getFamilyMap().keySet(),
+        after - before);
+    }
     
     if (flush) {
       // Request a cache flush.  Do it outside update lock.
       requestFlush();
     }
 
-    return new Result(allKVs);
+    return results;
+  }
+
+  /**
+   * @return true if none of the columns <code>increment</code> increments
+   * has a current value that is not 64 bits wide
+   */
+  private static boolean canIncrement(final Increment increment,
+      final Map<byte [], NavigableMap<byte [], Long>> values) {
+    for (Map.Entry<byte [], NavigableMap<byte [], Long>> family :
+      increment.getFamilyMap().entrySet()) {
+      NavigableMap<byte [], Long> columns = values.get(family.getKey());
+      for (byte [] qualifier : family.getValue().keySet()) {
+        if (columns.get(qualifier) == null) return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param result the result of an increment from
+   * {@link #increment(List, Integer, boolean)}
+   * @return <code>result</code>
+   * @throws IOException if the increment was not applied, as a column it
+   * increments is not 64 bits wide
+   */
+  static Result checkIncrementResult(final Result result) throws IOException {
+    if (result == null) {
+      throw new IOException(
+          "Attempted to increment field that isn't 64 bits wide");
+    }
+    return result;
+  }
+
+  /**
+   * @return true if edits should be synced to the WAL before returning to
+   * the client; tables with deferred log flush get them synced by the log
+   * syncer within <code>hbase.regionserver.optionallogflushinterval</code>
+   */
+  private boolean shouldSyncLog() {
+    return this.regionInfo.isMetaRegion() ||
+      !this.htableDescriptor.isDeferredLogFlush();
   }
 
   /**
@@ -4798,6 +5409,7 @@ public class HRegion implements HeapSize { // , Writable{
     long before = EnvironmentEdgeManager.currentTimeMillis();
 
     checkRow(row, "increment");
+    checkNotRecovering();
     boolean flush = false;
     boolean wrongLength = false;
     long txid = 0;
@@ -4806,7 +5418,7 @@ public class HRegion implements HeapSize { // , Writable{
     startRegionOperation();
     this.writeRequestsCount.increment();
     try {
-      Integer lid = obtainRowLock(row);
+      RowLockManager.Lock rowLock = lockRowUnlessLocked(null, row);
       this.updatesLock.readLock().lock();
       try {
         Store store = stores.get(family);
@@ -4859,9 +5471,9 @@ public class HRegion implements HeapSize { // , Writable{
         }
       } finally {
         this.updatesLock.readLock().unlock();
-        releaseRowLock(lid);
+        if (rowLock != null) rowLock.release();
       }
-      if (writeToWAL) {
+      if (writeToWAL && shouldSyncLog()) {
         this.log.sync(txid); // sync the transaction log outside the rowlock
       }
     } finally {
@@ -4900,21 +5512,23 @@ public class HRegion implements HeapSize { // , Writable{
   public static final long FIXED_OVERHEAD = ClassSize.align(
       ClassSize.OBJECT +
       ClassSize.ARRAY +
-      36 * ClassSize.REFERENCE + Bytes.SIZEOF_INT +
+      37 * ClassSize.REFERENCE + Bytes.SIZEOF_INT +
       (6 * Bytes.SIZEOF_LONG) +
-      Bytes.SIZEOF_BOOLEAN);
+      2 * Bytes.SIZEOF_BOOLEAN);
 
   public static final long DEEP_OVERHEAD = FIXED_OVERHEAD +
       ClassSize.OBJECT + // closeLock
       (2 * ClassSize.ATOMIC_BOOLEAN) + // closed, closing
-      (3 * ClassSize.ATOMIC_LONG) + // memStoreSize, numPutsWithoutWAL, dataInMemoryWithoutWAL 
-      ClassSize.ATOMIC_INTEGER + // lockIdGenerator
-      (3 * ClassSize.CONCURRENT_HASHMAP) +  // lockedRows, lockIds, scannerReadPoints
+      (4 * ClassSize.ATOMIC_LONG) + // memStoreSize, numPutsWithoutWAL, dataInMemoryWithoutWAL,
+                                   // referencesSince
+      RowLockManager.DEEP_OVERHEAD + // rowLocks
+      IncrementCoalescer.DEEP_OVERHEAD + // incrementCoalescer
+      ClassSize.CONCURRENT_HASHMAP +  // scannerReadPoints
       WriteState.HEAP_SIZE + // writestate
       ClassSize.CONCURRENT_SKIPLISTMAP + ClassSize.CONCURRENT_SKIPLISTMAP_ENTRY + // stores
       (2 * ClassSize.REENTRANT_LOCK) + // lock, updatesLock
       ClassSize.ARRAYLIST + // recentFlushes
-      MultiVersionConsistencyControl.FIXED_SIZE // mvcc
+      MultiVersionConsistencyControl.DEEP_OVERHEAD // mvcc, with its write ring
       ;
 
   @Override
@@ -47,6 +47,8 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -72,6 +74,7 @@ import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.NotServingRegionException;
 import org.apache.hadoop.hbase.RegionMovedException;
+import org.apache.hadoop.hbase.RegionTransition;
 import org.apache.hadoop.hbase.RemoteExceptionHandler;
 import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.Stoppable;
@@ -98,6 +101,7 @@ import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.coprocessor.Exec;
 import org.apache.hadoop.hbase.client.coprocessor.ExecResult;
 import org.apache.hadoop.hbase.coprocessor.CoprocessorHost;
+import org.apache.hadoop.hbase.executor.EventHandler.EventType;
 import org.apache.hadoop.hbase.executor.ExecutorService;
 import org.apache.hadoop.hbase.executor.ExecutorService.ExecutorType;
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
@@ -114,6 +118,7 @@ import org.apache.hadoop.hbase.ipc.Invocation;
 import org.apache.hadoop.hbase.ipc.ProtocolSignature;
 import org.apache.hadoop.hbase.ipc.RpcServer;
 import org.apache.hadoop.hbase.ipc.ServerNotRunningYetException;
+import org.apache.hadoop.hbase.master.balancer.FavoredNodeAssignmentHelper;
 import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
 import org.apache.hadoop.hbase.protobuf.ResponseConverter;
 import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.CloseRegionRequest;
@@ -205,6 +210,7 @@ import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.metrics.util.MBeanUtil;
 import org.apache.hadoop.net.DNS;
+import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.zookeeper.KeeperException;
@@ -259,6 +265,10 @@ public class  HRegionServer implements ClientProtocol,
   // catalog tracker
   protected CatalogTracker catalogTracker;
 
+  // Batches the .META. location updates of opened regions; made on first use
+  // as we only know our name as the master sees it once we have reported in.
+  private RegionLocationUpdater regionLocationUpdater;
+
   /**
    * Go here to get table descriptors.
    */
@@ -281,6 +291,31 @@ public class  HRegionServer implements ClientProtocol,
   protected final Map<String, HRegion> onlineRegions =
     new ConcurrentHashMap<String, HRegion>();
 
+  /**
+   * Datanodes the master wants the HFile blocks of a region written to, by
+   * encoded region name.
+   * @see HConstants#FAVORED_NODES_ENABLED_KEY
+   */
+  private final Map<String, InetSocketAddress[]> regionFavoredNodesMap =
+    new ConcurrentHashMap<String, InetSocketAddress[]>();
+
+  /**
+   * Pools that all regions open and close their stores and store files in
+   * when <code>hbase.regionserver.store.open.and.close.threads</code> is set,
+   * so that opening many regions at once does not start threads per region.
+   * Null if each region makes its own.
+   */
+  private ThreadPoolExecutor storeOpenAndCloseThreadPool;
+  private ThreadPoolExecutor storeFileOpenAndCloseThreadPool;
+
+  /**
+   * Pool store scanners seek their store files in parallel on when
+   * <code>hbase.storescanner.parallel.seek.threads</code> is set, so that a
+   * read on a cold cache waits about as long as the slowest store file rather
+   * than the sum of all of them.  Null if seeks are done one after the other.
+   */
+  private ThreadPoolExecutor parallelSeekThreadPool;
+
   // Leases
   protected Leases leases;
 
@@ -334,7 +369,7 @@ public class  HRegionServer implements ClientProtocol,
   protected final int numRegionsToReport;
 
   // Remote HMaster
-  private RegionServerStatusProtocol hbaseMaster;
+  private volatile RegionServerStatusProtocol hbaseMaster;
 
   // Server to handle client requests. Default access so can be accessed by
   // unit tests.
@@ -366,6 +401,11 @@ public class  HRegionServer implements ClientProtocol,
    */
   Chore compactionChecker;
 
+  /*
+   * Check for store files with poor block locality; null if disabled
+   */
+  Chore localityRestorer;
+
   // HLog and HLog roller. log is protected rather than private to avoid
   // eclipse warning when accessed by inner classes
   protected volatile HLog hlog;
@@ -432,6 +472,12 @@ public class  HRegionServer implements ClientProtocol,
    */
   private final int scannerLeaseTimeoutPeriod;
 
+  /**
+   * How long a scan call may read before returning what it has, or a
+   * heartbeat when it found no row (milliseconds).
+   */
+  private final long scannerTimeLimit;
+
 
   /**
    * Starts a HRegionServer at the default location
@@ -482,6 +528,9 @@ public class  HRegionServer implements ClientProtocol,
 
     this.scannerLeaseTimeoutPeriod = conf.getInt(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD,
       HConstants.DEFAULT_HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD);
+    // Well within the client's scanner timeout, which is the lease period
+    this.scannerTimeLimit = conf.getLong("hbase.regionserver.scanner.time.limit",
+      this.scannerLeaseTimeoutPeriod / 2);
 
     // Server to handle client requests.
     String hostname = Strings.domainNamePointerToHostName(DNS.getDefaultHost(
@@ -722,6 +771,12 @@ public class  HRegionServer implements ClientProtocol,
     this.compactionChecker = new CompactionChecker(this,
       this.threadWakeFrequency * multiplier, this);
 
+    // Background thread rewriting store files whose blocks are elsewhere
+    if (this.conf.getBoolean("hbase.regionserver.locality.restorer.enabled", false)) {
+      this.localityRestorer = new LocalityRestorer(this, this.conf,
+        this.conf.getInt("hbase.regionserver.locality.restorer.period", 600000));
+    }
+
     this.leases = new Leases(this.threadWakeFrequency);
 
     // Create the thread for the ThriftServer.
@@ -838,6 +893,8 @@ public class  HRegionServer implements ClientProtocol,
     if (this.hlogRoller != null) this.hlogRoller.interruptIfNecessary();
     if (this.compactionChecker != null)
       this.compactionChecker.interrupt();
+    if (this.localityRestorer != null)
+      this.localityRestorer.interrupt();
 
     if (this.killed) {
       // Just skip out w/o closing regions.  Used when testing.
@@ -1243,6 +1300,9 @@ public class  HRegionServer implements ClientProtocol,
             LOG.warn("Failed major compaction check on " + r, e);
           }
         }
+        if (r.shouldCheckSplitPeriodically()) {
+          this.instance.compactSplitThread.requestSplit(r);
+        }
       }
     }
   }
@@ -1518,12 +1578,31 @@ public class  HRegionServer implements ClientProtocol,
       conf.getInt("hbase.regionserver.executor.closeroot.threads", 1));
     this.service.startExecutorService(ExecutorType.RS_CLOSE_META,
       conf.getInt("hbase.regionserver.executor.closemeta.threads", 1));
+    int storeOpenAndCloseThreads =
+      conf.getInt("hbase.regionserver.store.open.and.close.threads", 0);
+    if (storeOpenAndCloseThreads > 0) {
+      this.storeOpenAndCloseThreadPool = HRegion.getOpenAndCloseThreadPool(
+        storeOpenAndCloseThreads, n + ".storeOpenAndClose");
+      this.storeFileOpenAndCloseThreadPool = HRegion.getOpenAndCloseThreadPool(
+        storeOpenAndCloseThreads, n + ".storeFileOpenAndClose");
+    }
+    int parallelSeekThreads =
+      conf.getInt("hbase.storescanner.parallel.seek.threads", 0);
+    if (parallelSeekThreads > 0) {
+      this.parallelSeekThreadPool = Threads.getBoundedCachedThreadPool(
+        parallelSeekThreads, 60L, TimeUnit.SECONDS,
+        Threads.getNamedThreadFactory(n + ".parallelSeek-"));
+    }
 
     Threads.setDaemonThreadRunning(this.hlogRoller.getThread(), n + ".logRoller", handler);
     Threads.setDaemonThreadRunning(this.cacheFlusher.getThread(), n + ".cacheFlusher",
       handler);
     Threads.setDaemonThreadRunning(this.compactionChecker.getThread(), n +
       ".compactionChecker", handler);
+    if (this.localityRestorer != null) {
+      Threads.setDaemonThreadRunning(this.localityRestorer.getThread(), n +
+        ".localityRestorer", handler);
+    }
 
     // Leases is not a Thread. Internally it runs a daemon thread. If it gets
     // an unhandled exception, it will just exit.
@@ -1551,6 +1630,11 @@ public class  HRegionServer implements ClientProtocol,
     this.splitLogWorker = new SplitLogWorker(this.zooKeeper,
         this.getConfiguration(), this.getServerName());
     splitLogWorker.start();
+
+    if (this.conf.getBoolean(HConstants.DISTRIBUTED_LOG_REPLAY_KEY,
+        HConstants.DEFAULT_DISTRIBUTED_LOG_REPLAY)) {
+      this.zooKeeper.registerListener(new RecoveringRegionWatcher(this.zooKeeper, this));
+    }
   }
 
   /**
@@ -1637,7 +1721,10 @@ public class  HRegionServer implements ClientProtocol,
       ", daughter=" + daughter);
     // Do checks to see if we need to compact (references or too many files)
     for (Store s : r.getStores().values()) {
-      if (s.hasReferences() || s.needsCompaction()) {
+      if (s.hasReferences()) {
+        getCompactionRequester().requestReferenceCompaction(r, s,
+          "Opening Region with references");
+      } else if (s.needsCompaction()) {
         getCompactionRequester().requestCompaction(r, s, "Opening Region");
       }
     }
@@ -1653,6 +1740,9 @@ public class  HRegionServer implements ClientProtocol,
         // If daughter of a split, update whole row, not just location.
         MetaEditor.addDaughter(ct, r.getRegionInfo(),
           this.serverNameFromMasterPOV);
+      } else if (ct == this.catalogTracker) {
+        // Batched with the location updates of other regions opening here
+        getRegionLocationUpdater().updateLocation(r.getRegionInfo());
       } else {
         MetaEditor.updateRegionLocation(ct, r.getRegionInfo(),
           this.serverNameFromMasterPOV);
@@ -1663,6 +1753,14 @@ public class  HRegionServer implements ClientProtocol,
 
   }
 
+  private synchronized RegionLocationUpdater getRegionLocationUpdater() {
+    if (this.regionLocationUpdater == null) {
+      this.regionLocationUpdater = new RegionLocationUpdater(this.catalogTracker,
+        this.serverNameFromMasterPOV);
+    }
+    return this.regionLocationUpdater;
+  }
+
   /**
    * Return a reference to the metrics instance used for counting RPC calls.
    * @return Metrics instance.
@@ -1751,6 +1849,9 @@ public class  HRegionServer implements ClientProtocol,
    */
   protected void join() {
     Threads.shutdown(this.compactionChecker.getThread());
+    if (this.localityRestorer != null) {
+      Threads.shutdown(this.localityRestorer.getThread());
+    }
     Threads.shutdown(this.cacheFlusher.getThread());
     if (this.hlogRoller != null) {
       Threads.shutdown(this.hlogRoller.getThread());
@@ -1759,6 +1860,13 @@ public class  HRegionServer implements ClientProtocol,
       this.compactSplitThread.join();
     }
     if (this.service != null) this.service.shutdown();
+    if (this.storeOpenAndCloseThreadPool != null) {
+      this.storeOpenAndCloseThreadPool.shutdown();
+      this.storeFileOpenAndCloseThreadPool.shutdown();
+    }
+    if (this.parallelSeekThreadPool != null) {
+      this.parallelSeekThreadPool.shutdown();
+    }
     if (this.replicationSourceHandler != null &&
         this.replicationSourceHandler == this.replicationSinkHandler) {
       this.replicationSourceHandler.stopReplicationService();
@@ -2138,6 +2246,102 @@ public class  HRegionServer implements ClientProtocol,
     return fs;
   }
 
+  @Override
+  public boolean reportRegionTransition(final EventType type, final HRegionInfo hri) {
+    byte [] transition = RegionTransition.createRegionTransition(type,
+      hri.getRegionName(), getServerName()).toByteArray();
+    while (keepLooping()) {
+      // The main loop reconnects if the master goes away; just wait for it
+      RegionServerStatusProtocol master = this.hbaseMaster;
+      if (master != null) {
+        try {
+          return master.reportRegionTransition(transition);
+        } catch (IOException ioe) {
+          ioe = ioe instanceof RemoteException ?
+            ((RemoteException)ioe).unwrapRemoteException() : ioe;
+          LOG.info("Failed reporting " + type + " of " +
+            hri.getRegionNameAsString() + " to the master; retrying", ioe);
+        }
+      }
+      Threads.sleep(200);
+    }
+    return false;
+  }
+
+  @Override
+  @QosPriority(priority=HIGH_QOS)
+  public void updateFavoredNodes(final String [] encodedRegionNames,
+      final String [] favoredNodes) throws IOException {
+    if (encodedRegionNames.length != favoredNodes.length) {
+      throw new DoNotRetryIOException("Got favored nodes of " +
+        favoredNodes.length + " regions for " + encodedRegionNames.length);
+    }
+    // Datanodes are on the hosts of the favored region servers
+    int datanodePort = NetUtils.createSocketAddr(this.conf.get(
+      "dfs.datanode.address", "0.0.0.0:50010")).getPort();
+    for (int i = 0; i < encodedRegionNames.length; i++) {
+      List<ServerName> servers = FavoredNodeAssignmentHelper.getFavoredNodes(
+        Bytes.toBytes(favoredNodes[i]));
+      if (servers == null) {
+        this.regionFavoredNodesMap.remove(encodedRegionNames[i]);
+        continue;
+      }
+      InetSocketAddress[] addresses = new InetSocketAddress[servers.size()];
+      for (int j = 0; j < addresses.length; j++) {
+        addresses[j] = InetSocketAddress.createUnresolved(
+          servers.get(j).getHostname(), datanodePort);
+      }
+      this.regionFavoredNodesMap.put(encodedRegionNames[i], addresses);
+    }
+  }
+
+  @Override
+  public InetSocketAddress[] getFavoredNodesForRegion(final String encodedRegionName) {
+    return this.regionFavoredNodesMap.get(encodedRegionName);
+  }
+
+  @Override
+  public ThreadPoolExecutor getStoreOpenAndCloseThreadPool() {
+    return this.storeOpenAndCloseThreadPool;
+  }
+
+  @Override
+  public ThreadPoolExecutor getStoreFileOpenAndCloseThreadPool() {
+    return this.storeFileOpenAndCloseThreadPool;
+  }
+
+  @Override
+  public ThreadPoolExecutor getParallelSeekThreadPool() {
+    return this.parallelSeekThreadPool;
+  }
+
+  @Override
+  @QosPriority(priority=HIGH_QOS)
+  public boolean [] closeRegions(final byte [][] regionNames,
+      final int [] versionsOfClosingNode) throws IOException {
+    if (regionNames.length != versionsOfClosingNode.length) {
+      throw new DoNotRetryIOException("Got " + versionsOfClosingNode.length +
+        " closing node versions for " + regionNames.length + " regions");
+    }
+    checkOpen();
+    requestCount.incrementAndGet();
+    LOG.info("Received close of " + regionNames.length + " region(s)");
+    boolean [] closed = new boolean[regionNames.length];
+    for (int i = 0; i < regionNames.length; i++) {
+      try {
+        HRegionInfo regionInfo = getRegion(regionNames[i]).getRegionInfo();
+        checkIfRegionInTransition(regionInfo, CLOSE);
+        closed[i] = closeRegion(regionInfo, false, true,
+          versionsOfClosingNode[i], null);
+      } catch (IOException ie) {
+        // The master retries it with a single close, which reports why
+        LOG.info("Not closing " + Bytes.toStringBinary(regionNames[i]) +
+          ": " + ie.getMessage());
+      }
+    }
+    return closed;
+  }
+
   public String toString() {
     return getServerName().toString();
   }
@@ -2519,6 +2723,7 @@ public class  HRegionServer implements ClientProtocol,
   @Override
   public boolean removeFromOnlineRegions(final String encodedRegionName, ServerName destination) {
     HRegion toReturn = this.onlineRegions.remove(encodedRegionName);
+    this.regionFavoredNodesMap.remove(encodedRegionName);
 
     if (destination != null){
       addToMovedRegions(encodedRegionName, destination);
@@ -2974,6 +3179,14 @@ public class  HRegionServer implements ClientProtocol,
               if (maxResultSize <= 0) {
                 maxResultSize = maxScannerResultSize;
               }
+              HRegion.RegionScannerImpl timeLimited = null;
+              if (this.scannerTimeLimit > 0 &&
+                  scanner instanceof HRegion.RegionScannerImpl) {
+                timeLimited = (HRegion.RegionScannerImpl)scanner;
+                timeLimited.setDeadline(EnvironmentEdgeManager.currentTimeMillis() +
+                  this.scannerTimeLimit);
+              }
+              byte[] heartbeatRow = null;
               List<KeyValue> values = new ArrayList<KeyValue>();
               for (int i = 0; i < rows
                   && currentScanResultSize < maxResultSize; i++) {
@@ -2988,13 +3201,28 @@ public class  HRegionServer implements ClientProtocol,
                 if (!moreRows) {
                   break;
                 }
+                if (timeLimited != null) {
+                  heartbeatRow = timeLimited.getHeartbeatRow();
+                  if (heartbeatRow != null) {
+                    break;
+                  }
+                }
                 values.clear();
               }
+              if (timeLimited != null) {
+                timeLimited.setDeadline(-1);
+              }
 
               // coprocessor postNext hook
               if (region != null && region.getCoprocessorHost() != null) {
                 region.getCoprocessorHost().postScannerNext(scanner, results, rows, true);
               }
+              if (heartbeatRow != null) {
+                // Tell the client where to carry on from, so that it neither
+                // takes the short answer for the end of the region nor times out
+                results.add(new Result(new KeyValue[] {
+                  KeyValue.createFirstOnRow(heartbeatRow) }));
+              }
             }
 
             // If the scanner's filter - if any - is done with the scan
@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.hbase.util.HashedBytes;
+import org.cliffc.high_scale_lib.Counter;
+
+/**
+ * Merges concurrent increments of the same row into one read-modify-write
+ * and one WAL entry.
+ * <p>
+ * The first increment of a row to come in leads a batch: it waits the
+ * coalescing window, then for the row lock, while increments of the row
+ * arriving meanwhile join its batch instead of queueing for the lock
+ * themselves.  Once the leader has the lock the batch is closed and applied
+ * in arrival order, so each caller still gets the values its own increment
+ * produced, as if the increments had run one after the other.
+ * <p>
+ * The leader only waits the window if an earlier batch of the row is still
+ * being applied, as it would wait for the row lock anyway then; an
+ * increment of a row nobody else is incrementing goes straight ahead.
+ */
+@InterfaceAudience.Private
+class IncrementCoalescer {
+  private final HRegion region;
+  private final ConcurrentHashMap<HashedBytes, Batch> batches =
+    new ConcurrentHashMap<HashedBytes, Batch>();
+  // Closed batches being applied under their row lock, by row
+  private final ConcurrentHashMap<HashedBytes, Batch> applying =
+    new ConcurrentHashMap<HashedBytes, Batch>();
+  private final Counter coalesced = new Counter();
+
+  IncrementCoalescer(final HRegion region) {
+    this.region = region;
+  }
+
+  /**
+   * Increments of a row applied together.  Guarded by its own monitor.
+   */
+  private static class Batch {
+    final List<Increment> increments = new ArrayList<Increment>();
+    boolean writeToWAL = false;
+    boolean closed = false;
+    boolean done = false;
+    List<Result> results = null;
+    Throwable error = null;
+  }
+
+  /**
+   * @param increment
+   * @param writeToWAL
+   * @param window milliseconds the leader of a batch waits for more
+   * increments before applying it, if the row is contended
+   * @return new keyvalues after <code>increment</code>
+   * @throws IOException
+   */
+  Result increment(final Increment increment, final boolean writeToWAL,
+      final long window) throws IOException {
+    HashedBytes row = new HashedBytes(increment.getRow());
+    while (true) {
+      Batch batch = this.batches.get(row);
+      if (batch == null) {
+        Batch newBatch = new Batch();
+        newBatch.increments.add(increment);
+        newBatch.writeToWAL = writeToWAL;
+        batch = this.batches.putIfAbsent(row, newBatch);
+        if (batch == null) return lead(row, newBatch, window);
+      }
+      int index;
+      synchronized (batch) {
+        // The leader took the row lock already, start a new batch
+        if (batch.closed) continue;
+        index = batch.increments.size();
+        batch.increments.add(increment);
+        batch.writeToWAL |= writeToWAL;
+        this.coalesced.increment();
+        boolean interrupted = false;
+        while (!batch.done) {
+          try {
+            batch.wait();
+          } catch (InterruptedException ie) {
+            // The increment may be applied already, wait for the outcome
+            interrupted = true;
+          }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return getResult(batch, index);
+      }
+    }
+  }
+
+  private Result lead(final HashedBytes row, final Batch batch,
+      final long window) throws IOException {
+    try {
+      if (window > 0 && this.applying.containsKey(row)) {
+        try {
+          Thread.sleep(window);
+        } catch (InterruptedException ie) {
+          throw new InterruptedIOException("Interrupted waiting for " +
+            "increments to coalesce");
+        }
+      }
+      RowLockManager.Lock lock =
+        this.region.getRowLock(row.getBytes(), true, true);
+      if (lock == null) {
+        throw new IOException("Timed out on getting lock for row=" +
+          Bytes.toStringBinary(row.getBytes()));
+      }
+      try {
+        List<Increment> increments;
+        boolean writeToWAL;
+        synchronized (batch) {
+          batch.closed = true;
+          this.batches.remove(row, batch);
+          increments = batch.increments;
+          writeToWAL = batch.writeToWAL;
+        }
+        this.applying.put(row, batch);
+        try {
+          // Takes the row lock again, we hold it exclusive already
+          batch.results = this.region.increment(increments, null, writeToWAL);
+        } finally {
+          this.applying.remove(row, batch);
+        }
+      } finally {
+        lock.release();
+      }
+    } catch (Throwable t) {
+      batch.error = t;
+    } finally {
+      synchronized (batch) {
+        batch.closed = true;
+        this.batches.remove(row, batch);
+        batch.done = true;
+        batch.notifyAll();
+      }
+    }
+    return getResult(batch, 0);
+  }
+
+  private static Result getResult(final Batch batch, final int index)
+  throws IOException {
+    if (batch.error == null) {
+      return HRegion.checkIncrementResult(batch.results.get(index));
+    }
+    if (batch.error instanceof IOException) throw (IOException)batch.error;
+    if (batch.error instanceof RuntimeException) {
+      throw (RuntimeException)batch.error;
+    }
+    if (batch.error instanceof Error) throw (Error)batch.error;
+    throw new IOException(batch.error);
+  }
+
+  /** @return how many increments were applied along with another one */
+  long getCoalescedCount() {
+    return this.coalesced.get();
+  }
+
+  public static final long DEEP_OVERHEAD = ClassSize.align(
+      ClassSize.OBJECT + 4 * ClassSize.REFERENCE) +
+      (2 * ClassSize.CONCURRENT_HASHMAP); // batches, applying
+}
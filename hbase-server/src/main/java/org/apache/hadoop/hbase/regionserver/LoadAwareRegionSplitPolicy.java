@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+/**
+ * A {@link RegionSplitPolicy} that splits like
+ * {@link IncreasingToUpperBoundRegionSplitPolicy} when a region grows too big,
+ * and also splits regions that take too many requests, however small they are.
+ * <p>
+ * Read and write requests are counted over a sliding window of
+ * <code>hbase.regionserver.region.split.load.window</code> ms.  When the rate
+ * over the last window exceeds
+ * <code>hbase.regionserver.region.split.load.requests.per.second</code> the
+ * region is split at the median of the row keys sampled from its requests, so
+ * that each daughter gets about half of the load rather than half of the data.
+ * One in <code>hbase.regionserver.region.split.load.sample.rate</code> requests
+ * is sampled.
+ */
+public class LoadAwareRegionSplitPolicy
+extends IncreasingToUpperBoundRegionSplitPolicy {
+  static final Log LOG = LogFactory.getLog(LoadAwareRegionSplitPolicy.class);
+
+  public static final String REQUESTS_PER_SECOND_KEY =
+    "hbase.regionserver.region.split.load.requests.per.second";
+  public static final String WINDOW_KEY =
+    "hbase.regionserver.region.split.load.window";
+  public static final String SAMPLE_RATE_KEY =
+    "hbase.regionserver.region.split.load.sample.rate";
+  public static final String MAX_SAMPLES_KEY =
+    "hbase.regionserver.region.split.load.max.samples";
+  public static final String MIN_SIZE_KEY =
+    "hbase.regionserver.region.split.load.min.size";
+
+  private double splitRequestsPerSecond;
+  private long window;
+  private int sampleRate;
+  private int maxSamples;
+  private long minSize;
+
+  private final Object samplesLock = new Object();
+  private final Random random = new Random();
+  private List<byte[]> samples = new ArrayList<byte[]>();
+  private List<byte[]> previousSamples = new ArrayList<byte[]>();
+  private int sampledInWindow = 0;
+  private long windowStart;
+  private long requestsAtWindowStart;
+  private double requestsPerSecond = 0;
+  // Not synchronized; losing an occasional tick only skews sampling slightly
+  private int tick = 0;
+  // Whether the last positive shouldSplit was due to load rather than size
+  private volatile boolean splitOnLoad = false;
+
+  @Override
+  protected void configureForRegion(HRegion region) {
+    super.configureForRegion(region);
+    this.splitRequestsPerSecond = getConf().getFloat(REQUESTS_PER_SECOND_KEY, 5000f);
+    this.window = Math.max(1, getConf().getLong(WINDOW_KEY, 60000));
+    this.sampleRate = Math.max(1, getConf().getInt(SAMPLE_RATE_KEY, 100));
+    this.maxSamples = Math.max(1, getConf().getInt(MAX_SAMPLES_KEY, 1000));
+    this.minSize = getConf().getLong(MIN_SIZE_KEY, 0);
+    this.windowStart = EnvironmentEdgeManager.currentTimeMillis();
+    this.requestsAtWindowStart = region.getRequestsCount();
+  }
+
+  @Override
+  protected void recordRequest(final byte[] row) {
+    if (row == null || row.length == 0 || ++this.tick % this.sampleRate != 0) {
+      return;
+    }
+    synchronized (this.samplesLock) {
+      rollWindowIfNeeded(EnvironmentEdgeManager.currentTimeMillis());
+      this.sampledInWindow++;
+      if (this.samples.size() < this.maxSamples) {
+        this.samples.add(row);
+      } else {
+        // reservoir sampling keeps a uniform sample of the whole window
+        int i = this.random.nextInt(this.sampledInWindow);
+        if (i < this.maxSamples) {
+          this.samples.set(i, row);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected boolean shouldCheckPeriodically() {
+    return true;
+  }
+
+  @Override
+  protected boolean shouldSplit() {
+    this.splitOnLoad = false;
+    if (super.shouldSplit()) return true;
+
+    double rate;
+    synchronized (this.samplesLock) {
+      rollWindowIfNeeded(EnvironmentEdgeManager.currentTimeMillis());
+      rate = this.requestsPerSecond;
+    }
+    if (rate < this.splitRequestsPerSecond) return false;
+
+    long size = 0;
+    for (Store store : region.getStores().values()) {
+      // If any of the stores is unable to split (eg they contain reference files)
+      // then don't split
+      if (!store.canSplit()) {
+        return false;
+      }
+      size += store.getSize();
+    }
+    if (size < this.minSize) return false;
+
+    LOG.debug("ShouldSplit because of load, requestsPerSecond=" + rate +
+      ", splitRequestsPerSecond=" + this.splitRequestsPerSecond);
+    this.splitOnLoad = true;
+    return true;
+  }
+
+  @Override
+  protected byte[] getSplitPoint() {
+    if (this.splitOnLoad && this.region.getExplicitSplitPoint() == null) {
+      byte[] splitPoint = getLoadSplitPoint();
+      if (splitPoint != null) {
+        return splitPoint;
+      }
+    }
+    return super.getSplitPoint();
+  }
+
+  /**
+   * @return the median of the sampled request rows, or null if there is no
+   * sample that falls strictly inside the region
+   */
+  byte[] getLoadSplitPoint() {
+    List<byte[]> rows;
+    synchronized (this.samplesLock) {
+      rows = new ArrayList<byte[]>(this.samples.size() + this.previousSamples.size());
+      rows.addAll(this.previousSamples);
+      rows.addAll(this.samples);
+    }
+    if (rows.isEmpty()) return null;
+    Collections.sort(rows, Bytes.BYTES_COMPARATOR);
+
+    byte[] startKey = this.region.getRegionInfo().getStartKey();
+    byte[] endKey = this.region.getRegionInfo().getEndKey();
+    for (int i = rows.size() / 2; i < rows.size(); i++) {
+      byte[] row = rows.get(i);
+      if (Bytes.compareTo(row, startKey) <= 0) continue;
+      if (endKey.length > 0 && Bytes.compareTo(row, endKey) >= 0) break;
+      return row;
+    }
+    return null;
+  }
+
+  /**
+   * @return the request rate over the last complete window
+   */
+  double getRequestsPerSecond() {
+    synchronized (this.samplesLock) {
+      rollWindowIfNeeded(EnvironmentEdgeManager.currentTimeMillis());
+      return this.requestsPerSecond;
+    }
+  }
+
+  private void rollWindowIfNeeded(final long now) {
+    long elapsed = now - this.windowStart;
+    if (elapsed < this.window) return;
+    long requests = this.region.getRequestsCount();
+    this.requestsPerSecond =
+      (requests - this.requestsAtWindowStart) * 1000.0 / elapsed;
+    this.requestsAtWindowStart = requests;
+    this.windowStart = now;
+    this.previousSamples = this.samples;
+    this.samples = new ArrayList<byte[]>();
+    this.sampledInWindow = 0;
+  }
+}
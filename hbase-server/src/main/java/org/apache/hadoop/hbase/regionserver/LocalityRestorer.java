@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Chore;
+import org.apache.hadoop.hbase.HDFSBlocksDistribution;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Chore that finds store files whose blocks are mostly on other hosts, as
+ * happens after a region moved, and rewrites them one at a time so that
+ * their blocks are written from this server again.
+ * <p>
+ * Stores about to be compacted anyway are left alone.  The rewrites run in
+ * their own single thread pool of the {@link CompactSplitThread} and at most
+ * <code>hbase.regionserver.locality.restorer.max.bytes</code> of store files
+ * are queued per run, worst locality first.  A run is skipped while the
+ * rewrites queued by the previous one are not done.
+ */
+@InterfaceAudience.Private
+class LocalityRestorer extends Chore {
+  private static final Log LOG = LogFactory.getLog(LocalityRestorer.class);
+
+  private final HRegionServer server;
+  private final float minLocality;
+  private final long maxBytesPerRun;
+
+  LocalityRestorer(final HRegionServer server, final Configuration conf,
+      final int period) {
+    super("LocalityRestorer", period, server);
+    this.server = server;
+    this.minLocality =
+      conf.getFloat("hbase.regionserver.locality.restorer.min.locality", 0.5f);
+    this.maxBytesPerRun = conf.getLong(
+      "hbase.regionserver.locality.restorer.max.bytes", 1024L * 1024 * 1024);
+    LOG.info("Runs every " + StringUtils.formatTime(period) +
+      ", minLocality=" + this.minLocality + ", maxBytesPerRun=" +
+      StringUtils.humanReadableInt(this.maxBytesPerRun));
+  }
+
+  @Override
+  protected void chore() {
+    CompactSplitThread compactSplitThread = this.server.compactSplitThread;
+    if (compactSplitThread == null) return;
+    if (compactSplitThread.getLocalityCompactionCount() > 0) {
+      LOG.debug("Previous locality compactions not done yet, skipping run");
+      return;
+    }
+    String hostname = this.server.getServerName().getHostname();
+    List<Candidate> candidates = new ArrayList<Candidate>();
+    for (HRegion r : this.server.getOnlineRegionsLocalContext()) {
+      if (r == null || r.isClosing() || r.isClosed()) continue;
+      for (Store s : r.getStores().values()) {
+        try {
+          if (s.needsCompaction() || s.hasReferences() || s.isMajorCompaction()) {
+            // Will be rewritten soon enough
+            continue;
+          }
+        } catch (IOException e) {
+          LOG.warn("Failed compaction check on " + s, e);
+          continue;
+        }
+        for (StoreFile sf : s.getStorefiles()) {
+          StoreFile.Reader reader = sf.getReader();
+          if (sf.isReference() || reader == null) continue;
+          HDFSBlocksDistribution distribution = sf.getHDFSBlockDistribution();
+          if (distribution == null) continue;
+          float locality = distribution.getBlockLocalityIndex(hostname);
+          if (locality < this.minLocality) {
+            candidates.add(new Candidate(r, s, sf, locality, reader.length()));
+          }
+        }
+      }
+    }
+    if (candidates.isEmpty()) return;
+
+    Collections.sort(candidates, new Comparator<Candidate>() {
+      @Override
+      public int compare(Candidate a, Candidate b) {
+        return Float.compare(a.locality, b.locality);
+      }
+    });
+    long queuedBytes = 0;
+    int queued = 0;
+    for (Candidate c : candidates) {
+      if (queued > 0 && queuedBytes + c.length > this.maxBytesPerRun) break;
+      if (compactSplitThread.requestLocalityCompaction(c.region, c.store, c.file,
+          getName() + " found locality " + c.locality)) {
+        queuedBytes += c.length;
+        queued++;
+      }
+    }
+    LOG.info("Queued " + queued + " of " + candidates.size() +
+      " store file(s) with poor locality for rewrite, " +
+      StringUtils.humanReadableInt(queuedBytes));
+  }
+
+  private static class Candidate {
+    final HRegion region;
+    final Store store;
+    final StoreFile file;
+    final float locality;
+    final long length;
+
+    Candidate(final HRegion region, final Store store, final StoreFile file,
+        final float locality, final long length) {
+      this.region = region;
+      this.store = store;
+      this.file = file;
+      this.locality = locality;
+      this.length = length;
+    }
+  }
+}
@@ -634,13 +634,23 @@ public class MemStore implements HeapSize {
   }
 
   /**
-   * @return scanner on memstore and snapshot in this order.
+   * @return scanner on memstore and snapshot in this order, reading at the
+   * read point of the thread calling it
    */
   List<KeyValueScanner> getScanners() {
+    return getScanners(-1);
+  }
+
+  /**
+   * @param readPt skip entries newer than this mvcc read point; if negative,
+   * the read point of the thread calling the scanner is used
+   * @return scanner on memstore and snapshot in this order.
+   */
+  List<KeyValueScanner> getScanners(long readPt) {
     this.lock.readLock().lock();
     try {
       return Collections.<KeyValueScanner>singletonList(
-          new MemStoreScanner());
+          new MemStoreScanner(readPt));
     } finally {
       this.lock.readLock().unlock();
     }
@@ -689,6 +699,9 @@ public class MemStore implements HeapSize {
     // the pre-calculated KeyValue to be returned by peek() or next()
     private KeyValue theNext;
 
+    // mvcc read point, or negative to use the thread read point
+    private final long readPt;
+
     /*
     Some notes...
 
@@ -710,15 +723,17 @@ public class MemStore implements HeapSize {
       the adds to kvset in the MemStoreScanner.
     */
 
-    MemStoreScanner() {
+    MemStoreScanner(long readPt) {
       super();
 
+      this.readPt = readPt;
       kvsetAtCreation = kvset;
       snapshotAtCreation = snapshot;
     }
 
     protected KeyValue getNext(Iterator<KeyValue> it) {
-      long readPoint = MultiVersionConsistencyControl.getThreadReadPoint();
+      long readPoint = readPt >= 0 ? readPt :
+        MultiVersionConsistencyControl.getThreadReadPoint();
 
       while (it.hasNext()) {
         KeyValue v = it.next();
@@ -19,31 +19,44 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ClassSize;
 
-import org.apache.commons.logging.LogFactory;
-import org.apache.commons.logging.Log;
-
 /**
  * Manages the read/write consistency within memstore. This provides
  * an interface for readers to determine what entries to ignore, and
  * a mechanism for writers to obtain new write numbers, then "commit"
  * the new writes for readers to read (thus forming atomic transactions).
+ * <p>
+ * Write numbers are handed out by an atomic counter and the pending writes
+ * are kept in a ring indexed by write number, so writers neither lock nor
+ * allocate a queue node.  A writer completing marks its entry and then moves
+ * the read point past every completed entry that follows it, so a single
+ * completing writer publishes all the writes that finished out of order
+ * behind an older one, with one update of the read point.  A writer only
+ * blocks when more writes than the ring holds are pending.
  */
 @InterfaceAudience.Private
 public class MultiVersionConsistencyControl {
-  private volatile long memstoreRead = 0;
-  private volatile long memstoreWrite = 0;
+  /** Most writes pending at once; a power of 2 */
+  static final int RING_SIZE = 1024;
 
-  private final Object readWaiters = new Object();
+  private final AtomicLong memstoreRead = new AtomicLong(0);
+  private final AtomicLong memstoreWrite = new AtomicLong(0);
 
-  // This is the pending queue of writes.
-  private final LinkedList<WriteEntry> writeQueue =
-      new LinkedList<WriteEntry>();
+  // Pending writes, at the index of their write number in the ring
+  private final AtomicReferenceArray<WriteEntry> writeRing =
+      new AtomicReferenceArray<WriteEntry>(RING_SIZE);
+  private final int ringMask = RING_SIZE - 1;
+
+  // Readers and writers blocked until the read point moves
+  private final Object readWaiters = new Object();
+  private final AtomicInteger waiterCount = new AtomicInteger(0);
 
   private static final ThreadLocal<Long> perThreadReadPoint =
       new ThreadLocal<Long>() {
@@ -58,7 +71,6 @@ public class MultiVersionConsistencyControl {
    * Default constructor. Initializes the memstoreRead/Write points to 0.
    */
   public MultiVersionConsistencyControl() {
-    this.memstoreRead = this.memstoreWrite = 0;
   }
 
   /**
@@ -66,12 +78,13 @@ public class MultiVersionConsistencyControl {
    * @param startPoint
    */
   public void initialize(long startPoint) {
-    synchronized (writeQueue) {
-      if (this.memstoreWrite != this.memstoreRead) {
+    synchronized (readWaiters) {
+      if (this.memstoreWrite.get() != this.memstoreRead.get()) {
         throw new RuntimeException("Already used this mvcc. Too late to initialize");
       }
 
-      this.memstoreRead = this.memstoreWrite = startPoint;
+      this.memstoreWrite.set(startPoint);
+      this.memstoreRead.set(startPoint);
     }
   }
 
@@ -110,12 +123,12 @@ public class MultiVersionConsistencyControl {
   }
 
   public WriteEntry beginMemstoreInsert() {
-    synchronized (writeQueue) {
-      long nextWriteNumber = ++memstoreWrite;
-      WriteEntry e = new WriteEntry(nextWriteNumber);
-      writeQueue.add(e);
-      return e;
-    }
+    long nextWriteNumber = memstoreWrite.incrementAndGet();
+    WriteEntry e = new WriteEntry(nextWriteNumber);
+    // The slot is free once the write RING_SIZE before us is readable
+    awaitReadPoint(nextWriteNumber - RING_SIZE);
+    writeRing.set(index(nextWriteNumber), e);
+    return e;
   }
 
   public void completeMemstoreInsert(WriteEntry e) {
@@ -123,46 +136,43 @@ public class MultiVersionConsistencyControl {
     waitForRead(e);
   }
 
+  /**
+   * Marks <code>e</code> completed and moves the read point past it and any
+   * completed writes following it, if the writes before it are done.
+   * @return true if <code>e</code> is readable
+   */
   boolean advanceMemstore(WriteEntry e) {
-    synchronized (writeQueue) {
-      e.markCompleted();
-
-      long nextReadValue = -1;
-      boolean ranOnce=false;
-      while (!writeQueue.isEmpty()) {
-        ranOnce=true;
-        WriteEntry queueFirst = writeQueue.getFirst();
-
-        if (nextReadValue > 0) {
-          if (nextReadValue+1 != queueFirst.getWriteNumber()) {
-            throw new RuntimeException("invariant in completeMemstoreInsert violated, prev: "
-                + nextReadValue + " next: " + queueFirst.getWriteNumber());
+    e.markCompleted();
+    while (true) {
+      long read = memstoreRead.get();
+      long nextRead = read;
+      while (isCompleted(nextRead + 1)) {
+        nextRead++;
+      }
+      if (nextRead == read) break;
+      if (memstoreRead.compareAndSet(read, nextRead)) {
+        if (waiterCount.get() > 0) {
+          synchronized (readWaiters) {
+            readWaiters.notifyAll();
           }
         }
-
-        if (queueFirst.isCompleted()) {
-          nextReadValue = queueFirst.getWriteNumber();
-          writeQueue.removeFirst();
-        } else {
-          break;
-        }
       }
+      // Someone else moved the read point too, see if there's more to do
+    }
+    return memstoreRead.get() >= e.getWriteNumber();
+  }
 
-      if (!ranOnce) {
-        throw new RuntimeException("never was a first");
-      }
+  /**
+   * @return true if write <code>writeNumber</code> is pending and completed
+   */
+  private boolean isCompleted(long writeNumber) {
+    WriteEntry e = writeRing.get(index(writeNumber));
+    // The slot may still hold an older write, or not yet hold this one
+    return e != null && e.getWriteNumber() == writeNumber && e.isCompleted();
+  }
 
-      if (nextReadValue > 0) {
-        synchronized (readWaiters) {
-          memstoreRead = nextReadValue;
-          readWaiters.notifyAll();
-        }
-      }
-      if (memstoreRead >= e.getWriteNumber()) {
-        return true;
-      }
-      return false;
-    }
+  private int index(long writeNumber) {
+    return (int)(writeNumber & ringMask);
   }
 
   /**
@@ -170,29 +180,39 @@ public class MultiVersionConsistencyControl {
    * the specified transaction number.
    */
   public void waitForRead(WriteEntry e) {
+    awaitReadPoint(e.getWriteNumber());
+  }
+
+  private void awaitReadPoint(long readPoint) {
+    if (memstoreRead.get() >= readPoint) return;
     boolean interrupted = false;
-    synchronized (readWaiters) {
-      while (memstoreRead < e.getWriteNumber()) {
-        try {
-          readWaiters.wait(0);
-        } catch (InterruptedException ie) {
-          // We were interrupted... finish the loop -- i.e. cleanup --and then
-          // on our way out, reset the interrupt flag.
-          interrupted = true;
+    waiterCount.incrementAndGet();
+    try {
+      synchronized (readWaiters) {
+        while (memstoreRead.get() < readPoint) {
+          try {
+            readWaiters.wait(0);
+          } catch (InterruptedException ie) {
+            // We were interrupted... finish the loop -- i.e. cleanup --and then
+            // on our way out, reset the interrupt flag.
+            interrupted = true;
+          }
         }
       }
+    } finally {
+      waiterCount.decrementAndGet();
     }
     if (interrupted) Thread.currentThread().interrupt();
   }
 
   public long memstoreReadPoint() {
-    return memstoreRead;
+    return memstoreRead.get();
   }
 
 
   public static class WriteEntry {
     private long writeNumber;
-    private boolean completed = false;
+    private volatile boolean completed = false;
     WriteEntry(long writeNumber) {
       this.writeNumber = writeNumber;
     }
@@ -209,7 +229,14 @@ public class MultiVersionConsistencyControl {
 
   public static final long FIXED_SIZE = ClassSize.align(
       ClassSize.OBJECT +
-      2 * Bytes.SIZEOF_LONG +
-      2 * ClassSize.REFERENCE);
+      5 * ClassSize.REFERENCE +
+      Bytes.SIZEOF_INT);
+
+  public static final long DEEP_OVERHEAD = FIXED_SIZE +
+      (2 * ClassSize.ATOMIC_LONG) + // memstoreRead, memstoreWrite
+      ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE) + // writeRing
+      ClassSize.align(ClassSize.ARRAY + RING_SIZE * ClassSize.REFERENCE) + // its slots
+      ClassSize.OBJECT + // readWaiters
+      ClassSize.ATOMIC_INTEGER; // waiterCount
 
 }
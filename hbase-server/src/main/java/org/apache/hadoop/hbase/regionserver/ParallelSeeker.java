@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.KeyValue;
+
+/**
+ * Runs the seeks of scanners, or other blocking reads, at the same time on
+ * a pool, so that reading from many store files on a cold cache takes about
+ * as long as the slowest of them rather than the sum.
+ * <p>
+ * The calling thread runs any task no pool thread has started yet itself
+ * instead of waiting for it, so the pool cannot deadlock when its own
+ * threads submit tasks to it, and a busy pool degrades to running the tasks
+ * one after the other.
+ */
+@InterfaceAudience.Private
+final class ParallelSeeker {
+  private ParallelSeeker() {
+  }
+
+  /**
+   * Seeks all <code>scanners</code> to <code>kv</code>, the store file ones
+   * in parallel.  The scanners must not depend on the thread read point.
+   * @param pool
+   * @param scanners
+   * @param kv
+   * @throws IOException the first failure of a seek
+   */
+  static void seek(final ExecutorService pool,
+      final List<? extends KeyValueScanner> scanners, final KeyValue kv)
+  throws IOException {
+    List<Callable<Boolean>> seeks = new ArrayList<Callable<Boolean>>();
+    for (final KeyValueScanner scanner : scanners) {
+      if (!scanner.isFileScanner()) {
+        // Memstore, nothing to wait for
+        scanner.seek(kv);
+        continue;
+      }
+      seeks.add(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws IOException {
+          return scanner.seek(kv);
+        }
+      });
+    }
+    runAll(pool, seeks);
+  }
+
+  /**
+   * Runs <code>tasks</code> on <code>pool</code> and waits for all of them.
+   * @param pool
+   * @param tasks
+   * @return the results of the tasks, in order
+   * @throws IOException the first failure of a task
+   */
+  static <T> List<T> runAll(final ExecutorService pool,
+      final List<? extends Callable<T>> tasks) throws IOException {
+    List<FutureTask<T>> futures = new ArrayList<FutureTask<T>>(tasks.size());
+    for (Callable<T> task : tasks) {
+      futures.add(new FutureTask<T>(task));
+    }
+    // The first one we run ourselves anyway
+    for (int i = 1; i < futures.size(); i++) {
+      try {
+        pool.execute(futures.get(i));
+      } catch (RejectedExecutionException ree) {
+        // Pool shutting down, run the rest here
+        break;
+      }
+    }
+    List<T> results = new ArrayList<T>(futures.size());
+    Throwable error = null;
+    boolean interrupted = false;
+    for (FutureTask<T> future : futures) {
+      // Does nothing if a pool thread got to it first
+      future.run();
+      while (true) {
+        try {
+          results.add(future.get());
+          break;
+        } catch (InterruptedException ie) {
+          // Let the started tasks finish with the scanners before returning
+          interrupted = true;
+        } catch (ExecutionException ee) {
+          if (error == null) error = ee.getCause();
+          results.add(null);
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+      if (error == null) {
+        error = new InterruptedIOException("Interrupted during parallel seek");
+      }
+    }
+    if (error instanceof IOException) throw (IOException)error;
+    if (error instanceof RuntimeException) throw (RuntimeException)error;
+    if (error instanceof Error) throw (Error)error;
+    if (error != null) throw new IOException(error);
+    return results;
+  }
+}
@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperListener;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
+
+/**
+ * Lets the regions of this server that opened while marked recovering serve
+ * reads again once the master removes their mark, i.e. once the edits of the
+ * dead server's logs have all been replayed into them.
+ * <p>
+ * The watches are set by
+ * {@link org.apache.hadoop.hbase.regionserver.handler.OpenRegionHandler} when
+ * it finds the mark on opening a region.
+ */
+@InterfaceAudience.Private
+public class RecoveringRegionWatcher extends ZooKeeperListener {
+  private static final Log LOG = LogFactory.getLog(RecoveringRegionWatcher.class);
+
+  private final RegionServerServices services;
+
+  public RecoveringRegionWatcher(final ZooKeeperWatcher watcher,
+      final RegionServerServices services) {
+    super(watcher);
+    this.services = services;
+  }
+
+  @Override
+  public void nodeDeleted(String path) {
+    String parent = path.substring(0, path.lastIndexOf('/'));
+    if (!parent.equals(watcher.recoveringRegionsZNode)) return;
+    String encodedName = path.substring(path.lastIndexOf('/') + 1);
+    HRegion region = this.services.getFromOnlineRegions(encodedName);
+    if (region != null && region.isRecovering()) {
+      region.setRecovering(false);
+      LOG.info("Region " + region.getRegionNameAsString() + " has recovered");
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.catalog.CatalogTracker;
+import org.apache.hadoop.hbase.catalog.MetaEditor;
+
+/**
+ * Writes the <code>.META.</code> location of the user regions a server opens
+ * in batches.  When many regions open at once, e.g. when a dead server's
+ * regions are bulk assigned here, the open handlers would otherwise each do
+ * their own round trip to <code>.META.</code>.
+ * <p>
+ * There is no flusher thread: the first caller to find no batch in flight
+ * writes everything queued so far, including the updates of the callers that
+ * queued while it was writing the previous batch.  Each caller returns once
+ * its own update is in <code>.META.</code>, or with the exception of the
+ * batch it was written in.
+ */
+@InterfaceAudience.Private
+class RegionLocationUpdater {
+  private final CatalogTracker catalogTracker;
+  private final ServerName serverName;
+
+  private final Object lock = new Object();
+  private List<Update> pending = new ArrayList<Update>();
+  private boolean writing = false;
+
+  private static class Update {
+    final HRegionInfo hri;
+    boolean done = false;
+    IOException error = null;
+
+    Update(final HRegionInfo hri) {
+      this.hri = hri;
+    }
+  }
+
+  RegionLocationUpdater(final CatalogTracker catalogTracker,
+      final ServerName serverName) {
+    this.catalogTracker = catalogTracker;
+    this.serverName = serverName;
+  }
+
+  /**
+   * Updates the location of <code>hri</code> to this server, blocking until
+   * the edit is in <code>.META.</code>.
+   * @param hri a user region
+   * @throws IOException
+   */
+  void updateLocation(final HRegionInfo hri) throws IOException {
+    Update update = new Update(hri);
+    List<Update> batch;
+    synchronized (this.lock) {
+      this.pending.add(update);
+      while (this.writing && !update.done) {
+        try {
+          this.lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting on .META. " +
+            "location update of " + hri.getRegionNameAsString());
+        }
+      }
+      if (update.done) {
+        if (update.error != null) throw update.error;
+        return;
+      }
+      this.writing = true;
+      batch = this.pending;
+      this.pending = new ArrayList<Update>();
+    }
+
+    // Reported to the other callers in the batch if we fail unexpectedly
+    IOException error = new IOException("Failed updating .META. location of " +
+      batch.size() + " region(s)");
+    try {
+      List<HRegionInfo> regions = new ArrayList<HRegionInfo>(batch.size());
+      for (Update u : batch) {
+        regions.add(u.hri);
+      }
+      MetaEditor.updateRegionLocations(this.catalogTracker, regions, this.serverName);
+      error = null;
+    } catch (IOException ioe) {
+      error = ioe;
+    } finally {
+      synchronized (this.lock) {
+        for (Update u : batch) {
+          u.error = error;
+          u.done = true;
+        }
+        this.writing = false;
+        this.lock.notifyAll();
+      }
+    }
+    if (update.error != null) throw update.error;
+  }
+}
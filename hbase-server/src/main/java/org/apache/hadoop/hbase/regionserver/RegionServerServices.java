@@ -20,11 +20,15 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.catalog.CatalogTracker;
+import org.apache.hadoop.hbase.executor.EventHandler.EventType;
 import org.apache.hadoop.hbase.ipc.RpcServer;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.zookeeper.KeeperException;
@@ -86,4 +90,40 @@ public interface RegionServerServices extends OnlineRegions {
    * @return Return the FileSystem object used by the regionserver
    */
   public FileSystem getFileSystem();
+
+  /**
+   * Reports a region transition to the master.  Used instead of the unassigned
+   * znodes when {@link org.apache.hadoop.hbase.HConstants#ASSIGNMENT_USE_ZK_KEY}
+   * is false.  Retries until the master answers or this server stops.
+   * @param type the transition, e.g. RS_ZK_REGION_OPENED
+   * @param hri region making the transition
+   * @return true if the master accepted the transition; false if we should
+   * give up on the open or close
+   */
+  public boolean reportRegionTransition(EventType type, HRegionInfo hri);
+
+  /**
+   * @param encodedRegionName
+   * @return the datanodes the region's HFile blocks should be written to, or
+   * null if the master gave the region no favored nodes
+   */
+  public InetSocketAddress[] getFavoredNodesForRegion(String encodedRegionName);
+
+  /**
+   * @return pool all regions open and close their stores in, or null if each
+   * region should make its own
+   */
+  public ThreadPoolExecutor getStoreOpenAndCloseThreadPool();
+
+  /**
+   * @return pool all stores open and close their store files in, or null if
+   * each store should make its own
+   */
+  public ThreadPoolExecutor getStoreFileOpenAndCloseThreadPool();
+
+  /**
+   * @return pool store scanners seek their store files in parallel on, or
+   * null if they seek them one after the other
+   */
+  public ThreadPoolExecutor getParallelSeekThreadPool();
 }
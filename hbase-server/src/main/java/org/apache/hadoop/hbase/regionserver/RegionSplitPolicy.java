@@ -89,6 +89,24 @@ public abstract class RegionSplitPolicy extends Configured {
     return splitPointFromLargestStore;
   }
 
+  /**
+   * Called by the region for (most) read and write requests with the row the
+   * request is for.  Policies that split on load override this; it is on the
+   * request path so it must be cheap.
+   * @param row the row of the request, may be empty for scans
+   */
+  protected void recordRequest(final byte[] row) {
+    // nothing
+  }
+
+  /**
+   * @return true if the region server should periodically ask this policy
+   * whether to split, not only after flushes and compactions
+   */
+  protected boolean shouldCheckPeriodically() {
+    return false;
+  }
+
   /**
    * Create the RegionSplitPolicy configured for the given table.
    * Each
@@ -0,0 +1,345 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.regionserver.metrics.OperationMetrics;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.HashedBytes;
+import org.cliffc.high_scale_lib.Counter;
+
+/**
+ * Row locks of a region.  A row can be locked shared, by any number of
+ * holders at once, or exclusive, by one.  Exclusive locks are reentrant for
+ * the thread holding them, which can also take the shared lock of a row it
+ * locked exclusive; the shared lock of a row cannot be upgraded though.
+ * No new shared lock is given out on a row while an exclusive request waits
+ * for it, so that a steady stream of readers cannot starve writers.
+ * <p>
+ * Locks are handed out as {@link Lock} objects and released through them.
+ * Locks taken for clients, which can be released by another handler thread
+ * or on lease expiry, are also known by an integer id so that the client can
+ * pass them back.  A row's lock state only exists while it is locked or
+ * waited on.
+ */
+@InterfaceAudience.Private
+public class RowLockManager {
+  private static final Log LOG = LogFactory.getLog(RowLockManager.class);
+
+  private final ConcurrentHashMap<HashedBytes, RowLockContext> lockedRows =
+    new ConcurrentHashMap<HashedBytes, RowLockContext>();
+  private final ConcurrentHashMap<Integer, Lock> lockIds =
+    new ConcurrentHashMap<Integer, Lock>();
+  private final AtomicInteger lockIdGenerator = new AtomicInteger(1);
+  private static final Random rand = new Random();
+
+  private final int waitDuration;
+  private final OperationMetrics metrics;
+  private final Counter waits = new Counter();
+  private final Counter timeouts = new Counter();
+
+  /**
+   * @param waitDuration milliseconds to wait for a lock before giving up
+   * @param metrics to report the time waited for contended locks to, or null
+   */
+  public RowLockManager(final int waitDuration, final OperationMetrics metrics) {
+    this.waitDuration = waitDuration;
+    this.metrics = metrics;
+  }
+
+  /**
+   * A held row lock.
+   */
+  public class Lock {
+    private final RowLockContext context;
+    private final boolean exclusive;
+    private boolean released = false;
+
+    Lock(final RowLockContext context, final boolean exclusive) {
+      this.context = context;
+      this.exclusive = exclusive;
+    }
+
+    public byte [] getRow() {
+      return this.context.row.getBytes();
+    }
+
+    public boolean isExclusive() {
+      return this.exclusive;
+    }
+
+    /**
+     * Releases the lock.  Releasing it again has no effect.
+     */
+    public void release() {
+      RowLockManager.this.release(this);
+    }
+  }
+
+  /**
+   * Lock state of a row.  Guarded by its own monitor.
+   */
+  static class RowLockContext {
+    final HashedBytes row;
+    Object exclusiveOwner = null;
+    int exclusiveHolds = 0;
+    int sharedHolds = 0;
+    int waiters = 0;
+    int exclusiveWaiters = 0;
+    boolean removed = false;
+
+    RowLockContext(final HashedBytes row) {
+      this.row = row;
+    }
+
+    boolean canLock(final boolean exclusive, final Object owner) {
+      if (this.exclusiveHolds > 0) return this.exclusiveOwner == owner;
+      return exclusive ? this.sharedHolds == 0 : this.exclusiveWaiters == 0;
+    }
+
+    boolean isIdle() {
+      return this.exclusiveHolds == 0 && this.sharedHolds == 0 &&
+        this.waiters == 0;
+    }
+  }
+
+  /**
+   * Locks a row for the current thread.
+   * @param row
+   * @param exclusive true for the exclusive lock, false for a shared one
+   * @param waitForLock if false, returns null right away if the row is locked
+   * in a conflicting way
+   * @return the lock, or null if it was not obtained in time
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  public Lock getRowLock(final byte [] row, final boolean exclusive,
+      final boolean waitForLock) throws IOException {
+    return lock(new HashedBytes(row), exclusive, Thread.currentThread(),
+      waitForLock);
+  }
+
+  /**
+   * Locks many rows for the current thread, in row order so that two batches
+   * over the same rows cannot deadlock.  Either all rows are locked or none.
+   * @param rows rows to lock, duplicates are locked once
+   * @param exclusive true for exclusive locks, false for shared ones
+   * @return the locks, or null if one of them was not obtained in time
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  public List<Lock> getRowLocks(final Collection<byte []> rows,
+      final boolean exclusive) throws IOException {
+    SortedSet<byte []> sorted = new TreeSet<byte []>(Bytes.BYTES_COMPARATOR);
+    sorted.addAll(rows);
+    List<Lock> locks = new ArrayList<Lock>(sorted.size());
+    boolean success = false;
+    try {
+      for (byte [] row : sorted) {
+        Lock lock = getRowLock(row, exclusive, true);
+        if (lock == null) return null;
+        locks.add(lock);
+      }
+      success = true;
+      return locks;
+    } finally {
+      if (!success) releaseRowLocks(locks);
+    }
+  }
+
+  /**
+   * @param locks locks to release, may be null
+   */
+  public void releaseRowLocks(final Collection<Lock> locks) {
+    if (locks == null) return;
+    for (Lock lock : locks) {
+      lock.release();
+    }
+  }
+
+  /**
+   * Locks a row exclusive on behalf of a client, which refers to the lock by
+   * the returned id until it calls {@link #releaseRowLock(Integer)}.  Not
+   * reentrant, whatever the thread.
+   * @param row
+   * @param waitForLock if false, returns null right away if the row is locked
+   * @return the lock id, or null if the lock was not obtained in time
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  public Integer lockRow(final byte [] row, final boolean waitForLock)
+  throws IOException {
+    Lock lock = lock(new HashedBytes(row), true, new Object(), waitForLock);
+    if (lock == null) return null;
+    // loop until we generate an unused lock id
+    while (true) {
+      Integer lockId = lockIdGenerator.incrementAndGet();
+      if (lockIds.putIfAbsent(lockId, lock) == null) {
+        return lockId;
+      }
+      // lockId already in use, jump generator to a new spot
+      lockIdGenerator.set(rand.nextInt());
+    }
+  }
+
+  /**
+   * @param lockId
+   * @return the lock taken by {@link #lockRow(byte[], boolean)} under
+   * <code>lockId</code>, or null if there is none
+   */
+  public Lock getLock(final Integer lockId) {
+    return lockIds.get(lockId);
+  }
+
+  /**
+   * Releases a lock taken by {@link #lockRow(byte[], boolean)}.
+   * @param lockId
+   */
+  public void releaseRowLock(final Integer lockId) {
+    Lock lock = lockIds.remove(lockId);
+    if (lock == null) {
+      LOG.warn("Release unknown lockId: " + lockId);
+      return;
+    }
+    lock.release();
+  }
+
+  /** @return how many lock requests had to wait for another holder */
+  public long getWaitCount() {
+    return this.waits.get();
+  }
+
+  /** @return how many lock requests gave up waiting */
+  public long getTimeoutCount() {
+    return this.timeouts.get();
+  }
+
+  /** @return how many rows are locked or waited on */
+  public int getLockedRowCount() {
+    return this.lockedRows.size();
+  }
+
+  private Lock lock(final HashedBytes row, final boolean exclusive,
+      final Object owner, final boolean waitForLock) throws IOException {
+    long start = 0;
+    while (true) {
+      RowLockContext context = lockedRows.get(row);
+      if (context == null) {
+        RowLockContext newContext = new RowLockContext(row);
+        context = lockedRows.putIfAbsent(row, newContext);
+        if (context == null) context = newContext;
+      }
+      synchronized (context) {
+        // Dropped by its last holder after we got it from the map
+        if (context.removed) continue;
+        if (!context.canLock(exclusive, owner)) {
+          if (!waitForLock) return null;
+          if (start == 0) {
+            start = EnvironmentEdgeManager.currentTimeMillis();
+            this.waits.increment();
+          }
+          context.waiters++;
+          if (exclusive) context.exclusiveWaiters++;
+          try {
+            long deadline = start + this.waitDuration;
+            long remaining;
+            while (!context.canLock(exclusive, owner) &&
+                (remaining = deadline - EnvironmentEdgeManager.currentTimeMillis()) > 0) {
+              context.wait(remaining);
+            }
+          } catch (InterruptedException ie) {
+            throw new InterruptedIOException("Interrupted waiting for lock on row " +
+              Bytes.toStringBinary(row.getBytes()));
+          } finally {
+            context.waiters--;
+            if (exclusive) context.exclusiveWaiters--;
+            if (!context.canLock(exclusive, owner)) {
+              // Gave up, or was interrupted
+              this.timeouts.increment();
+              if (this.metrics != null) {
+                this.metrics.updateRowLockTimeoutMetrics(
+                  EnvironmentEdgeManager.currentTimeMillis() - start);
+              }
+              // Shared requests held back for us can go ahead now
+              if (!dropIfIdle(context) && exclusive) context.notifyAll();
+            }
+          }
+          if (!context.canLock(exclusive, owner)) return null;
+          if (this.metrics != null) {
+            this.metrics.updateRowLockWaitMetrics(
+              EnvironmentEdgeManager.currentTimeMillis() - start);
+          }
+        }
+        if (exclusive) {
+          context.exclusiveOwner = owner;
+          context.exclusiveHolds++;
+        } else {
+          context.sharedHolds++;
+        }
+        return new Lock(context, exclusive);
+      }
+    }
+  }
+
+  private void release(final Lock lock) {
+    RowLockContext context = lock.context;
+    synchronized (context) {
+      if (lock.released) return;
+      lock.released = true;
+      if (lock.exclusive) {
+        if (--context.exclusiveHolds == 0) context.exclusiveOwner = null;
+      } else {
+        context.sharedHolds--;
+      }
+      if (!dropIfIdle(context)) context.notifyAll();
+    }
+  }
+
+  /**
+   * Must hold the monitor of <code>context</code>.
+   * @return true if nobody holds or waits for the lock any more and it was
+   * dropped
+   */
+  private boolean dropIfIdle(final RowLockContext context) {
+    if (!context.isIdle()) return false;
+    context.removed = true;
+    lockedRows.remove(context.row, context);
+    return true;
+  }
+
+  public static final long FIXED_SIZE = ClassSize.align(
+      ClassSize.OBJECT +
+      6 * ClassSize.REFERENCE +
+      Bytes.SIZEOF_INT);
+
+  public static final long DEEP_OVERHEAD = FIXED_SIZE +
+      (2 * ClassSize.CONCURRENT_HASHMAP) + // lockedRows, lockIds
+      ClassSize.ATOMIC_INTEGER; // lockIdGenerator
+}
@@ -31,6 +31,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.DeserializationException;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.SplitLogCounters;
 import org.apache.hadoop.hbase.SplitLogTask;
@@ -90,7 +91,7 @@ public class SplitLogWorker extends ZooKeeperListener implements Runnable {
     this.splitTaskExecutor = splitTaskExecutor;
   }
 
-  public SplitLogWorker(ZooKeeperWatcher watcher, final Configuration conf,
+  public SplitLogWorker(final ZooKeeperWatcher watcher, final Configuration conf,
       final ServerName serverName) {
     this(watcher, conf, serverName, new TaskExecutor () {
       @Override
@@ -110,8 +111,11 @@ public class SplitLogWorker extends ZooKeeperListener implements Runnable {
         try {
           String tmpname =
             ZKSplitLog.getSplitLogDirTmpComponent(serverName.toString(), filename);
+          boolean replay = conf.getBoolean(HConstants.DISTRIBUTED_LOG_REPLAY_KEY,
+            HConstants.DEFAULT_DISTRIBUTED_LOG_REPLAY);
           if (HLogSplitter.splitLogFileToTemp(rootdir, tmpname,
-              fs.getFileStatus(new Path(filename)), fs, conf, p) == false) {
+              fs.getFileStatus(new Path(filename)), fs, conf, p,
+              replay ? watcher : null) == false) {
             return Status.PREEMPTED;
           }
         } catch (InterruptedIOException iioe) {
@@ -20,6 +20,7 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -433,7 +434,9 @@ public class Store extends SchemaConfigured implements HeapSize {
     } catch (ExecutionException e) {
       throw new IOException(e.getCause());
     } finally {
-      storeFileOpenerThreadPool.shutdownNow();
+      if (!this.region.isSharedThreadPool(storeFileOpenerThreadPool)) {
+        storeFileOpenerThreadPool.shutdownNow();
+      }
     }
 
     return results;
@@ -661,7 +664,9 @@ public class Store extends SchemaConfigured implements HeapSize {
         } catch (ExecutionException e) {
           throw new IOException(e.getCause());
         } finally {
-          storeFileCloserThreadPool.shutdownNow();
+          if (!this.region.isSharedThreadPool(storeFileCloserThreadPool)) {
+            storeFileCloserThreadPool.shutdownNow();
+          }
         }
       }
       LOG.info("Closed " + this);
@@ -860,16 +865,23 @@ public class Store extends SchemaConfigured implements HeapSize {
     } else {
       writerCacheConf = cacheConf;
     }
+    InetSocketAddress[] favoredNodes = null;
+    if (region.getRegionServerServices() != null) {
+      favoredNodes = region.getRegionServerServices().getFavoredNodesForRegion(
+        region.getRegionInfo().getEncodedName());
+    }
     StoreFile.Writer w = new StoreFile.WriterBuilder(conf, writerCacheConf,
         fs, blocksize)
             .withOutputDir(region.getTmpDir())
             .withDataBlockEncoder(dataBlockEncoder)
             .withComparator(comparator)
             .withBloomType(family.getBloomFilterType())
+            .withBloomParam(StoreFile.getBloomParam(family))
             .withMaxKeyCount(maxKeyCount)
             .withChecksumType(checksumType)
             .withBytesPerChecksum(bytesPerChecksum)
             .withCompression(compression)
+            .withFavoredNodes(favoredNodes)
             .build();
     // The store file writer's path does not include the CF name, so we need
     // to configure the HFile writer directly.
@@ -930,12 +942,27 @@ public class Store extends SchemaConfigured implements HeapSize {
       boolean isGet,
       boolean isCompaction,
       ScanQueryMatcher matcher) throws IOException {
+    return getScanners(cacheBlocks, isGet, isCompaction, matcher, -1);
+  }
+
+  /**
+   * Get all scanners with no filtering based on TTL (that happens further down
+   * the line).
+   * @param readPt mvcc read point the scanners read at, or negative to use
+   * the read point of the thread calling them
+   * @return all scanners for this store
+   */
+  protected List<KeyValueScanner> getScanners(boolean cacheBlocks,
+      boolean isGet,
+      boolean isCompaction,
+      ScanQueryMatcher matcher,
+      long readPt) throws IOException {
     List<StoreFile> storeFiles;
     List<KeyValueScanner> memStoreScanners;
     this.lock.readLock().lock();
     try {
       storeFiles = this.getStorefiles();
-      memStoreScanners = this.memstore.getScanners();
+      memStoreScanners = this.memstore.getScanners(readPt);
     } finally {
       this.lock.readLock().unlock();
     }
@@ -946,7 +973,8 @@ public class Store extends SchemaConfigured implements HeapSize {
     // but now we get them in ascending order, which I think is
     // actually more correct, since memstore get put at the end.
     List<StoreFileScanner> sfScanners = StoreFileScanner
-      .getScannersForStoreFiles(storeFiles, cacheBlocks, isGet, isCompaction, matcher);
+      .getScannersForStoreFiles(storeFiles, cacheBlocks, isGet, isCompaction,
+        matcher, readPt);
     List<KeyValueScanner> scanners =
       new ArrayList<KeyValueScanner>(sfScanners.size()+1);
     scanners.addAll(sfScanners);
@@ -1100,7 +1128,7 @@ public class Store extends SchemaConfigured implements HeapSize {
     }
   }
 
-  boolean hasReferences() {
+  public boolean hasReferences() {
     return hasReferences(this.storefiles);
   }
 
@@ -1246,6 +1274,48 @@ public class Store extends SchemaConfigured implements HeapSize {
   }
 
   public CompactionRequest requestCompaction(int priority) {
+    return requestCompaction(priority, null);
+  }
+
+  /**
+   * Select only the reference files left behind by a split, so that a daughter
+   * gets rid of its references without waiting on a full store rewrite.
+   * @return a request to rewrite the reference files, or null if none
+   */
+  public CompactionRequest requestReferenceCompaction() {
+    return requestCompaction(PRIORITY_USER, new Predicate<StoreFile>() {
+      @Override
+      public boolean apply(StoreFile input) {
+        return input.isReference();
+      }
+    });
+  }
+
+  /**
+   * Select only <code>sf</code>, so that it is rewritten on its own.  Used to
+   * bring the blocks of a file written by another server back to this one.
+   * Rewriting a single file keeps its place in the store, so it does not
+   * matter which files are around it.
+   * @param sf
+   * @return a request to rewrite <code>sf</code>, or null if it is no longer
+   * in the store or is already being compacted
+   */
+  public CompactionRequest requestLocalityCompaction(final StoreFile sf) {
+    return requestCompaction(NO_PRIORITY, new Predicate<StoreFile>() {
+      @Override
+      public boolean apply(StoreFile input) {
+        return input == sf;
+      }
+    });
+  }
+
+  /**
+   * @param priority
+   * @param only if not null, compact just the candidates it accepts instead
+   * of running the compaction selection
+   */
+  private CompactionRequest requestCompaction(int priority,
+      final Predicate<StoreFile> only) {
     // don't even select for compaction if writes are disabled
     if (!this.region.areWritesEnabled()) {
       return null;
@@ -1275,6 +1345,14 @@ public class Store extends SchemaConfigured implements HeapSize {
         if (override) {
           // coprocessor is overriding normal file selection
           filesToCompact = new CompactSelection(conf, candidates);
+        } else if (only != null) {
+          List<StoreFile> selected = Lists.newArrayList(
+              Collections2.filter(candidates, only));
+          // these should obey max file compact too, to avoid OOM
+          if (selected.size() > this.maxFilesToCompact) {
+            selected.subList(this.maxFilesToCompact, selected.size()).clear();
+          }
+          filesToCompact = new CompactSelection(conf, selected);
         } else {
           filesToCompact = compactSelection(candidates, priority);
         }
@@ -1289,6 +1367,21 @@ public class Store extends SchemaConfigured implements HeapSize {
           return null;
         }
 
+        // hold back big system compactions of non-blocked stores until the
+        // off peak window opens
+        if (priority != PRIORITY_USER && getCompactPriority(priority) > 0) {
+          long selectedSize = 0;
+          for (StoreFile sf : filesToCompact.getFilesToCompact()) {
+            selectedSize += sf.getReader().length();
+          }
+          if (filesToCompact.shouldDeferToOffPeak(selectedSize)) {
+            LOG.debug("Deferring compaction of " + this + " until off peak hours, size="
+                + StringUtils.humanReadableInt(selectedSize));
+            filesToCompact.emptyFileList();
+            return null;
+          }
+        }
+
         // basic sanity check: do not try to compact the same StoreFile twice.
         if (!Collections.disjoint(filesCompacting, filesToCompact.getFilesToCompact())) {
           // TODO: change this from an IAE to LOG.error after sufficient testing
@@ -1941,9 +2034,21 @@ public class Store extends SchemaConfigured implements HeapSize {
    */
   public StoreScanner getScanner(Scan scan,
       final NavigableSet<byte []> targetCols) throws IOException {
+    return getScanner(scan, targetCols, -1);
+  }
+
+  /**
+   * Return a scanner for both the memstore and the HStore files that reads at
+   * the given mvcc read point. Assumes we are not in a compaction.
+   * @param readPt read point, or negative to use the read point of the thread
+   * calling the scanner
+   * @throws IOException
+   */
+  public StoreScanner getScanner(Scan scan,
+      final NavigableSet<byte []> targetCols, long readPt) throws IOException {
     lock.readLock().lock();
     try {
-      return new StoreScanner(this, scan, targetCols);
+      return new StoreScanner(this, scan, targetCols, readPt);
     } finally {
       lock.readLock().unlock();
     }
@@ -22,6 +22,7 @@ package org.apache.hadoop.hbase.regionserver;
 import java.io.DataInput;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
@@ -41,6 +42,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HDFSBlocksDistribution;
 import org.apache.hadoop.hbase.KeyValue;
@@ -104,7 +106,17 @@ public class StoreFile extends SchemaConfigured {
     /**
      * Bloom enabled with Table row & column (family+qualifier) as Key
      */
-    ROWCOL
+    ROWCOL,
+    /**
+     * Bloom enabled with the first bytes of the Table row, up to a fixed
+     * length, as Key
+     */
+    ROWPREFIX_FIXED_LENGTH,
+    /**
+     * Bloom enabled with the Table row, up to and including the first
+     * occurrence of a delimiter, as Key
+     */
+    ROWPREFIX_DELIMITED
   }
 
   // Keys for fileinfo values in HFile
@@ -124,6 +136,10 @@ public class StoreFile extends SchemaConfigured {
   static final byte[] BLOOM_FILTER_TYPE_KEY =
       Bytes.toBytes("BLOOM_FILTER_TYPE");
 
+  /** Row prefix Bloom filter parameter in FileInfo */
+  static final byte[] BLOOM_FILTER_PARAM_KEY =
+      Bytes.toBytes("BLOOM_FILTER_PARAM");
+
   /** Delete Family Count in FileInfo */
   public static final byte[] DELETE_FAMILY_COUNT =
       Bytes.toBytes("DELETE_FAMILY_COUNT");
@@ -693,11 +709,13 @@ public class StoreFile extends SchemaConfigured {
         NoOpDataBlockEncoder.INSTANCE;
     private KeyValue.KVComparator comparator = KeyValue.COMPARATOR;
     private BloomType bloomType = BloomType.NONE;
+    private byte[] bloomParam = null;
     private long maxKeyCount = 0;
     private Path dir;
     private Path filePath;
     private ChecksumType checksumType = HFile.DEFAULT_CHECKSUM_TYPE;
     private int bytesPerChecksum = HFile.DEFAULT_BYTES_PER_CHECKSUM;
+    private InetSocketAddress[] favoredNodes = null;
 
     public WriterBuilder(Configuration conf, CacheConfig cacheConf,
         FileSystem fs, int blockSize) {
@@ -755,6 +773,16 @@ public class StoreFile extends SchemaConfigured {
       return this;
     }
 
+    /**
+     * @param bloomParam the prefix length or delimiter of a row prefix Bloom
+     * filter, see {@link StoreFile#getBloomParam(HColumnDescriptor)}
+     * @return this (for chained invocation)
+     */
+    public WriterBuilder withBloomParam(byte[] bloomParam) {
+      this.bloomParam = bloomParam;
+      return this;
+    }
+
     /**
      * @param maxKeyCount estimated maximum number of keys we expect to add
      * @return this (for chained invocation)
@@ -782,6 +810,15 @@ public class StoreFile extends SchemaConfigured {
       return this;
     }
 
+    /**
+     * @param favoredNodes datanodes to write the file's blocks to, or null
+     * @return this (for chained invocation)
+     */
+    public WriterBuilder withFavoredNodes(InetSocketAddress[] favoredNodes) {
+      this.favoredNodes = favoredNodes;
+      return this;
+    }
+
     /**
      * Create a store file writer. Client is responsible for closing file when
      * done. If metadata, add BEFORE closing using
@@ -808,6 +845,12 @@ public class StoreFile extends SchemaConfigured {
         }
       }
 
+      if (isRowPrefixBloomType(bloomType) && bloomParam == null) {
+        LOG.warn("No prefix length or delimiter given for " + bloomType +
+            " Bloom filter, not writing one for " + filePath);
+        bloomType = BloomType.NONE;
+      }
+
       if (compressAlgo == null) {
         compressAlgo = HFile.DEFAULT_COMPRESSION_ALGORITHM;
       }
@@ -815,9 +858,66 @@ public class StoreFile extends SchemaConfigured {
         comparator = KeyValue.COMPARATOR;
       }
       return new Writer(fs, filePath, blockSize, compressAlgo, dataBlockEncoder,
-          conf, cacheConf, comparator, bloomType, maxKeyCount, checksumType,
-          bytesPerChecksum);
+          conf, cacheConf, comparator, bloomType, bloomParam, maxKeyCount,
+          checksumType, bytesPerChecksum, favoredNodes);
+    }
+  }
+
+  /**
+   * @param bloomType
+   * @return true if <code>bloomType</code> is keyed on a row prefix
+   */
+  static boolean isRowPrefixBloomType(final BloomType bloomType) {
+    return bloomType == BloomType.ROWPREFIX_FIXED_LENGTH ||
+      bloomType == BloomType.ROWPREFIX_DELIMITED;
+  }
+
+  /**
+   * @param family
+   * @return the parameter of the row prefix Bloom filter configured for
+   * <code>family</code>, the prefix length or the delimiter, or null if it
+   * takes none or none is set
+   */
+  public static byte[] getBloomParam(final HColumnDescriptor family) {
+    switch (family.getBloomFilterType()) {
+    case ROWPREFIX_FIXED_LENGTH:
+      int length = family.getBloomFilterPrefixLength();
+      return length > 0 ? Bytes.toBytes(length) : null;
+    case ROWPREFIX_DELIMITED:
+      String delimiter = family.getBloomFilterPrefixDelimiter();
+      return delimiter != null && delimiter.length() > 0 ?
+        Bytes.toBytes(delimiter) : null;
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * @param bloomType a row prefix Bloom filter type
+   * @param bloomParam its parameter, see {@link #getBloomParam(HColumnDescriptor)}
+   * @param row
+   * @param offset
+   * @param length
+   * @return length of the row prefix of the row, or -1 if the row is too
+   * short or has no delimiter, in which case the whole row is its Bloom key
+   */
+  static int getRowPrefixLength(final BloomType bloomType,
+      final byte[] bloomParam, final byte[] row, final int offset,
+      final int length) {
+    if (bloomType == BloomType.ROWPREFIX_FIXED_LENGTH) {
+      int prefixLength = Bytes.toInt(bloomParam);
+      return length >= prefixLength ? prefixLength : -1;
+    }
+    // The delimiter is part of the prefix so that the prefixes of sorted rows
+    // are sorted too, as compound Bloom filters require
+    int end = offset + length - bloomParam.length;
+    for (int i = offset; i <= end; i++) {
+      if (Bytes.equals(row, i, bloomParam.length, bloomParam, 0,
+          bloomParam.length)) {
+        return i - offset + bloomParam.length;
+      }
     }
+    return -1;
   }
 
   /**
@@ -905,6 +1005,7 @@ public class StoreFile extends SchemaConfigured {
     private final BloomFilterWriter generalBloomFilterWriter;
     private final BloomFilterWriter deleteFamilyBloomFilterWriter;
     private final BloomType bloomType;
+    private final byte[] bloomParam;
     private byte[] lastBloomKey;
     private int lastBloomKeyOffset, lastBloomKeyLen;
     private KVComparator kvComparator;
@@ -941,18 +1042,22 @@ public class StoreFile extends SchemaConfigured {
      * @param conf user configuration
      * @param comparator key comparator
      * @param bloomType bloom filter setting
+     * @param bloomParam prefix length or delimiter of row prefix Bloom filters
      * @param maxKeys the expected maximum number of keys to be added. Was used
      *        for Bloom filter size in {@link HFile} format version 1.
      * @param checksumType the checksum type
      * @param bytesPerChecksum the number of bytes per checksum value
+     * @param favoredNodes datanodes to write the file's blocks to, or null
      * @throws IOException problem writing to FS
      */
     private Writer(FileSystem fs, Path path, int blocksize,
         Compression.Algorithm compress,
         HFileDataBlockEncoder dataBlockEncoder, final Configuration conf,
         CacheConfig cacheConf,
-        final KVComparator comparator, BloomType bloomType, long maxKeys,
-        final ChecksumType checksumType, final int bytesPerChecksum)
+        final KVComparator comparator, BloomType bloomType,
+        final byte[] bloomParam, long maxKeys,
+        final ChecksumType checksumType, final int bytesPerChecksum,
+        final InetSocketAddress[] favoredNodes)
         throws IOException {
       this.dataBlockEncoder = dataBlockEncoder != null ?
           dataBlockEncoder : NoOpDataBlockEncoder.INSTANCE;
@@ -964,6 +1069,7 @@ public class StoreFile extends SchemaConfigured {
           .withComparator(comparator.getRawComparator())
           .withChecksumType(checksumType)
           .withBytesPerChecksum(bytesPerChecksum)
+          .withFavoredNodes(favoredNodes)
           .create();
 
       this.kvComparator = comparator;
@@ -980,6 +1086,7 @@ public class StoreFile extends SchemaConfigured {
         // Not using Bloom filters.
         this.bloomType = BloomType.NONE;
       }
+      this.bloomParam = isRowPrefixBloomType(this.bloomType) ? bloomParam : null;
 
       // initialize delete family Bloom filter when there is NO RowCol Bloom
       // filter
@@ -1058,12 +1165,18 @@ public class StoreFile extends SchemaConfigured {
           case ROWCOL:
             newKey = ! kvComparator.matchingRowColumn(kv, lastKv);
             break;
+          case ROWPREFIX_FIXED_LENGTH:
+          case ROWPREFIX_DELIMITED:
+            newKey = ! Bytes.equals(kv.getBuffer(), kv.getRowOffset(),
+                getBloomKeyLength(kv), lastBloomKey, lastBloomKeyOffset,
+                lastBloomKeyLen);
+            break;
           case NONE:
             newKey = false;
             break;
           default:
             throw new IOException("Invalid Bloom filter type: " + bloomType +
-                " (ROW or ROWCOL expected)");
+                " (ROW, ROWCOL or ROWPREFIX_* expected)");
           }
         }
         if (newKey) {
@@ -1071,9 +1184,10 @@ public class StoreFile extends SchemaConfigured {
            * http://2.bp.blogspot.com/_Cib_A77V54U/StZMrzaKufI/AAAAAAAAADo/ZhK7bGoJdMQ/s400/KeyValue.png
            * Key = RowLen + Row + FamilyLen + Column [Family + Qualifier] + TimeStamp
            *
-           * 2 Types of Filtering:
+           * 3 Types of Filtering:
            *  1. Row = Row
            *  2. RowCol = Row + Qualifier
+           *  3. RowPrefix = Row up to a length or delimiter
            */
           byte[] bloomKey;
           int bloomKeyOffset, bloomKeyLen;
@@ -1094,9 +1208,15 @@ public class StoreFile extends SchemaConfigured {
             bloomKeyOffset = 0;
             bloomKeyLen = bloomKey.length;
             break;
+          case ROWPREFIX_FIXED_LENGTH:
+          case ROWPREFIX_DELIMITED:
+            bloomKey = kv.getBuffer();
+            bloomKeyOffset = kv.getRowOffset();
+            bloomKeyLen = getBloomKeyLength(kv);
+            break;
           default:
             throw new IOException("Invalid Bloom filter type: " + bloomType +
-                " (ROW or ROWCOL expected)");
+                " (ROW, ROWCOL or ROWPREFIX_* expected)");
           }
           generalBloomFilterWriter.add(bloomKey, bloomKeyOffset, bloomKeyLen);
           if (lastBloomKey != null
@@ -1117,6 +1237,16 @@ public class StoreFile extends SchemaConfigured {
       }
     }
 
+    /**
+     * @return length of the row prefix <code>kv</code> is added to a row
+     * prefix Bloom filter under
+     */
+    private int getBloomKeyLength(final KeyValue kv) {
+      int length = getRowPrefixLength(bloomType, bloomParam, kv.getBuffer(),
+          kv.getRowOffset(), kv.getRowLength());
+      return length < 0 ? kv.getRowLength() : length;
+    }
+
     private void appendDeleteFamilyBloomFilter(final KeyValue kv)
         throws IOException {
       if (!kv.isDeleteFamily()) {
@@ -1178,6 +1308,9 @@ public class StoreFile extends SchemaConfigured {
         writer.addGeneralBloomFilter(generalBloomFilterWriter);
         writer.appendFileInfo(BLOOM_FILTER_TYPE_KEY,
             Bytes.toBytes(bloomType.toString()));
+        if (bloomParam != null) {
+          writer.appendFileInfo(BLOOM_FILTER_PARAM_KEY, bloomParam);
+        }
         if (lastBloomKey != null) {
           writer.appendFileInfo(LAST_BLOOM_KEY, Arrays.copyOfRange(
               lastBloomKey, lastBloomKeyOffset, lastBloomKeyOffset
@@ -1236,6 +1369,7 @@ public class StoreFile extends SchemaConfigured {
     protected BloomFilter generalBloomFilter = null;
     protected BloomFilter deleteFamilyBloomFilter = null;
     protected BloomType bloomFilterType;
+    private byte[] bloomParam;
     private final HFile.Reader reader;
     protected TimeRangeTracker timeRangeTracker = null;
     protected long sequenceID = -1;
@@ -1346,10 +1480,11 @@ public class StoreFile extends SchemaConfigured {
 
     /**
      * Checks whether the given scan passes the Bloom filter (if present). Only
-     * checks Bloom filters for single-row or single-row-column scans. Bloom
-     * filter checking for multi-gets is implemented as part of the store
-     * scanner system (see {@link StoreFileScanner#seekExactly}) and uses
-     * the lower-level API {@link #passesGeneralBloomFilter(byte[], int, int, byte[],
+     * checks Bloom filters for single-row or single-row-column scans, and for
+     * scans within a single row prefix if the Bloom filter is keyed on row
+     * prefixes. Bloom filter checking for multi-gets is implemented as part
+     * of the store scanner system (see {@link StoreFileScanner#seekExactly})
+     * and uses the lower-level API {@link #passesGeneralBloomFilter(byte[], int, int, byte[],
      * int, int)}.
      *
      * @param scan the scan specification. Used to determine the row, and to
@@ -1362,6 +1497,10 @@ public class StoreFile extends SchemaConfigured {
      */
      boolean passesBloomFilter(Scan scan,
         final SortedSet<byte[]> columns) {
+      if (isRowPrefixBloomType(this.bloomFilterType)) {
+        return passesRowPrefixBloomFilter(scan);
+      }
+
       // Multi-column non-get scans will use Bloom filters through the
       // lower-level API function that this function calls.
       if (!scan.isGetScan()) {
@@ -1389,6 +1528,43 @@ public class StoreFile extends SchemaConfigured {
       }
     }
 
+    /**
+     * Checks a row prefix Bloom filter for a scan all rows of which share the
+     * same row prefix, as those of a get do.
+     */
+    private boolean passesRowPrefixBloomFilter(Scan scan) {
+      byte[] row = scan.getStartRow();
+      if (!scan.isGetScan()) {
+        int prefixLength = getRowPrefixLength(bloomFilterType, bloomParam, row,
+            0, row.length);
+        if (prefixLength < 0 ||
+            !isInRowPrefix(scan.getStopRow(), row, prefixLength)) {
+          return true;
+        }
+      }
+      // Checks the row prefix of the start row
+      return passesGeneralBloomFilter(row, 0, row.length, null, 0, 0);
+    }
+
+    /**
+     * @return true if all rows sorting before <code>stopRow</code> and after a
+     * row starting with the prefix start with the prefix too
+     */
+    private static boolean isInRowPrefix(byte[] stopRow, byte[] prefix,
+        int prefixLength) {
+      if (stopRow.length < prefixLength) {
+        return false;
+      }
+      if (Bytes.equals(stopRow, 0, prefixLength, prefix, 0, prefixLength)) {
+        return true;
+      }
+      // The stop row may also be the first row after the prefix
+      int last = prefixLength - 1;
+      return stopRow.length == prefixLength && prefix[last] != (byte) 0xFF
+          && stopRow[last] == (byte) (prefix[last] + 1)
+          && Bytes.equals(stopRow, 0, last, prefix, 0, last);
+    }
+
     public boolean passesDeleteFamilyBloomFilter(byte[] row, int rowOffset,
         int rowLen) {
       // Cache Bloom filter as a local variable in case it is set to null by
@@ -1458,6 +1634,18 @@ public class StoreFile extends SchemaConfigured {
               colOffset, colLen);
           break;
 
+        case ROWPREFIX_FIXED_LENGTH:
+        case ROWPREFIX_DELIMITED:
+          if (col != null) {
+            throw new RuntimeException("Row prefix Bloom filter called with " +
+                "column specified");
+          }
+          int prefixLength = getRowPrefixLength(bloomFilterType, bloomParam,
+              row, rowOffset, rowLen);
+          key = Arrays.copyOfRange(row, rowOffset,
+              rowOffset + (prefixLength < 0 ? rowLen : prefixLength));
+          break;
+
         default:
           return true;
       }
@@ -1532,6 +1720,12 @@ public class StoreFile extends SchemaConfigured {
       if (b != null) {
         bloomFilterType = BloomType.valueOf(Bytes.toString(b));
       }
+      bloomParam = fi.get(BLOOM_FILTER_PARAM_KEY);
+      if (isRowPrefixBloomType(bloomFilterType) && bloomParam == null) {
+        LOG.warn("No prefix length or delimiter for " + bloomFilterType +
+            " Bloom filter of " + reader.getName() + ", not using it");
+        bloomFilterType = BloomType.NONE;
+      }
 
       lastBloomKey = fi.get(LAST_BLOOM_KEY);
       byte[] cnt = fi.get(DELETE_FAMILY_COUNT);
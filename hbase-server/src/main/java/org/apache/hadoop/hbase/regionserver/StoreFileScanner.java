@@ -63,6 +63,9 @@ public class StoreFileScanner implements KeyValueScanner {
 
   private ScanQueryMatcher matcher;
 
+  // mvcc read point, or negative to use the thread read point
+  private long readPt = -1;
+
   /**
    * Implements a {@link KeyValueScanner} on top of the specified {@link HFileScanner}
    * @param hfs HFile scanner
@@ -103,6 +106,21 @@ public class StoreFileScanner implements KeyValueScanner {
   public static List<StoreFileScanner> getScannersForStoreFiles(
       Collection<StoreFile> files, boolean cacheBlocks, boolean usePread,
       boolean isCompaction, ScanQueryMatcher matcher) throws IOException {
+    return getScannersForStoreFiles(files, cacheBlocks, usePread, isCompaction,
+        matcher, -1);
+  }
+
+  /**
+   * Return an array of scanners corresponding to the given set of store files
+   * that skip key values newer than the given mvcc read point, And set the
+   * ScanQueryMatcher for each store file scanner for further optimization
+   * @param readPt read point to use, or negative to use the read point of the
+   * thread calling the scanners
+   */
+  public static List<StoreFileScanner> getScannersForStoreFiles(
+      Collection<StoreFile> files, boolean cacheBlocks, boolean usePread,
+      boolean isCompaction, ScanQueryMatcher matcher, long readPt)
+      throws IOException {
     List<StoreFileScanner> scanners = new ArrayList<StoreFileScanner>(
         files.size());
     for (StoreFile file : files) {
@@ -110,6 +128,7 @@ public class StoreFileScanner implements KeyValueScanner {
       StoreFileScanner scanner = r.getStoreFileScanner(cacheBlocks, usePread,
           isCompaction);
       scanner.setScanQueryMatcher(matcher);
+      scanner.setReadPoint(readPt);
       scanners.add(scanner);
     }
     return scanners;
@@ -183,7 +202,8 @@ public class StoreFileScanner implements KeyValueScanner {
   }
 
   protected boolean skipKVsNewerThanReadpoint() throws IOException {
-    long readPoint = MultiVersionConsistencyControl.getThreadReadPoint();
+    long readPoint = readPt >= 0 ? readPt :
+      MultiVersionConsistencyControl.getThreadReadPoint();
 
     // We want to ignore all key-values that are newer than our current
     // readPoint
@@ -358,6 +378,14 @@ public class StoreFileScanner implements KeyValueScanner {
     this.matcher = matcher;
   }
 
+  /**
+   * @param readPt skip key values newer than this mvcc read point; if
+   * negative, the read point of the thread calling the scanner is used
+   */
+  public void setReadPoint(long readPt) {
+    this.readPt = readPt;
+  }
+
   @Override
   public boolean isFileScanner() {
     return true;
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NavigableSet;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -63,6 +64,12 @@ class StoreScanner extends NonLazyKeyValueScanner
   private final NavigableSet<byte[]> columns;
   private final long oldestUnexpiredTS;
   private final int minVersions;
+  // mvcc read point, or negative to use the thread read point
+  private final long readPt;
+  // pool to seek the store file scanners in parallel on, or null
+  private final ExecutorService parallelSeekPool;
+  // size in bytes to cut rows into parts at, or -1 for whole rows
+  private final long rowPartSize;
 
   /** We don't ever expect to change this, the constant is just for clarity. */
   static final boolean LAZY_SEEK_ENABLED_BY_DEFAULT = true;
@@ -76,8 +83,16 @@ class StoreScanner extends NonLazyKeyValueScanner
 
   /** An internal constructor. */
   private StoreScanner(Store store, boolean cacheBlocks, Scan scan,
-      final NavigableSet<byte[]> columns, long ttl, int minVersions) {
+      final NavigableSet<byte[]> columns, long ttl, int minVersions,
+      long readPt) {
     this.store = store;
+    this.readPt = readPt;
+    // Pool threads do not have our thread read point
+    this.parallelSeekPool =
+      store != null && store.getHRegion() != null && readPt >= 0 ?
+        store.getHRegion().getParallelSeekThreadPool() : null;
+    this.rowPartSize =
+      store != null ? HRegion.getRowPartSize(scan, store.conf) : -1;
     this.cacheBlocks = cacheBlocks;
     isGet = scan.isGetScan();
     int numCol = columns == null ? 0 : columns.size();
@@ -105,8 +120,24 @@ class StoreScanner extends NonLazyKeyValueScanner
    */
   StoreScanner(Store store, Scan scan, final NavigableSet<byte[]> columns)
                               throws IOException {
+    this(store, scan, columns, -1);
+  }
+
+  /**
+   * Opens a scanner across memstore, snapshot, and all StoreFiles that reads
+   * at the given mvcc read point. Assumes we are not in a compaction.
+   *
+   * @param store who we scan
+   * @param scan the spec
+   * @param columns which columns we are scanning
+   * @param readPt read point, or negative to use the read point of the thread
+   *          calling the scanner; kept for the scanners reopened after a flush
+   * @throws IOException
+   */
+  StoreScanner(Store store, Scan scan, final NavigableSet<byte[]> columns,
+      long readPt) throws IOException {
     this(store, scan.getCacheBlocks(), scan, columns, store.scanInfo.getTtl(),
-        store.scanInfo.getMinVersions());
+        store.scanInfo.getMinVersions(), readPt);
     initializeMetricNames();
     if (columns != null && scan.isRaw()) {
       throw new DoNotRetryIOException(
@@ -128,9 +159,7 @@ class StoreScanner extends NonLazyKeyValueScanner
         scanner.requestSeek(matcher.getStartKey(), false, true);
       }
     } else {
-      for (KeyValueScanner scanner : scanners) {
-        scanner.seek(matcher.getStartKey());
-      }
+      seekScanners(scanners, matcher.getStartKey());
     }
 
     // Combine all seeked scanners with a heap
@@ -153,7 +182,7 @@ class StoreScanner extends NonLazyKeyValueScanner
       List<? extends KeyValueScanner> scanners, ScanType scanType,
       long smallestReadPoint, long earliestPutTs) throws IOException {
     this(store, false, scan, null, store.scanInfo.getTtl(),
-        store.scanInfo.getMinVersions());
+        store.scanInfo.getMinVersions(), smallestReadPoint);
     initializeMetricNames();
     matcher = new ScanQueryMatcher(scan, store.scanInfo, null, scanType,
         smallestReadPoint, earliestPutTs, oldestUnexpiredTS);
@@ -184,7 +213,7 @@ class StoreScanner extends NonLazyKeyValueScanner
       final List<KeyValueScanner> scanners, long earliestPutTs)
           throws IOException {
     this(null, scan.getCacheBlocks(), scan, columns, scanInfo.getTtl(),
-        scanInfo.getMinVersions());
+        scanInfo.getMinVersions(), -1);
     this.initializeMetricNames();
     this.matcher = new ScanQueryMatcher(scan, scanInfo, columns, scanType,
         Long.MAX_VALUE, earliestPutTs, oldestUnexpiredTS);
@@ -220,7 +249,7 @@ class StoreScanner extends NonLazyKeyValueScanner
   private List<KeyValueScanner> getScannersNoCompaction() throws IOException {
     final boolean isCompaction = false;
     return selectScannersFrom(store.getScanners(cacheBlocks, isGet,
-        isCompaction, matcher));
+        isCompaction, matcher, readPt));
   }
 
   /**
@@ -348,6 +377,7 @@ class StoreScanner extends NonLazyKeyValueScanner
     KeyValue kv;
     KeyValue prevKV = null;
     List<KeyValue> results = new ArrayList<KeyValue>();
+    long resultsSize = 0;
 
     // Only do a sanity-check if store and comparator are available.
     KeyValue.KVComparator comparator =
@@ -393,6 +423,13 @@ class StoreScanner extends NonLazyKeyValueScanner
           if (limit > 0 && (results.size() == limit)) {
             break LOOP;
           }
+          if (rowPartSize > 0) {
+            // Rather than loading all of a wide row, return it in parts
+            resultsSize += kv.heapSize();
+            if (resultsSize >= rowPartSize) {
+              break LOOP;
+            }
+          }
           continue;
 
         case DONE:
@@ -508,6 +545,21 @@ class StoreScanner extends NonLazyKeyValueScanner
     return false;
   }
 
+  /**
+   * Seeks the scanners to <code>kv</code>, the store file ones in parallel if
+   * we have a pool to.
+   */
+  private void seekScanners(List<? extends KeyValueScanner> scanners,
+      KeyValue kv) throws IOException {
+    if (this.parallelSeekPool != null) {
+      ParallelSeeker.seek(this.parallelSeekPool, scanners, kv);
+    } else {
+      for (KeyValueScanner scanner : scanners) {
+        scanner.seek(kv);
+      }
+    }
+  }
+
   private void resetScannerStack(KeyValue lastTopKey) throws IOException {
     if (heap != null) {
       throw new RuntimeException("StoreScanner.reseek run on an existing heap!");
@@ -518,9 +570,7 @@ class StoreScanner extends NonLazyKeyValueScanner
      * could have done it now by storing the scan object from the constructor */
     List<KeyValueScanner> scanners = getScannersNoCompaction();
 
-    for(KeyValueScanner scanner : scanners) {
-      scanner.seek(lastTopKey);
-    }
+    seekScanners(scanners, lastTopKey);
 
     // Combine all seeked scanners with a heap
     heap = new KeyValueHeap(scanners, store.comparator);
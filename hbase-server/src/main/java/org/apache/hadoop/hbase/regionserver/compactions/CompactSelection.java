@@ -62,6 +62,8 @@ public class CompactSelection {
   private int offPeakStartHour = -1;
   // off peak end time
   private int offPeakEndHour = -1;
+  // largest compaction allowed to run during peak hours
+  private long maxCompactSizePeak;
 
   public CompactSelection(Configuration conf, List<StoreFile> filesToCompact) {
     this.filesToCompact = filesToCompact;
@@ -72,6 +74,8 @@ public class CompactSelection {
     // Peak time is from [offPeakStartHour, offPeakEndHour). Valid numbers are [0, 23]
     this.offPeakStartHour = conf.getInt("hbase.offpeak.start.hour", -1);
     this.offPeakEndHour = conf.getInt("hbase.offpeak.end.hour", -1);
+    this.maxCompactSizePeak = conf.getLong("hbase.hstore.compaction.max.size.peak",
+        Long.MAX_VALUE);
     if (!isValidHour(this.offPeakStartHour) || !isValidHour(this.offPeakEndHour)) {
       if (!(this.offPeakStartHour == -1 && this.offPeakEndHour == -1)) {
         LOG.warn("Invalid start/end hour for peak hour : start = " +
@@ -185,7 +189,26 @@ public class CompactSelection {
     return this.isOffPeakCompaction;
   }
 
-  private boolean isOffPeakHour() {
+  /**
+   * Compactions bigger than hbase.hstore.compaction.max.size.peak are held
+   * back while we are outside of the configured off peak window; the periodic
+   * compaction checker will pick them up again once the window opens.
+   *
+   * @param compactionSize total size of the selected files
+   * @return true if this compaction should wait for the off peak window
+   */
+  public boolean shouldDeferToOffPeak(long compactionSize) {
+    if (this.offPeakStartHour == this.offPeakEndHour) {
+      return false;
+    }
+    return compactionSize > this.maxCompactSizePeak && !isOffPeakHour();
+  }
+
+  /**
+   * @return true if the current hour falls within the configured off peak
+   * window
+   */
+  public boolean isOffPeakHour() {
     int currentHour = (new GregorianCalendar()).get(Calendar.HOUR_OF_DAY);
     // If offpeak time checking is disabled just return false.
     if (this.offPeakStartHour == this.offPeakEndHour) {
@@ -255,8 +255,17 @@ public class CompactionRequest implements Comparable<CompactionRequest>,
               this + "; duration=" + StringUtils.formatTimeDiff(now, start));
         if (completed) {
           server.getMetrics().addCompaction(now - start, this.totalSize);
+          if (!r.hasReferences()) {
+            long referenceLifetime = r.referencesEliminated();
+            if (referenceLifetime >= 0) {
+              server.getMetrics().addReferenceLifetime(referenceLifetime);
+            }
+          }
           // degenerate case: blocked regions require recursive enqueues
-          if (s.getCompactPriority() <= 0) {
+          if (s.hasReferences()) {
+            server.compactSplitThread
+              .requestReferenceCompaction(r, s, "Remaining references");
+          } else if (s.getCompactPriority() <= 0) {
             server.compactSplitThread
               .requestCompaction(r, s, "Recursive enqueue");
           } else {
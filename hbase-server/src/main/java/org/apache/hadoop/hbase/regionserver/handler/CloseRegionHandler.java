@@ -24,6 +24,7 @@ import java.io.IOException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.Server;
 import org.apache.hadoop.hbase.ServerName;
@@ -61,6 +62,9 @@ public class CloseRegionHandler extends EventHandler {
   // close -- not the master process so state up in zk will unlikely be
   // CLOSING.
   private final boolean zk;
+  // If false, the CLOSED transition is reported to the master over RPC
+  // instead of being set in zk.
+  private final boolean useZKForAssignment;
   private ServerName destination;
 
   // This is executed after receiving an CLOSE RPC from the master.
@@ -112,6 +116,8 @@ public class CloseRegionHandler extends EventHandler {
     this.zk = zk;
     this.expectedVersion = versionOfClosingNode;
     this.destination = destination;
+    this.useZKForAssignment = server.getConfiguration().getBoolean(
+      HConstants.ASSIGNMENT_USE_ZK_KEY, HConstants.DEFAULT_ASSIGNMENT_USE_ZK);
   }
 
   public HRegionInfo getRegionInfo() {
@@ -155,7 +161,13 @@ public class CloseRegionHandler extends EventHandler {
 
       this.rsServices.removeFromOnlineRegions(regionInfo.getEncodedName(), destination);
 
-      if (this.zk) {
+      if (this.zk && !this.useZKForAssignment) {
+        if (!this.rsServices.reportRegionTransition(EventType.RS_ZK_REGION_CLOSED,
+            regionInfo)) {
+          LOG.debug("master refused region closed state for region " +
+            name + " sn name: " + this.server.getServerName());
+        }
+      } else if (this.zk) {
         if (setClosedState(this.expectedVersion, region)) {
           LOG.debug("set region closed state in zk successfully for region " +
             name + " sn name: " + this.server.getServerName());
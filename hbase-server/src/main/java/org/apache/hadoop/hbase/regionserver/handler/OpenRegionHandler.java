@@ -25,6 +25,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.Server;
@@ -34,6 +35,8 @@ import org.apache.hadoop.hbase.regionserver.RegionServerAccounting;
 import org.apache.hadoop.hbase.regionserver.RegionServerServices;
 import org.apache.hadoop.hbase.util.CancelableProgressable;
 import org.apache.hadoop.hbase.zookeeper.ZKAssign;
+import org.apache.hadoop.hbase.zookeeper.ZKSplitLog;
+import org.apache.hadoop.hbase.zookeeper.ZKUtil;
 import org.apache.zookeeper.KeeperException;
 
 /**
@@ -57,6 +60,10 @@ public class OpenRegionHandler extends EventHandler {
   //version of the offline node that was set by the master
   private volatile int versionOfOfflineNode = -1;
 
+  // If false there are no znodes; transitions are reported to the master over
+  // RPC and version is only used to remember whether the master refused one.
+  private final boolean useZKForAssignment;
+
   public OpenRegionHandler(final Server server,
       final RegionServerServices rsServices, HRegionInfo regionInfo,
       HTableDescriptor htd) {
@@ -78,6 +85,8 @@ public class OpenRegionHandler extends EventHandler {
     this.regionInfo = regionInfo;
     this.htd = htd;
     this.versionOfOfflineNode = versionOfOfflineNode;
+    this.useZKForAssignment = server.getConfiguration().getBoolean(
+      HConstants.ASSIGNMENT_USE_ZK_KEY, HConstants.DEFAULT_ASSIGNMENT_USE_ZK);
   }
 
   public HRegionInfo getRegionInfo() {
@@ -112,6 +121,7 @@ public class OpenRegionHandler extends EventHandler {
         tryTransitionToFailedOpen(regionInfo);
         return;
       }
+      checkRecovering(region);
       boolean failed = true;
       if (tickleOpening("post_region_open")) {
         if (updateMeta(region)) {
@@ -137,6 +147,8 @@ public class OpenRegionHandler extends EventHandler {
       }
       // Successful region open, and add it to OnlineRegions
       this.rsServices.addToOnlineRegions(region);
+      // The mark may have gone before we were online to be told about it
+      if (region.isRecovering()) checkRecovering(region);
 
       // Done!  Successful region open
       LOG.debug("Opened " + name + " on server:" +
@@ -147,6 +159,33 @@ public class OpenRegionHandler extends EventHandler {
     }
   }
 
+  /**
+   * When replaying logs, sets the region recovering if the master marked it so,
+   * leaving a watch for {@link org.apache.hadoop.hbase.regionserver.RecoveringRegionWatcher}
+   * to clear it once the mark is removed.
+   * @param r
+   */
+  private void checkRecovering(final HRegion r) {
+    if (!this.server.getConfiguration().getBoolean(
+        HConstants.DISTRIBUTED_LOG_REPLAY_KEY, HConstants.DEFAULT_DISTRIBUTED_LOG_REPLAY) ||
+        r.getRegionInfo().isMetaTable()) {
+      return;
+    }
+    String node = ZKSplitLog.getRecoveringRegionNode(this.server.getZooKeeper(),
+      r.getRegionInfo().getEncodedName());
+    try {
+      r.setRecovering(ZKUtil.watchAndCheckExists(this.server.getZooKeeper(), node));
+    } catch (KeeperException e) {
+      // Err on the side of refusing reads; the watch fires when the mark goes
+      LOG.warn("Failed checking whether " + r.getRegionNameAsString() +
+        " is recovering, assuming it is", e);
+      r.setRecovering(true);
+    }
+    if (r.isRecovering()) {
+      LOG.info("Region " + r.getRegionNameAsString() + " is recovering");
+    }
+  }
+
   /**
    * Update ZK, ROOT or META.  This can take a while if for example the
    * .META. is not available -- if server hosting .META. crashed and we are
@@ -273,6 +312,15 @@ public class OpenRegionHandler extends EventHandler {
     boolean result = false;
     HRegionInfo hri = r.getRegionInfo();
     final String name = hri.getRegionNameAsString();
+    if (!this.useZKForAssignment) {
+      result = this.rsServices.reportRegionTransition(EventType.RS_ZK_REGION_OPENED, hri);
+      if (!result) {
+        LOG.warn("Completed the OPEN of region " + name + " but the master " +
+          "refused the OPENED transition -- closing region on server: " +
+          this.server.getServerName());
+      }
+      return result;
+    }
     // Finally, Transition ZK node to OPENED
     try {
       if (ZKAssign.transitionNodeOpened(this.server.getZooKeeper(), hri,
@@ -302,6 +350,10 @@ public class OpenRegionHandler extends EventHandler {
   private boolean tryTransitionToFailedOpen(final HRegionInfo hri) {
     boolean result = false;
     final String name = hri.getRegionNameAsString();
+    if (!this.useZKForAssignment) {
+      LOG.info("Opening of region " + hri + " failed, reporting FAILED_OPEN to the master");
+      return this.rsServices.reportRegionTransition(EventType.RS_ZK_REGION_FAILED_OPEN, hri);
+    }
     try {
       LOG.info("Opening of region " + hri + " failed, marking as FAILED_OPEN in ZK");
       if (ZKAssign.transitionNode(
@@ -376,6 +428,11 @@ public class OpenRegionHandler extends EventHandler {
   boolean transitionZookeeperOfflineToOpening(final String encodedName,
       int versionOfOfflineNode) {
     // TODO: should also handle transition from CLOSED?
+    if (!this.useZKForAssignment) {
+      this.version = this.rsServices.reportRegionTransition(
+        EventType.RS_ZK_REGION_OPENING, regionInfo) ? 0 : -1;
+      return isGoodVersion();
+    }
     try {
       // Initialize the znode version.
       this.version = ZKAssign.transitionNode(server.getZooKeeper(), regionInfo,
@@ -403,6 +460,16 @@ public class OpenRegionHandler extends EventHandler {
     // If previous checks failed... do not try again.
     if (!isGoodVersion()) return false;
     String encodedName = this.regionInfo.getEncodedName();
+    if (!this.useZKForAssignment) {
+      // Re-reporting OPENING refreshes the master's timestamp for the region
+      if (!this.rsServices.reportRegionTransition(EventType.RS_ZK_REGION_OPENING,
+          this.regionInfo)) {
+        LOG.warn("Master refused OPENING; region=" + encodedName +
+          ", context=" + context);
+        this.version = -1;
+      }
+      return isGoodVersion();
+    }
     try {
       this.version =
         ZKAssign.retransitionNodeOpening(server.getZooKeeper(),
@@ -47,6 +47,8 @@ public class OperationMetrics {
   private static final String INCREMENT_KEY = "increment_";
   private static final String MULTIPUT_KEY = "multiput_";
   private static final String APPEND_KEY = "append_";
+  private static final String ROWLOCK_WAIT_KEY = "rowLockWait_";
+  private static final String ROWLOCK_TIMEOUT_KEY = "rowLockTimeout_";
   
   /** Conf key controlling whether we should expose metrics.*/
   private static final String CONF_KEY =
@@ -172,6 +174,24 @@ public class OperationMetrics {
     doUpdateTimeVarying(columnFamilies, DELETE_KEY, value);
   }
   
+  /**
+   * Update the time spent waiting for a row lock held by someone else.  Only
+   * kept per region since row locks are not per column family.
+   * @param value the time
+   */
+  public void updateRowLockWaitMetrics(long value) {
+    doSafeIncTimeVarying(this.regionMetrixPrefix, ROWLOCK_WAIT_KEY, value);
+  }
+
+  /**
+   * Update the time spent waiting for a row lock before giving up.  Only kept
+   * per region since row locks are not per column family.
+   * @param value the time
+   */
+  public void updateRowLockTimeoutMetrics(long value) {
+    doSafeIncTimeVarying(this.regionMetrixPrefix, ROWLOCK_TIMEOUT_KEY, value);
+  }
+
   /**
    * This deletes all old metrics this instance has ever created or updated.
    */
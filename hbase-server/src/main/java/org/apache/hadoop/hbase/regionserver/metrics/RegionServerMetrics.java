@@ -292,6 +292,12 @@ public class RegionServerMetrics implements Updater {
   protected final PersistentMetricsTimeVaryingRate compactionSize =
     new PersistentMetricsTimeVaryingRate("compactionSize", registry);
 
+  /**
+   * time split daughters spend reading through reference files
+   */
+  protected final PersistentMetricsTimeVaryingRate referenceLifetime =
+    new PersistentMetricsTimeVaryingRate("referenceLifetime", registry);
+
   /**
    * time each scheduled flush takes
    */
@@ -366,6 +372,7 @@ public class RegionServerMetrics implements Updater {
         this.lastExtUpdate = this.lastUpdate;
         this.compactionTime.resetMinMaxAvg();
         this.compactionSize.resetMinMaxAvg();
+        this.referenceLifetime.resetMinMaxAvg();
         this.flushTime.resetMinMaxAvg();
         this.flushSize.resetMinMaxAvg();
         this.resetAllMinMax();
@@ -456,6 +463,7 @@ public class RegionServerMetrics implements Updater {
       this.fsSyncLatency.pushMetric(this.metricsRecord);
       this.compactionTime.pushMetric(this.metricsRecord);
       this.compactionSize.pushMetric(this.metricsRecord);
+      this.referenceLifetime.pushMetric(this.metricsRecord);
       this.flushTime.pushMetric(this.metricsRecord);
       this.flushSize.pushMetric(this.metricsRecord);
       this.slowHLogAppendCount.pushMetric(this.metricsRecord);
@@ -503,6 +511,14 @@ public class RegionServerMetrics implements Updater {
     this.compactionSize.inc(size);
   }
 
+  /**
+   * @param time how long a region read through reference files before
+   * compactions rewrote them all
+   */
+  public synchronized void addReferenceLifetime(long time) {
+    this.referenceLifetime.inc(time);
+  }
+
   /**
    * @param flushes history in <time, size>
    */
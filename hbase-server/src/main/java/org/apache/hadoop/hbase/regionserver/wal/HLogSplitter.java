@@ -68,6 +68,7 @@ import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.FSUtils;
 import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.hbase.zookeeper.ZKSplitLog;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
 import org.apache.hadoop.io.MultipleIOException;
 
 import com.google.common.base.Preconditions;
@@ -121,6 +122,9 @@ public class HLogSplitter {
   // Used in distributed log splitting
   private DistributedLogSplittingHelper distributedLogSplittingHelper = null;
 
+  // Replays the edits of recovering regions; null unless replaying
+  private LogReplayer logReplayer = null;
+
 
   /**
    * Create a new HLogSplitter using the given {@link Configuration} and the
@@ -365,7 +369,24 @@ public class HLogSplitter {
   static public boolean splitLogFileToTemp(Path rootDir, String tmpname,
       FileStatus logfile, FileSystem fs,
       Configuration conf, CancelableProgressable reporter) throws IOException {
+    return splitLogFileToTemp(rootDir, tmpname, logfile, fs, conf, reporter, null);
+  }
+
+  /**
+   * Like {@link #splitLogFileToTemp(Path, String, FileStatus, FileSystem,
+   * Configuration, CancelableProgressable)} but the edits of regions the
+   * master marked recovering are replayed into them instead of being written
+   * out to recovered.edits.
+   * @param watcher used to check which regions are recovering; if null,
+   * nothing is replayed
+   */
+  static public boolean splitLogFileToTemp(Path rootDir, String tmpname,
+      FileStatus logfile, FileSystem fs, Configuration conf,
+      CancelableProgressable reporter, ZooKeeperWatcher watcher) throws IOException {
     HLogSplitter s = new HLogSplitter(conf, rootDir, null, null /* oldLogDir */, fs);
+    if (watcher != null) {
+      s.logReplayer = new LogReplayer(conf, watcher);
+    }
     return s.splitLogFileToTemp(logfile, tmpname, reporter);
   }
 
@@ -412,7 +433,9 @@ public class HLogSplitter {
     Entry entry;
     try {
       while ((entry = getNextLogLine(in,logPath, skipErrors)) != null) {
-        entryBuffers.appendEntry(entry);
+        if (logReplayer == null || !logReplayer.append(entry)) {
+          entryBuffers.appendEntry(entry);
+        }
         editsCount++;
         // If sufficient edits have passed, check if we should report progress.
         if (editsCount % interval == 0
@@ -425,6 +448,9 @@ public class HLogSplitter {
           }
         }
       }
+      if (logReplayer != null) {
+        logReplayer.finish();
+      }
     } catch (InterruptedException ie) {
       IOException iie = new InterruptedIOException();
       iie.initCause(ie);
@@ -439,8 +465,13 @@ public class HLogSplitter {
     } finally {
       LOG.info("Finishing writing output logs and closing down.");
       progress_failed = outputSink.finishWritingAndClose() == null;
+      if (logReplayer != null) {
+        logReplayer.close();
+      }
       String msg = "Processed " + editsCount + " edits across "
-          + outputSink.getOutputCounts().size() + " regions; log file="
+          + outputSink.getOutputCounts().size() + " regions"
+          + (logReplayer == null ? "" : ", replayed " + logReplayer.getEditsReplayed())
+          + "; log file="
           + logPath + " is corrupted = " + isCorrupted + " progress failed = "
           + progress_failed;
       ;
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.wal.HLog.Entry;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.zookeeper.ZKSplitLog;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * Replays the edits of a log being split straight into the regions they were
+ * for, when the master has marked those regions recovering, instead of
+ * writing them out to recovered.edits.
+ * <p>
+ * The edits are sent as batches of at most
+ * <code>hbase.regionserver.wal.logreplay.batch.size</code> puts and deletes
+ * per table through the client, which finds the region's new server and
+ * follows it should it move or split meanwhile.  Replaying is idempotent: the
+ * edits keep their timestamps, so a task that failed half way can be replayed
+ * again from the start.  Each mutation carries the sequence id of its log
+ * entry, so that the region drops the edits it had already flushed, see
+ * {@link HRegion#REPLAY_SEQID_ATTRIBUTE}.
+ */
+@InterfaceAudience.Private
+class LogReplayer {
+  private static final Log LOG = LogFactory.getLog(LogReplayer.class);
+
+  private final Configuration conf;
+  private final ZooKeeperWatcher watcher;
+  private final int batchSize;
+
+  /** Whether each region (by encoded name) seen so far is recovering */
+  private final Map<String, Boolean> recovering = new HashMap<String, Boolean>();
+  private final Map<byte[], List<Row>> pending =
+    new TreeMap<byte[], List<Row>>(Bytes.BYTES_COMPARATOR);
+  private final Map<byte[], HTable> tables =
+    new TreeMap<byte[], HTable>(Bytes.BYTES_COMPARATOR);
+  private long editsReplayed = 0;
+
+  LogReplayer(final Configuration conf, final ZooKeeperWatcher watcher) {
+    this.conf = conf;
+    this.watcher = watcher;
+    this.batchSize = Math.max(1,
+      conf.getInt("hbase.regionserver.wal.logreplay.batch.size", 512));
+  }
+
+  /**
+   * Queues the edits of <code>entry</code> for replay if its region is
+   * recovering, sending the queued edits of its table once there are enough.
+   * @param entry
+   * @return false if the region is not recovering and the entry should be
+   * split out to recovered.edits as usual
+   * @throws IOException
+   */
+  boolean append(final Entry entry) throws IOException {
+    byte [] tableName = entry.getKey().getTablename();
+    if (HTableDescriptor.isMetaTable(tableName)) return false;
+    if (!isRecovering(Bytes.toString(entry.getKey().getEncodedRegionName()))) {
+      return false;
+    }
+    List<Row> mutations = this.pending.get(tableName);
+    if (mutations == null) {
+      mutations = new ArrayList<Row>();
+      this.pending.put(tableName, mutations);
+    }
+    // Lets the region skip what it had flushed before the server died
+    byte [] seqId = Bytes.toBytes(entry.getKey().getLogSeqNum());
+    Mutation m = null;
+    for (KeyValue kv : entry.getEdit().getKeyValues()) {
+      if (HLog.isMetaFamily(kv.getFamily())) continue;
+      boolean delete = kv.isDelete();
+      if (m == null || !Bytes.equals(m.getRow(), kv.getRow()) ||
+          (m instanceof Delete) != delete) {
+        m = delete ? new Delete(kv.getRow()) : new Put(kv.getRow());
+        m.setAttribute(HRegion.REPLAY_SEQID_ATTRIBUTE, seqId);
+        mutations.add(m);
+      }
+      if (delete) {
+        ((Delete)m).addDeleteMarker(kv);
+      } else {
+        ((Put)m).add(kv);
+      }
+    }
+    if (mutations.size() >= this.batchSize) {
+      flush(tableName, mutations);
+    }
+    return true;
+  }
+
+  /**
+   * Sends all the queued edits, returning once they are applied.
+   * @throws IOException
+   */
+  void finish() throws IOException {
+    for (Map.Entry<byte[], List<Row>> e : this.pending.entrySet()) {
+      flush(e.getKey(), e.getValue());
+    }
+    if (this.editsReplayed > 0) {
+      LOG.info("Replayed " + this.editsReplayed + " edits into " +
+        this.tables.size() + " table(s)");
+    }
+  }
+
+  void close() {
+    for (HTable table : this.tables.values()) {
+      try {
+        table.close();
+      } catch (IOException ioe) {
+        LOG.warn("Failed closing table used for log replay", ioe);
+      }
+    }
+    this.tables.clear();
+  }
+
+  /**
+   * @return the number of edits (puts and deletes) replayed so far
+   */
+  long getEditsReplayed() {
+    return this.editsReplayed;
+  }
+
+  private void flush(final byte [] tableName, final List<Row> mutations)
+  throws IOException {
+    if (mutations.isEmpty()) return;
+    HTable table = this.tables.get(tableName);
+    if (table == null) {
+      table = new HTable(this.conf, tableName);
+      this.tables.put(tableName, table);
+    }
+    try {
+      table.batch(mutations);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException iioe = new InterruptedIOException(
+        "Interrupted replaying edits into " + Bytes.toString(tableName));
+      iioe.initCause(ie);
+      throw iioe;
+    }
+    this.editsReplayed += mutations.size();
+    mutations.clear();
+  }
+
+  private boolean isRecovering(final String encodedRegionName) throws IOException {
+    Boolean result = this.recovering.get(encodedRegionName);
+    if (result == null) {
+      try {
+        result = ZKSplitLog.isRegionRecovering(this.watcher, encodedRegionName);
+      } catch (KeeperException e) {
+        throw new IOException("Failed checking whether " + encodedRegionName +
+          " is recovering", e);
+      }
+      this.recovering.put(encodedRegionName, result);
+    }
+    return result;
+  }
+}
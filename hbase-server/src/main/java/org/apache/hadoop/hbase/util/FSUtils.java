@@ -25,6 +25,8 @@ import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -51,6 +53,7 @@ import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HDFSBlocksDistribution;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.RemoteExceptionHandler;
+import org.apache.hadoop.hbase.fs.HFileSystem;
 import org.apache.hadoop.hbase.master.HMaster;
 import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
 import org.apache.hadoop.hbase.protobuf.generated.FSProtos;
@@ -58,6 +61,7 @@ import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.StringUtils;
 
@@ -167,6 +171,47 @@ public abstract class FSUtils {
         fs.getDefaultReplication(), fs.getDefaultBlockSize(), null);
   }
 
+  /**
+   * Create the specified file on the filesystem like
+   * {@link #create(FileSystem, Path, FsPermission)}, asking HDFS to put the
+   * replicas of its blocks on the passed datanodes.  Falls back to a plain
+   * create if the filesystem is not HDFS or its version does not take
+   * favored nodes.  An {@link HFileSystem} is looked through to the HDFS
+   * underneath it.
+   *
+   * @param fs {@link FileSystem} on which to write the file
+   * @param path {@link Path} to the file to write
+   * @param perm
+   * @param favoredNodes datanodes to write the blocks to, or null
+   * @return output stream to the created file
+   * @throws IOException if the file cannot be created
+   */
+  public static FSDataOutputStream create(FileSystem fs, Path path,
+      FsPermission perm, InetSocketAddress[] favoredNodes) throws IOException {
+    FileSystem backingFs = fs instanceof HFileSystem ? ((HFileSystem) fs).getBackingFs() : fs;
+    if (favoredNodes != null && backingFs instanceof DistributedFileSystem) {
+      try {
+        return (FSDataOutputStream) (DistributedFileSystem.class.getMethod("create",
+          Path.class, FsPermission.class, boolean.class, int.class, short.class,
+          long.class, Progressable.class, InetSocketAddress[].class).invoke(backingFs,
+            path, perm, true, backingFs.getConf().getInt("io.file.buffer.size", 4096),
+            backingFs.getDefaultReplication(), backingFs.getDefaultBlockSize(), null,
+            favoredNodes));
+      } catch (InvocationTargetException ite) {
+        // The create itself failed
+        throw ite.getCause() instanceof IOException ?
+          (IOException)ite.getCause() : new IOException(ite.getCause());
+      } catch (NoSuchMethodException e) {
+        LOG.debug("DFS does not take favored nodes; creating " + path +
+          " without them");
+      } catch (IllegalAccessException e) {
+        LOG.debug("DFS does not take favored nodes; creating " + path +
+          " without them", e);
+      }
+    }
+    return create(fs, path, perm, true);
+  }
+
   /**
    * Get the file permissions specified in the configuration, if they are
    * enabled.
@@ -22,7 +22,12 @@ package org.apache.hadoop.hbase.zookeeper;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,11 +39,16 @@ import org.apache.hadoop.hbase.util.RetryCounterFactory;
 import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.ZooKeeper.States;
 import org.apache.zookeeper.data.ACL;
 import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.proto.CreateRequest;
+import org.apache.zookeeper.proto.SetDataRequest;
 
 /**
  * A zookeeper that can handle 'recoverable' errors.
@@ -70,6 +80,7 @@ public class RecoverableZooKeeper {
   // the actual ZooKeeper client instance
   private ZooKeeper zk;
   private final RetryCounterFactory retryCounterFactory;
+  private final int retryIntervalMillis;
   // An identifier of this process in the cluster
   private final String identifier;
   private final byte[] id;
@@ -96,6 +107,7 @@ public class RecoverableZooKeeper {
     this.zk = new ZooKeeper(quorumServers, sessionTimeout, watcher);
     this.retryCounterFactory =
       new RetryCounterFactory(maxRetries, retryIntervalMillis);
+    this.retryIntervalMillis = retryIntervalMillis;
 
     // the identifier = processID@hostName
     this.identifier = ManagementFactory.getRuntimeMXBean().getName();
@@ -213,6 +225,49 @@ public class RecoverableZooKeeper {
     }
   }
 
+  /**
+   * Schedules <code>retry</code> of an asynchronous operation after the same
+   * back off the synchronous operations sleep.  The ZooKeeper event thread
+   * runs the callbacks, so it must not sleep itself.
+   */
+  private void scheduleRetry(RetryCounter retryCounter, KeeperException.Code code,
+      String opName, Runnable retry) {
+    long sleepTime = (long) (this.retryIntervalMillis *
+      Math.pow(2, retryCounter.getAttemptTimes()));
+    LOG.warn("Possibly transient ZooKeeper error " + code + " on async " +
+      opName + ", retry #" + retryCounter.getAttemptTimes() + " in " +
+      sleepTime + "ms");
+    retryCounter.useRetry();
+    getRetryExecutor().schedule(retry, sleepTime, TimeUnit.MILLISECONDS);
+  }
+
+  private static ScheduledExecutorService retryExecutor;
+
+  private static synchronized ScheduledExecutorService getRetryExecutor() {
+    if (retryExecutor == null) {
+      retryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "RecoverableZooKeeper-retry");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return retryExecutor;
+  }
+
+  private static boolean isRetryable(KeeperException.Code code) {
+    switch (code) {
+      case CONNECTIONLOSS:
+      case SESSIONEXPIRED:
+      case OPERATIONTIMEOUT:
+        return true;
+      default:
+        return false;
+    }
+  }
+
   private void retryOrThrow(RetryCounter retryCounter, KeeperException e,
       String opName) throws KeeperException {
     LOG.warn("Possibly transient ZooKeeper exception: " + e);
@@ -514,6 +569,204 @@ public class RecoverableZooKeeper {
     return null;
   }
   
+  /**
+   * Run multiple operations in a transactional manner.  Retry before throwing
+   * exception.  The data of create and setData ops gets the same identifier
+   * as {@link #create} and {@link #setData} add.
+   * <p>
+   * Unlike the single operations, a retry cannot tell whether an attempt that
+   * lost the connection went through, so the error of the retry (say
+   * NODEEXISTS or BADVERSION) is thrown back to the caller.
+   * @return the results of the ops, in order
+   */
+  public List<OpResult> multi(Iterable<Op> ops)
+  throws KeeperException, InterruptedException {
+    RetryCounter retryCounter = retryCounterFactory.create();
+    Iterable<Op> multiOps = prepareZKMulti(ops);
+    while (true) {
+      try {
+        return zk.multi(multiOps);
+      } catch (KeeperException e) {
+        switch (e.code()) {
+          case CONNECTIONLOSS:
+          case SESSIONEXPIRED:
+          case OPERATIONTIMEOUT:
+            retryOrThrow(retryCounter, e, "multi");
+            break;
+
+          default:
+            throw e;
+        }
+      }
+      retryCounter.sleepUntilNextRetry();
+      retryCounter.useRetry();
+    }
+  }
+
+  /**
+   * Adds the identifier to the data of the create and setData ops.
+   */
+  private Iterable<Op> prepareZKMulti(Iterable<Op> ops) {
+    List<Op> preparedOps = new LinkedList<Op>();
+    for (Op op : ops) {
+      if (op.getType() == ZooDefs.OpCode.create) {
+        CreateRequest create = (CreateRequest)op.toRequestRecord();
+        preparedOps.add(Op.create(create.getPath(), appendMetaData(create.getData()),
+          create.getAcl(), create.getFlags()));
+      } else if (op.getType() == ZooDefs.OpCode.setData) {
+        SetDataRequest setData = (SetDataRequest)op.toRequestRecord();
+        preparedOps.add(Op.setData(setData.getPath(), appendMetaData(setData.getData()),
+          setData.getVersion()));
+      } else {
+        // delete and check have no data
+        preparedOps.add(op);
+      }
+    }
+    return preparedOps;
+  }
+
+  /**
+   * Asynchronous create of a persistent or ephemeral node.  Connection loss
+   * and the like are retried, with back off, before <code>cb</code> hears of
+   * them.  As with {@link #create}, a NODEEXISTS on a retry is success when
+   * the node has our data, since the earlier attempt went through.
+   */
+  public void asyncCreate(final String path, final byte[] data,
+      final List<ACL> acl, final CreateMode createMode,
+      final AsyncCallback.StringCallback cb, final Object ctx) {
+    if (createMode.isSequential()) {
+      throw new IllegalArgumentException("Async create of sequential nodes " +
+        "can not be retried: " + createMode);
+    }
+    final byte[] newData = appendMetaData(data);
+    final RetryCounter retryCounter = retryCounterFactory.create();
+    AsyncCallback.StringCallback retrying = new AsyncCallback.StringCallback() {
+      private boolean isRetry = false;
+
+      @Override
+      public void processResult(final int rc, String p, Object c, final String name) {
+        KeeperException.Code code = KeeperException.Code.get(rc);
+        if (code == KeeperException.Code.NODEEXISTS && isRetry) {
+          zk.getData(path, false, new AsyncCallback.DataCallback() {
+            @Override
+            public void processResult(int rc2, String p2, Object c2,
+                byte[] currentData, Stat stat) {
+              if (rc2 == KeeperException.Code.OK.intValue() &&
+                  Bytes.equals(currentData, newData)) {
+                cb.processResult(KeeperException.Code.OK.intValue(), path, ctx, path);
+              } else {
+                LOG.error("Node " + path + " already exists with other data");
+                cb.processResult(rc, path, ctx, name);
+              }
+            }
+          }, null);
+          return;
+        }
+        if (isRetryable(code) && retryCounter.shouldRetry()) {
+          isRetry = true;
+          final AsyncCallback.StringCallback self = this;
+          scheduleRetry(retryCounter, code, "create", new Runnable() {
+            @Override
+            public void run() {
+              zk.create(path, newData, acl, createMode, self, ctx);
+            }
+          });
+          return;
+        }
+        cb.processResult(rc, path, ctx, name);
+      }
+    };
+    zk.create(path, newData, acl, createMode, retrying, ctx);
+  }
+
+  /**
+   * Asynchronous delete, retrying as {@link #asyncCreate} does.  As with
+   * {@link #delete}, a NONODE on a retry is success.
+   */
+  public void asyncDelete(final String path, final int version,
+      final AsyncCallback.VoidCallback cb, final Object ctx) {
+    final RetryCounter retryCounter = retryCounterFactory.create();
+    AsyncCallback.VoidCallback retrying = new AsyncCallback.VoidCallback() {
+      private boolean isRetry = false;
+
+      @Override
+      public void processResult(int rc, String p, Object c) {
+        KeeperException.Code code = KeeperException.Code.get(rc);
+        if (code == KeeperException.Code.NONODE && isRetry) {
+          LOG.info("Node " + path + " already deleted. Assuming that a " +
+            "previous attempt succeeded.");
+          rc = KeeperException.Code.OK.intValue();
+        } else if (isRetryable(code) && retryCounter.shouldRetry()) {
+          isRetry = true;
+          final AsyncCallback.VoidCallback self = this;
+          scheduleRetry(retryCounter, code, "delete", new Runnable() {
+            @Override
+            public void run() {
+              zk.delete(path, version, self, ctx);
+            }
+          });
+          return;
+        }
+        cb.processResult(rc, path, ctx);
+      }
+    };
+    zk.delete(path, version, retrying, ctx);
+  }
+
+  /**
+   * Asynchronous getData, retrying as {@link #asyncCreate} does.  The data
+   * passed to <code>cb</code> has had the identifier removed.
+   */
+  public void asyncGetData(final String path, final Watcher watcher,
+      final AsyncCallback.DataCallback cb, final Object ctx) {
+    final RetryCounter retryCounter = retryCounterFactory.create();
+    AsyncCallback.DataCallback retrying = new AsyncCallback.DataCallback() {
+      @Override
+      public void processResult(int rc, String p, Object c, byte[] data,
+          Stat stat) {
+        KeeperException.Code code = KeeperException.Code.get(rc);
+        if (isRetryable(code) && retryCounter.shouldRetry()) {
+          final AsyncCallback.DataCallback self = this;
+          scheduleRetry(retryCounter, code, "getData", new Runnable() {
+            @Override
+            public void run() {
+              zk.getData(path, watcher, self, ctx);
+            }
+          });
+          return;
+        }
+        cb.processResult(rc, path, ctx, removeMetaData(data), stat);
+      }
+    };
+    zk.getData(path, watcher, retrying, ctx);
+  }
+
+  /**
+   * Asynchronous exists, retrying as {@link #asyncCreate} does.
+   */
+  public void asyncExists(final String path, final Watcher watcher,
+      final AsyncCallback.StatCallback cb, final Object ctx) {
+    final RetryCounter retryCounter = retryCounterFactory.create();
+    AsyncCallback.StatCallback retrying = new AsyncCallback.StatCallback() {
+      @Override
+      public void processResult(int rc, String p, Object c, Stat stat) {
+        KeeperException.Code code = KeeperException.Code.get(rc);
+        if (isRetryable(code) && retryCounter.shouldRetry()) {
+          final AsyncCallback.StatCallback self = this;
+          scheduleRetry(retryCounter, code, "exists", new Runnable() {
+            @Override
+            public void run() {
+              zk.exists(path, watcher, self, ctx);
+            }
+          });
+          return;
+        }
+        cb.processResult(rc, path, ctx, stat);
+      }
+    };
+    zk.exists(path, watcher, retrying, ctx);
+  }
+
   public byte[] removeMetaData(byte[] data) {
     if(data == null || data.length == 0) {
       return data;
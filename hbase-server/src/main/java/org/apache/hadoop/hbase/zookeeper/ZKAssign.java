@@ -19,7 +19,10 @@
  */
 package org.apache.hadoop.hbase.zookeeper;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -529,7 +532,10 @@ public class ZKAssign {
    * <p>No watchers are set.
    *
    * <p>This method is used by the Master during cluster startup to clear out
-   * any existing state from other cluster runs.
+   * any existing state from other cluster runs.  Unassigned nodes have no
+   * children, so they are deleted in batches of
+   * <code>hbase.assignment.zk.delete.batch.size</code> per multi if
+   * <code>hbase.zookeeper.useMulti</code> is set.
    *
    * @param zkw zk reference
    * @throws KeeperException if unexpected zookeeper exception
@@ -537,7 +543,19 @@ public class ZKAssign {
   public static void deleteAllNodes(ZooKeeperWatcher zkw)
   throws KeeperException {
     LOG.debug(zkw.prefix("Deleting any existing unassigned nodes"));
-    ZKUtil.deleteChildrenRecursively(zkw, zkw.assignmentZNode);
+    List<String> nodes = ZKUtil.listChildrenNoWatch(zkw, zkw.assignmentZNode);
+    if (nodes == null || nodes.isEmpty()) return;
+    int batchSize = Math.max(1,
+      zkw.getConfiguration().getInt("hbase.assignment.zk.delete.batch.size", 1000));
+    List<ZKUtil.ZKUtilOp> ops = new ArrayList<ZKUtil.ZKUtilOp>(batchSize);
+    for (String node : nodes) {
+      ops.add(ZKUtil.ZKUtilOp.deleteNodeFailSilent(getNodeName(zkw, node)));
+      if (ops.size() >= batchSize) {
+        ZKUtil.multiOrSequential(zkw, ops, true);
+        ops.clear();
+      }
+    }
+    ZKUtil.multiOrSequential(zkw, ops, true);
   }
 
   // RegionServer methods
@@ -575,6 +593,40 @@ public class ZKAssign {
     return ZKUtil.createAndWatch(zkw, node, rt.toByteArray());
   }
 
+  /**
+   * Creates new unassigned nodes in the CLOSING state for the specified
+   * regions, the way {@link #createNodeClosing(ZooKeeperWatcher, HRegionInfo,
+   * ServerName)} does one, with all the creates sent before waiting on any.
+   *
+   * <p>Sets a watch on each node created.
+   *
+   * @param zkw zk reference
+   * @param regions regions to be created as closing
+   * @param serverName server event originates from
+   * @return version of the CLOSING node of each region, by encoded name.
+   * Regions whose node could not be created, say because one already exists,
+   * are left out.
+   * @throws KeeperException if unexpected zookeeper exception
+   */
+  public static Map<String, Integer> createNodesClosing(ZooKeeperWatcher zkw,
+      List<HRegionInfo> regions, ServerName serverName)
+  throws KeeperException {
+    LOG.debug(zkw.prefix("Creating unassigned nodes for " + regions.size() +
+      " region(s) in a CLOSING state"));
+    Map<String, byte[]> nodes = new HashMap<String, byte[]>(regions.size());
+    for (HRegionInfo region : regions) {
+      RegionTransition rt = RegionTransition.createRegionTransition(
+        EventType.M_ZK_REGION_CLOSING, region.getRegionName(), serverName,
+        HConstants.EMPTY_BYTE_ARRAY);
+      nodes.put(getNodeName(zkw, region.getEncodedName()), rt.toByteArray());
+    }
+    Map<String, Integer> versions = new HashMap<String, Integer>(regions.size());
+    for (Map.Entry<String, Integer> e : ZKUtil.createAndWatch(zkw, nodes).entrySet()) {
+      versions.put(getRegionName(zkw, e.getKey()), e.getValue());
+    }
+    return versions;
+  }
+
   /**
    * Transitions an existing unassigned node for the specified region which is
    * currently in the CLOSING state to be in the CLOSED state.
@@ -22,7 +22,10 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -30,8 +33,12 @@ import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.master.SplitLogManager;
 import org.apache.hadoop.hbase.regionserver.SplitLogWorker;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.zookeeper.KeeperException;
 
 /**
  * Common methods and attributes used by {@link SplitLogManager} and {@link SplitLogWorker}
@@ -138,4 +145,77 @@ public class ZKSplitLog {
   public static boolean isCorruptFlagFile(Path file) {
     return file.getName().equals("corrupt");
   }
-}
\ No newline at end of file
+
+  /**
+   * Gets the node marking a region as recovering, i.e. waiting for the edits
+   * of a dead server's logs to be replayed into it.
+   * @param zkw zk reference
+   * @param encodedRegionName
+   */
+  public static String getRecoveringRegionNode(ZooKeeperWatcher zkw,
+      String encodedRegionName) {
+    return ZKUtil.joinZNode(zkw.recoveringRegionsZNode, encodedRegionName);
+  }
+
+  /**
+   * Marks regions of a dead server as recovering.  While marked, log splitting
+   * replays their edits into their new servers and they refuse reads.
+   * @param zkw zk reference
+   * @param regions
+   * @param deadServer server whose logs hold the edits to replay
+   * @throws KeeperException
+   */
+  public static void markRegionsRecovering(ZooKeeperWatcher zkw,
+      Collection<HRegionInfo> regions, ServerName deadServer)
+  throws KeeperException {
+    byte [] data = Bytes.toBytes(deadServer.toString());
+    for (HRegionInfo hri : regions) {
+      ZKUtil.createSetData(zkw, getRecoveringRegionNode(zkw, hri.getEncodedName()),
+        data);
+    }
+  }
+
+  /**
+   * Removes the recovering marks set for the logs of <code>deadServer</code>,
+   * or all of them if <code>deadServer</code> is null.
+   * @param zkw zk reference
+   * @param deadServer
+   * @return encoded names of the regions no longer marked
+   * @throws KeeperException
+   */
+  public static Set<String> removeRecoveringRegions(ZooKeeperWatcher zkw,
+      ServerName deadServer)
+  throws KeeperException {
+    Set<String> removed = new HashSet<String>();
+    List<String> regions = ZKUtil.listChildrenNoWatch(zkw, zkw.recoveringRegionsZNode);
+    if (regions == null) return removed;
+    for (String encodedName : regions) {
+      String node = getRecoveringRegionNode(zkw, encodedName);
+      if (deadServer != null) {
+        byte [] data = ZKUtil.getData(zkw, node);
+        if (data == null || !deadServer.toString().equals(Bytes.toString(data))) {
+          continue;
+        }
+      }
+      ZKUtil.deleteNodeFailSilent(zkw, node);
+      removed.add(encodedName);
+    }
+    if (!removed.isEmpty()) {
+      LOG.info("Removed recovering mark of " + removed.size() + " region(s)" +
+        (deadServer == null ? "" : " of " + deadServer));
+    }
+    return removed;
+  }
+
+  /**
+   * @param zkw zk reference
+   * @param encodedRegionName
+   * @return true if the region is marked recovering
+   * @throws KeeperException
+   */
+  public static boolean isRegionRecovering(ZooKeeperWatcher zkw,
+      String encodedRegionName)
+  throws KeeperException {
+    return ZKUtil.checkExists(zkw, getRecoveringRegionNode(zkw, encodedRegionName)) != -1;
+  }
+}
@@ -26,8 +26,16 @@ import java.io.PrintWriter;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -39,11 +47,13 @@ import org.apache.hadoop.hbase.DeserializationException;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.hbase.util.Threads;
 import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.NoNodeException;
+import org.apache.zookeeper.Op;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooDefs.Ids;
 import org.apache.zookeeper.ZooKeeper;
@@ -578,6 +588,64 @@ public class ZKUtil {
     }
   }
 
+  /**
+   * Get the data at each of the specified znodes and set watches on them.
+   *
+   * All the reads are sent before waiting on any of them, so reading many
+   * znodes costs about one round trip rather than one per znode.  Znodes whose
+   * read still failed after retries, for another reason than not existing,
+   * are read again one by one.
+   *
+   * @param zkw zk reference
+   * @param znodes paths of the nodes
+   * @return data and stat of each of the znodes that exists, by path
+   * @throws KeeperException if unexpected zookeeper exception
+   */
+  public static Map<String, Pair<byte[], Stat>> getDataAndWatch(
+      final ZooKeeperWatcher zkw, final Collection<String> znodes)
+  throws KeeperException {
+    final Map<String, Pair<byte[], Stat>> result =
+      new ConcurrentHashMap<String, Pair<byte[], Stat>>(Math.max(16, znodes.size()));
+    final Set<String> failed = Collections.synchronizedSet(new HashSet<String>());
+    final CountDownLatch done = new CountDownLatch(znodes.size());
+    AsyncCallback.DataCallback cb = new AsyncCallback.DataCallback() {
+      @Override
+      public void processResult(int rc, String path, Object ctx, byte[] data,
+          Stat stat) {
+        try {
+          KeeperException.Code code = KeeperException.Code.get(rc);
+          if (code == KeeperException.Code.OK) {
+            result.put(path, new Pair<byte[], Stat>(data, stat));
+          } else if (code != KeeperException.Code.NONODE) {
+            failed.add(path);
+          }
+        } finally {
+          done.countDown();
+        }
+      }
+    };
+    try {
+      waitForZKConnectionIfAuthenticating(zkw);
+      for (String znode : znodes) {
+        zkw.getRecoverableZooKeeper().asyncGetData(znode, zkw, cb, null);
+      }
+      done.await();
+    } catch (InterruptedException e) {
+      zkw.interruptedException(e);
+      return result;
+    }
+    if (!failed.isEmpty()) {
+      LOG.debug(zkw.prefix("Reading " + failed.size() + " of " + znodes.size() +
+        " znode(s) again one by one"));
+      for (String znode : failed) {
+        Stat stat = new Stat();
+        byte [] data = getDataAndWatch(zkw, znode, stat);
+        if (data != null) result.put(znode, new Pair<byte[], Stat>(data, stat));
+      }
+    }
+    return result;
+  }
+
   /**
    * Returns the date of child znodes of the specified znode.  Also sets a watch on
    * the specified znode which will capture a NodeDeleted event on the specified
@@ -863,12 +931,85 @@ public class ZKUtil {
     }
   }
 
+  /**
+   * Creates the specified nodes with their data and watches them, the way
+   * {@link #createAndWatch(ZooKeeperWatcher, String, byte[])} does one.  All
+   * the creates are sent before waiting on any of them.
+   *
+   * <p>The nodes created are persistent and open access.
+   *
+   * @param zkw zk reference
+   * @param znodes data of each node to create, by path
+   * @return version of each node created, by path.  Nodes that could not be
+   * created, say because they already exist, are left out.  Every node that
+   * was created is in, so that callers never mistake one for a node someone
+   * else made: a watch that fails to be set is set again synchronously.
+   * @throws KeeperException if unexpected zookeeper exception, including
+   * failing to watch a created node
+   */
+  public static Map<String, Integer> createAndWatch(final ZooKeeperWatcher zkw,
+      final Map<String, byte[]> znodes)
+  throws KeeperException {
+    final Map<String, Integer> result =
+      new ConcurrentHashMap<String, Integer>(Math.max(16, znodes.size()));
+    // Created, but the watch could not be set
+    final Set<String> unwatched = Collections.synchronizedSet(new HashSet<String>());
+    final CountDownLatch done = new CountDownLatch(znodes.size());
+    final RecoverableZooKeeper rzk = zkw.getRecoverableZooKeeper();
+    final AsyncCallback.StatCallback existsCb = new AsyncCallback.StatCallback() {
+      @Override
+      public void processResult(int rc, String path, Object ctx, Stat stat) {
+        try {
+          if (rc == KeeperException.Code.OK.intValue()) {
+            result.put(path, stat.getVersion());
+          } else {
+            LOG.warn(zkw.prefix("Failed setting watch on created znode " + path +
+              ", rc=" + KeeperException.Code.get(rc) + "; will retry"));
+            unwatched.add(path);
+          }
+        } finally {
+          done.countDown();
+        }
+      }
+    };
+    AsyncCallback.StringCallback createCb = new AsyncCallback.StringCallback() {
+      @Override
+      public void processResult(int rc, String path, Object ctx, String name) {
+        if (rc == KeeperException.Code.OK.intValue()) {
+          rzk.asyncExists(path, zkw, existsCb, null);
+          return;
+        }
+        if (rc != KeeperException.Code.NODEEXISTS.intValue()) {
+          LOG.warn(zkw.prefix("Failed creating znode " + path + ", rc=" +
+            KeeperException.Code.get(rc)));
+        }
+        done.countDown();
+      }
+    };
+    try {
+      waitForZKConnectionIfAuthenticating(zkw);
+      for (Map.Entry<String, byte[]> e : znodes.entrySet()) {
+        rzk.asyncCreate(e.getKey(), e.getValue(), createACL(zkw, e.getKey()),
+          CreateMode.PERSISTENT, createCb, null);
+      }
+      done.await();
+      for (String path : unwatched) {
+        Stat stat = rzk.exists(path, zkw);
+        if (stat != null) result.put(path, stat.getVersion());
+      }
+    } catch (InterruptedException e) {
+      zkw.interruptedException(e);
+    }
+    return result;
+  }
+
   /**
    * Async creates the specified node with the specified data.
    *
    * <p>Throws an exception if the node already exists.
    *
-   * <p>The node created is persistent and open access.
+   * <p>The node created is persistent and open access.  Connection loss is
+   * retried before <code>cb</code> is called.
    *
    * @param zkw zk reference
    * @param znode path of node to create
@@ -883,7 +1024,7 @@ public class ZKUtil {
       final Object ctx) {
     try {
       waitForZKConnectionIfAuthenticating(zkw);
-      zkw.getRecoverableZooKeeper().getZooKeeper().create(znode, data,
+      zkw.getRecoverableZooKeeper().asyncCreate(znode, data,
           createACL(zkw, znode), CreateMode.PERSISTENT, cb, ctx);
     } catch (InterruptedException e) {
       zkw.interruptedException(e);
@@ -902,12 +1043,30 @@ public class ZKUtil {
    */
   public static void createAndFailSilent(ZooKeeperWatcher zkw,
       String znode)
+  throws KeeperException {
+    createAndFailSilent(zkw, znode, new byte[0]);
+  }
+
+  /**
+   * Creates the specified node with the specified data, if the node does not
+   * exist.  Does not set a watch and fails silently if the node already
+   * exists.
+   *
+   * The node created is persistent and open access.
+   *
+   * @param zkw zk reference
+   * @param znode path of node
+   * @param data data of node to create
+   * @throws KeeperException if unexpected zookeeper exception
+   */
+  public static void createAndFailSilent(ZooKeeperWatcher zkw,
+      String znode, byte [] data)
   throws KeeperException {
     try {
       RecoverableZooKeeper zk = zkw.getRecoverableZooKeeper();
       waitForZKConnectionIfAuthenticating(zkw);
       if (zk.exists(znode, false) == null) {
-        zk.create(znode, new byte[0], createACL(zkw,znode),
+        zk.create(znode, data, createACL(zkw,znode),
             CreateMode.PERSISTENT);
       }
     } catch(KeeperException.NodeExistsException nee) {
@@ -956,6 +1115,167 @@ public class ZKUtil {
     }
   }
 
+  /**
+   * An operation of {@link ZKUtil#multiOrSequential}, with the semantics of
+   * the ZKUtil method of the same name.
+   */
+  public abstract static class ZKUtilOp {
+    private final String path;
+
+    private ZKUtilOp(String path) {
+      this.path = path;
+    }
+
+    /**
+     * @return an op like {@link ZKUtil#createAndFailSilent(ZooKeeperWatcher, String)}
+     * that creates the node with <code>data</code>
+     */
+    public static ZKUtilOp createAndFailSilent(String path, byte[] data) {
+      return new CreateAndFailSilent(path, data);
+    }
+
+    /**
+     * @return an op like {@link ZKUtil#deleteNodeFailSilent(ZooKeeperWatcher, String)}
+     */
+    public static ZKUtilOp deleteNodeFailSilent(String path) {
+      return new DeleteNodeFailSilent(path);
+    }
+
+    /**
+     * @return an op like {@link ZKUtil#setData(ZooKeeperWatcher, String, byte[])}
+     */
+    public static ZKUtilOp setData(String path, byte [] data) {
+      return new SetData(path, data);
+    }
+
+    /**
+     * @return path of the node this op is on
+     */
+    public String getPath() {
+      return this.path;
+    }
+
+    @Override
+    public String toString() {
+      return getClass().getSimpleName() + "(" + this.path + ")";
+    }
+
+    /** ZKUtilOp to create a node and fail silently if it exists */
+    public static class CreateAndFailSilent extends ZKUtilOp {
+      private final byte [] data;
+
+      private CreateAndFailSilent(String path, byte [] data) {
+        super(path);
+        this.data = data;
+      }
+
+      public byte [] getData() {
+        return this.data;
+      }
+    }
+
+    /** ZKUtilOp to delete a node and fail silently if it does not exist */
+    public static class DeleteNodeFailSilent extends ZKUtilOp {
+      private DeleteNodeFailSilent(String path) {
+        super(path);
+      }
+    }
+
+    /** ZKUtilOp to set the data of a node */
+    public static class SetData extends ZKUtilOp {
+      private final byte [] data;
+
+      private SetData(String path, byte [] data) {
+        super(path);
+        this.data = data;
+      }
+
+      public byte [] getData() {
+        return this.data;
+      }
+    }
+  }
+
+  private static Op toZooKeeperOp(ZooKeeperWatcher zkw, ZKUtilOp op) {
+    if (op instanceof ZKUtilOp.CreateAndFailSilent) {
+      return Op.create(op.getPath(), ((ZKUtilOp.CreateAndFailSilent)op).getData(),
+        createACL(zkw, op.getPath()), CreateMode.PERSISTENT);
+    } else if (op instanceof ZKUtilOp.DeleteNodeFailSilent) {
+      return Op.delete(op.getPath(), -1);
+    } else if (op instanceof ZKUtilOp.SetData) {
+      return Op.setData(op.getPath(), ((ZKUtilOp.SetData)op).getData(), -1);
+    }
+    throw new UnsupportedOperationException("Unexpected ZKUtilOp type: " +
+      op.getClass().getName());
+  }
+
+  /**
+   * Runs <code>ops</code> as a single ZooKeeper multi, one round trip for
+   * all of them, if <code>hbase.zookeeper.useMulti</code> is set; else one by
+   * one.  The ensemble must be 3.4 or later to use multi.
+   * <p>
+   * A multi is all or nothing, so the fail silent ops do fail it when their
+   * node exists or is missing.  If <code>runSequentialOnMultiFailure</code>
+   * is set, the ops are then run one by one with their usual semantics.
+   *
+   * @param zkw zk reference
+   * @param ops the ops to run, in order
+   * @param runSequentialOnMultiFailure run the ops one by one if the multi
+   * fails on a node existing or missing
+   * @throws KeeperException if unexpected zookeeper exception
+   */
+  public static void multiOrSequential(ZooKeeperWatcher zkw, List<ZKUtilOp> ops,
+      boolean runSequentialOnMultiFailure)
+  throws KeeperException {
+    if (ops == null || ops.isEmpty()) return;
+    if (!zkw.getConfiguration().getBoolean(HConstants.ZOOKEEPER_USEMULTI, false)) {
+      processSequentially(zkw, ops);
+      return;
+    }
+    List<Op> zkOps = new LinkedList<Op>();
+    for (ZKUtilOp op : ops) {
+      zkOps.add(toZooKeeperOp(zkw, op));
+    }
+    try {
+      waitForZKConnectionIfAuthenticating(zkw);
+      zkw.getRecoverableZooKeeper().multi(zkOps);
+    } catch (KeeperException ke) {
+      switch (ke.code()) {
+        case NODEEXISTS:
+        case NONODE:
+        case BADVERSION:
+        case NOAUTH:
+          if (runSequentialOnMultiFailure) {
+            LOG.info(zkw.prefix("Multi of " + ops.size() + " op(s) failed on " +
+              ke.code() + ", running them one by one"));
+            processSequentially(zkw, ops);
+            break;
+          }
+        default:
+          throw ke;
+      }
+    } catch (InterruptedException ie) {
+      zkw.interruptedException(ie);
+    }
+  }
+
+  private static void processSequentially(ZooKeeperWatcher zkw, List<ZKUtilOp> ops)
+  throws KeeperException {
+    for (ZKUtilOp op : ops) {
+      if (op instanceof ZKUtilOp.CreateAndFailSilent) {
+        createAndFailSilent(zkw, op.getPath(),
+          ((ZKUtilOp.CreateAndFailSilent)op).getData());
+      } else if (op instanceof ZKUtilOp.DeleteNodeFailSilent) {
+        deleteNodeFailSilent(zkw, op.getPath());
+      } else if (op instanceof ZKUtilOp.SetData) {
+        setData(zkw, op.getPath(), ((ZKUtilOp.SetData)op).getData());
+      } else {
+        throw new UnsupportedOperationException("Unexpected ZKUtilOp type: " +
+          op.getClass().getName());
+      }
+    }
+  }
+
   //
   // Deletes
   //
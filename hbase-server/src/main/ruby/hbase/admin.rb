@@ -222,6 +222,7 @@ module Hbase
             htd.setReadOnly(JBoolean.valueOf(arg[READONLY])) if arg[READONLY]
             htd.setMemStoreFlushSize(JLong.valueOf(arg[MEMSTORE_FLUSHSIZE])) if arg[MEMSTORE_FLUSHSIZE]
             htd.setDeferredLogFlush(JBoolean.valueOf(arg[DEFERRED_LOG_FLUSH])) if arg[DEFERRED_LOG_FLUSH]
+            htd.setIncrementCoalesceWindow(JLong.valueOf(arg[INCREMENT_COALESCE_WINDOW])) if arg[INCREMENT_COALESCE_WINDOW]
             htd.setValue(COMPRESSION_COMPACT, arg[COMPRESSION_COMPACT]) if arg[COMPRESSION_COMPACT]
             if arg[NUMREGIONS]
               raise(ArgumentError, "Number of regions must be greater than 1") unless arg[NUMREGIONS] > 1
@@ -409,6 +410,7 @@ module Hbase
           htd.setReadOnly(JBoolean.valueOf(arg[READONLY])) if arg[READONLY]
           htd.setMemStoreFlushSize(JLong.valueOf(arg[MEMSTORE_FLUSHSIZE])) if arg[MEMSTORE_FLUSHSIZE]
           htd.setDeferredLogFlush(JBoolean.valueOf(arg[DEFERRED_LOG_FLUSH])) if arg[DEFERRED_LOG_FLUSH]
+          htd.setIncrementCoalesceWindow(JLong.valueOf(arg[INCREMENT_COALESCE_WINDOW])) if arg[INCREMENT_COALESCE_WINDOW]
           # (2) Here, we handle the alternate syntax of ownership setting, where method => 'table_att' is specified.
           htd.setOwnerString(arg[OWNER]) if arg[OWNER]
 
@@ -581,6 +583,8 @@ module Hbase
           family.setBloomFilterType(org.apache.hadoop.hbase.regionserver.StoreFile::BloomType.valueOf(bloomtype))
         end
       end
+      family.setBloomFilterPrefixLength(JInteger.valueOf(arg[org.apache.hadoop.hbase.HColumnDescriptor::BLOOMFILTER_PREFIX_LENGTH])) if arg.include?(org.apache.hadoop.hbase.HColumnDescriptor::BLOOMFILTER_PREFIX_LENGTH)
+      family.setBloomFilterPrefixDelimiter(arg[org.apache.hadoop.hbase.HColumnDescriptor::BLOOMFILTER_PREFIX_DELIMITER]) if arg.include?(org.apache.hadoop.hbase.HColumnDescriptor::BLOOMFILTER_PREFIX_DELIMITER)
       if arg.include?(org.apache.hadoop.hbase.HColumnDescriptor::COMPRESSION)
         compression = arg[org.apache.hadoop.hbase.HColumnDescriptor::COMPRESSION].upcase
         unless org.apache.hadoop.hbase.io.hfile.Compression::Algorithm.constants.include?(compression)      
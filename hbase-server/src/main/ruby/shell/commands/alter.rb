@@ -42,7 +42,8 @@ or a shorter version:
   hbase> alter 't1', 'delete' => 'f1'
 
 You can also change table-scope attributes like MAX_FILESIZE
-MEMSTORE_FLUSHSIZE, READONLY, and DEFERRED_LOG_FLUSH.
+MEMSTORE_FLUSHSIZE, READONLY, DEFERRED_LOG_FLUSH and
+INCREMENT_COALESCE_WINDOW.
 
 For example, to change the max size of a family to 128MB, do:
 
@@ -28,6 +28,8 @@ import static org.junit.Assert.fail;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 
@@ -48,22 +50,30 @@ import org.apache.hadoop.hbase.master.HMaster;
 import org.apache.hadoop.hbase.master.LoadBalancer;
 import org.apache.hadoop.hbase.master.balancer.DefaultLoadBalancer;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.hbase.zookeeper.EmptyWatcher;
+import org.apache.hadoop.hbase.zookeeper.RecoverableZooKeeper;
 import org.apache.hadoop.hbase.zookeeper.ZKAssign;
 import org.apache.hadoop.hbase.zookeeper.ZKConfig;
 import org.apache.hadoop.hbase.zookeeper.ZKUtil;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
+import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.ZooKeeper.States;
+import org.apache.zookeeper.data.Stat;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 
 
@@ -304,6 +314,117 @@ public class TestZooKeeper {
     assertNull(ZKUtil.getDataNoWatch(zkw, "/l1/l2", null));
   }
 
+  /**
+   * Read many znodes at once, some of which do not exist
+   * @throws Exception
+   */
+  @Test
+  public void testGetDataAndWatchOfMany() throws Exception {
+    ZooKeeperWatcher zkw = new ZooKeeperWatcher(
+      new Configuration(TEST_UTIL.getConfiguration()),
+      TestZooKeeper.class.getName(), null);
+    ZKUtil.createWithParents(zkw, "/many");
+    List<String> znodes = new ArrayList<String>();
+    for (int i = 0; i < 100; i++) {
+      String znode = ZKUtil.joinZNode("/many", "node" + i);
+      if (i % 10 != 0) {
+        ZKUtil.createSetData(zkw, znode, Bytes.toBytes(i));
+      }
+      znodes.add(znode);
+    }
+    ZKUtil.setData(zkw, ZKUtil.joinZNode("/many", "node1"), Bytes.toBytes(1));
+    Map<String, Pair<byte[], Stat>> data = ZKUtil.getDataAndWatch(zkw, znodes);
+    assertEquals(90, data.size());
+    for (int i = 0; i < 100; i++) {
+      Pair<byte[], Stat> p = data.get(znodes.get(i));
+      if (i % 10 == 0) {
+        assertNull(p);
+      } else {
+        assertEquals(i, Bytes.toInt(p.getFirst()));
+        assertEquals(i == 1 ? 1 : 0, p.getSecond().getVersion());
+      }
+    }
+    ZKUtil.deleteNodeRecursively(zkw, "/many");
+  }
+
+  @Test
+  public void testMultiOrSequential() throws Exception {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setBoolean(HConstants.ZOOKEEPER_USEMULTI, true);
+    ZooKeeperWatcher zkw =
+      new ZooKeeperWatcher(conf, TestZooKeeper.class.getName(), null);
+    ZKUtil.createWithParents(zkw, "/multi");
+    Map<String, byte[]> toCreate = new HashMap<String, byte[]>();
+    for (int i = 0; i < 10; i++) {
+      toCreate.put(ZKUtil.joinZNode("/multi", "node" + i), Bytes.toBytes(i));
+    }
+    Map<String, Integer> versions = ZKUtil.createAndWatch(zkw, toCreate);
+    assertEquals(10, versions.size());
+    for (Integer version : versions.values()) {
+      assertEquals(0, version.intValue());
+    }
+
+    // node0 exists already, so the multi fails as a whole and is redone
+    // one op at a time
+    List<ZKUtil.ZKUtilOp> ops = new ArrayList<ZKUtil.ZKUtilOp>();
+    ops.add(ZKUtil.ZKUtilOp.createAndFailSilent(
+      ZKUtil.joinZNode("/multi", "node0"), Bytes.toBytes(0)));
+    ops.add(ZKUtil.ZKUtilOp.createAndFailSilent(
+      ZKUtil.joinZNode("/multi", "node10"), Bytes.toBytes(10)));
+    ops.add(ZKUtil.ZKUtilOp.setData(
+      ZKUtil.joinZNode("/multi", "node1"), Bytes.toBytes(11)));
+    ops.add(ZKUtil.ZKUtilOp.deleteNodeFailSilent(
+      ZKUtil.joinZNode("/multi", "node2")));
+    ZKUtil.multiOrSequential(zkw, ops, true);
+    assertEquals(10, Bytes.toInt(
+      ZKUtil.getData(zkw, ZKUtil.joinZNode("/multi", "node10"))));
+    assertEquals(11, Bytes.toInt(
+      ZKUtil.getData(zkw, ZKUtil.joinZNode("/multi", "node1"))));
+    assertEquals(-1, ZKUtil.checkExists(zkw, ZKUtil.joinZNode("/multi", "node2")));
+    ZKUtil.deleteNodeRecursively(zkw, "/multi");
+  }
+
+  /**
+   * A node created by {@link ZKUtil#createAndWatch(ZooKeeperWatcher, Map)}
+   * whose watch fails to be set must still come back as created; otherwise
+   * the caller takes it for someone else's.
+   */
+  @Test
+  public void testCreateAndWatchRetriesFailedWatch() throws Exception {
+    final RecoverableZooKeeper [] rzk = new RecoverableZooKeeper[1];
+    ZooKeeperWatcher zkw = new ZooKeeperWatcher(TEST_UTIL.getConfiguration(),
+        "testCreateAndWatchRetriesFailedWatch", null) {
+      @Override
+      public RecoverableZooKeeper getRecoverableZooKeeper() {
+        return rzk[0] == null ? super.getRecoverableZooKeeper() : rzk[0];
+      }
+    };
+    ZKUtil.createWithParents(zkw, "/watchfails");
+    final String unlucky = ZKUtil.joinZNode("/watchfails", "node1");
+    rzk[0] = Mockito.spy(zkw.getRecoverableZooKeeper());
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        ((AsyncCallback.StatCallback) invocation.getArguments()[2]).processResult(
+          KeeperException.Code.CONNECTIONLOSS.intValue(), unlucky, null, null);
+        return null;
+      }
+    }).when(rzk[0]).asyncExists(Mockito.eq(unlucky), Mockito.any(Watcher.class),
+      Mockito.any(AsyncCallback.StatCallback.class), Mockito.any());
+
+    Map<String, byte[]> toCreate = new HashMap<String, byte[]>();
+    for (int i = 0; i < 3; i++) {
+      toCreate.put(ZKUtil.joinZNode("/watchfails", "node" + i), Bytes.toBytes(i));
+    }
+    Map<String, Integer> versions = ZKUtil.createAndWatch(zkw, toCreate);
+    assertEquals(toCreate.keySet(), versions.keySet());
+    assertEquals(0, versions.get(unlucky).intValue());
+    // Watched after all
+    Mockito.verify(rzk[0]).exists(unlucky, zkw);
+    ZKUtil.deleteNodeRecursively(zkw, "/watchfails");
+    zkw.close();
+  }
+
   @Test
   public void testClusterKey() throws Exception {
     testKey("server", "2181", "hbase");
@@ -25,7 +25,11 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
@@ -33,7 +37,10 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.*;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.executor.EventHandler.EventType;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
@@ -276,6 +283,104 @@ public class TestMetaReaderEditor {
     assertEquals(1, MetaReader.getTableRegions(CT, greaterName).size());
   }
 
+  @Test public void testParallelFullScan() throws Exception {
+    final String name = "testParallelFullScan";
+    LOG.info("Started " + name);
+    final byte [] nameBytes = Bytes.toBytes(name);
+    HTable t = UTIL.createTable(nameBytes, HConstants.CATALOG_FAMILY);
+    UTIL.createMultiRegions(t, HConstants.CATALOG_FAMILY);
+    t.close();
+    List<Result> expected = MetaReader.fullScan(CT);
+    assertTrue(expected.size() > 3);
+
+    ExecutorService pool = Executors.newFixedThreadPool(3);
+    try {
+      // Only the one .META. region: same as the plain full scan
+      assertSameRows(expected, MetaReader.fullScan(CT, pool));
+
+      // .META. does not split, so cut its key space in three ranges that
+      // are scanned in parallel as if they were regions
+      byte [] first = expected.get(expected.size() / 3).getRow();
+      byte [] second = expected.get(2 * expected.size() / 3).getRow();
+      List<HRegionInfo> ranges = new ArrayList<HRegionInfo>();
+      ranges.add(new HRegionInfo(HConstants.META_TABLE_NAME,
+        HConstants.EMPTY_START_ROW, first));
+      ranges.add(new HRegionInfo(HConstants.META_TABLE_NAME, first, second));
+      ranges.add(new HRegionInfo(HConstants.META_TABLE_NAME, second,
+        HConstants.EMPTY_END_ROW));
+      assertSameRows(expected, MetaReader.fullScan(CT, ranges, pool));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static void assertSameRows(List<Result> expected, List<Result> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertTrue(Bytes.equals(expected.get(i).getRow(), actual.get(i).getRow()));
+    }
+  }
+
+  @Test public void testRegionTransitionInMeta() throws Exception {
+    final String name = "testRegionTransitionInMeta";
+    LOG.info("Started " + name);
+    byte [] nameBytes = Bytes.toBytes(name);
+    UTIL.createTable(nameBytes, HConstants.CATALOG_FAMILY);
+    HRegionInfo hri = MetaReader.getTableRegions(CT, nameBytes).get(0);
+    ServerName sn = new ServerName("example.org", 1234, 5678);
+    RegionTransition offline = RegionTransition.createRegionTransition(
+      EventType.M_ZK_REGION_OFFLINE, hri.getRegionName(), sn);
+    MetaEditor.updateRegionTransitions(CT, Collections.singletonList(offline));
+
+    HTable meta = new HTable(UTIL.getConfiguration(), HConstants.META_TABLE_NAME);
+    try {
+      Get get = new Get(hri.getRegionName());
+      byte [] data = meta.get(get).getValue(HConstants.CATALOG_FAMILY,
+        HConstants.TRANSITION_QUALIFIER);
+      RegionTransition rt = RegionTransition.parseFrom(data);
+      assertEquals(EventType.M_ZK_REGION_OFFLINE, rt.getEventType());
+      assertEquals(sn, rt.getServerName());
+      assertTrue(Bytes.equals(hri.getRegionName(), rt.getRegionName()));
+
+      // A transition recorded after the one being cleared survives the clear
+      RegionTransition closing = RegionTransition.createRegionTransition(
+        EventType.M_ZK_REGION_CLOSING, hri.getRegionName(), sn);
+      MetaEditor.updateRegionTransitions(CT, Collections.singletonList(closing));
+      assertFalse(MetaEditor.deleteRegionTransition(CT, hri, offline.toByteArray()));
+      data = meta.get(get).getValue(HConstants.CATALOG_FAMILY,
+        HConstants.TRANSITION_QUALIFIER);
+      assertEquals(EventType.M_ZK_REGION_CLOSING,
+        RegionTransition.parseFrom(data).getEventType());
+
+      assertTrue(MetaEditor.deleteRegionTransition(CT, hri, closing.toByteArray()));
+      assertNull(meta.get(get).getValue(HConstants.CATALOG_FAMILY,
+        HConstants.TRANSITION_QUALIFIER));
+      // The rest of the row is untouched
+      assertEquals(hri.getEncodedName(),
+        MetaReader.getRegion(CT, hri.getRegionName()).getFirst().getEncodedName());
+    } finally {
+      meta.close();
+    }
+    LOG.info("Finished " + name);
+  }
+
+  @Test public void testUpdateRegionLocations() throws Exception {
+    final String name = "testUpdateRegionLocations";
+    LOG.info("Started " + name);
+    byte [] nameBytes = Bytes.toBytes(name);
+    HTable t = UTIL.createTable(nameBytes, HConstants.CATALOG_FAMILY);
+    int regionCount = UTIL.createMultiRegions(t, HConstants.CATALOG_FAMILY);
+    List<HRegionInfo> regions = MetaReader.getTableRegions(CT, nameBytes);
+    assertEquals(regionCount, regions.size());
+    ServerName sn = new ServerName("example.org", 1234, 5678);
+    MetaEditor.updateRegionLocations(CT, regions, sn);
+    for (HRegionInfo hri : regions) {
+      assertEquals(sn, MetaReader.getRegion(CT, hri.getRegionName()).getSecond());
+    }
+    t.close();
+    LOG.info("Finished " + name);
+  }
+
   private static List<HRegionInfo> testGettingTableRegions(final CatalogTracker ct,
       final byte [] nameBytes, final int regionCount)
   throws IOException, InterruptedException {
@@ -0,0 +1,403 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.NotServingRegionException;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter.RowRange;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanResponse;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+
+import com.google.protobuf.RpcController;
+
+/**
+ * Test how {@link ClientScanner} puts together what the region servers
+ * return, against a fake region server.
+ */
+@Category(SmallTests.class)
+public class TestClientScanner {
+  private static final byte[] TABLE = Bytes.toBytes("testClientScanner");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final HRegionInfo REGION = new HRegionInfo(TABLE);
+
+  private Configuration conf;
+  private HConnection connection;
+
+  @Before
+  public void setUp() {
+    this.conf = HBaseConfiguration.create();
+    this.connection = Mockito.mock(HConnection.class);
+    when(this.connection.getConfiguration()).thenReturn(this.conf);
+  }
+
+  /**
+   * What a region server returns over the calls of a scan, in order: the
+   * parts of rows, where it answers with a heartbeat, and where the region
+   * moves away.
+   */
+  private static class FakeRegion {
+    private final HRegionInfo info;
+    private final List<byte[]> rows = new ArrayList<byte[]>();
+    // A null item is where the region moves away
+    private final List<Result> items = new ArrayList<Result>();
+    // Rows the scanners opened on the region started at
+    private final List<String> starts = new ArrayList<String>();
+
+    FakeRegion() {
+      this(REGION);
+    }
+
+    FakeRegion(HRegionInfo info) {
+      this.info = info;
+    }
+
+    FakeRegion part(String row, String... qualifiers) {
+      KeyValue[] kvs = new KeyValue[qualifiers.length];
+      for (int i = 0; i < qualifiers.length; i++) {
+        kvs[i] = new KeyValue(Bytes.toBytes(row), FAMILY,
+          Bytes.toBytes(qualifiers[i]), Bytes.toBytes(qualifiers[i]));
+      }
+      this.rows.add(Bytes.toBytes(row));
+      this.items.add(new Result(kvs));
+      return this;
+    }
+
+    /**
+     * The region server reads for too long once the scan gets to
+     * <code>row</code>, and answers with what it has so far.
+     */
+    FakeRegion heartbeat(String row) {
+      this.rows.add(Bytes.toBytes(row));
+      this.items.add(heartbeatResult(Bytes.toBytes(row)));
+      return this;
+    }
+
+    /**
+     * The region moves once the scan gets here; the next call fails and the
+     * client has to open a new scanner.
+     */
+    FakeRegion move() {
+      this.rows.add(this.rows.get(this.rows.size() - 1));
+      this.items.add(null);
+      return this;
+    }
+  }
+
+  /**
+   * Serves the scan from a {@link FakeRegion} in place of a region server.
+   */
+  private static class FakeScannerCallable extends ScannerCallable {
+    private final FakeRegion region;
+    private boolean open = false;
+    private boolean closing = false;
+    private int position = 0;
+    private byte[] heartbeatRow = null;
+
+    FakeScannerCallable(HConnection connection, Scan scan, FakeRegion region) {
+      super(connection, TABLE, scan, null);
+      this.region = region;
+    }
+
+    @Override
+    public void setClose() {
+      this.closing = true;
+    }
+
+    @Override
+    public HRegionInfo getHRegionInfo() {
+      return this.region.info;
+    }
+
+    @Override
+    public byte[] getHeartbeatRow() {
+      return this.heartbeatRow;
+    }
+
+    @Override
+    public Result[] withRetries() throws IOException {
+      if (this.closing) {
+        return null;
+      }
+      if (!this.open) {
+        this.open = true;
+        byte[] startRow = getScan().getStartRow();
+        this.region.starts.add(Bytes.toString(startRow));
+        while (this.position < this.region.rows.size() &&
+            Bytes.compareTo(this.region.rows.get(this.position), startRow) < 0) {
+          this.position++;
+        }
+        return null;
+      }
+      this.heartbeatRow = null;
+      List<Result> results = new ArrayList<Result>();
+      while (this.position < this.region.items.size() &&
+          results.size() < getCaching()) {
+        Result item = this.region.items.get(this.position);
+        if (item == null) {
+          if (!results.isEmpty()) {
+            break;
+          }
+          // Moves only the once
+          this.region.rows.remove(this.position);
+          this.region.items.remove(this.position);
+          throw new DoNotRetryIOException("Reset scanner",
+            new NotServingRegionException());
+        }
+        if (item.raw()[0].getType() == KeyValue.Type.Maximum.getCode()) {
+          // Answers with a heartbeat only the once too
+          this.region.rows.remove(this.position);
+          this.region.items.remove(this.position);
+          this.heartbeatRow = item.getRow();
+          break;
+        }
+        results.add(item);
+        this.position++;
+      }
+      return results.toArray(new Result[results.size()]);
+    }
+  }
+
+  /**
+   * @return the result a region server adds when answering with a heartbeat
+   */
+  private static Result heartbeatResult(byte[] row) {
+    return new Result(new KeyValue[] { KeyValue.createFirstOnRow(row) });
+  }
+
+  /**
+   * @return a scanner over <code>regions</code>, which must cover the table
+   */
+  private ClientScanner getScanner(Scan scan, final FakeRegion... regions)
+  throws IOException {
+    scan.setCaching(1);
+    return new ClientScanner(this.conf, scan, TABLE, this.connection) {
+      @Override
+      protected ScannerCallable getScannerCallable(byte [] localStartKey,
+          int nbRows) {
+        getScan().setStartRow(localStartKey);
+        FakeRegion region = null;
+        for (FakeRegion r : regions) {
+          if (r.info.containsRow(localStartKey)) {
+            region = r;
+          }
+        }
+        ScannerCallable s = new FakeScannerCallable(getConnection(), getScan(),
+          region);
+        s.setCaching(nbRows);
+        return s;
+      }
+    };
+  }
+
+  /**
+   * @return the results of the scan, each as "row:qualifier,qualifier"
+   */
+  private static List<String> scanAll(ClientScanner scanner) throws IOException {
+    List<String> results = new ArrayList<String>();
+    for (Result rs = scanner.next(); rs != null; rs = scanner.next()) {
+      StringBuilder sb = new StringBuilder(Bytes.toString(rs.getRow())).append(":");
+      for (KeyValue kv : rs.raw()) {
+        if (sb.charAt(sb.length() - 1) != ':') {
+          sb.append(",");
+        }
+        sb.append(Bytes.toString(kv.getQualifier()));
+      }
+      results.add(sb.toString());
+    }
+    scanner.close();
+    return results;
+  }
+
+  private static List<String> list(String... results) {
+    List<String> list = new ArrayList<String>();
+    for (String rs : results) {
+      list.add(rs);
+    }
+    return list;
+  }
+
+  @Test
+  public void testJoinsPartialRows() throws IOException {
+    Scan scan = new Scan();
+    scan.setPartialRows(true);
+    FakeRegion region = new FakeRegion()
+      .part("a", "1").part("a", "2", "3")
+      .part("b", "1")
+      .part("c", "1").part("c", "2");
+    assertEquals(list("a:1,2,3", "b:1", "c:1,2"), scanAll(getScanner(scan, region)));
+  }
+
+  @Test
+  public void testResetWhileJoining() throws IOException {
+    Scan scan = new Scan();
+    scan.setPartialRows(true);
+    // Moves with row b half read; the new scanner starts back at row a
+    FakeRegion region = new FakeRegion()
+      .part("a", "1").part("a", "2")
+      .part("b", "1").move().part("b", "2")
+      .part("c", "1");
+    assertEquals(list("a:1,2", "b:1,2", "c:1"), scanAll(getScanner(scan, region)));
+  }
+
+  @Test
+  public void testResetSkipsPartsLetOut() throws IOException {
+    Scan scan = new Scan();
+    scan.setPartialRows(true);
+    scan.setAllowPartialResults(true);
+    // Moves with two parts of row a let out already
+    FakeRegion region = new FakeRegion()
+      .part("a", "1").part("a", "2").move().part("a", "3")
+      .part("b", "1");
+    assertEquals(list("a:1", "a:2", "a:3", "b:1"), scanAll(getScanner(scan, region)));
+  }
+
+  @Test
+  public void testResetSkipsBatchesLetOut() throws IOException {
+    Scan scan = new Scan();
+    scan.setBatch(2);
+    FakeRegion region = new FakeRegion()
+      .part("a", "1", "2").part("a", "3", "4").move().part("a", "5")
+      .part("b", "1");
+    assertEquals(list("a:1,2", "a:3,4", "a:5", "b:1"), scanAll(getScanner(scan, region)));
+  }
+
+  @Test
+  public void testResetSkipsWholeRows() throws IOException {
+    Scan scan = new Scan();
+    FakeRegion region = new FakeRegion()
+      .part("a", "1", "2").part("b", "1").move()
+      .part("c", "1");
+    assertEquals(list("a:1,2", "b:1", "c:1"), scanAll(getScanner(scan, region)));
+  }
+
+  @Test
+  public void testScannerCallableStripsHeartbeat() throws Exception {
+    ClientProtocol server = Mockito.mock(ClientProtocol.class);
+    Result row = new Result(new KeyValue[] { new KeyValue(Bytes.toBytes("a"),
+      FAMILY, Bytes.toBytes("1"), Bytes.toBytes("1")) });
+    ScanResponse open = ScanResponse.newBuilder().setScannerId(1L).build();
+    ScanResponse withHeartbeat = ScanResponse.newBuilder()
+      .addResult(ProtobufUtil.toResult(row))
+      .addResult(ProtobufUtil.toResult(heartbeatResult(Bytes.toBytes("b"))))
+      .setMoreResults(true).build();
+    ScanResponse onlyHeartbeat = ScanResponse.newBuilder()
+      .addResult(ProtobufUtil.toResult(heartbeatResult(Bytes.toBytes("c"))))
+      .setMoreResults(true).build();
+    ScanResponse plain = ScanResponse.newBuilder()
+      .addResult(ProtobufUtil.toResult(row)).setMoreResults(true).build();
+    when(server.scan((RpcController)Mockito.any(), (ScanRequest)Mockito.any()))
+      .thenReturn(open, withHeartbeat, onlyHeartbeat, plain);
+
+    ScannerCallable callable = new ScannerCallable(this.connection, TABLE,
+      new Scan(), null);
+    callable.server = server;
+    callable.location = new HRegionLocation(REGION, "localhost", 60020);
+    assertNull(callable.call());
+
+    // The heartbeat is not a row, it tells where the scan got to
+    Result[] results = callable.call();
+    assertEquals(1, results.length);
+    assertArrayEquals(Bytes.toBytes("a"), results[0].getRow());
+    assertArrayEquals(Bytes.toBytes("b"), callable.getHeartbeatRow());
+
+    results = callable.call();
+    assertEquals(0, results.length);
+    assertArrayEquals(Bytes.toBytes("c"), callable.getHeartbeatRow());
+
+    results = callable.call();
+    assertEquals(1, results.length);
+    assertNull(callable.getHeartbeatRow());
+  }
+
+  @Test
+  public void testContinuesAfterHeartbeat() throws IOException {
+    Scan scan = new Scan();
+    // Answers with no row at all twice; neither is the end of the region
+    FakeRegion region = new FakeRegion()
+      .part("a", "1")
+      .heartbeat("b").heartbeat("b")
+      .part("b", "1").part("c", "1");
+    assertEquals(list("a:1", "b:1", "c:1"), scanAll(getScanner(scan, region)));
+    assertEquals(list(""), region.starts);
+  }
+
+  @Test
+  public void testResetFromHeartbeatRow() throws IOException {
+    Scan scan = new Scan();
+    // Moves after a heartbeat at row c; the new scanner starts at c rather
+    // than back at b, the last row let out
+    FakeRegion region = new FakeRegion()
+      .part("a", "1").part("b", "1")
+      .heartbeat("c").move()
+      .part("c", "1").part("d", "1");
+    assertEquals(list("a:1", "b:1", "c:1", "d:1"), scanAll(getScanner(scan, region)));
+    assertEquals(list("", "c"), region.starts);
+  }
+
+  @Test
+  public void testSkipsRegionsBetweenRowRanges() throws IOException {
+    List<RowRange> ranges = new ArrayList<RowRange>();
+    ranges.add(new RowRange(Bytes.toBytes("a"), Bytes.toBytes("b")));
+    ranges.add(new RowRange(Bytes.toBytes("h"), Bytes.toBytes("i")));
+    Scan scan = new Scan();
+    scan.setFilter(new MultiRowRangeFilter(ranges));
+    FakeRegion first = new FakeRegion(
+      new HRegionInfo(TABLE, null, Bytes.toBytes("d"))).part("a", "1");
+    FakeRegion second = new FakeRegion(
+      new HRegionInfo(TABLE, Bytes.toBytes("d"), Bytes.toBytes("g"))).part("e", "1");
+    FakeRegion third = new FakeRegion(
+      new HRegionInfo(TABLE, Bytes.toBytes("g"), Bytes.toBytes("k"))).part("h", "1");
+    FakeRegion fourth = new FakeRegion(
+      new HRegionInfo(TABLE, Bytes.toBytes("k"), null)).part("l", "1");
+    assertEquals(list("a:1", "h:1"),
+      scanAll(getScanner(scan, first, second, third, fourth)));
+    // Each range's scanner opens at the range, and no scanner opens on the
+    // region with no range in it
+    assertEquals(list("a"), first.starts);
+    assertEquals(list(), second.starts);
+    assertEquals(list("h"), third.starts);
+    // Past the last range the scan ends, the regions after are not opened
+    assertEquals(list(), fourth.starts);
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
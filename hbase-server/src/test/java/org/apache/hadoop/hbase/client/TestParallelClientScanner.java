@@ -0,0 +1,263 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter.RowRange;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestParallelClientScanner {
+  private static final byte[] TABLE = Bytes.toBytes("testParallelClientScanner");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final List<String> ROWS =
+    Arrays.asList("a1", "a2", "b1", "c1", "d1", "e1", "f1", "g1");
+  private static final ServerName SERVER1 = new ServerName("server1", 60020, 1L);
+  private static final ServerName SERVER2 = new ServerName("server2", 60020, 1L);
+
+  private static HRegionInfo region(String start, String end) {
+    return new HRegionInfo(TABLE, Bytes.toBytes(start), Bytes.toBytes(end));
+  }
+
+  /**
+   * Regions [, b) and [d, f) on server1, [b, d) and [f, ) on server2.
+   */
+  private static NavigableMap<HRegionInfo, ServerName> createRegions() {
+    NavigableMap<HRegionInfo, ServerName> regions =
+      new TreeMap<HRegionInfo, ServerName>();
+    regions.put(region("", "b"), SERVER1);
+    regions.put(region("b", "d"), SERVER2);
+    regions.put(region("d", "f"), SERVER1);
+    regions.put(region("f", ""), SERVER2);
+    return regions;
+  }
+
+  private static boolean onServer1(byte[] row) {
+    String r = Bytes.toString(row);
+    return r.compareTo("b") < 0 || (r.compareTo("d") >= 0 && r.compareTo("f") < 0);
+  }
+
+  private static Configuration createConf(int parallelism, int maxPerServer) {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setInt(ParallelClientScanner.PARALLELISM_KEY, parallelism);
+    conf.setInt(ParallelClientScanner.MAX_PER_SERVER_KEY, maxPerServer);
+    return conf;
+  }
+
+  /**
+   * Serves ROWS from memory, keeping track of the scanners open on each
+   * server.
+   */
+  private static class InMemoryScanner extends ParallelClientScanner {
+    final List<Scan> regionScans =
+      Collections.synchronizedList(new ArrayList<Scan>());
+    final AtomicInteger[] open = { new AtomicInteger(), new AtomicInteger() };
+    final AtomicInteger[] maxOpen = { new AtomicInteger(), new AtomicInteger() };
+    volatile String failRow = null;
+
+    InMemoryScanner(Configuration conf, Scan scan, boolean ordered)
+    throws IOException {
+      super(conf, scan, TABLE, null, createRegions(), ordered);
+    }
+
+    @Override
+    protected ResultScanner createRegionScanner(final Scan regionScan) {
+      this.regionScans.add(regionScan);
+      final int server = onServer1(regionScan.getStartRow()) ? 0 : 1;
+      int now = this.open[server].incrementAndGet();
+      while (true) {
+        int max = this.maxOpen[server].get();
+        if (now <= max || this.maxOpen[server].compareAndSet(max, now)) {
+          break;
+        }
+      }
+      final List<String> rows = new ArrayList<String>();
+      for (String row : ROWS) {
+        byte[] r = Bytes.toBytes(row);
+        if (Bytes.compareTo(r, regionScan.getStartRow()) >= 0 &&
+            (regionScan.getStopRow().length == 0 ||
+              Bytes.compareTo(r, regionScan.getStopRow()) < 0)) {
+          rows.add(row);
+        }
+      }
+      return new AbstractClientScanner() {
+        private int next = 0;
+
+        @Override
+        public Result next() throws IOException {
+          // Give the other regions a chance to be read at the same time
+          Threads.sleep(10);
+          if (this.next >= rows.size()) {
+            return null;
+          }
+          String row = rows.get(this.next++);
+          if (row.equals(failRow)) {
+            throw new IOException("Failing on " + row);
+          }
+          return new Result(new KeyValue[] {
+            new KeyValue(Bytes.toBytes(row), FAMILY, QUALIFIER, QUALIFIER) });
+        }
+
+        @Override
+        public Result[] next(int nbRows) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+          open[server].decrementAndGet();
+        }
+      };
+    }
+  }
+
+  private static List<String> readAll(ResultScanner scanner) throws IOException {
+    List<String> rows = new ArrayList<String>();
+    for (Result result : scanner) {
+      rows.add(Bytes.toString(result.getRow()));
+    }
+    return rows;
+  }
+
+  @Test
+  public void testOrdered() throws IOException {
+    InMemoryScanner scanner =
+      new InMemoryScanner(createConf(3, 1), new Scan(), true);
+    assertEquals(ROWS, readAll(scanner));
+    assertNull(scanner.next());
+    assertEquals(4, scanner.regionScans.size());
+    assertTrue(scanner.maxOpen[0].get() <= 1);
+    assertTrue(scanner.maxOpen[1].get() <= 1);
+  }
+
+  @Test
+  public void testUnordered() throws IOException {
+    InMemoryScanner scanner =
+      new InMemoryScanner(createConf(4, 1), new Scan(), false);
+    List<String> rows = readAll(scanner);
+    assertEquals(ROWS.size(), rows.size());
+    assertEquals(new TreeSet<String>(ROWS), new TreeSet<String>(rows));
+    assertTrue(scanner.maxOpen[0].get() <= 1);
+    assertTrue(scanner.maxOpen[1].get() <= 1);
+  }
+
+  @Test
+  public void testScanRange() throws IOException {
+    Scan scan = new Scan(Bytes.toBytes("b"), Bytes.toBytes("e"));
+    InMemoryScanner scanner = new InMemoryScanner(createConf(2, 2), scan, true);
+    assertEquals(Arrays.asList("b1", "c1", "d1"), readAll(scanner));
+    // Only the regions holding rows of the scan, cut to its range
+    assertEquals(2, scanner.regionScans.size());
+    for (Scan regionScan : scanner.regionScans) {
+      if (Bytes.equals(Bytes.toBytes("b"), regionScan.getStartRow())) {
+        assertEquals("d", Bytes.toString(regionScan.getStopRow()));
+      } else {
+        assertEquals("d", Bytes.toString(regionScan.getStartRow()));
+        assertEquals("e", Bytes.toString(regionScan.getStopRow()));
+      }
+    }
+  }
+
+  @Test
+  public void testGetRegionScanWithRowRanges() throws IOException {
+    List<RowRange> ranges = new ArrayList<RowRange>();
+    ranges.add(new RowRange(Bytes.toBytes("a"), Bytes.toBytes("a3")));
+    ranges.add(new RowRange(Bytes.toBytes("g"), Bytes.toBytes("h")));
+    Scan scan = new Scan();
+    scan.setFilter(new MultiRowRangeFilter(ranges));
+    assertTrue(ParallelClientScanner.getRegionScan(scan, region("", "b")) != null);
+    assertNull(ParallelClientScanner.getRegionScan(scan, region("b", "d")));
+    assertNull(ParallelClientScanner.getRegionScan(scan, region("d", "f")));
+    assertTrue(ParallelClientScanner.getRegionScan(scan, region("f", "")) != null);
+  }
+
+  @Test
+  public void testReopensWhileCallerIsSlow() throws IOException {
+    Configuration conf = createConf(4, 2);
+    // Regions waiting longer than 100ms for room close their scanner
+    conf.setInt(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD, 200);
+    Scan scan = new Scan();
+    scan.setCaching(1);
+    InMemoryScanner scanner = new InMemoryScanner(conf, scan, true);
+    List<String> rows = new ArrayList<String>();
+    rows.add(Bytes.toString(scanner.next().getRow()));
+    // The regions after the first fill their queue and wait
+    Threads.sleep(1000);
+    rows.addAll(readAll(scanner));
+    assertEquals(ROWS, rows);
+    assertEquals(0, scanner.open[0].get());
+    assertEquals(0, scanner.open[1].get());
+    // Each of them opened a scanner again at the row it was waiting to put
+    List<String> starts = new ArrayList<String>();
+    for (Scan regionScan : scanner.regionScans) {
+      starts.add(Bytes.toString(regionScan.getStartRow()));
+    }
+    assertTrue(starts.contains("c1"));
+    assertTrue(starts.contains("e1"));
+    assertTrue(starts.contains("g1"));
+  }
+
+  @Test
+  public void testError() throws IOException {
+    InMemoryScanner scanner =
+      new InMemoryScanner(createConf(2, 2), new Scan(), true);
+    scanner.failRow = "d1";
+    List<String> rows = new ArrayList<String>();
+    try {
+      Result result;
+      while ((result = scanner.next()) != null) {
+        rows.add(Bytes.toString(result.getRow()));
+      }
+      fail("Expected the failure of a region to come through");
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(Arrays.asList("a1", "a2", "b1", "c1"), rows);
+    assertNull(scanner.next());
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
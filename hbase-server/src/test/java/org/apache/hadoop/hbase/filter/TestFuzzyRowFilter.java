@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestFuzzyRowFilter {
+  // "????_10", any user id in October
+  private static final byte[] FUZZY_KEY = Bytes.toBytes("\0\0\0\0_10");
+  private static final byte[] FUZZY_MASK = {1, 1, 1, 1, 0, 0, 0};
+
+  private static FuzzyRowFilter createFilter() {
+    List<Pair<byte[], byte[]>> fuzzyKeys = new ArrayList<Pair<byte[], byte[]>>();
+    fuzzyKeys.add(new Pair<byte[], byte[]>(FUZZY_KEY, FUZZY_MASK));
+    return new FuzzyRowFilter(fuzzyKeys);
+  }
+
+  private static KeyValue kv(String row) {
+    return new KeyValue(Bytes.toBytes(row), Bytes.toBytes("f"),
+        Bytes.toBytes("q"), Bytes.toBytes("v"));
+  }
+
+  private static void assertNext(String expected, String row) {
+    byte[] r = Bytes.toBytes(row);
+    byte[] next = FuzzyRowFilter.getNextForFuzzyRule(r, 0, r.length,
+        FUZZY_KEY, FUZZY_MASK);
+    assertEquals(expected, next == null ? null : Bytes.toString(next));
+  }
+
+  @Test
+  public void testMatches() {
+    byte[] row = Bytes.toBytes("user_10");
+    assertTrue(FuzzyRowFilter.matches(row, 0, row.length, FUZZY_KEY, FUZZY_MASK));
+    row = Bytes.toBytes("user_10_31");
+    assertTrue(FuzzyRowFilter.matches(row, 0, row.length, FUZZY_KEY, FUZZY_MASK));
+    row = Bytes.toBytes("user_11");
+    assertFalse(FuzzyRowFilter.matches(row, 0, row.length, FUZZY_KEY, FUZZY_MASK));
+    row = Bytes.toBytes("user_1");
+    assertFalse(FuzzyRowFilter.matches(row, 0, row.length, FUZZY_KEY, FUZZY_MASK));
+  }
+
+  @Test
+  public void testGetNextForFuzzyRule() {
+    // Fixed part too small, move it up
+    assertNext("user_10", "user_09");
+    assertNext("user_10", "user");
+    // Fixed part too big, move on to the next user
+    assertNext("uses_10", "user_11");
+    assertNext("\0\0\0\1_10", "\0\0\0\0_11");
+    // Nothing left after the biggest user id
+    byte[] last = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, '_', '2'};
+    assertNull(FuzzyRowFilter.getNextForFuzzyRule(last, 0, last.length,
+        FUZZY_KEY, FUZZY_MASK));
+  }
+
+  @Test
+  public void testSeekHints() {
+    FuzzyRowFilter filter = createFilter();
+    assertEquals(Filter.ReturnCode.INCLUDE, filter.filterKeyValue(kv("aaaa_10")));
+    KeyValue current = kv("aaaa_12");
+    assertEquals(Filter.ReturnCode.SEEK_NEXT_USING_HINT,
+        filter.filterKeyValue(current));
+    KeyValue hint = filter.getNextKeyHint(current);
+    assertTrue(Bytes.equals(Bytes.toBytes("aaab_10"), hint.getRow()));
+    assertTrue(KeyValue.COMPARATOR.compare(current, hint) < 0);
+    assertFalse(filter.filterAllRemaining());
+
+    byte[] last = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, '_', '2'};
+    assertEquals(Filter.ReturnCode.NEXT_ROW, filter.filterKeyValue(
+        new KeyValue(last, Bytes.toBytes("f"), Bytes.toBytes("q"))));
+    assertTrue(filter.filterAllRemaining());
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    FuzzyRowFilter filter = createFilter();
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(stream);
+    filter.write(out);
+    out.close();
+
+    FuzzyRowFilter newFilter = new FuzzyRowFilter();
+    newFilter.readFields(new DataInputStream(
+        new ByteArrayInputStream(stream.toByteArray())));
+    assertEquals(1, newFilter.getFuzzyKeys().size());
+    assertTrue(Bytes.equals(FUZZY_KEY, newFilter.getFuzzyKeys().get(0).getFirst()));
+    assertTrue(Bytes.equals(FUZZY_MASK, newFilter.getFuzzyKeys().get(0).getSecond()));
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.filter.MultiRowRangeFilter.RowRange;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestMultiRowRangeFilter {
+
+  private static RowRange range(String start, String stop) {
+    return new RowRange(Bytes.toBytes(start), Bytes.toBytes(stop));
+  }
+
+  private static KeyValue kv(String row) {
+    return new KeyValue(Bytes.toBytes(row), Bytes.toBytes("f"),
+        Bytes.toBytes("q"), Bytes.toBytes("v"));
+  }
+
+  private static void assertRange(String start, String stop, RowRange range) {
+    assertEquals(start, Bytes.toString(range.getStartRow()));
+    assertEquals(stop, Bytes.toString(range.getStopRow()));
+  }
+
+  private static MultiRowRangeFilter createFilter() {
+    List<RowRange> ranges = new ArrayList<RowRange>();
+    ranges.add(range("g", "k"));
+    ranges.add(range("b", "d"));
+    ranges.add(range("c", "e"));
+    ranges.add(range("e", "f"));
+    ranges.add(range("x", "x"));
+    return new MultiRowRangeFilter(ranges);
+  }
+
+  @Test
+  public void testSortAndMerge() {
+    List<RowRange> ranges = createFilter().getRowRanges();
+    // Overlapping and touching ranges merged, empty one dropped
+    assertEquals(2, ranges.size());
+    assertRange("b", "f", ranges.get(0));
+    assertRange("g", "k", ranges.get(1));
+
+    ranges = new ArrayList<RowRange>();
+    ranges.add(range("a", "c"));
+    ranges.add(range("b", ""));
+    ranges.add(range("d", "e"));
+    ranges = MultiRowRangeFilter.sortAndMerge(ranges);
+    assertEquals(1, ranges.size());
+    assertRange("a", "", ranges.get(0));
+  }
+
+  @Test
+  public void testSeekHints() {
+    MultiRowRangeFilter filter = createFilter();
+    KeyValue current = kv("a");
+    assertEquals(Filter.ReturnCode.SEEK_NEXT_USING_HINT,
+        filter.filterKeyValue(current));
+    assertEquals("b", Bytes.toString(filter.getNextKeyHint(current).getRow()));
+    assertEquals(Filter.ReturnCode.INCLUDE, filter.filterKeyValue(kv("b")));
+    assertEquals(Filter.ReturnCode.INCLUDE, filter.filterKeyValue(kv("ez")));
+    current = kv("f");
+    assertEquals(Filter.ReturnCode.SEEK_NEXT_USING_HINT,
+        filter.filterKeyValue(current));
+    assertEquals("g", Bytes.toString(filter.getNextKeyHint(current).getRow()));
+    assertEquals(Filter.ReturnCode.INCLUDE, filter.filterKeyValue(kv("j")));
+    assertFalse(filter.filterAllRemaining());
+    assertEquals(Filter.ReturnCode.NEXT_ROW, filter.filterKeyValue(kv("k")));
+    assertTrue(filter.filterAllRemaining());
+  }
+
+  @Test
+  public void testGetNextRowInRanges() {
+    MultiRowRangeFilter filter = createFilter();
+    assertEquals("b", Bytes.toString(filter.getNextRowInRanges(Bytes.toBytes(""))));
+    assertEquals("c", Bytes.toString(filter.getNextRowInRanges(Bytes.toBytes("c"))));
+    assertEquals("g", Bytes.toString(filter.getNextRowInRanges(Bytes.toBytes("f"))));
+    assertNull(filter.getNextRowInRanges(Bytes.toBytes("k")));
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    MultiRowRangeFilter filter = createFilter();
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(stream);
+    filter.write(out);
+    out.close();
+
+    MultiRowRangeFilter newFilter = new MultiRowRangeFilter();
+    newFilter.readFields(new DataInputStream(
+        new ByteArrayInputStream(stream.toByteArray())));
+    assertEquals(2, newFilter.getRowRanges().size());
+    assertRange("b", "f", newFilter.getRowRanges().get(0));
+    assertRange("g", "k", newFilter.getRowRanges().get(1));
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
@@ -45,6 +45,7 @@ import org.apache.hadoop.hbase.io.hfile.CachedBlock;
 import org.apache.hadoop.hbase.io.hfile.LruBlockCache;
 import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.MemStore;
+import org.apache.hadoop.hbase.regionserver.MultiVersionConsistencyControl;
 import org.apache.hadoop.hbase.regionserver.Store;
 import org.apache.hadoop.hbase.regionserver.metrics.SchemaConfigured;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -320,6 +321,15 @@ public class TestHeapSize extends TestCase {
       assertEquals(expected, actual);
     }
 
+    // MVCC Overhead
+    cl = MultiVersionConsistencyControl.class;
+    actual = MultiVersionConsistencyControl.FIXED_SIZE;
+    expected = ClassSize.estimateBase(cl, false);
+    if (expected != actual) {
+      ClassSize.estimateBase(cl, true);
+      assertEquals(expected, actual);
+    }
+
     // Block cache key overhead
     cl = BlockCacheKey.class;
     // Passing zero length file name, because estimateBase does not handle
@@ -18,11 +18,13 @@
 package org.apache.hadoop.hbase.master;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -35,6 +37,7 @@ import org.apache.hadoop.hbase.client.ClientProtocol;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.executor.EventHandler.EventType;
 import org.apache.hadoop.hbase.ipc.ProtocolSignature;
 import org.apache.hadoop.hbase.ipc.RpcServer;
 import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
@@ -329,6 +332,49 @@ class MockRegionServer implements AdminProtocol, ClientProtocol, RegionServerSer
     return null;
   }
 
+  @Override
+  public boolean reportRegionTransition(EventType type, HRegionInfo hri) {
+    // TODO Auto-generated method stub
+    return false;
+  }
+
+  @Override
+  public void updateFavoredNodes(String[] encodedRegionNames,
+      String[] favoredNodes) throws IOException {
+    // TODO Auto-generated method stub
+  }
+
+  @Override
+  public InetSocketAddress[] getFavoredNodesForRegion(String encodedRegionName) {
+    // TODO Auto-generated method stub
+    return null;
+  }
+
+  @Override
+  public boolean[] closeRegions(byte[][] regionNames,
+      int[] versionsOfClosingNode) throws IOException {
+    // TODO Auto-generated method stub
+    return null;
+  }
+
+  @Override
+  public ThreadPoolExecutor getStoreOpenAndCloseThreadPool() {
+    // TODO Auto-generated method stub
+    return null;
+  }
+
+  @Override
+  public ThreadPoolExecutor getStoreFileOpenAndCloseThreadPool() {
+    // TODO Auto-generated method stub
+    return null;
+  }
+
+  @Override
+  public ThreadPoolExecutor getParallelSeekThreadPool() {
+    // TODO Auto-generated method stub
+    return null;
+  }
+
   @Override
   public FileSystem getFileSystem() {
     // TODO Auto-generated method stub
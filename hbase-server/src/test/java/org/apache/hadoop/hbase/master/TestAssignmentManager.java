@@ -19,15 +19,22 @@ package org.apache.hadoop.hbase.master;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
 
 import org.apache.hadoop.hbase.DeserializationException;
 import org.apache.hadoop.hbase.HBaseConfiguration;
@@ -51,6 +58,7 @@ import org.apache.hadoop.hbase.executor.ExecutorService.ExecutorType;
 import org.apache.hadoop.hbase.master.AssignmentManager.RegionState;
 import org.apache.hadoop.hbase.master.AssignmentManager.RegionState.State;
 import org.apache.hadoop.hbase.master.balancer.DefaultLoadBalancer;
+import org.apache.hadoop.hbase.master.balancer.FavoredNodeAssignmentHelper;
 import org.apache.hadoop.hbase.master.balancer.LoadBalancerFactory;
 import org.apache.hadoop.hbase.master.handler.ServerShutdownHandler;
 import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
@@ -77,6 +85,8 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.google.protobuf.RpcController;
 import com.google.protobuf.ServiceException;
@@ -378,6 +388,355 @@ public class TestAssignmentManager {
     }
   }
 
+  /**
+   * Test that the bulk assigns to many servers run in parallel, but no more
+   * of them at a time than hbase.bulk.assignment.threadpool.size.
+   */
+  @Test
+  public void testBulkAssignIsBounded() throws Exception {
+    Configuration conf = new Configuration(HTU.getConfiguration());
+    conf.setInt("hbase.bulk.assignment.threadpool.size", 2);
+    Mockito.when(this.server.getConfiguration()).thenReturn(conf);
+    ExecutorService executor = startupMasterExecutor("testBulkAssignIsBoundedExecutor");
+    CatalogTracker ct = Mockito.mock(CatalogTracker.class);
+    LoadBalancer balancer = Mockito.mock(LoadBalancer.class);
+
+    List<ServerName> servers = new ArrayList<ServerName>();
+    List<HRegionInfo> regions = new ArrayList<HRegionInfo>();
+    Map<ServerName, List<HRegionInfo>> plan = new HashMap<ServerName, List<HRegionInfo>>();
+    for (int i = 0; i < 4; i++) {
+      ServerName sn = new ServerName("server" + i + ".example.org", 1234, 5678);
+      servers.add(sn);
+      HRegionInfo hri = new HRegionInfo(Bytes.toBytes("t"),
+        Bytes.toBytes(Integer.toString(i)), Bytes.toBytes(Integer.toString(i + 1)));
+      regions.add(hri);
+      List<HRegionInfo> planned = new ArrayList<HRegionInfo>();
+      planned.add(hri);
+      plan.put(sn, planned);
+    }
+    Mockito.when(balancer.roundRobinAssignment(regions, servers)).thenReturn(plan);
+
+    final AtomicInteger opening = new AtomicInteger(0);
+    final AtomicInteger maxOpening = new AtomicInteger(0);
+    Mockito.when(this.serverManager.sendRegionOpen(Mockito.any(ServerName.class),
+        Mockito.anyListOf(HRegionInfo.class))).thenAnswer(
+      new Answer<List<RegionOpeningState>>() {
+        @Override
+        public List<RegionOpeningState> answer(InvocationOnMock invocation) {
+          int now = opening.incrementAndGet();
+          synchronized (maxOpening) {
+            if (now > maxOpening.get()) maxOpening.set(now);
+          }
+          Threads.sleep(500);
+          opening.decrementAndGet();
+          int count = ((List<?>)invocation.getArguments()[1]).size();
+          List<RegionOpeningState> states = new ArrayList<RegionOpeningState>(count);
+          for (int i = 0; i < count; i++) {
+            states.add(RegionOpeningState.OPENED);
+          }
+          return states;
+        }
+      });
+
+    AssignmentManager am = new AssignmentManager(this.server,
+      this.serverManager, ct, balancer, executor, null);
+    try {
+      am.assign(regions, servers);
+      Mockito.verify(this.serverManager, Mockito.times(4)).sendRegionOpen(
+        Mockito.any(ServerName.class), Mockito.anyListOf(HRegionInfo.class));
+      assertEquals(2, maxOpening.get());
+    } finally {
+      executor.shutdown();
+      am.shutdown();
+      ZKAssign.deleteAllNodes(this.watcher);
+    }
+  }
+
+  /**
+   * Test that user regions get favored nodes, primary first, when bulk
+   * assigned, that they go back to one of those when reassigned, and that
+   * the daughters of a split inherit them.
+   */
+  @Test
+  public void testFavoredNodes() throws Exception {
+    Configuration conf = new Configuration(HTU.getConfiguration());
+    conf.setBoolean(HConstants.FAVORED_NODES_ENABLED_KEY, true);
+    Mockito.when(this.server.getConfiguration()).thenReturn(conf);
+    ExecutorService executor = startupMasterExecutor("testFavoredNodesExecutor");
+    CatalogTracker ct = Mockito.mock(CatalogTracker.class);
+    LoadBalancer balancer = Mockito.mock(LoadBalancer.class);
+
+    final List<ServerName> servers = new ArrayList<ServerName>();
+    for (int i = 0; i < 4; i++) {
+      servers.add(new ServerName("server" + i + ".example.org", 1234, 5678));
+    }
+    Mockito.when(this.serverManager.getOnlineServersList()).thenReturn(servers);
+    Mockito.when(this.serverManager.sendRegionOpen(Mockito.any(ServerName.class),
+        Mockito.anyListOf(HRegionInfo.class))).thenAnswer(
+      new Answer<List<RegionOpeningState>>() {
+        @Override
+        public List<RegionOpeningState> answer(InvocationOnMock invocation) {
+          int count = ((List<?>)invocation.getArguments()[1]).size();
+          List<RegionOpeningState> states = new ArrayList<RegionOpeningState>(count);
+          for (int i = 0; i < count; i++) {
+            states.add(RegionOpeningState.OPENED);
+          }
+          return states;
+        }
+      });
+    HRegionInfo hri = new HRegionInfo(Bytes.toBytes("t"),
+      Bytes.toBytes("a"), Bytes.toBytes("z"));
+    List<HRegionInfo> regions = new ArrayList<HRegionInfo>();
+    regions.add(hri);
+
+    // Stands in for .META.
+    final List<Map<HRegionInfo, List<ServerName>>> recorded =
+      new ArrayList<Map<HRegionInfo, List<ServerName>>>();
+    final AtomicBoolean metaUp = new AtomicBoolean(true);
+    AssignmentManager am = new AssignmentManager(this.server,
+        this.serverManager, ct, balancer, executor, null) {
+      @Override
+      boolean recordFavoredNodes(Map<HRegionInfo, List<ServerName>> favored) {
+        if (!metaUp.get()) return false;
+        recorded.add(favored);
+        return true;
+      }
+    };
+    try {
+      // First assignment: the destination becomes the primary
+      Map<ServerName, List<HRegionInfo>> plan = new HashMap<ServerName, List<HRegionInfo>>();
+      plan.put(servers.get(0), regions);
+      Mockito.when(balancer.roundRobinAssignment(regions, servers)).thenReturn(plan);
+      am.assign(regions, servers);
+      List<ServerName> favored = am.getFavoredNodes(hri);
+      assertEquals(FavoredNodeAssignmentHelper.FAVORED_NODES_NUM, favored.size());
+      assertEquals(servers.get(0).getHostAndPort(), favored.get(0).getHostAndPort());
+      Map<HRegionInfo, List<ServerName>> sent = new HashMap<HRegionInfo, List<ServerName>>();
+      sent.put(hri, favored);
+      Mockito.verify(this.serverManager).sendFavoredNodes(servers.get(0), sent);
+      assertEquals(1, recorded.size());
+      assertEquals(sent, recorded.get(0));
+
+      // The primary is gone and the plan has the region on the one server
+      // that is not favored: it goes to a favored one, with the same nodes
+      am.regionOnline(hri, servers.get(0));
+      am.regionOffline(hri);
+      ZKAssign.deleteAllNodes(this.watcher);
+      List<ServerName> remaining = new ArrayList<ServerName>(servers.subList(1, 4));
+      ServerName notFavored = null;
+      for (ServerName sn : remaining) {
+        if (!FavoredNodeAssignmentHelper.isFavoredNode(favored, sn)) notFavored = sn;
+      }
+      plan = new HashMap<ServerName, List<HRegionInfo>>();
+      plan.put(notFavored, regions);
+      Mockito.when(balancer.roundRobinAssignment(regions, remaining)).thenReturn(plan);
+      am.assign(regions, remaining);
+      Mockito.verify(this.serverManager, Mockito.never()).sendRegionOpen(
+        Mockito.eq(notFavored), Mockito.anyListOf(HRegionInfo.class));
+      assertEquals(favored, am.getFavoredNodes(hri));
+      ServerName secondary = null;
+      for (ServerName sn : remaining) {
+        if (sn.getHostAndPort().equals(favored.get(1).getHostAndPort())) secondary = sn;
+      }
+      Mockito.verify(this.serverManager).sendFavoredNodes(secondary, sent);
+
+      // Split: the daughters get the nodes of the parent
+      HRegionInfo a = new HRegionInfo(Bytes.toBytes("t"), Bytes.toBytes("a"),
+        Bytes.toBytes("m"));
+      HRegionInfo b = new HRegionInfo(Bytes.toBytes("t"), Bytes.toBytes("m"),
+        Bytes.toBytes("z"));
+      am.handleSplitReport(secondary, hri, a, b);
+      assertNull(am.getFavoredNodes(hri));
+      assertEquals(favored, am.getFavoredNodes(a));
+      assertEquals(favored, am.getFavoredNodes(b));
+      Map<HRegionInfo, List<ServerName>> daughters =
+        new HashMap<HRegionInfo, List<ServerName>>();
+      daughters.put(a, favored);
+      daughters.put(b, favored);
+      Mockito.verify(this.serverManager).sendFavoredNodes(secondary, daughters);
+      assertEquals(2, recorded.size());
+      assertEquals(daughters, recorded.get(1));
+
+      // Gone from META: forgotten
+      am.removeFavoredNodes(a);
+      assertNull(am.getFavoredNodes(a));
+      assertEquals(favored, am.getFavoredNodes(b));
+
+      // Nodes that cannot be written to META are not used
+      metaUp.set(false);
+      HRegionInfo other = new HRegionInfo(Bytes.toBytes("u"));
+      List<HRegionInfo> others = new ArrayList<HRegionInfo>();
+      others.add(other);
+      plan = new HashMap<ServerName, List<HRegionInfo>>();
+      plan.put(servers.get(2), others);
+      Mockito.when(balancer.roundRobinAssignment(others, servers)).thenReturn(plan);
+      am.assign(others, servers);
+      assertNull(am.getFavoredNodes(other));
+      Mockito.verify(this.serverManager).sendFavoredNodes(servers.get(2),
+        new HashMap<HRegionInfo, List<ServerName>>());
+    } finally {
+      executor.shutdown();
+      am.shutdown();
+      ZKAssign.deleteAllNodes(this.watcher);
+    }
+  }
+
+  /**
+   * Test that the regions of a table being disabled get their CLOSING znodes
+   * in one batch and one CLOSE RPC per server.
+   */
+  @Test
+  public void testBulkUnassign() throws Exception {
+    ExecutorService executor = startupMasterExecutor("testBulkUnassignExecutor");
+    CatalogTracker ct = Mockito.mock(CatalogTracker.class);
+    AssignmentManager am = new AssignmentManager(this.server,
+      this.serverManager, ct, Mockito.mock(LoadBalancer.class), executor, null);
+    java.util.concurrent.ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      List<HRegionInfo> regions = createRegions(3);
+      am.regionOnline(regions.get(0), SERVERNAME_A);
+      am.regionOnline(regions.get(1), SERVERNAME_A);
+      am.regionOnline(regions.get(2), SERVERNAME_B);
+      Mockito.when(this.serverManager.sendRegionsClose(Mockito.any(ServerName.class),
+          Mockito.anyListOf(HRegionInfo.class), Mockito.any(int[].class))).thenAnswer(
+        new Answer<boolean[]>() {
+          @Override
+          public boolean[] answer(InvocationOnMock invocation) {
+            boolean [] closed = new boolean[((List<?>)invocation.getArguments()[1]).size()];
+            Arrays.fill(closed, true);
+            return closed;
+          }
+        });
+
+      am.unassign(regions, pool);
+      pool.shutdown();
+      assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+      for (HRegionInfo hri : regions) {
+        assertTrue(ZKUtil.checkExists(this.watcher,
+          ZKAssign.getNodeName(this.watcher, hri.getEncodedName())) != -1);
+        assertEquals(State.PENDING_CLOSE,
+          am.getRegionsInTransition().get(hri.getEncodedName()).getState());
+      }
+      Mockito.verify(this.serverManager).sendRegionsClose(Mockito.eq(SERVERNAME_A),
+        Mockito.eq(regions.subList(0, 2)), Mockito.any(int[].class));
+      Mockito.verify(this.serverManager).sendRegionsClose(Mockito.eq(SERVERNAME_B),
+        Mockito.eq(regions.subList(2, 3)), Mockito.any(int[].class));
+      Mockito.verify(this.serverManager, Mockito.never()).sendRegionClose(
+        Mockito.any(ServerName.class), Mockito.any(HRegionInfo.class), Mockito.anyInt(),
+        Mockito.any(ServerName.class));
+    } finally {
+      pool.shutdownNow();
+      executor.shutdown();
+      am.shutdown();
+      ZKAssign.deleteAllNodes(this.watcher);
+    }
+  }
+
+  /**
+   * Test that regions a server did not close on the bulk CLOSE, or all of
+   * them if the bulk CLOSE failed, are closed one by one.
+   */
+  @Test
+  public void testBulkUnassignFallsBackToSingleCloses() throws Exception {
+    ExecutorService executor = startupMasterExecutor("testBulkUnassignFallbackExecutor");
+    CatalogTracker ct = Mockito.mock(CatalogTracker.class);
+    AssignmentManager am = new AssignmentManager(this.server,
+      this.serverManager, ct, Mockito.mock(LoadBalancer.class), executor, null);
+    java.util.concurrent.ExecutorService pool = Executors.newFixedThreadPool(2);
+    try {
+      List<HRegionInfo> regions = createRegions(3);
+      am.regionOnline(regions.get(0), SERVERNAME_A);
+      am.regionOnline(regions.get(1), SERVERNAME_A);
+      am.regionOnline(regions.get(2), SERVERNAME_B);
+      // SERVERNAME_A closes only the first, SERVERNAME_B does not know the RPC
+      Mockito.when(this.serverManager.sendRegionsClose(Mockito.eq(SERVERNAME_A),
+          Mockito.anyListOf(HRegionInfo.class), Mockito.any(int[].class)))
+        .thenReturn(new boolean[] { true, false });
+      Mockito.when(this.serverManager.sendRegionsClose(Mockito.eq(SERVERNAME_B),
+          Mockito.anyListOf(HRegionInfo.class), Mockito.any(int[].class)))
+        .thenThrow(new IOException("injected"));
+      Mockito.when(this.serverManager.sendRegionClose(Mockito.any(ServerName.class),
+          Mockito.any(HRegionInfo.class), Mockito.anyInt(), Mockito.any(ServerName.class)))
+        .thenReturn(true);
+
+      am.unassign(regions, pool);
+      pool.shutdown();
+      assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+      Mockito.verify(this.serverManager, Mockito.never()).sendRegionClose(
+        Mockito.eq(SERVERNAME_A), Mockito.eq(regions.get(0)), Mockito.anyInt(),
+        Mockito.any(ServerName.class));
+      Mockito.verify(this.serverManager).sendRegionClose(
+        Mockito.eq(SERVERNAME_A), Mockito.eq(regions.get(1)), Mockito.anyInt(),
+        Mockito.any(ServerName.class));
+      Mockito.verify(this.serverManager).sendRegionClose(
+        Mockito.eq(SERVERNAME_B), Mockito.eq(regions.get(2)), Mockito.anyInt(),
+        Mockito.any(ServerName.class));
+    } finally {
+      pool.shutdownNow();
+      executor.shutdown();
+      am.shutdown();
+      ZKAssign.deleteAllNodes(this.watcher);
+    }
+  }
+
+  /**
+   * Test that the regions of a table being enabled are bulk assigned, one
+   * OPEN RPC per server, rather than assigned one by one.
+   */
+  @Test
+  public void testAssignRandomly() throws Exception {
+    ExecutorService executor = startupMasterExecutor("testAssignRandomlyExecutor");
+    CatalogTracker ct = Mockito.mock(CatalogTracker.class);
+    LoadBalancer balancer = Mockito.mock(LoadBalancer.class);
+    List<HRegionInfo> regions = createRegions(3);
+    Map<HRegionInfo, ServerName> immediate = new HashMap<HRegionInfo, ServerName>();
+    immediate.put(regions.get(0), SERVERNAME_A);
+    immediate.put(regions.get(1), SERVERNAME_A);
+    immediate.put(regions.get(2), SERVERNAME_B);
+    Mockito.when(balancer.immediateAssignment(Mockito.anyListOf(HRegionInfo.class),
+      Mockito.anyListOf(ServerName.class))).thenReturn(immediate);
+    Mockito.when(this.serverManager.sendRegionOpen(Mockito.any(ServerName.class),
+        Mockito.anyListOf(HRegionInfo.class))).thenAnswer(
+      new Answer<List<RegionOpeningState>>() {
+        @Override
+        public List<RegionOpeningState> answer(InvocationOnMock invocation) {
+          int count = ((List<?>)invocation.getArguments()[1]).size();
+          List<RegionOpeningState> states = new ArrayList<RegionOpeningState>(count);
+          for (int i = 0; i < count; i++) {
+            states.add(RegionOpeningState.OPENED);
+          }
+          return states;
+        }
+      });
+    AssignmentManager am = new AssignmentManager(this.server,
+      this.serverManager, ct, balancer, executor, null);
+    try {
+      am.assignRandomly(regions);
+      // One OPEN to each server, SERVERNAME_B's with its one region
+      Mockito.verify(this.serverManager, Mockito.times(2)).sendRegionOpen(
+        Mockito.any(ServerName.class), Mockito.anyListOf(HRegionInfo.class));
+      Mockito.verify(this.serverManager).sendRegionOpen(Mockito.eq(SERVERNAME_A),
+        Mockito.anyListOf(HRegionInfo.class));
+      Mockito.verify(this.serverManager).sendRegionOpen(SERVERNAME_B,
+        regions.subList(2, 3));
+      Mockito.verify(this.serverManager, Mockito.never()).sendRegionOpen(
+        Mockito.any(ServerName.class), Mockito.any(HRegionInfo.class), Mockito.anyInt());
+    } finally {
+      executor.shutdown();
+      am.shutdown();
+      ZKAssign.deleteAllNodes(this.watcher);
+    }
+  }
+
+  private static List<HRegionInfo> createRegions(int count) {
+    List<HRegionInfo> regions = new ArrayList<HRegionInfo>(count);
+    for (int i = 0; i < count; i++) {
+      regions.add(new HRegionInfo(Bytes.toBytes("t"),
+        Bytes.toBytes(Integer.toString(i)), Bytes.toBytes(Integer.toString(i + 1))));
+    }
+    return regions;
+  }
+
   /**
    * Run a simple server shutdown handler.
    * @throws KeeperException
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.LargeTests;
+import org.apache.hadoop.hbase.MiniHBaseCluster;
+import org.apache.hadoop.hbase.catalog.MetaReader;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.regionserver.HRegionServer;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.hadoop.hbase.zookeeper.ZKUtil;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test that the edits of a dead server are replayed into its regions once
+ * they are reassigned, see {@link HConstants#DISTRIBUTED_LOG_REPLAY_KEY}.
+ */
+@Category(LargeTests.class)
+public class TestDistributedLogReplay {
+  private static final Log LOG = LogFactory.getLog(TestDistributedLogReplay.class);
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final int NUM_RS = 3;
+
+  @BeforeClass
+  public static void beforeAllTests() throws Exception {
+    Configuration conf = TEST_UTIL.getConfiguration();
+    conf.setInt(HConstants.REGIONSERVER_INFO_PORT, -1);
+    conf.setFloat(HConstants.LOAD_BALANCER_SLOP_KEY, (float) 100.0); // no load balancing
+    conf.setBoolean(HConstants.DISTRIBUTED_LOG_SPLITTING_KEY, true);
+    conf.setBoolean(HConstants.DISTRIBUTED_LOG_REPLAY_KEY, true);
+    TEST_UTIL.startMiniCluster(NUM_RS);
+  }
+
+  @AfterClass
+  public static void afterAllTests() throws Exception {
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  /**
+   * @return index of a region server carrying neither -ROOT- nor .META.
+   */
+  private static int getServerWithoutCatalog(MiniHBaseCluster cluster) {
+    int root = cluster.getServerWith(HRegionInfo.ROOT_REGIONINFO.getRegionName());
+    int meta = cluster.getServerWithMeta();
+    for (int i = 0; i < NUM_RS; i++) {
+      if (i != root && i != meta) return i;
+    }
+    throw new IllegalStateException("Catalog regions on all servers");
+  }
+
+  private static int countColumn(HTable table, byte[] qualifier) throws Exception {
+    Scan scan = new Scan();
+    scan.addColumn(FAMILY, qualifier);
+    ResultScanner scanner = table.getScanner(scan);
+    int count = 0;
+    for (Result r = scanner.next(); r != null; r = scanner.next()) {
+      count++;
+    }
+    scanner.close();
+    return count;
+  }
+
+  @Test
+  public void testReplayIntoReassignedRegions() throws Exception {
+    MiniHBaseCluster cluster = TEST_UTIL.getHBaseCluster();
+    byte[] tableName = Bytes.toBytes("testReplayIntoReassignedRegions");
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    TEST_UTIL.getHBaseAdmin().createTable(htd, Bytes.toBytes("bbb"),
+      Bytes.toBytes("yyy"), 3 * NUM_RS);
+    TEST_UTIL.waitTableAvailable(tableName, 30000);
+    HTable table = new HTable(TEST_UTIL.getConfiguration(), tableName);
+
+    // Some edits flushed before the server dies, the others only in its log
+    int rows = TEST_UTIL.loadTable(table, FAMILY);
+    TEST_UTIL.getHBaseAdmin().flush(tableName);
+    List<Put> puts = new ArrayList<Put>();
+    // One row in each region, at its start key
+    for (HRegionInfo hri : MetaReader.getTableRegions(
+        cluster.getMaster().getCatalogTracker(), tableName)) {
+      byte[] key = hri.getStartKey().length == 0 ? Bytes.toBytes("aaa") : hri.getStartKey();
+      Put put = new Put(key);
+      put.add(FAMILY, QUALIFIER, key);
+      puts.add(put);
+    }
+    table.put(puts);
+    table.flushCommits();
+
+    int victim = getServerWithoutCatalog(cluster);
+    HRegionServer hrs = cluster.getRegionServer(victim);
+    int victimRegions = hrs.getOnlineRegions(tableName).size();
+    assertTrue(victimRegions > 0);
+    LOG.info("Aborting " + hrs.getServerName() + " carrying " + victimRegions +
+      " region(s)");
+    cluster.abortRegionServer(victim);
+
+    // Wait for the regions to be back and the recovering marks to be lifted
+    ZooKeeperWatcher zkw = cluster.getMaster().getZooKeeper();
+    AssignmentManager am = cluster.getMaster().getAssignmentManager();
+    for (int i = 0; i < 1200; i++) {
+      List<String> recovering = ZKUtil.listChildrenNoWatch(zkw, zkw.recoveringRegionsZNode);
+      if (cluster.getLiveRegionServerThreads().size() == NUM_RS - 1 &&
+          !am.isRegionsInTransition() &&
+          am.getRegionsOfTable(tableName).size() == 3 * NUM_RS &&
+          (recovering == null || recovering.isEmpty())) {
+        break;
+      }
+      Threads.sleep(100);
+    }
+    assertEquals(3 * NUM_RS, am.getRegionsOfTable(tableName).size());
+    assertEquals(rows, TEST_UTIL.countRows(table));
+    assertEquals(puts.size(), countColumn(table, QUALIFIER));
+    table.close();
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
@@ -0,0 +1,194 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.Server;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.GetRegionInfoResponse.CompactionState;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManagerTestHelper;
+import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+
+@Category(SmallTests.class)
+public class TestMajorCompactionCoordinator {
+  private static final long INTERVAL = 1000 * 60 * 60;
+  private static final byte[] TABLE = Bytes.toBytes("testMajorCompactionCoordinator");
+  private static final ServerName SERVER1 = new ServerName("server1", 60020, 1L);
+  private static final ServerName SERVER2 = new ServerName("server2", 60020, 1L);
+  private static final ServerName SERVER3 = new ServerName("server3", 60020, 1L);
+
+  private final HRegionInfo region1 =
+    new HRegionInfo(TABLE, Bytes.toBytes(""), Bytes.toBytes("b"));
+  private final HRegionInfo region2 =
+    new HRegionInfo(TABLE, Bytes.toBytes("b"), Bytes.toBytes("c"));
+  private final HRegionInfo region3 =
+    new HRegionInfo(TABLE, Bytes.toBytes("c"), Bytes.toBytes(""));
+
+  private ManualEnvironmentEdge edge;
+  private ServerManager serverManager;
+  private AssignmentManager assignmentManager;
+  private MajorCompactionCoordinator coordinator;
+
+  @Before
+  public void setUp() {
+    this.edge = new ManualEnvironmentEdge();
+    this.edge.setValue(10 * INTERVAL);
+    EnvironmentEdgeManagerTestHelper.injectEdge(this.edge);
+
+    Configuration conf = HBaseConfiguration.create();
+    conf.setLong("hbase.master.majorcompaction.coordinator.interval", INTERVAL);
+    conf.setInt("hbase.master.majorcompaction.coordinator.max.per.server", 1);
+    Server server = Mockito.mock(Server.class);
+    when(server.getConfiguration()).thenReturn(conf);
+    when(server.getServerName()).thenReturn(new ServerName("master", 60000, 1L));
+    this.serverManager = Mockito.mock(ServerManager.class);
+    this.assignmentManager = Mockito.mock(AssignmentManager.class);
+    MasterServices services = Mockito.mock(MasterServices.class);
+    when(services.getServerManager()).thenReturn(this.serverManager);
+    when(services.getAssignmentManager()).thenReturn(this.assignmentManager);
+
+    // region1 and region2 on server1, region3 on server2
+    Map<ServerName, List<HRegionInfo>> assignments =
+      new HashMap<ServerName, List<HRegionInfo>>();
+    List<HRegionInfo> regions = new ArrayList<HRegionInfo>();
+    regions.add(this.region1);
+    regions.add(this.region2);
+    assignments.put(SERVER1, regions);
+    regions = new ArrayList<HRegionInfo>();
+    regions.add(this.region3);
+    assignments.put(SERVER2, regions);
+    when(this.assignmentManager.getAssignments()).thenReturn(assignments);
+    when(this.assignmentManager.getRegionServerOfRegion(this.region1)).thenReturn(SERVER1);
+    when(this.assignmentManager.getRegionServerOfRegion(this.region2)).thenReturn(SERVER1);
+    when(this.assignmentManager.getRegionServerOfRegion(this.region3)).thenReturn(SERVER2);
+
+    this.coordinator = new MajorCompactionCoordinator(server, services);
+  }
+
+  @After
+  public void tearDown() {
+    EnvironmentEdgeManagerTestHelper.reset();
+  }
+
+  @Test
+  public void testSchedulesOncePerIntervalAndServer() throws IOException {
+    // Regions seen for the first time are spread over the interval
+    this.coordinator.chore();
+    verify(this.serverManager, never()).sendRegionCompact(
+      (ServerName)Mockito.any(), (HRegionInfo)Mockito.any(), Mockito.anyBoolean());
+
+    this.edge.setValue(this.edge.currentTimeMillis() + INTERVAL);
+    when(this.serverManager.getRegionCompactionState(
+      (ServerName)Mockito.any(), (HRegionInfo)Mockito.any()))
+      .thenReturn(CompactionState.MAJOR);
+    this.coordinator.chore();
+    // Only one region of server1 at a time
+    verify(this.serverManager, times(2)).sendRegionCompact(
+      (ServerName)Mockito.any(), (HRegionInfo)Mockito.any(), Mockito.eq(true));
+    verify(this.serverManager).sendRegionCompact(SERVER2, this.region3, true);
+
+    // Still compacting, nothing new is asked
+    this.coordinator.chore();
+    verify(this.serverManager, times(2)).sendRegionCompact(
+      (ServerName)Mockito.any(), (HRegionInfo)Mockito.any(), Mockito.eq(true));
+
+    // Done, the other region of server1 is asked and region3 is not due again
+    when(this.serverManager.getRegionCompactionState(
+      (ServerName)Mockito.any(), (HRegionInfo)Mockito.any()))
+      .thenReturn(CompactionState.NONE);
+    this.coordinator.chore();
+    verify(this.serverManager, times(3)).sendRegionCompact(
+      (ServerName)Mockito.any(), (HRegionInfo)Mockito.any(), Mockito.eq(true));
+    verify(this.serverManager, times(1)).sendRegionCompact(SERVER2, this.region3, true);
+  }
+
+  @Test
+  public void testFailedStateCheckKeepsRegionRunning() throws IOException {
+    this.coordinator.chore();
+    this.edge.setValue(this.edge.currentTimeMillis() + INTERVAL);
+    when(this.serverManager.getRegionCompactionState(
+      (ServerName)Mockito.any(), (HRegionInfo)Mockito.any()))
+      .thenThrow(new IOException("injected"));
+    this.coordinator.chore();
+    verify(this.serverManager, times(2)).sendRegionCompact(
+      (ServerName)Mockito.any(), (HRegionInfo)Mockito.any(), Mockito.eq(true));
+
+    // The state cannot be had: the server1 region is not taken as done, so
+    // the other region of server1 has to wait and nothing is asked twice
+    this.coordinator.chore();
+    this.coordinator.chore();
+    verify(this.serverManager, times(2)).sendRegionCompact(
+      (ServerName)Mockito.any(), (HRegionInfo)Mockito.any(), Mockito.eq(true));
+
+    // Once it answers again, the chore moves on
+    Mockito.reset(this.serverManager);
+    when(this.serverManager.getRegionCompactionState(
+      (ServerName)Mockito.any(), (HRegionInfo)Mockito.any()))
+      .thenReturn(CompactionState.NONE);
+    this.coordinator.chore();
+    verify(this.serverManager, times(1)).sendRegionCompact(
+      (ServerName)Mockito.any(), (HRegionInfo)Mockito.any(), Mockito.eq(true));
+  }
+
+  @Test
+  public void testMovedRegionIsDropped() throws IOException {
+    this.coordinator.chore();
+    this.edge.setValue(this.edge.currentTimeMillis() + INTERVAL);
+    when(this.serverManager.getRegionCompactionState(
+      (ServerName)Mockito.any(), (HRegionInfo)Mockito.any()))
+      .thenReturn(CompactionState.MAJOR);
+    this.coordinator.chore();
+    verify(this.serverManager).sendRegionCompact(SERVER2, this.region3, true);
+
+    // region3 moved to server3 before its compaction could be seen finished;
+    // it is not counted as compacted and gets asked again where it is now
+    when(this.assignmentManager.getRegionServerOfRegion(this.region3)).thenReturn(SERVER3);
+    Map<ServerName, List<HRegionInfo>> assignments =
+      new HashMap<ServerName, List<HRegionInfo>>();
+    List<HRegionInfo> regions = new ArrayList<HRegionInfo>();
+    regions.add(this.region3);
+    assignments.put(SERVER3, regions);
+    when(this.assignmentManager.getAssignments()).thenReturn(assignments);
+    this.coordinator.chore();
+    verify(this.serverManager).sendRegionCompact(SERVER3, this.region3, true);
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
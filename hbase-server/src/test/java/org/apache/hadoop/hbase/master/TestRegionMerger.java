@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.catalog.MetaReader;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test {@link RegionMerger} against a running cluster.
+ */
+@Category(MediumTests.class)
+public class TestRegionMerger {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+
+  @BeforeClass
+  public static void beforeAllTests() throws Exception {
+    TEST_UTIL.startMiniCluster(1);
+  }
+
+  @AfterClass
+  public static void afterAllTests() throws Exception {
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  private HTable createTable(byte[] tableName) throws IOException {
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    TEST_UTIL.getHBaseAdmin().createTable(htd,
+      new byte[][] { Bytes.toBytes("h"), Bytes.toBytes("p") });
+    return new HTable(TEST_UTIL.getConfiguration(), tableName);
+  }
+
+  private List<HRegionInfo> getRegions(byte[] tableName) throws IOException {
+    return MetaReader.getTableRegions(
+      TEST_UTIL.getHBaseCluster().getMaster().getCatalogTracker(), tableName);
+  }
+
+  private Path getRegionDir(HRegionInfo hri) {
+    MasterFileSystem mfs = TEST_UTIL.getHBaseCluster().getMaster().getMasterFileSystem();
+    return HRegion.getRegionDir(mfs.getRootDir(), hri);
+  }
+
+  @Test
+  public void testMerge() throws Exception {
+    byte[] tableName = Bytes.toBytes("testMerge");
+    HTable table = createTable(tableName);
+    int rows = TEST_UTIL.loadTable(table, FAMILY);
+    TEST_UTIL.getHBaseAdmin().flush(tableName);
+    HMaster master = TEST_UTIL.getHBaseCluster().getMaster();
+    List<HRegionInfo> regions = getRegions(tableName);
+    assertEquals(3, regions.size());
+    HRegionInfo a = regions.get(0);
+    HRegionInfo b = regions.get(1);
+
+    HRegionInfo merged = new RegionMerger(master).merge(a, b);
+    assertTrue(Bytes.equals(a.getStartKey(), merged.getStartKey()));
+    assertTrue(Bytes.equals(b.getEndKey(), merged.getEndKey()));
+    // a and b went out of META in the same edit that put merged in
+    regions = getRegions(tableName);
+    assertEquals(2, regions.size());
+    assertEquals(merged, regions.get(0));
+    HTable meta = new HTable(TEST_UTIL.getConfiguration(), HConstants.META_TABLE_NAME);
+    Result r = meta.get(new Get(merged.getRegionName()));
+    assertNotNull(r.getValue(HConstants.CATALOG_FAMILY, HConstants.MERGEA_QUALIFIER));
+    assertNotNull(r.getValue(HConstants.CATALOG_FAMILY, HConstants.MERGEB_QUALIFIER));
+
+    while (master.getAssignmentManager().getRegionServerOfRegion(merged) == null) {
+      Threads.sleep(100);
+    }
+    assertEquals(rows, TEST_UTIL.countRows(table));
+
+    // The region server rewrites the references; until then the files of a
+    // and b have to stay
+    FileSystem fs = master.getMasterFileSystem().getFileSystem();
+    CatalogJanitor janitor = new CatalogJanitor(master, master);
+    HRegion mergedRegion = TEST_UTIL.getHBaseCluster().getRegionServer(0)
+      .getOnlineRegion(merged.getRegionName());
+    if (mergedRegion.hasReferences()) {
+      janitor.scan();
+      assertTrue(fs.exists(getRegionDir(a)));
+      assertTrue(fs.exists(getRegionDir(b)));
+    }
+    for (int i = 0; i < 600 && mergedRegion.hasReferences(); i++) {
+      Threads.sleep(100);
+    }
+    assertFalse(mergedRegion.hasReferences());
+    assertEquals(1, janitor.scan());
+    assertFalse(fs.exists(getRegionDir(a)));
+    assertFalse(fs.exists(getRegionDir(b)));
+    r = meta.get(new Get(merged.getRegionName()));
+    assertNull(r.getValue(HConstants.CATALOG_FAMILY, HConstants.MERGEA_QUALIFIER));
+    assertEquals(rows, TEST_UTIL.countRows(table));
+    meta.close();
+    table.close();
+  }
+
+  @Test
+  public void testMergeNotAdjacent() throws Exception {
+    byte[] tableName = Bytes.toBytes("testMergeNotAdjacent");
+    HTable table = createTable(tableName);
+    List<HRegionInfo> regions = getRegions(tableName);
+    try {
+      new RegionMerger(TEST_UTIL.getHBaseCluster().getMaster())
+        .merge(regions.get(0), regions.get(2));
+      fail("Merged regions that are not adjacent");
+    } catch (IOException e) {
+      // expected
+    }
+    // Nothing was taken offline
+    assertEquals(3, getRegions(tableName).size());
+    table.close();
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
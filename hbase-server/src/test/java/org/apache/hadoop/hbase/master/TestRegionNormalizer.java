@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.RegionLoad;
+import org.apache.hadoop.hbase.Server;
+import org.apache.hadoop.hbase.ServerLoad;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.zookeeper.ZKTable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+
+@Category(SmallTests.class)
+public class TestRegionNormalizer {
+  private static final String TABLE = "testRegionNormalizer";
+  private static final ServerName SERVER = new ServerName("server1", 60020, 1L);
+
+  private Configuration conf;
+  private Server server;
+  private MasterServices services;
+  private AssignmentManager assignmentManager;
+  private ZKTable zkTable;
+  private RegionMerger merger;
+  private final List<HRegionInfo> regions = new ArrayList<HRegionInfo>();
+  private final Map<byte[], RegionLoad> loads =
+    new TreeMap<byte[], RegionLoad>(Bytes.BYTES_COMPARATOR);
+
+  @Before
+  public void setUp() {
+    this.conf = HBaseConfiguration.create();
+    this.server = Mockito.mock(Server.class);
+    when(this.server.getConfiguration()).thenReturn(this.conf);
+    when(this.server.getServerName()).thenReturn(new ServerName("master", 60000, 1L));
+    this.services = Mockito.mock(MasterServices.class);
+    this.assignmentManager = Mockito.mock(AssignmentManager.class);
+    this.zkTable = Mockito.mock(ZKTable.class);
+    when(this.services.getAssignmentManager()).thenReturn(this.assignmentManager);
+    when(this.assignmentManager.getZKTable()).thenReturn(this.zkTable);
+    Map<ServerName, List<HRegionInfo>> assignments =
+      new HashMap<ServerName, List<HRegionInfo>>();
+    assignments.put(SERVER, this.regions);
+    when(this.assignmentManager.getAssignments()).thenReturn(assignments);
+
+    ServerLoad serverLoad = Mockito.mock(ServerLoad.class);
+    when(serverLoad.getRegionsLoad()).thenReturn(this.loads);
+    Map<ServerName, ServerLoad> online = new HashMap<ServerName, ServerLoad>();
+    online.put(SERVER, serverLoad);
+    ServerManager serverManager = Mockito.mock(ServerManager.class);
+    when(serverManager.getOnlineServers()).thenReturn(online);
+    when(this.services.getServerManager()).thenReturn(serverManager);
+    this.merger = Mockito.mock(RegionMerger.class);
+  }
+
+  /**
+   * Adds a region of the table, reported with the passed size in MB.
+   */
+  private HRegionInfo addRegion(String start, String end, int sizeMB) {
+    HRegionInfo hri = new HRegionInfo(Bytes.toBytes(TABLE),
+      Bytes.toBytes(start), Bytes.toBytes(end));
+    this.regions.add(hri);
+    RegionLoad load = Mockito.mock(RegionLoad.class);
+    when(load.getName()).thenReturn(hri.getRegionName());
+    when(load.getStorefileSizeMB()).thenReturn(sizeMB);
+    this.loads.put(hri.getRegionName(), load);
+    return hri;
+  }
+
+  private void runNormalizer() {
+    new RegionNormalizer(this.server, this.services, this.merger).chore();
+  }
+
+  @Test
+  public void testMergesSmallAdjacentRegions() throws IOException {
+    HRegionInfo a = addRegion("", "b", 1);
+    HRegionInfo b = addRegion("b", "c", 2);
+    HRegionInfo c = addRegion("c", "d", 20);
+    HRegionInfo d = addRegion("d", "", 20);
+    runNormalizer();
+    verify(this.merger).merge(a, b);
+    verify(this.merger, never()).merge(b, c);
+    verify(this.merger, never()).merge(c, d);
+  }
+
+  @Test
+  public void testMergesPerRun() throws IOException {
+    this.conf.setInt("hbase.master.normalizer.merges.per.run", 2);
+    HRegionInfo a = addRegion("", "b", 1);
+    HRegionInfo b = addRegion("b", "c", 1);
+    HRegionInfo c = addRegion("c", "d", 1);
+    HRegionInfo d = addRegion("d", "e", 1);
+    HRegionInfo e = addRegion("e", "", 30);
+    runNormalizer();
+    verify(this.merger).merge(a, b);
+    verify(this.merger).merge(c, d);
+    verify(this.merger, never()).merge(b, c);
+    verify(this.merger, never()).merge(d, e);
+  }
+
+  @Test
+  public void testMinRegionCount() throws IOException {
+    this.conf.setInt("hbase.master.normalizer.min.region.count", 4);
+    this.conf.setInt("hbase.master.normalizer.merges.per.run", 2);
+    HRegionInfo a = addRegion("", "b", 1);
+    HRegionInfo b = addRegion("b", "c", 1);
+    HRegionInfo c = addRegion("c", "d", 1);
+    HRegionInfo d = addRegion("d", "e", 1);
+    addRegion("e", "", 16);
+    runNormalizer();
+    // A second merge would leave the table with fewer than four regions
+    verify(this.merger).merge(a, b);
+    verify(this.merger, never()).merge(c, d);
+  }
+
+  @Test
+  public void testSkipsUnreportedRegions() throws IOException {
+    addRegion("", "b", 1);
+    HRegionInfo b = addRegion("b", "c", 1);
+    addRegion("c", "", 20);
+    this.loads.remove(b.getRegionName());
+    runNormalizer();
+    verify(this.merger, never()).merge(
+      (HRegionInfo)Mockito.any(), (HRegionInfo)Mockito.any());
+  }
+
+  @Test
+  public void testSkipsDisabledTablesAndRegionsInTransition() throws IOException {
+    addRegion("", "b", 1);
+    addRegion("b", "c", 1);
+    addRegion("c", "", 20);
+    when(this.zkTable.isDisablingOrDisabledTable(TABLE)).thenReturn(true);
+    runNormalizer();
+    when(this.zkTable.isDisablingOrDisabledTable(TABLE)).thenReturn(false);
+    when(this.assignmentManager.isRegionsInTransition()).thenReturn(true);
+    runNormalizer();
+    verify(this.merger, never()).merge(
+      (HRegionInfo)Mockito.any(), (HRegionInfo)Mockito.any());
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.RegionTransition;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.catalog.MetaReader;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.executor.EventHandler.EventType;
+import org.apache.hadoop.hbase.regionserver.HRegionServer;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.hadoop.hbase.zookeeper.ZKUtil;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test region assignment when it does not go through zookeeper, see
+ * {@link HConstants#ASSIGNMENT_USE_ZK_KEY}.
+ */
+@Category(MediumTests.class)
+public class TestZKLessAssignment {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+
+  @BeforeClass
+  public static void beforeAllTests() throws Exception {
+    TEST_UTIL.getConfiguration().setBoolean(HConstants.ASSIGNMENT_USE_ZK_KEY, false);
+    TEST_UTIL.startMiniCluster(2);
+  }
+
+  @AfterClass
+  public static void afterAllTests() throws Exception {
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  private static AssignmentManager getAssignmentManager() {
+    return TEST_UTIL.getHBaseCluster().getMaster().getAssignmentManager();
+  }
+
+  private static void assertNoUnassignedZNodes() throws Exception {
+    ZooKeeperWatcher zkw = TEST_UTIL.getHBaseCluster().getMaster().getZooKeeper();
+    List<String> nodes = ZKUtil.listChildrenNoWatch(zkw, zkw.assignmentZNode);
+    assertTrue(nodes == null || nodes.isEmpty());
+  }
+
+  /**
+   * Waits for the transition recorded in META for <code>hri</code> to be
+   * cleared, which happens right after the region is online.
+   */
+  private static void waitForTransitionCleared(HTable meta, HRegionInfo hri)
+  throws IOException {
+    Get get = new Get(hri.getRegionName());
+    get.addColumn(HConstants.CATALOG_FAMILY, HConstants.TRANSITION_QUALIFIER);
+    for (int i = 0; i < 300 && !meta.get(get).isEmpty(); i++) {
+      Threads.sleep(100);
+    }
+    assertTrue("Transition of " + hri.getRegionNameAsString() + " still in META",
+      meta.get(get).isEmpty());
+  }
+
+  @Test
+  public void testAssignAndMove() throws Exception {
+    byte[] tableName = Bytes.toBytes("testAssignAndMove");
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    TEST_UTIL.getHBaseAdmin().createTable(htd,
+      new byte[][] { Bytes.toBytes("h"), Bytes.toBytes("p") });
+    TEST_UTIL.waitTableAvailable(tableName, 30000);
+    HTable table = new HTable(TEST_UTIL.getConfiguration(), tableName);
+    int rows = TEST_UTIL.loadTable(table, FAMILY);
+    HTable meta = new HTable(TEST_UTIL.getConfiguration(), HConstants.META_TABLE_NAME);
+
+    List<HRegionInfo> regions = MetaReader.getTableRegions(
+      TEST_UTIL.getHBaseCluster().getMaster().getCatalogTracker(), tableName);
+    assertEquals(3, regions.size());
+    for (HRegionInfo hri : regions) {
+      waitForTransitionCleared(meta, hri);
+    }
+    assertNoUnassignedZNodes();
+
+    // Move a region to the other server
+    HRegionInfo hri = regions.get(0);
+    AssignmentManager am = getAssignmentManager();
+    ServerName from = am.getRegionServerOfRegion(hri);
+    HRegionServer to = TEST_UTIL.getHBaseCluster().getRegionServer(0);
+    if (to.getServerName().equals(from)) {
+      to = TEST_UTIL.getHBaseCluster().getRegionServer(1);
+    }
+    TEST_UTIL.getHBaseAdmin().move(hri.getEncodedNameAsBytes(),
+      Bytes.toBytes(to.getServerName().toString()));
+    for (int i = 0; i < 300 &&
+        (!to.getServerName().equals(am.getRegionServerOfRegion(hri)) ||
+          am.isRegionsInTransition()); i++) {
+      Threads.sleep(100);
+    }
+    assertEquals(to.getServerName(), am.getRegionServerOfRegion(hri));
+    assertTrue(to.getOnlineRegion(hri.getRegionName()) != null);
+    waitForTransitionCleared(meta, hri);
+    assertNoUnassignedZNodes();
+    assertEquals(rows, TEST_UTIL.countRows(table));
+    meta.close();
+    table.close();
+  }
+
+  @Test
+  public void testTransitionFromUnknownServer() throws Exception {
+    HRegionInfo hri = HRegionInfo.FIRST_META_REGIONINFO;
+    ServerName unknown = new ServerName("unknown.example.org", 1234, 5678);
+    assertFalse(getAssignmentManager().reportRegionTransition(
+      RegionTransition.createRegionTransition(EventType.RS_ZK_REGION_OPENED,
+        hri.getRegionName(), unknown)));
+    // META stays where it is
+    assertFalse(unknown.equals(getAssignmentManager().getRegionServerOfRegion(hri)));
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master.balancer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.net.DNSToSwitchMapping;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+@Category(SmallTests.class)
+public class TestFavoredNodeAssignmentHelper {
+
+  /**
+   * @return a rack mapping putting host<i>n</i> on rack<i>n % racks</i>
+   */
+  @SuppressWarnings("unchecked")
+  private static DNSToSwitchMapping getRackMapping(final int racks) {
+    DNSToSwitchMapping mapping = Mockito.mock(DNSToSwitchMapping.class);
+    Mockito.when(mapping.resolve(Mockito.anyList())).thenAnswer(
+      new Answer<List<String>>() {
+        @Override
+        public List<String> answer(InvocationOnMock invocation) {
+          List<String> hosts = (List<String>)invocation.getArguments()[0];
+          List<String> result = new ArrayList<String>(hosts.size());
+          for (String host : hosts) {
+            int i = Integer.parseInt(host.substring("host".length()));
+            result.add("/rack" + (i % racks));
+          }
+          return result;
+        }
+      });
+    return mapping;
+  }
+
+  private static List<ServerName> getServers(final int count) {
+    List<ServerName> servers = new ArrayList<ServerName>(count);
+    for (int i = 0; i < count; i++) {
+      servers.add(new ServerName("host" + i, 60020, 1234L));
+    }
+    return servers;
+  }
+
+  @Test
+  public void testPlacementAcrossRacks() {
+    List<ServerName> servers = getServers(12);
+    FavoredNodeAssignmentHelper helper =
+      new FavoredNodeAssignmentHelper(servers, getRackMapping(3));
+    for (ServerName primary : servers) {
+      List<ServerName> favored = helper.placeFavoredNodes(primary);
+      assertEquals(FavoredNodeAssignmentHelper.FAVORED_NODES_NUM, favored.size());
+      assertEquals(primary.getHostAndPort(), favored.get(0).getHostAndPort());
+      Set<String> hosts = new HashSet<String>();
+      for (ServerName sn : favored) {
+        assertEquals(ServerName.NON_STARTCODE, sn.getStartcode());
+        hosts.add(sn.getHostname());
+      }
+      assertEquals(3, hosts.size());
+      // Secondary off the primary's rack, tertiary on the secondary's
+      int primaryRack = hostIndex(favored.get(0)) % 3;
+      int secondaryRack = hostIndex(favored.get(1)) % 3;
+      assertTrue(primaryRack != secondaryRack);
+      assertEquals(secondaryRack, hostIndex(favored.get(2)) % 3);
+    }
+  }
+
+  @Test
+  public void testPlacementWithFewHosts() {
+    List<ServerName> servers = getServers(2);
+    FavoredNodeAssignmentHelper helper =
+      new FavoredNodeAssignmentHelper(servers, getRackMapping(1));
+    List<ServerName> favored = helper.placeFavoredNodes(servers.get(0));
+    assertEquals(2, favored.size());
+    assertFalse(favored.get(0).getHostname().equals(favored.get(1).getHostname()));
+  }
+
+  @Test
+  public void testSerialization() {
+    List<ServerName> favored = getServers(3);
+    String s = FavoredNodeAssignmentHelper.getFavoredNodesAsString(favored);
+    List<ServerName> parsed =
+      FavoredNodeAssignmentHelper.getFavoredNodes(Bytes.toBytes(s));
+    assertEquals(favored.size(), parsed.size());
+    for (int i = 0; i < favored.size(); i++) {
+      assertEquals(favored.get(i).getHostAndPort(), parsed.get(i).getHostAndPort());
+      assertTrue(FavoredNodeAssignmentHelper.isFavoredNode(parsed, favored.get(i)));
+    }
+    assertFalse(FavoredNodeAssignmentHelper.isFavoredNode(parsed,
+      new ServerName("host9", 60020, 1234L)));
+    assertNull(FavoredNodeAssignmentHelper.getFavoredNodes(null));
+  }
+
+  private static int hostIndex(final ServerName sn) {
+    return Integer.parseInt(sn.getHostname().substring("host".length()));
+  }
+}
@@ -19,9 +19,14 @@ package org.apache.hadoop.hbase.master.balancer;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -30,6 +35,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.RegionLoad;
 import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.master.RegionPlan;
 import org.junit.BeforeClass;
@@ -180,4 +186,72 @@ public class TestStochasticLoadBalancer extends BalancerTestBase {
     }
     assertEquals(0.5, loadBalancer.costFromStats(statThree), 0.01);
   }
+
+  @Test
+  public void testClusterModelIncrementalCosts() {
+    Random rand = new Random();
+    Map<ServerName, List<HRegionInfo>> initialState =
+        mockClusterServers(new int[] { 10, 3, 0, 7, 1, 25 });
+
+    // Random loads, and block locations naming a few of the servers plus one
+    // that is not in the cluster
+    Map<String, RegionLoad> loads = new HashMap<String, RegionLoad>();
+    final Map<HRegionInfo, List<ServerName>> blockLocations =
+        new HashMap<HRegionInfo, List<ServerName>>();
+    List<ServerName> servers = new ArrayList<ServerName>(initialState.keySet());
+    ServerName unknown = new ServerName("unknown.example.org", 60020, 1);
+    for (List<HRegionInfo> regions : initialState.values()) {
+      for (HRegionInfo region : regions) {
+        RegionLoad rl = mock(RegionLoad.class);
+        when(rl.getMemStoreSizeMB()).thenReturn(rand.nextInt(256));
+        when(rl.getStorefileSizeMB()).thenReturn(rand.nextInt(4096));
+        loads.put(region.getRegionNameAsString(), rl);
+        List<ServerName> locations = new ArrayList<ServerName>();
+        for (int i = 0; i < 3; i++) {
+          locations.add(servers.get(rand.nextInt(servers.size())));
+        }
+        locations.add(rand.nextInt(locations.size()), unknown);
+        blockLocations.put(region, locations);
+      }
+    }
+    RegionLocationFinder finder = new RegionLocationFinder() {
+      @Override
+      protected List<ServerName> getTopBlockLocations(HRegionInfo region) {
+        return blockLocations.get(region);
+      }
+    };
+
+    ClusterModel cluster = new ClusterModel(initialState, loads, finder);
+    for (int i = 0; i < 200; i++) {
+      cluster.moveRegion(rand.nextInt(cluster.getNumRegions()),
+          rand.nextInt(cluster.getNumServers()));
+    }
+
+    // Costs kept up to date move by move must match a model built from scratch
+    Map<ServerName, List<HRegionInfo>> clusterState =
+        new HashMap<ServerName, List<HRegionInfo>>();
+    int moved = 0;
+    int numRegions = 0;
+    for (int s = 0; s < cluster.getNumServers(); s++) {
+      List<HRegionInfo> regions = new ArrayList<HRegionInfo>();
+      for (int i = 0; i < cluster.getNumRegions(s); i++) {
+        int r = cluster.getRegion(s, i);
+        assertEquals(s, cluster.regionToServer[r]);
+        if (cluster.initialRegionToServer[r] != s) moved++;
+        regions.add(cluster.regions[r]);
+      }
+      numRegions += regions.size();
+      clusterState.put(cluster.servers[s], regions);
+    }
+    assertEquals(cluster.getNumRegions(), numRegions);
+    ClusterModel rebuilt = new ClusterModel(clusterState, loads, finder);
+    assertEquals(moved, cluster.getNumMovedRegions());
+    assertEquals(rebuilt.getRegionCountSkewCost(), cluster.getRegionCountSkewCost(), 0.0001);
+    assertEquals(rebuilt.getTableSkewCost(), cluster.getTableSkewCost(), 0.0001);
+    assertEquals(rebuilt.getMemstoreSizeCost(), cluster.getMemstoreSizeCost(), 0.0001);
+    assertEquals(rebuilt.getStorefileSizeCost(), cluster.getStorefileSizeCost(), 0.0001);
+    assertEquals(rebuilt.getLocalityCost(), cluster.getLocalityCost(), 0.0001);
+    assertTrue(cluster.getMemstoreSizeCost() > 0);
+    assertTrue(cluster.getLocalityCost() > 0);
+  }
 }
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.master.HMaster;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.hadoop.hbase.zookeeper.ZKAssign;
+import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test the bulk close RPC, {@link HRegionServer#closeRegions(byte[][], int[])}.
+ */
+@Category(MediumTests.class)
+public class TestCloseRegions {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+
+  @BeforeClass
+  public static void beforeAllTests() throws Exception {
+    TEST_UTIL.startMiniCluster(1);
+  }
+
+  @AfterClass
+  public static void afterAllTests() throws Exception {
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  @Test
+  public void testCloseRegions() throws Exception {
+    String name = "testCloseRegions";
+    byte[] tableName = Bytes.toBytes(name);
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    TEST_UTIL.getHBaseAdmin().createTable(htd,
+      new byte[][] { Bytes.toBytes("h"), Bytes.toBytes("p") });
+    TEST_UTIL.waitTableAvailable(tableName, 30000);
+    HRegionServer rs = TEST_UTIL.getHBaseCluster().getRegionServer(0);
+    List<HRegion> online = rs.getOnlineRegions(tableName);
+    assertEquals(3, online.size());
+
+    // Closed regions stay closed, like on disable
+    HMaster master = TEST_UTIL.getHBaseCluster().getMaster();
+    master.getAssignmentManager().getZKTable().setDisablingTable(name);
+    ZooKeeperWatcher zkw = master.getZooKeeper();
+
+    // Two of the regions plus one the server does not have
+    byte [][] regionNames = new byte[3][];
+    int [] versions = new int[3];
+    for (int i = 0; i < 2; i++) {
+      HRegionInfo hri = online.get(i).getRegionInfo();
+      regionNames[i] = hri.getRegionName();
+      versions[i] = ZKAssign.createNodeClosing(zkw, hri, master.getServerName());
+    }
+    regionNames[2] = Bytes.toBytes("unknown,,1.ffffffffffffffffffffffffffffffff.");
+    versions[2] = 0;
+
+    boolean [] closed = rs.closeRegions(regionNames, versions);
+    assertTrue(closed[0]);
+    assertTrue(closed[1]);
+    assertFalse(closed[2]);
+    for (int i = 0; i < 300 && rs.getOnlineRegions(tableName).size() > 1; i++) {
+      Threads.sleep(100);
+    }
+    assertNull(rs.getOnlineRegion(regionNames[0]));
+    assertNull(rs.getOnlineRegion(regionNames[1]));
+    assertEquals(1, rs.getOnlineRegions(tableName).size());
+
+    // The versions have to match the regions
+    try {
+      rs.closeRegions(regionNames, new int[1]);
+      fail("Closed with too few znode versions");
+    } catch (DoNotRetryIOException e) {
+      // expected
+    }
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
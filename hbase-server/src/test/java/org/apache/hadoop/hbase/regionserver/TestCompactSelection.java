@@ -282,6 +282,32 @@ public class TestCompactSelection extends TestCase {
     compactEquals(sfCreate(999,50,12,12, 1), 12, 12, 1);
   }
 
+  public void testDeferLargeCompactionToOffPeak() throws IOException {
+    Calendar calendar = new GregorianCalendar();
+    int hourOfDay = calendar.get(Calendar.HOUR_OF_DAY);
+    int hourPlusOne = ((hourOfDay+1+24)%24);
+    int hourMinusOne = ((hourOfDay-1+24)%24);
+    int hourMinusTwo = ((hourOfDay-2+24)%24);
+    this.conf.setLong("hbase.hstore.compaction.max.size.peak", 100);
+
+    // no off-peak window configured: nothing is deferred
+    assertFalse(new CompactSelection(conf, sfCreate(50))
+        .shouldDeferToOffPeak(1000));
+
+    // inside the off-peak window: nothing is deferred
+    this.conf.setLong("hbase.offpeak.start.hour", hourMinusOne);
+    this.conf.setLong("hbase.offpeak.end.hour", hourPlusOne);
+    assertFalse(new CompactSelection(conf, sfCreate(50))
+        .shouldDeferToOffPeak(1000));
+
+    // peak hours: only compactions above the threshold are deferred
+    this.conf.setLong("hbase.offpeak.start.hour", hourMinusTwo);
+    this.conf.setLong("hbase.offpeak.end.hour", hourMinusOne);
+    CompactSelection selection = new CompactSelection(conf, sfCreate(50));
+    assertFalse(selection.shouldDeferToOffPeak(100));
+    assertTrue(selection.shouldDeferToOffPeak(101));
+  }
+
   @org.junit.Rule
   public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
     new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
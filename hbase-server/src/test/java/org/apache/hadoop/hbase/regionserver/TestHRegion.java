@@ -20,13 +20,19 @@
 package org.apache.hadoop.hbase.regionserver;
 
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -52,6 +58,7 @@ import org.apache.hadoop.hbase.MediumTests;
 import org.apache.hadoop.hbase.MiniHBaseCluster;
 import org.apache.hadoop.hbase.MultithreadedTestUtil;
 import org.apache.hadoop.hbase.MultithreadedTestUtil.TestThread;
+import org.apache.hadoop.hbase.RegionInRecoveryException;
 import org.apache.hadoop.hbase.client.Append;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
@@ -66,6 +73,7 @@ import org.apache.hadoop.hbase.filter.BinaryComparator;
 import org.apache.hadoop.hbase.filter.ColumnCountGetFilter;
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
 import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterBase;
 import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.filter.NullComparator;
 import org.apache.hadoop.hbase.filter.PrefixFilter;
@@ -85,6 +93,7 @@ import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManagerTestHelper;
 import org.apache.hadoop.hbase.util.IncrementingEnvironmentEdge;
 import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
+import org.apache.hadoop.hbase.util.MockRegionServerServices;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.hbase.util.PairOfSameType;
 import org.apache.hadoop.hbase.util.Threads;
@@ -259,6 +268,66 @@ public class TestHRegion extends HBaseTestCase {
     }
   }
 
+  public void testRecoveredEditsReplayMultipleStores() throws Exception {
+    String method = "testRecoveredEditsReplayMultipleStores";
+    byte[] tableName = Bytes.toBytes(method);
+    byte[][] families = { fam1, fam2, fam3 };
+    Configuration conf = HBaseConfiguration.create();
+    // Small batches and a thread per store so the stores are applied in parallel
+    conf.setInt("hbase.regionserver.recovered.edits.replay.batch.size", 4);
+    conf.setInt("hbase.regionserver.recovered.edits.replay.threads", 3);
+    conf.setInt("hbase.regionserver.recovered.edits.replay.queue.size", 2);
+    this.region = initHRegion(tableName, method, conf, families);
+    try {
+      Path regiondir = region.getRegionDir();
+      FileSystem fs = region.getFilesystem();
+      byte[] regionName = region.getRegionInfo().getEncodedNameAsBytes();
+
+      long maxSeqId = 1050;
+      long minSeqId = 1000;
+      Path recoveredEdits = new Path(HLog.getRegionDirRecoveredEditsDir(regiondir),
+        String.format("%019d", maxSeqId));
+      fs.create(recoveredEdits);
+      HLog.Writer writer = HLog.createWriter(fs, recoveredEdits, conf);
+      for (long i = minSeqId; i <= maxSeqId; i++) {
+        long time = System.nanoTime();
+        WALEdit edit = new WALEdit();
+        for (byte[] family : families) {
+          edit.add(new KeyValue(row, family, Bytes.toBytes(i),
+              time, KeyValue.Type.Put, Bytes.toBytes(i)));
+        }
+        writer.append(new HLog.Entry(new HLogKey(regionName, tableName,
+            i, time, HConstants.DEFAULT_CLUSTER_ID), edit));
+      }
+      writer.close();
+
+      // Each store flushed up to a different point
+      Map<byte[], Long> maxSeqIdInStores = new TreeMap<byte[], Long>(
+          Bytes.BYTES_COMPARATOR);
+      for (int i = 0; i < families.length; i++) {
+        maxSeqIdInStores.put(families[i], minSeqId + 10 * i);
+      }
+      MonitoredTask status = TaskMonitor.get().createStatus(method);
+      long seqId = region.replayRecoveredEditsIfAny(regiondir, maxSeqIdInStores, null, status);
+      assertEquals(maxSeqId, seqId);
+      Result result = region.get(new Get(row), null);
+      for (int f = 0; f < families.length; f++) {
+        for (long i = minSeqId; i <= maxSeqId; i++) {
+          List<KeyValue> kvs = result.getColumn(families[f], Bytes.toBytes(i));
+          if (i <= maxSeqIdInStores.get(families[f])) {
+            assertEquals(0, kvs.size());
+          } else {
+            assertEquals(1, kvs.size());
+            assertEquals(Bytes.toBytes(i), kvs.get(0).getValue());
+          }
+        }
+      }
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
   public void testSkipRecoveredEditsReplayAllIgnored() throws Exception {
     String method = "testSkipRecoveredEditsReplayAllIgnored";
     byte[] tableName = Bytes.toBytes(method);
@@ -296,6 +365,120 @@ public class TestHRegion extends HBaseTestCase {
     }
   }
 
+  public void testReplayedEditsSkipFlushed() throws Exception {
+    String method = "testReplayedEditsSkipFlushed";
+    byte[] tableName = Bytes.toBytes(method);
+    byte[] family = Bytes.toBytes("family");
+    Configuration conf = HBaseConfiguration.create();
+    this.region = initHRegion(tableName, method, conf, family);
+    try {
+      Put put = new Put(row);
+      put.add(family, qual1, value1);
+      region.put(put);
+      region.flushcache();
+      long flushedSeqId = region.getStore(family).getMaxSequenceId();
+      // Only what was flushed when the region opened counts
+      HRegion closed = this.region;
+      closed.close();
+      this.region = HRegion.openHRegion(closed.getTableDir(), closed.getRegionInfo(),
+        closed.getTableDesc(), closed.getLog(), conf);
+      region.setRecovering(true);
+
+      Put flushed = new Put(row);
+      flushed.add(family, qual2, value1);
+      flushed.setAttribute(HRegion.REPLAY_SEQID_ATTRIBUTE, Bytes.toBytes(flushedSeqId));
+      Put unflushed = new Put(row);
+      unflushed.add(family, qual3, value1);
+      unflushed.setAttribute(HRegion.REPLAY_SEQID_ATTRIBUTE,
+        Bytes.toBytes(flushedSeqId + 1));
+      OperationStatus[] codes = region.put(new Put[] { flushed, unflushed });
+      assertEquals(OperationStatusCode.SUCCESS, codes[0].getOperationStatusCode());
+      assertEquals(OperationStatusCode.SUCCESS, codes[1].getOperationStatusCode());
+      Delete delete = new Delete(row);
+      delete.deleteColumns(family, qual1);
+      delete.setAttribute(HRegion.REPLAY_SEQID_ATTRIBUTE, Bytes.toBytes(flushedSeqId));
+      region.delete(delete, null, true);
+      region.setRecovering(false);
+
+      Result result = region.get(new Get(row), null);
+      assertTrue(result.containsColumn(family, qual1));
+      assertFalse(result.containsColumn(family, qual2));
+      assertTrue(result.containsColumn(family, qual3));
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
+  public void testReadsRefusedWhileRecovering() throws Exception {
+    String method = "testReadsRefusedWhileRecovering";
+    byte[] tableName = Bytes.toBytes(method);
+    byte[] family = Bytes.toBytes("family");
+    this.region = initHRegion(tableName, method, HBaseConfiguration.create(), family);
+    try {
+      region.setRecovering(true);
+      // Writes go through
+      Put put = new Put(row);
+      put.add(family, qual1, Bytes.toBytes(1L));
+      region.put(put);
+
+      try {
+        region.get(new Get(row), null);
+        fail("Get of a recovering region");
+      } catch (RegionInRecoveryException e) {
+        // expected
+      }
+      try {
+        region.getScanner(new Scan());
+        fail("Scan of a recovering region");
+      } catch (RegionInRecoveryException e) {
+        // expected
+      }
+      try {
+        region.getClosestRowBefore(row, family);
+        fail("getClosestRowBefore of a recovering region");
+      } catch (RegionInRecoveryException e) {
+        // expected
+      }
+      try {
+        Increment inc = new Increment(row);
+        inc.addColumn(family, qual1, 1L);
+        region.increment(inc, null, true);
+        fail("Increment of a recovering region");
+      } catch (RegionInRecoveryException e) {
+        // expected
+      }
+      try {
+        region.incrementColumnValue(row, family, qual1, 1L, true);
+        fail("incrementColumnValue of a recovering region");
+      } catch (RegionInRecoveryException e) {
+        // expected
+      }
+      try {
+        Append append = new Append(row);
+        append.add(family, qual2, value1);
+        region.append(append, null, true);
+        fail("Append to a recovering region");
+      } catch (RegionInRecoveryException e) {
+        // expected
+      }
+      try {
+        region.checkAndMutate(row, family, qual1, CompareOp.EQUAL,
+          new BinaryComparator(Bytes.toBytes(1L)), put, null, true);
+        fail("checkAndMutate of a recovering region");
+      } catch (RegionInRecoveryException e) {
+        // expected
+      }
+
+      region.setRecovering(false);
+      assertEquals(1L, Bytes.toLong(
+        region.get(new Get(row), null).getValue(family, qual1)));
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
   public void testGetWhileRegionClose() throws IOException {
     Configuration hc = initSplit();
     int numRows = 100;
@@ -2254,6 +2437,142 @@ public class TestHRegion extends HBaseTestCase {
     }
   }
 
+  public void testScanner_PartialRows() throws IOException {
+    byte [] tableName = Bytes.toBytes("testScanner_PartialRows");
+    this.region = initHRegion(tableName, getName(), fam1);
+    try {
+      byte [] wideRow = Bytes.toBytes("row1");
+      byte [] narrowRow = Bytes.toBytes("row2");
+      byte [] value = new byte[100];
+      int columns = 100;
+      Put put = new Put(wideRow);
+      for (int i = 0; i < columns; i++) {
+        put.add(fam1, Bytes.toBytes("col" + i), value);
+        if (i == columns / 2) {
+          // Half the row in a file, half in the memstore
+          region.put(put);
+          region.flushcache();
+          put = new Put(wideRow);
+        }
+      }
+      region.put(put);
+      put = new Put(narrowRow);
+      put.add(fam1, qual1, value);
+      region.put(put);
+
+      long kvSize = new KeyValue(wideRow, fam1, Bytes.toBytes("col" + columns),
+        value).heapSize();
+      long partSize = 10 * kvSize;
+      Scan scan = new Scan();
+      scan.setPartialRows(true);
+      scan.setMaxResultSize(partSize);
+      InternalScanner s = region.getScanner(scan);
+
+      List<KeyValue> results = new ArrayList<KeyValue>();
+      int parts = 0;
+      int wideRowColumns = 0;
+      boolean more;
+      do {
+        more = s.next(results);
+        long size = 0;
+        for (KeyValue kv : results) {
+          size += kv.heapSize();
+        }
+        assertTrue("Part of " + size + " bytes", size < partSize + kvSize);
+        if (Bytes.equals(wideRow, results.get(0).getRow())) {
+          parts++;
+          wideRowColumns += results.size();
+        } else {
+          assertFalse(more);
+          assertEquals(1, results.size());
+          assertTrue(Bytes.equals(narrowRow, results.get(0).getRow()));
+        }
+        results.clear();
+      } while (more);
+      assertEquals(columns, wideRowColumns);
+      assertTrue("Row returned in " + parts + " parts", parts > 1);
+      s.close();
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
+  /**
+   * Rejects all rows but one, and moves the clock along for each row.
+   */
+  private static class SlowRowFilter extends FilterBase {
+    private final ManualEnvironmentEdge clock;
+    private final byte [] passRow;
+
+    SlowRowFilter(ManualEnvironmentEdge clock, byte [] passRow) {
+      this.clock = clock;
+      this.passRow = passRow;
+    }
+
+    @Override
+    public boolean filterRowKey(byte[] buffer, int offset, int length) {
+      this.clock.setValue(this.clock.currentTimeMillis() + 1);
+      return !Bytes.equals(this.passRow, 0, this.passRow.length,
+        buffer, offset, length);
+    }
+
+    public void write(DataOutput out) throws IOException {
+    }
+
+    public void readFields(DataInput in) throws IOException {
+    }
+  }
+
+  public void testScanner_Heartbeats() throws IOException {
+    ManualEnvironmentEdge mee = new ManualEnvironmentEdge();
+    EnvironmentEdgeManagerTestHelper.injectEdge(mee);
+    byte [] tableName = Bytes.toBytes("testScanner_Heartbeats");
+    this.region = initHRegion(tableName, getName(), fam1);
+    try {
+      for (int i = 0; i < 10; i++) {
+        Put put = new Put(Bytes.toBytes("row" + i));
+        put.add(fam1, qual1, Bytes.toBytes(i));
+        region.put(put);
+      }
+      byte [] lastRow = Bytes.toBytes("row9");
+      Scan scan = new Scan();
+      scan.setFilter(new SlowRowFilter(mee, lastRow));
+      scan.setAllowHeartbeats(true);
+      RegionScannerImpl s = (RegionScannerImpl)region.getScanner(scan);
+
+      // Time runs out after three rows
+      long now = mee.currentTimeMillis();
+      s.setDeadline(now + 3);
+      List<KeyValue> results = new ArrayList<KeyValue>();
+      assertTrue(s.next(results));
+      assertTrue(results.isEmpty());
+      assertEquals("row3", Bytes.toString(s.getHeartbeatRow()));
+
+      // Carries on from there
+      s.setDeadline(mee.currentTimeMillis() + 100);
+      assertFalse(s.next(results));
+      assertNull(s.getHeartbeatRow());
+      assertEquals(1, results.size());
+      assertTrue(Bytes.equals(lastRow, results.get(0).getRow()));
+      s.close();
+
+      // Without heartbeats allowed the deadline does not apply
+      scan.setAllowHeartbeats(false);
+      s = (RegionScannerImpl)region.getScanner(scan);
+      s.setDeadline(mee.currentTimeMillis() + 3);
+      results.clear();
+      assertFalse(s.next(results));
+      assertNull(s.getHeartbeatRow());
+      assertEquals(1, results.size());
+      s.close();
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+      EnvironmentEdgeManagerTestHelper.reset();
+    }
+  }
+
   public void testIncrementColumnValue_UpdatingInPlace() throws IOException {
     this.region = initHRegion(tableName, getName(), fam1);
     try {
@@ -3481,6 +3800,117 @@ public class TestHRegion extends HBaseTestCase {
       }
   }
   
+  /**
+   * Stores and store files should be opened and closed in the pools of the
+   * region server when it has some, and the pools left running.
+   */
+  public void testStoreOpenAndCloseInSharedThreadPools() throws IOException {
+    byte [] tableName = Bytes.toBytes("testStoreOpenAndCloseInSharedThreadPools");
+    byte [] fam1 = Bytes.toBytes("fam1");
+    byte [] fam2 = Bytes.toBytes("fam2");
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(fam1));
+    htd.addFamily(new HColumnDescriptor(fam2));
+    HRegionInfo info = new HRegionInfo(htd.getName(), null, null, false);
+    Path path = new Path(DIR + "testStoreOpenAndCloseInSharedThreadPools");
+    this.region = HRegion.createHRegion(info, path, conf, htd);
+    try {
+      Put put = new Put(row);
+      put.add(fam1, qual1, value1);
+      put.add(fam2, qual1, value1);
+      region.put(put);
+      region.flushcache();
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+
+    final ThreadPoolExecutor storePool =
+      HRegion.getOpenAndCloseThreadPool(2, "sharedStoreOpenAndClose");
+    final ThreadPoolExecutor storeFilePool =
+      HRegion.getOpenAndCloseThreadPool(2, "sharedStoreFileOpenAndClose");
+    RegionServerServices rss = new MockRegionServerServices() {
+      @Override
+      public ThreadPoolExecutor getStoreOpenAndCloseThreadPool() {
+        return storePool;
+      }
+
+      @Override
+      public ThreadPoolExecutor getStoreFileOpenAndCloseThreadPool() {
+        return storeFilePool;
+      }
+    };
+    try {
+      HRegion r = HRegion.openHRegion(path, info, htd, null, conf, rss, null);
+      assertEquals(1, r.getStore(fam1).getStorefiles().size());
+      assertEquals(1, r.getStore(fam2).getStorefiles().size());
+      r.close();
+      assertFalse(storePool.isShutdown());
+      assertFalse(storeFilePool.isShutdown());
+      // Two stores and two store files, each opened and closed
+      assertEquals(4, storePool.getTaskCount());
+      assertEquals(4, storeFilePool.getTaskCount());
+    } finally {
+      storePool.shutdown();
+      storeFilePool.shutdown();
+    }
+  }
+
+  @Test
+  public void testParallelSeek() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    byte [] tableName = Bytes.toBytes("testParallelSeek");
+    byte [] fam1 = Bytes.toBytes("fam1");
+    byte [] fam2 = Bytes.toBytes("fam2");
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(fam1));
+    htd.addFamily(new HColumnDescriptor(fam2));
+    HRegionInfo info = new HRegionInfo(htd.getName(), null, null, false);
+    Path path = new Path(DIR + "testParallelSeek");
+    HRegion.closeHRegion(HRegion.createHRegion(info, path, conf, htd));
+
+    final ThreadPoolExecutor seekPool =
+      HRegion.getOpenAndCloseThreadPool(4, "parallelSeek");
+    RegionServerServices rss = new MockRegionServerServices() {
+      @Override
+      public ThreadPoolExecutor getParallelSeekThreadPool() {
+        return seekPool;
+      }
+    };
+    this.region = HRegion.openHRegion(path, info, htd, null, conf, rss, null);
+    try {
+      // Three store files and the memstore in each family
+      for (int i = 0; i < 4; i++) {
+        Put put = new Put(Bytes.toBytes("row" + i));
+        put.add(fam1, qual1, value1);
+        put.add(fam2, qual1, value1);
+        region.put(put);
+        if (i < 3) region.flushcache();
+      }
+      InternalScanner scanner = region.getScanner(new Scan());
+      List<KeyValue> results = new ArrayList<KeyValue>();
+      int rows = 0;
+      boolean more;
+      do {
+        results.clear();
+        more = scanner.next(results);
+        if (!results.isEmpty()) {
+          assertEquals(2, results.size());
+          assertTrue(Bytes.equals(Bytes.toBytes("row" + rows),
+            results.get(0).getRow()));
+          rows++;
+        }
+      } while (more);
+      scanner.close();
+      assertEquals(4, rows);
+      assertTrue(seekPool.getTaskCount() > 0);
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+      seekPool.shutdown();
+    }
+  }
+
   /**
    * Testcase to check state of region initialization task set to ABORTED or not if any exceptions
    * during initialization
@@ -3612,6 +4042,208 @@ public class TestHRegion extends HBaseTestCase {
     this.region = null;
   }
 
+  /**
+   * Concurrent increments of a row applied together must still each return
+   * the value they produced
+   * @throws Exception
+   */
+  @Test
+  public void testCoalescedIncrements() throws Exception {
+    String method = "testCoalescedIncrements";
+    byte[] tableName = Bytes.toBytes(method);
+    final byte[] family = Incrementer.family;
+    final byte[] qualifier = Incrementer.qualifier;
+    final byte[] row = Incrementer.incRow;
+    this.region = initHRegion(tableName, method, family);
+    try {
+      // Applied in order, each seeing the ones before
+      Increment first = new Increment(row);
+      first.addColumn(family, qualifier, 1);
+      Increment second = new Increment(row);
+      second.addColumn(family, qualifier, 10);
+      List<Result> results =
+        this.region.increment(Arrays.asList(first, second), null, true);
+      assertEquals(1, Bytes.toLong(results.get(0).getValue(family, qualifier)));
+      assertEquals(11, Bytes.toLong(results.get(1).getValue(family, qualifier)));
+
+      this.region.getTableDesc().setIncrementCoalesceWindow(10);
+      final HRegion region = this.region;
+      int threadNum = 10;
+      final int incCounter = 20;
+      final Set<Long> seen = Collections.synchronizedSet(new HashSet<Long>());
+      Thread[] incrementers = new Thread[threadNum];
+      for (int i = 0; i < threadNum; i++) {
+        incrementers[i] = new Thread() {
+          @Override
+          public void run() {
+            for (int j = 0; j < incCounter; j++) {
+              Increment inc = new Increment(row);
+              inc.addColumn(family, qualifier, 1);
+              try {
+                Result r = region.increment(inc, null, true);
+                seen.add(Bytes.toLong(r.getValue(family, qualifier)));
+              } catch (IOException e) {
+                e.printStackTrace();
+              }
+            }
+          }
+        };
+        incrementers[i].start();
+      }
+      for (int i = 0; i < threadNum; i++) {
+        incrementers[i].join();
+      }
+      long expected = 11 + threadNum * incCounter;
+      // Every caller got its own value
+      assertEquals(threadNum * incCounter, seen.size());
+      assertTrue(seen.contains(expected));
+      assertTrue(region.getCoalescedIncrementCount() > 0);
+
+      Get get = new Get(row);
+      get.addColumn(family, qualifier);
+      Result res = this.region.get(get, null);
+      assertEquals(expected, Bytes.toLong(res.getValue(family, qualifier)));
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
+  /**
+   * An increment of a column that is not 64 bits wide fails on its own,
+   * without failing the increments applied along with it
+   * @throws Exception
+   */
+  @Test
+  public void testCoalescedIncrementOfWrongLength() throws Exception {
+    String method = "testCoalescedIncrementOfWrongLength";
+    byte[] tableName = Bytes.toBytes(method);
+    final byte[] family = Incrementer.family;
+    final byte[] qualifier = Incrementer.qualifier;
+    final byte[] badQualifier = Bytes.toBytes("bad");
+    final byte[] row = Incrementer.incRow;
+    this.region = initHRegion(tableName, method, family);
+    try {
+      Put put = new Put(row);
+      put.add(family, badQualifier, Bytes.toBytes(1));
+      this.region.put(put);
+      final Increment bad = new Increment(row);
+      bad.addColumn(family, badQualifier, 1);
+      final Increment good = new Increment(row);
+      good.addColumn(family, qualifier, 1);
+
+      List<Result> results =
+        this.region.increment(Arrays.asList(bad, good), null, true);
+      assertNull(results.get(0));
+      assertEquals(1, Bytes.toLong(results.get(1).getValue(family, qualifier)));
+
+      // Both callers join one batch while we hold the row lock
+      this.region.getTableDesc().setIncrementCoalesceWindow(10);
+      final HRegion region = this.region;
+      final AtomicReference<Result> goodResult = new AtomicReference<Result>();
+      final AtomicReference<IOException> badError =
+        new AtomicReference<IOException>();
+      RowLockManager.Lock lock = region.getRowLock(row, true, true);
+      Thread badCaller = new Thread() {
+        @Override
+        public void run() {
+          try {
+            region.increment(bad, null, true);
+          } catch (IOException e) {
+            badError.set(e);
+          }
+        }
+      };
+      Thread goodCaller = new Thread() {
+        @Override
+        public void run() {
+          try {
+            goodResult.set(region.increment(good, null, true));
+          } catch (IOException e) {
+            LOG.warn("Good increment failed", e);
+          }
+        }
+      };
+      badCaller.start();
+      goodCaller.start();
+      while (region.getCoalescedIncrementCount() == 0) Thread.sleep(1);
+      lock.release();
+      badCaller.join();
+      goodCaller.join();
+      assertNotNull(badError.get());
+      assertNotNull(goodResult.get());
+      assertEquals(2, Bytes.toLong(goodResult.get().getValue(family, qualifier)));
+
+      // The bad column was left alone
+      Get get = new Get(row);
+      get.addColumn(family, badQualifier);
+      Result res = this.region.get(get, null);
+      assertEquals(1, Bytes.toInt(res.getValue(family, badQualifier)));
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
+  /**
+   * Increments on a table with deferred log flush are written to the WAL but
+   * left for the log syncer to sync, others are synced before returning
+   * @throws Exception
+   */
+  @Test
+  public void testIncrementDeferredLogFlush() throws Exception {
+    String method = "testIncrementDeferredLogFlush";
+    byte[] tableName = Bytes.toBytes(method);
+    byte[] family = Incrementer.family;
+    byte[] qualifier = Incrementer.qualifier;
+    byte[] row = Incrementer.incRow;
+    Configuration conf = HBaseConfiguration.create();
+    FileSystem fs = FileSystem.get(conf);
+    Path path = new Path(DIR + method);
+    if (fs.exists(path)) fs.delete(path, true);
+    final AtomicInteger syncs = new AtomicInteger(0);
+    HLog hlog = new HLog(fs, new Path(path, HConstants.HREGION_LOGDIR_NAME),
+        new Path(path, HConstants.HREGION_OLDLOGDIR_NAME), conf) {
+      @Override
+      public void sync(long txid) throws IOException {
+        syncs.incrementAndGet();
+        super.sync(txid);
+      }
+    };
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(family));
+    htd.setDeferredLogFlush(true);
+    htd.setIncrementCoalesceWindow(0);
+    HRegionInfo info = new HRegionInfo(htd.getName(), null, null, false);
+    this.region = HRegion.createHRegion(info, path, conf, htd, hlog);
+    try {
+      Increment inc = new Increment(row);
+      inc.addColumn(family, qualifier, 1);
+      Result r = this.region.increment(inc, null, true);
+      assertEquals(1, Bytes.toLong(r.getValue(family, qualifier)));
+      assertEquals(0, syncs.get());
+
+      this.region.getTableDesc().setDeferredLogFlush(false);
+      r = this.region.increment(inc, null, true);
+      assertEquals(2, Bytes.toLong(r.getValue(family, qualifier)));
+      assertEquals(1, syncs.get());
+
+      // A bad family is refused up front, not by the batch it would join
+      Increment bad = new Increment(row);
+      bad.addColumn(Bytes.toBytes("nosuchfamily"), qualifier, 1);
+      try {
+        this.region.increment(bad, null, true);
+        fail("Incremented a family the table does not have");
+      } catch (NoSuchColumnFamilyException e) {
+        // expected
+      }
+    } finally {
+      // Closes hlog too
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
   /**
    * TestCase for append
    *
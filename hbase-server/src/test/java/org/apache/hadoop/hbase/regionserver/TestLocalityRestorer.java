@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HDFSBlocksDistribution;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+
+@Category(SmallTests.class)
+public class TestLocalityRestorer {
+  private static final String HOSTNAME = "server1";
+  private static final String OTHER_HOSTNAME = "server2";
+
+  private Configuration conf;
+  private HRegionServer server;
+  private CompactSplitThread compactSplitThread;
+  private final List<HRegion> regions = new ArrayList<HRegion>();
+
+  @Before
+  public void setUp() {
+    this.conf = HBaseConfiguration.create();
+    this.conf.setFloat("hbase.regionserver.locality.restorer.min.locality", 0.5f);
+    this.server = Mockito.mock(HRegionServer.class);
+    when(this.server.getServerName()).thenReturn(new ServerName(HOSTNAME, 60020, 1L));
+    when(this.server.getOnlineRegionsLocalContext()).thenReturn(this.regions);
+    this.compactSplitThread = Mockito.mock(CompactSplitThread.class);
+    when(this.compactSplitThread.requestLocalityCompaction((HRegion)Mockito.any(),
+      (Store)Mockito.any(), (StoreFile)Mockito.any(), Mockito.anyString())).thenReturn(true);
+    this.server.compactSplitThread = this.compactSplitThread;
+  }
+
+  /**
+   * Adds a region with one store holding one file, of which
+   * <code>localBlocks</code> out of ten blocks are on this server.
+   */
+  private StoreFile addRegion(String family, int localBlocks) {
+    HDFSBlocksDistribution distribution = new HDFSBlocksDistribution();
+    for (int i = 0; i < 10; i++) {
+      distribution.addHostsAndBlockWeight(
+        new String[] { i < localBlocks ? HOSTNAME : OTHER_HOSTNAME }, 1);
+    }
+    StoreFile.Reader reader = Mockito.mock(StoreFile.Reader.class);
+    when(reader.length()).thenReturn(10L);
+    StoreFile sf = Mockito.mock(StoreFile.class);
+    when(sf.getReader()).thenReturn(reader);
+    when(sf.getHDFSBlockDistribution()).thenReturn(distribution);
+    List<StoreFile> files = new ArrayList<StoreFile>();
+    files.add(sf);
+    Store store = Mockito.mock(Store.class);
+    when(store.getStorefiles()).thenReturn(files);
+    Map<byte[], Store> stores = new TreeMap<byte[], Store>(Bytes.BYTES_COMPARATOR);
+    stores.put(Bytes.toBytes(family), store);
+    HRegion region = Mockito.mock(HRegion.class);
+    when(region.getStores()).thenReturn(stores);
+    this.regions.add(region);
+    return sf;
+  }
+
+  private void runRestorer() {
+    new LocalityRestorer(this.server, this.conf, 1000).chore();
+  }
+
+  @Test
+  public void testQueuesOnlyPoorLocality() {
+    StoreFile poor = addRegion("a", 2);
+    StoreFile good = addRegion("b", 8);
+    runRestorer();
+    verify(this.compactSplitThread).requestLocalityCompaction(
+      Mockito.eq(this.regions.get(0)), (Store)Mockito.any(), Mockito.eq(poor),
+      Mockito.anyString());
+    verify(this.compactSplitThread, never()).requestLocalityCompaction(
+      (HRegion)Mockito.any(), (Store)Mockito.any(), Mockito.eq(good),
+      Mockito.anyString());
+  }
+
+  @Test
+  public void testSkipsWhilePreviousRunNotDone() {
+    addRegion("a", 0);
+    when(this.compactSplitThread.getLocalityCompactionCount()).thenReturn(1);
+    runRestorer();
+    verify(this.compactSplitThread, never()).requestLocalityCompaction(
+      (HRegion)Mockito.any(), (Store)Mockito.any(), (StoreFile)Mockito.any(),
+      Mockito.anyString());
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
@@ -129,6 +129,30 @@ public class TestReadWriteConsistencyControl extends TestCase {
 
   }
 
+  public void testOutOfOrderCompletion() throws Exception {
+    MultiVersionConsistencyControl mvcc = new MultiVersionConsistencyControl();
+    mvcc.initialize(10);
+    MultiVersionConsistencyControl.WriteEntry first = mvcc.beginMemstoreInsert();
+    MultiVersionConsistencyControl.WriteEntry second = mvcc.beginMemstoreInsert();
+    MultiVersionConsistencyControl.WriteEntry third = mvcc.beginMemstoreInsert();
+    // Completed writes stay hidden behind an older pending one
+    assertFalse(mvcc.advanceMemstore(third));
+    assertFalse(mvcc.advanceMemstore(second));
+    assertEquals(10, mvcc.memstoreReadPoint());
+    // Completing the oldest publishes all of them at once
+    mvcc.completeMemstoreInsert(first);
+    assertEquals(13, mvcc.memstoreReadPoint());
+  }
+
+  public void testMoreWritesThanRingSize() throws Exception {
+    MultiVersionConsistencyControl mvcc = new MultiVersionConsistencyControl();
+    int writes = MultiVersionConsistencyControl.RING_SIZE * 3 + 1;
+    for (int i = 0; i < writes; i++) {
+      mvcc.completeMemstoreInsert(mvcc.beginMemstoreInsert());
+    }
+    assertEquals(writes, mvcc.memstoreReadPoint());
+  }
+
   @org.junit.Rule
   public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
     new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
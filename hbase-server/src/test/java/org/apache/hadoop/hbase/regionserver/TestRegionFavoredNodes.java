@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.fs.HFileSystem;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.hbase.util.MockRegionServerServices;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.util.Progressable;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests that the store files a region flushes have their blocks on the
+ * favored nodes of the region.
+ */
+@Category(MediumTests.class)
+public class TestRegionFavoredNodes {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte [] FAMILY = Bytes.toBytes("f");
+  private static final int DATANODES = 3;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    // One replica, so that every block is on the favored node
+    TEST_UTIL.getConfiguration().setInt("dfs.replication", 1);
+    MiniDFSCluster cluster = TEST_UTIL.startMiniDFSCluster(DATANODES);
+    cluster.waitActive();
+    TEST_UTIL.createRootDir();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    TEST_UTIL.shutdownMiniDFSCluster();
+  }
+
+  @Test
+  public void testFlushOnFavoredNodes() throws Exception {
+    // Only HDFS versions that take favored nodes can place the blocks
+    try {
+      DistributedFileSystem.class.getMethod("create", Path.class, FsPermission.class,
+        boolean.class, int.class, short.class, long.class, Progressable.class,
+        InetSocketAddress[].class);
+    } catch (NoSuchMethodException e) {
+      Assume.assumeTrue(false);
+    }
+    Configuration conf = TEST_UTIL.getConfiguration();
+    DatanodeInfo [] datanodes =
+      ((DistributedFileSystem) FileSystem.get(conf)).getDataNodeStats();
+    assertEquals(DATANODES, datanodes.length);
+
+    HTableDescriptor htd = new HTableDescriptor("testFlushOnFavoredNodes");
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    HRegionInfo hri = new HRegionInfo(htd.getName());
+    HRegion region = HRegion.createHRegion(hri, FSUtils.getRootDir(conf), conf, htd);
+    HLog wal = region.getLog();
+    region.close();
+
+    final InetSocketAddress [][] favored = new InetSocketAddress[1][];
+    MockRegionServerServices rss = new MockRegionServerServices() {
+      @Override
+      public InetSocketAddress[] getFavoredNodesForRegion(String encodedRegionName) {
+        return favored[0];
+      }
+    };
+    // The region server hands its regions an HFileSystem over HDFS
+    rss.setFileSystem(new HFileSystem(conf, false));
+    region = HRegion.openHRegion(hri, htd, wal, conf, rss, null);
+    try {
+      FileSystem fs = region.getFilesystem();
+      assertTrue(fs instanceof HFileSystem);
+      Store store = region.getStore(FAMILY);
+      Set<Path> flushed = new HashSet<Path>();
+      // Each datanode in turn, so that none gets the blocks by chance
+      for (int i = 0; i < DATANODES; i++) {
+        String name = datanodes[i].getName();
+        int colon = name.lastIndexOf(':');
+        favored[0] = new InetSocketAddress[] { new InetSocketAddress(
+          name.substring(0, colon), Integer.parseInt(name.substring(colon + 1))) };
+        for (int row = 0; row < 100; row++) {
+          Put put = new Put(Bytes.toBytes("row" + i + "-" + row));
+          put.add(FAMILY, Bytes.toBytes("q"), new byte[1024]);
+          region.put(put);
+        }
+        region.flushcache();
+
+        int newFiles = 0;
+        for (StoreFile sf : store.getStorefiles()) {
+          if (!flushed.add(sf.getPath())) continue;
+          newFiles++;
+          FileStatus status = fs.getFileStatus(sf.getPath());
+          BlockLocation [] locations = fs.getFileBlockLocations(status, 0, status.getLen());
+          assertTrue(locations.length > 0);
+          for (BlockLocation location : locations) {
+            assertEquals(1, location.getNames().length);
+            assertEquals(name, location.getNames()[0]);
+          }
+        }
+        assertEquals(1, newFiles);
+      }
+    } finally {
+      region.close();
+      wal.closeAndDelete();
+    }
+  }
+
+  @org.junit.Rule
+  public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
+    new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
+}
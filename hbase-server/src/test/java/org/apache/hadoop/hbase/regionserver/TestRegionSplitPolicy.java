@@ -34,6 +34,8 @@ import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.SmallTests;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -250,6 +252,57 @@ public class TestRegionSplitPolicy {
         Bytes.toString(policy.getSplitPoint()));
   }
 
+  @Test
+  public void testLoadAwareRegionSplitPolicy() throws IOException {
+    conf.set(HConstants.HBASE_REGION_SPLIT_POLICY_KEY,
+      LoadAwareRegionSplitPolicy.class.getName());
+    conf.setFloat(LoadAwareRegionSplitPolicy.REQUESTS_PER_SECOND_KEY, 1000f);
+    conf.setLong(LoadAwareRegionSplitPolicy.WINDOW_KEY, 1000L);
+    conf.setInt(LoadAwareRegionSplitPolicy.SAMPLE_RATE_KEY, 1);
+    ManualEnvironmentEdge edge = new ManualEnvironmentEdge();
+    edge.setValue(1000L);
+    EnvironmentEdgeManager.injectEdge(edge);
+    try {
+      Mockito.doReturn(0L).when(mockRegion).getRequestsCount();
+      LoadAwareRegionSplitPolicy policy =
+        (LoadAwareRegionSplitPolicy)RegionSplitPolicy.create(mockRegion, conf);
+
+      // A small store, far below any size based split threshold
+      Store mockStore = Mockito.mock(Store.class);
+      Mockito.doReturn(10L).when(mockStore).getSize();
+      Mockito.doReturn(true).when(mockStore).canSplit();
+      Mockito.doReturn(Bytes.toBytes("size split")).when(mockStore).getSplitPoint();
+      stores.put(new byte[]{1}, mockStore);
+      assertFalse(policy.shouldSplit());
+
+      // Requests all land in the upper part of the key space
+      for (int i = 0; i < 10; i++) {
+        policy.recordRequest(Bytes.toBytes("row" + i));
+      }
+      // Not enough load over the window
+      Mockito.doReturn(500L).when(mockRegion).getRequestsCount();
+      edge.setValue(2000L);
+      assertFalse(policy.shouldSplit());
+      assertEquals("size split", Bytes.toString(policy.getSplitPoint()));
+
+      // Hot region: split where the sampled requests are, not at the midkey
+      for (int i = 0; i < 10; i++) {
+        policy.recordRequest(Bytes.toBytes("row" + i));
+      }
+      Mockito.doReturn(10500L).when(mockRegion).getRequestsCount();
+      edge.setValue(3000L);
+      assertTrue(policy.shouldSplit());
+      assertEquals(10000.0, policy.getRequestsPerSecond(), 0.001);
+      assertEquals("row5", Bytes.toString(policy.getSplitPoint()));
+
+      // A store that cannot split blocks a load based split too
+      Mockito.doReturn(false).when(mockStore).canSplit();
+      assertFalse(policy.shouldSplit());
+    } finally {
+      EnvironmentEdgeManager.reset();
+    }
+  }
+
   @org.junit.Rule
   public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
     new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
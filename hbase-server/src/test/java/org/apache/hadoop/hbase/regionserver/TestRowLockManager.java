@@ -0,0 +1,269 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.metrics.OperationMetrics;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestRowLockManager {
+  private static final byte [] ROW = Bytes.toBytes("row");
+
+  /**
+   * @return the lock <code>manager</code> gave another thread, or null
+   */
+  private static RowLockManager.Lock lockInOtherThread(
+      final RowLockManager manager, final byte [] row, final boolean exclusive,
+      final boolean waitForLock) throws Exception {
+    final AtomicReference<RowLockManager.Lock> result =
+      new AtomicReference<RowLockManager.Lock>();
+    final AtomicReference<Exception> error = new AtomicReference<Exception>();
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        try {
+          result.set(manager.getRowLock(row, exclusive, waitForLock));
+        } catch (Exception e) {
+          error.set(e);
+        }
+      }
+    };
+    t.start();
+    t.join();
+    if (error.get() != null) throw error.get();
+    return result.get();
+  }
+
+  @Test
+  public void testSharedAndExclusive() throws Exception {
+    RowLockManager manager = new RowLockManager(100, null);
+    RowLockManager.Lock shared = manager.getRowLock(ROW, false, false);
+    assertNotNull(shared);
+    // Shared locks do not exclude each other, only exclusive ones
+    RowLockManager.Lock otherShared = lockInOtherThread(manager, ROW, false, false);
+    assertNotNull(otherShared);
+    assertNull(lockInOtherThread(manager, ROW, true, false));
+    shared.release();
+    assertNull(lockInOtherThread(manager, ROW, true, true));
+    assertEquals(1, manager.getWaitCount());
+    assertEquals(1, manager.getTimeoutCount());
+    otherShared.release();
+    assertEquals(0, manager.getLockedRowCount());
+
+    RowLockManager.Lock exclusive = lockInOtherThread(manager, ROW, true, false);
+    assertNotNull(exclusive);
+    assertNull(manager.getRowLock(ROW, false, false));
+    exclusive.release();
+    // Releasing twice does nothing
+    exclusive.release();
+    assertEquals(0, manager.getLockedRowCount());
+  }
+
+  @Test
+  public void testWaitAndTimeoutMetrics() throws Exception {
+    OperationMetrics metrics = mock(OperationMetrics.class);
+    final RowLockManager manager = new RowLockManager(1000, metrics);
+    RowLockManager.Lock lock = manager.getRowLock(ROW, true, false);
+    // Times out waiting for a lock we keep
+    assertNull(lockInOtherThread(manager, ROW, true, true));
+    verify(metrics, times(1)).updateRowLockTimeoutMetrics(anyLong());
+    verify(metrics, never()).updateRowLockWaitMetrics(anyLong());
+
+    // Gets it once we let go
+    final AtomicReference<RowLockManager.Lock> waited =
+      new AtomicReference<RowLockManager.Lock>();
+    Thread waiter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          waited.set(manager.getRowLock(ROW, true, true));
+        } catch (IOException e) {
+          // waited stays null
+        }
+      }
+    };
+    waiter.start();
+    while (manager.getWaitCount() < 2) Thread.sleep(1);
+    lock.release();
+    waiter.join();
+    assertNotNull(waited.get());
+    waited.get().release();
+    verify(metrics, times(1)).updateRowLockTimeoutMetrics(anyLong());
+    verify(metrics, times(1)).updateRowLockWaitMetrics(anyLong());
+  }
+
+  @Test
+  public void testReentrant() throws Exception {
+    RowLockManager manager = new RowLockManager(100, null);
+    RowLockManager.Lock exclusive = manager.getRowLock(ROW, true, false);
+    RowLockManager.Lock again = manager.getRowLock(ROW, true, false);
+    RowLockManager.Lock shared = manager.getRowLock(ROW, false, false);
+    assertNotNull(again);
+    assertNotNull(shared);
+    exclusive.release();
+    again.release();
+    assertNull(lockInOtherThread(manager, ROW, true, false));
+    shared.release();
+    RowLockManager.Lock other = lockInOtherThread(manager, ROW, true, false);
+    assertNotNull(other);
+    other.release();
+
+    // Locks held for clients are not reentrant
+    Integer lockId = manager.lockRow(ROW, false);
+    assertNotNull(lockId);
+    assertNull(manager.lockRow(ROW, false));
+    assertNull(manager.getRowLock(ROW, false, false));
+    assertTrue(Bytes.equals(ROW, manager.getLock(lockId).getRow()));
+    manager.releaseRowLock(lockId);
+    assertNull(manager.getLock(lockId));
+    assertEquals(0, manager.getLockedRowCount());
+  }
+
+  @Test
+  public void testWaitForRelease() throws Exception {
+    final RowLockManager manager = new RowLockManager(10000, null);
+    final Integer lockId = manager.lockRow(ROW, true);
+    Thread releaser = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          return;
+        }
+        manager.releaseRowLock(lockId);
+      }
+    };
+    releaser.start();
+    RowLockManager.Lock lock = manager.getRowLock(ROW, true, true);
+    assertNotNull(lock);
+    assertEquals(1, manager.getWaitCount());
+    assertEquals(0, manager.getTimeoutCount());
+    lock.release();
+    releaser.join();
+  }
+
+  @Test
+  public void testWaitingWriterHoldsBackReaders() throws Exception {
+    final RowLockManager manager = new RowLockManager(10000, null);
+    RowLockManager.Lock shared = manager.getRowLock(ROW, false, false);
+    final AtomicReference<RowLockManager.Lock> exclusive =
+      new AtomicReference<RowLockManager.Lock>();
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          exclusive.set(manager.getRowLock(ROW, true, true));
+        } catch (IOException e) {
+          // exclusive stays null
+        }
+      }
+    };
+    writer.start();
+    while (manager.getWaitCount() == 0) Thread.sleep(1);
+    // The row is only locked shared, but the writer came first
+    assertNull(lockInOtherThread(manager, ROW, false, false));
+    shared.release();
+    writer.join();
+    assertNotNull(exclusive.get());
+    exclusive.get().release();
+    assertEquals(0, manager.getLockedRowCount());
+  }
+
+  @Test
+  public void testWriterProgressesUnderSharedLoad() throws Exception {
+    final RowLockManager manager = new RowLockManager(10000, null);
+    final AtomicBoolean stop = new AtomicBoolean(false);
+    final AtomicInteger reads = new AtomicInteger(0);
+    // Overlapping readers: without writer preference the row would never be
+    // free of shared holds
+    Thread [] readers = new Thread[4];
+    for (int i = 0; i < readers.length; i++) {
+      readers[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            while (!stop.get()) {
+              RowLockManager.Lock lock = manager.getRowLock(ROW, false, true);
+              if (lock == null) continue;
+              reads.incrementAndGet();
+              Thread.sleep(5);
+              lock.release();
+            }
+          } catch (Exception e) {
+            // ends the reader
+          }
+        }
+      };
+      readers[i].start();
+    }
+    try {
+      while (reads.get() < 20) Thread.sleep(1);
+      for (int i = 0; i < 10; i++) {
+        RowLockManager.Lock exclusive = manager.getRowLock(ROW, true, true);
+        assertNotNull(exclusive);
+        exclusive.release();
+      }
+      assertEquals(0, manager.getTimeoutCount());
+    } finally {
+      stop.set(true);
+      for (Thread reader : readers) {
+        reader.join();
+      }
+    }
+    assertEquals(0, manager.getLockedRowCount());
+  }
+
+  @Test
+  public void testManyRows() throws Exception {
+    RowLockManager manager = new RowLockManager(100, null);
+    byte [] a = Bytes.toBytes("a");
+    byte [] b = Bytes.toBytes("b");
+    List<RowLockManager.Lock> locks =
+      manager.getRowLocks(Arrays.asList(b, a, b), true);
+    assertEquals(2, locks.size());
+    assertTrue(Bytes.equals(a, locks.get(0).getRow()));
+    manager.releaseRowLocks(locks);
+
+    // All or nothing
+    RowLockManager.Lock held = lockInOtherThread(manager, b, true, false);
+    assertNull(manager.getRowLocks(Arrays.asList(a, b), true));
+    assertNotNull(lockInOtherThread(manager, a, true, false));
+    held.release();
+  }
+}
@@ -20,18 +20,24 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.MediumTests;
 import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.SplitLogCounters;
 import org.apache.hadoop.hbase.SplitLogTask;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.CancelableProgressable;
 import org.apache.hadoop.hbase.zookeeper.ZKSplitLog;
 import org.apache.hadoop.hbase.zookeeper.ZKUtil;
@@ -305,6 +311,34 @@ public class TestSplitLogWorker {
     assertEquals(2, num);
   }
 
+  @Test
+  public void testRecoveringRegionMarks() throws Exception {
+    LOG.info("testRecoveringRegionMarks");
+    ZKUtil.createAndFailSilent(zkw, zkw.recoveringRegionsZNode);
+    final ServerName DEAD1 = new ServerName("dead1,1,1");
+    final ServerName DEAD2 = new ServerName("dead2,1,1");
+    byte [] table = Bytes.toBytes("testRecoveringRegionMarks");
+    HRegionInfo a = new HRegionInfo(table, Bytes.toBytes("a"), Bytes.toBytes("b"));
+    HRegionInfo b = new HRegionInfo(table, Bytes.toBytes("b"), Bytes.toBytes("c"));
+    HRegionInfo c = new HRegionInfo(table, Bytes.toBytes("c"), Bytes.toBytes("d"));
+
+    ZKSplitLog.markRegionsRecovering(zkw, Arrays.asList(a, b), DEAD1);
+    ZKSplitLog.markRegionsRecovering(zkw, Collections.singletonList(c), DEAD2);
+    assertTrue(ZKSplitLog.isRegionRecovering(zkw, a.getEncodedName()));
+    assertTrue(ZKSplitLog.isRegionRecovering(zkw, c.getEncodedName()));
+
+    Set<String> removed = ZKSplitLog.removeRecoveringRegions(zkw, DEAD1);
+    assertEquals(2, removed.size());
+    assertTrue(removed.contains(a.getEncodedName()));
+    assertTrue(removed.contains(b.getEncodedName()));
+    assertFalse(ZKSplitLog.isRegionRecovering(zkw, a.getEncodedName()));
+    assertTrue(ZKSplitLog.isRegionRecovering(zkw, c.getEncodedName()));
+
+    removed = ZKSplitLog.removeRecoveringRegions(zkw, null);
+    assertEquals(Collections.singleton(c.getEncodedName()), removed);
+    assertFalse(ZKSplitLog.isRegionRecovering(zkw, c.getEncodedName()));
+  }
+
   @org.junit.Rule
   public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
     new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();
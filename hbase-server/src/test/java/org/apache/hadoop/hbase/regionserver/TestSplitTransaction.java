@@ -34,10 +34,13 @@ import java.util.List;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.*;
+import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.regionserver.metrics.RegionServerMetrics;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.PairOfSameType;
+import org.apache.hadoop.hbase.util.Threads;
 import org.apache.zookeeper.KeeperException;
 import org.junit.After;
 import org.junit.Before;
@@ -227,6 +230,50 @@ public class TestSplitTransaction {
     assertTrue(!this.parent.lock.writeLock().isHeldByCurrentThread());
   }
 
+  /**
+   * The reference files a split leaves in a daughter are rewritten on the
+   * reference compaction pool, leaving its other store files alone.
+   */
+  @Test public void testReferenceCompaction() throws IOException {
+    TEST_UTIL.loadRegion(this.parent, CF);
+    SplitTransaction st = prepareGOOD_SPLIT_ROW();
+    Server mockServer = Mockito.mock(Server.class);
+    when(mockServer.getConfiguration()).thenReturn(TEST_UTIL.getConfiguration());
+    PairOfSameType<HRegion> daughters = st.execute(mockServer, null);
+    HRegion daughter = HRegion.openHRegion(this.testdir,
+      daughters.getFirst().getRegionInfo(), daughters.getFirst().getTableDesc(),
+      daughters.getFirst().getLog(), TEST_UTIL.getConfiguration());
+    HRegionServer rs = Mockito.mock(HRegionServer.class);
+    when(rs.getConfiguration()).thenReturn(TEST_UTIL.getConfiguration());
+    RegionServerMetrics metrics = Mockito.mock(RegionServerMetrics.class);
+    when(rs.getMetrics()).thenReturn(metrics);
+    CompactSplitThread cst = new CompactSplitThread(rs);
+    rs.compactSplitThread = cst;
+    try {
+      Store store = daughter.getStore(CF);
+      assertTrue(store.hasReferences());
+      // A store file of the daughter's own, which must not be rewritten
+      Put p = new Put(STARTROW);
+      p.add(CF, CF, CF);
+      daughter.put(p);
+      daughter.flushcache();
+      assertEquals(2, store.getStorefilesCount());
+
+      cst.requestReferenceCompaction(daughter, store, "test");
+      for (int i = 0; i < 100 && store.hasReferences(); i++) {
+        Threads.sleep(100);
+      }
+      assertFalse(store.hasReferences());
+      assertFalse(daughter.hasReferences());
+      assertEquals(2, store.getStorefilesCount());
+    } finally {
+      cst.interruptIfNecessary();
+      cst.join();
+      HRegion.closeHRegion(daughter);
+    }
+    Mockito.verify(metrics).addReferenceLifetime(Mockito.anyLong());
+  }
+
   @Test public void testRollback() throws IOException {
     final int rowcount = TEST_UTIL.loadRegion(this.parent, CF);
     assertTrue(rowcount > 0);
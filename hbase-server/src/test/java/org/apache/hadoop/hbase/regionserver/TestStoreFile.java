@@ -555,6 +555,84 @@ public class TestStoreFile extends HBaseTestCase {
     }
   }
 
+  public void testRowPrefixBloomFilter() throws Exception {
+    float err = (float) 0.001;
+    FileSystem fs = FileSystem.getLocal(conf);
+    conf.setFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE, err);
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_ENABLED, true);
+
+    int prefixCount = 50;
+    int suffixCount = 10;
+    // Both key the rows "0002|0003" and "0002|" on "0002|"
+    StoreFile.BloomType[] bt = {StoreFile.BloomType.ROWPREFIX_FIXED_LENGTH,
+        StoreFile.BloomType.ROWPREFIX_DELIMITED};
+    byte[][] params = {Bytes.toBytes(5), Bytes.toBytes("|")};
+
+    for (int x : new int[]{0,1}) {
+      // write the file
+      Path f = new Path(ROOT_DIR, getName() + x);
+      StoreFile.Writer writer = new StoreFile.WriterBuilder(conf, cacheConf,
+          fs, StoreFile.DEFAULT_BLOCKSIZE_SMALL)
+              .withFilePath(f)
+              .withBloomType(bt[x])
+              .withBloomParam(params[x])
+              .withMaxKeyCount(prefixCount * suffixCount)
+              .withChecksumType(CKTYPE)
+              .withBytesPerChecksum(CKBYTES)
+              .build();
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < prefixCount * 2; i += 2) {
+        for (int j = 0; j < suffixCount; j++) {
+          KeyValue kv = new KeyValue(Bytes.toBytes(String.format(
+              "%04d|%04d", i, j)), "family".getBytes(), "col".getBytes(), now,
+              "value".getBytes());
+          writer.append(kv);
+        }
+      }
+      writer.close();
+
+      StoreFile.Reader reader = new StoreFile.Reader(fs, f, cacheConf,
+          DataBlockEncoding.NONE);
+      reader.loadFileInfo();
+      reader.loadBloomfilter();
+      StoreFileScanner scanner = reader.getStoreFileScanner(false, false);
+      assertEquals(bt[x], reader.getBloomFilterType());
+      assertEquals(prefixCount, reader.generalBloomFilter.getKeyCount());
+
+      int falsePos = 0;
+      int falseNeg = 0;
+      for (int i = 0; i < prefixCount * 2; i++) {
+        String prefix = String.format("%04d|", i);
+        // A get, a scan of the whole prefix and one within it
+        Scan[] scans = {
+          new Scan(Bytes.toBytes(prefix + "0003"), Bytes.toBytes(prefix + "0003")),
+          new Scan(Bytes.toBytes(prefix), Bytes.toBytes(String.format("%04d}", i))),
+          new Scan(Bytes.toBytes(prefix + "0003"), Bytes.toBytes(prefix + "0007"))
+        };
+        for (Scan scan : scans) {
+          boolean exists = scanner.shouldUseScanner(scan, null, Long.MIN_VALUE);
+          if (i % 2 == 0) {
+            if (!exists) falseNeg++;
+          } else {
+            if (exists) falsePos++;
+          }
+        }
+      }
+      assertEquals(0, falseNeg);
+      assertTrue("Too many false positives: " + falsePos, falsePos <= 6);
+
+      // Scans over many prefixes, or not starting at a whole one, cannot use it
+      assertTrue(scanner.shouldUseScanner(new Scan(Bytes.toBytes("0001|"),
+          Bytes.toBytes("0004|")), null, Long.MIN_VALUE));
+      assertTrue(scanner.shouldUseScanner(new Scan(Bytes.toBytes("0001"),
+          Bytes.toBytes("0001}")), null, Long.MIN_VALUE));
+      assertTrue(scanner.shouldUseScanner(new Scan(Bytes.toBytes("0001|")),
+          null, Long.MIN_VALUE));
+      reader.close(true); // evict because we are about to delete the file
+      fs.delete(f, true);
+    }
+  }
+
   public void testBloomEdgeCases() throws Exception {
     float err = (float)0.005;
     FileSystem fs = FileSystem.getLocal(conf);
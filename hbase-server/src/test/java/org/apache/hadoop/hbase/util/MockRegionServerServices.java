@@ -18,15 +18,19 @@
 package org.apache.hadoop.hbase.util;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.catalog.CatalogTracker;
+import org.apache.hadoop.hbase.executor.EventHandler.EventType;
 import org.apache.hadoop.hbase.fs.HFileSystem;
 import org.apache.hadoop.hbase.ipc.RpcServer;
 import org.apache.hadoop.hbase.regionserver.CompactionRequestor;
@@ -94,6 +98,31 @@ public class MockRegionServerServices implements RegionServerServices {
     return rit;
   }
 
+  @Override
+  public boolean reportRegionTransition(EventType type, HRegionInfo hri) {
+    return false;
+  }
+
+  @Override
+  public InetSocketAddress[] getFavoredNodesForRegion(String encodedRegionName) {
+    return null;
+  }
+
+  @Override
+  public ThreadPoolExecutor getStoreOpenAndCloseThreadPool() {
+    return null;
+  }
+
+  @Override
+  public ThreadPoolExecutor getStoreFileOpenAndCloseThreadPool() {
+    return null;
+  }
+
+  @Override
+  public ThreadPoolExecutor getParallelSeekThreadPool() {
+    return null;
+  }
+
   @Override
   public FlushRequester getFlushRequester() {
     return null;
@@ -27,9 +27,11 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.UUID;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -41,7 +43,9 @@ import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HDFSBlocksDistribution;
 import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.util.Progressable;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
@@ -244,6 +248,70 @@ public class TestFSUtils {
     }
   }
 
+  @Test
+  public void testCreateWithFavoredNodes() throws Exception {
+    HBaseTestingUtility htu = new HBaseTestingUtility();
+    final int DEFAULT_BLOCK_SIZE = 1024;
+    htu.getConfiguration().setLong("dfs.block.size", DEFAULT_BLOCK_SIZE);
+    htu.getConfiguration().setInt("dfs.replication", 1);
+    FsPermission perms = FsPermission.getDefault();
+
+    // Not HDFS: a plain create
+    FileSystem localFs = FileSystem.getLocal(htu.getConfiguration());
+    Path local = new Path(htu.getDataTestDir(), UUID.randomUUID().toString());
+    try {
+      FSDataOutputStream out = FSUtils.create(localFs, local, perms,
+        new InetSocketAddress[] { new InetSocketAddress("localhost", 50010) });
+      out.write(new byte[DEFAULT_BLOCK_SIZE]);
+      out.close();
+      assertEquals(DEFAULT_BLOCK_SIZE, localFs.getFileStatus(local).getLen());
+    } finally {
+      localFs.delete(local, false);
+    }
+
+    try {
+      String hosts[] = new String[] { "host1", "host2", "host3" };
+      MiniDFSCluster cluster = htu.startMiniDFSCluster(hosts);
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+
+      // Find out the address of a datanode from a file it has a block of
+      Path probe = new Path("/probe");
+      WriteDataToHDFS(fs, probe, DEFAULT_BLOCK_SIZE);
+      FileStatus status = fs.getFileStatus(probe);
+      String favored = fs.getFileBlockLocations(status, 0, status.getLen())[0].getNames()[0];
+      int colon = favored.lastIndexOf(':');
+      InetSocketAddress favoredNode = new InetSocketAddress(favored.substring(0, colon),
+        Integer.parseInt(favored.substring(colon + 1)));
+
+      Path testFile = new Path("/testCreateWithFavoredNodes");
+      FSDataOutputStream out = FSUtils.create(fs, testFile, perms,
+        new InetSocketAddress[] { favoredNode });
+      byte [] data = new byte[3 * DEFAULT_BLOCK_SIZE];
+      out.write(data);
+      out.close();
+      status = fs.getFileStatus(testFile);
+      assertEquals(data.length, status.getLen());
+
+      boolean dfsTakesFavoredNodes = true;
+      try {
+        DistributedFileSystem.class.getMethod("create", Path.class, FsPermission.class,
+          boolean.class, int.class, short.class, long.class, Progressable.class,
+          InetSocketAddress[].class);
+      } catch (NoSuchMethodException e) {
+        dfsTakesFavoredNodes = false;
+      }
+      if (dfsTakesFavoredNodes) {
+        // Single replica: all blocks are on the favored node
+        for (BlockLocation location : fs.getFileBlockLocations(status, 0, status.getLen())) {
+          assertEquals(favored, location.getNames()[0]);
+        }
+      }
+    } finally {
+      htu.shutdownMiniDFSCluster();
+    }
+  }
+
   @org.junit.Rule
   public org.apache.hadoop.hbase.ResourceCheckerJUnitRule cu =
     new org.apache.hadoop.hbase.ResourceCheckerJUnitRule();